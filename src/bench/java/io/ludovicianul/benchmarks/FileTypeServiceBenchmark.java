@@ -0,0 +1,59 @@
+package io.ludovicianul.benchmarks;
+
+import io.ludovicianul.service.FileTypeService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Classification of file paths, in the proportions they change in a project. Scores are per path.
+ * The cold benchmark starts every round with an empty cache, like a new index run; the warm one
+ * keeps the cache, like the rest of the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileTypeServiceBenchmark {
+  private static final int PATHS = 10_000;
+
+  private List<String> paths;
+  private FileTypeService warmService;
+
+  @Setup
+  public void setUp() {
+    paths = GitLogFixture.changedPaths(PATHS, GitLogFixture.SEED);
+    warmService = new FileTypeService();
+    paths.forEach(warmService::classify);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PATHS)
+  public void classifyCold(Blackhole blackhole) {
+    FileTypeService service = new FileTypeService();
+    for (String path : paths) {
+      blackhole.consume(service.classify(path));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PATHS)
+  public void classifyWarm(Blackhole blackhole) {
+    for (String path : paths) {
+      blackhole.consume(warmService.classify(path));
+    }
+  }
+}
@@ -0,0 +1,250 @@
+package io.ludovicianul.benchmarks;
+
+import io.ludovicianul.model.CommitRecord;
+import io.ludovicianul.service.FileTypeService;
+import io.ludovicianul.service.GitLogParser;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * {@code git log} output for the benchmarks, in the format of {@link
+ * GitLogParser#GIT_LOG_ARGUMENTS}.
+ *
+ * <p>Either read from a file recorded with {@code git log --all <GIT_LOG_ARGUMENTS> > file}, or
+ * generated from a fixed seed so every run parses the same log. Generated logs look like the
+ * history of a mixed Java, TypeScript and Python project: a few files change in most commits and
+ * most files change rarely, some commits are merges, and there are renames, deletions and binary
+ * files.
+ */
+final class GitLogFixture {
+  static final long SEED = 42;
+
+  /** Characters handed to the parser at once, as many as indexing reads from git. */
+  private static final int CHUNK_SIZE = 16 * 1024;
+
+  private static final String[] AUTHORS = {
+    "Alice Martin", "Bogdan Ionescu", "Chen Wei", "Dana Cohen", "Emeka Obi", "Fatima Zahra",
+    "Gustav Berg", "Hana Sato", "Ivan Petrov", "Julia Souza", "Kofi Mensah", "Laura Rossi"
+  };
+  /** Format of {@code %cI}, which always has seconds and writes UTC as {@code +00:00}. */
+  private static final DateTimeFormatter COMMIT_DATE =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssxxx");
+
+  private static final String[] OFFSETS = {"+00:00", "+01:00", "+02:00", "-05:00", "+05:30"};
+  private static final String[] PACKAGES = {
+    "api", "core", "db", "service", "model", "util", "config", "security", "web", "cli"
+  };
+  private static final String[] NAMES = {
+    "User", "Order", "Invoice", "Payment", "Report", "Session", "Token", "Cache", "Query", "Index",
+    "Parser", "Writer", "Reader", "Client", "Handler", "Mapper", "Validator", "Scheduler"
+  };
+  private static final String[] SUFFIXES = {"", "Service", "Repository", "Controller", "Factory"};
+  private static final String[] FIXED_PATHS = {
+    "pom.xml", "core/pom.xml", "web/package.json", "web/yarn.lock", "Dockerfile",
+    "docker-compose.yml", ".github/workflows/ci.yml", ".gitignore", ".editorconfig", "README.md",
+    "CHANGELOG.md", "docs/architecture.md", "docs/getting-started.md", "Makefile",
+    "scripts/requirements.txt", "src/main/resources/application.properties"
+  };
+  private static final String[] SUBJECTS = {
+    "Fix %s handling of empty input", "Add %s to the public API", "Refactor %s",
+    "Speed up %s lookups", "Update dependencies", "Merge branch 'feature/%s'", "Improve %s logging"
+  };
+
+  private GitLogFixture() {}
+
+  /**
+   * Returns the log read from the given file, or a generated one when no file is given.
+   *
+   * @param file the recorded log, or an empty string
+   * @param commits the number of commits to generate
+   * @return the log
+   */
+  static String gitLog(String file, int commits) {
+    if (file.isEmpty()) {
+      return generate(commits, SEED);
+    }
+    try {
+      return Files.readString(Path.of(file), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns paths in the proportions they appear in the file changes of a generated log.
+   *
+   * @param count the number of paths to return
+   * @param seed the seed of the random choices
+   * @return the paths, with repetitions
+   */
+  static List<String> changedPaths(int count, long seed) {
+    Random random = new Random(seed);
+    List<String> files = files(random);
+    List<String> paths = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      paths.add(pick(files, random));
+    }
+    return paths;
+  }
+
+  /**
+   * Generates a log, the newest commit first like {@code git log}.
+   *
+   * @param commits the number of commits
+   * @param seed the seed of the random choices
+   * @return the log
+   */
+  static String generate(int commits, long seed) {
+    Random random = new Random(seed);
+    List<String> files = files(random);
+    StringBuilder log = new StringBuilder(commits * 600);
+    OffsetDateTime date = OffsetDateTime.of(2024, 6, 30, 18, 0, 0, 0, ZoneOffset.UTC);
+    String hash = hash(random);
+    for (int i = 0; i < commits; i++) {
+      String parent = hash(random);
+      boolean merge = random.nextInt(12) == 0;
+      String author = AUTHORS[(int) (AUTHORS.length * Math.pow(random.nextDouble(), 1.5))];
+      String offset = OFFSETS[random.nextInt(OFFSETS.length)];
+      String subject =
+          merge
+              ? SUBJECTS[5].formatted(NAMES[random.nextInt(NAMES.length)].toLowerCase())
+              : SUBJECTS[random.nextInt(SUBJECTS.length)]
+                  .formatted(NAMES[random.nextInt(NAMES.length)]);
+      String body = random.nextInt(3) == 0 ? "Closes #" + random.nextInt(5000) + "\n" : "";
+      String commitDate = COMMIT_DATE.format(date.withOffsetSameInstant(ZoneOffset.of(offset)));
+
+      log.append("commit:").append(hash).append('\n')
+          .append("author:").append(author).append('\n')
+          .append("date:").append(commitDate).append(" \n")
+          .append("parents:").append(parent);
+      if (merge) {
+        log.append(' ').append(hash(random));
+      }
+      log.append('\n').append("message:\n").append(subject).append('\n').append(body)
+          .append("\nnumstat:\0");
+      if (!merge) {
+        appendChanges(log, files, random);
+      }
+
+      hash = parent;
+      date = date.minusMinutes(20 + random.nextInt(600));
+    }
+    return log.toString();
+  }
+
+  /** Appends the {@code --raw} entries of a commit, then its {@code --numstat} entries. */
+  private static void appendChanges(StringBuilder log, List<String> files, Random random) {
+    int changes = 1 + (int) (8 * Math.pow(random.nextDouble(), 3));
+    List<String[]> entries = new ArrayList<>(changes);
+    Set<String> paths = new HashSet<>();
+    for (int i = 0; i < changes; i++) {
+      String path = pick(files, random);
+      if (!paths.add(path)) {
+        continue;
+      }
+      int kind = random.nextInt(100);
+      String status = kind < 82 ? "M" : kind < 92 ? "A" : kind < 96 ? "D" : "R100";
+      String newPath = status.equals("R100") ? path.replace(".", "Renamed.") : null;
+      entries.add(new String[] {status, path, newPath});
+    }
+
+    log.append('\n');
+    for (String[] entry : entries) {
+      log.append(":100644 100644 ").append(shortHash(random)).append(' ').append(shortHash(random))
+          .append(' ').append(entry[0]).append('\0').append(entry[1]).append('\0');
+      if (entry[2] != null) {
+        log.append(entry[2]).append('\0');
+      }
+    }
+    for (String[] entry : entries) {
+      if (entry[1].endsWith(".png")) {
+        log.append("-\t-\t");
+      } else {
+        int lines = 1 + (int) (400 * Math.pow(random.nextDouble(), 4));
+        int additions = entry[0].equals("D") ? 0 : random.nextInt(lines + 1);
+        int deletions = entry[0].equals("A") ? 0 : lines - additions;
+        log.append(additions).append('\t').append(deletions).append('\t');
+      }
+      if (entry[2] != null) {
+        log.append('\0').append(entry[1]).append('\0').append(entry[2]).append('\0');
+      } else {
+        log.append(entry[1]).append('\0');
+      }
+    }
+  }
+
+  /** The files of the project, the most often changed first. */
+  /**
+   * Parses a log into commit records the way indexing does, handing it to the parser in chunks.
+   *
+   * @param repoName the name of the repository the log belongs to
+   * @param gitLog the log
+   * @param fileTypeService the service used to classify changed files
+   * @return the commits, newest first
+   */
+  static List<CommitRecord> parse(
+      String repoName, char[] gitLog, FileTypeService fileTypeService) {
+    List<CommitRecord> commits = new ArrayList<>();
+    GitLogParser parser = new GitLogParser(repoName, fileTypeService, commits::add);
+    for (int offset = 0; offset < gitLog.length; offset += CHUNK_SIZE) {
+      parser.accept(gitLog, offset, Math.min(CHUNK_SIZE, gitLog.length - offset));
+    }
+    parser.finish();
+    return commits;
+  }
+
+  private static List<String> files(Random random) {
+    List<String> files = new ArrayList<>(List.of(FIXED_PATHS));
+    for (String module : new String[] {"core", "api", "cli"}) {
+      for (String pkg : PACKAGES) {
+        for (String name : NAMES) {
+          if (random.nextInt(3) == 0) {
+            continue;
+          }
+          String type = name + SUFFIXES[random.nextInt(SUFFIXES.length)];
+          String dir = "%s/src/%%s/java/io/acme/%s/%s".formatted(module, module, pkg);
+          files.add(dir.formatted("main") + "/" + type + ".java");
+          if (random.nextBoolean()) {
+            files.add(dir.formatted("test") + "/" + type + "Test.java");
+          }
+        }
+      }
+    }
+    for (String name : NAMES) {
+      String component = "web/src/components/" + name;
+      files.add(component + ".tsx");
+      files.add(component + ".test.tsx");
+      files.add("web/src/styles/" + name.toLowerCase() + ".css");
+      files.add("scripts/" + name.toLowerCase() + "_job.py");
+      files.add("scripts/tests/" + name.toLowerCase() + "_job_test.py");
+      files.add("docs/images/" + name.toLowerCase() + ".png");
+    }
+    Collections.shuffle(files.subList(FIXED_PATHS.length, files.size()), random);
+    return files;
+  }
+
+  /** Picks a file, the first ones much more often than the last ones. */
+  private static String pick(List<String> files, Random random) {
+    return files.get((int) (files.size() * Math.pow(random.nextDouble(), 3)));
+  }
+
+  private static String hash(Random random) {
+    return "%016x%016x%08x".formatted(random.nextLong(), random.nextLong(), random.nextInt());
+  }
+
+  private static String shortHash(Random random) {
+    return "%08x".formatted(random.nextInt());
+  }
+}
@@ -0,0 +1,104 @@
+package io.ludovicianul.benchmarks;
+
+import io.ludovicianul.db.SolDb;
+import io.ludovicianul.db.SolDbSession;
+import io.ludovicianul.model.CommitRecord;
+import io.ludovicianul.model.FileChange;
+import io.ludovicianul.service.FileTypeService;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inserts of batches of commits, with their file changes and parents, into a new index. Every
+ * batch goes to a repository of its own, so no commit is already there.
+ *
+ * <p>The index is created in {@code .sol} of the working directory, which the {@code benchmarks}
+ * profile sets to {@code target/benchmarks}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertCommitsBenchmark {
+
+  @Param("1000")
+  int batchSize;
+
+  private List<CommitRecord> commits;
+  private List<CommitRecord> batch;
+  private SolDbSession session;
+  private int batches;
+
+  @Setup
+  public void setUp() {
+    commits =
+        GitLogFixture.parse(
+            "bench",
+            GitLogFixture.generate(batchSize, GitLogFixture.SEED).toCharArray(),
+            new FileTypeService());
+  }
+
+  @Setup(Level.Iteration)
+  public void createIndex() throws SQLException {
+    SolDb.initializeDatabase();
+    session = SolDbSession.openForWriting();
+  }
+
+  @Setup(Level.Invocation)
+  public void nextBatch() {
+    String repoName = "bench-" + batches++;
+    batch = commits.stream().map(commit -> inRepository(commit, repoName)).toList();
+  }
+
+  @TearDown(Level.Iteration)
+  public void closeIndex() throws SQLException {
+    session.close();
+  }
+
+  @Benchmark
+  public void insertCommits() {
+    session.insertCommits(batch, false);
+  }
+
+  private static CommitRecord inRepository(CommitRecord commit, String repoName) {
+    List<FileChange> fileChanges =
+        commit.fileChanges().stream()
+            .map(
+                change ->
+                    new FileChange(
+                        repoName,
+                        change.changeType(),
+                        change.filePath(),
+                        change.additions(),
+                        change.deletions(),
+                        change.isTestFile(),
+                        change.isBuildFile(),
+                        change.isDotFile(),
+                        change.isDocumentationFile()))
+            .toList();
+    return new CommitRecord(
+        repoName,
+        commit.commitHash(),
+        commit.author(),
+        commit.date(),
+        commit.message(),
+        fileChanges,
+        commit.parents());
+  }
+}
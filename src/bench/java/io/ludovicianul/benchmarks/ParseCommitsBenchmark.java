@@ -0,0 +1,51 @@
+package io.ludovicianul.benchmarks;
+
+import io.ludovicianul.model.CommitRecord;
+import io.ludovicianul.service.FileTypeService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of a whole {@code git log} into commit records, file types included, fed in chunks as
+ * read from git. Use {@code -p
+ * gitLogFile=<file>} to parse a log recorded from a real repository instead of the generated one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseCommitsBenchmark {
+
+  @Param("5000")
+  int commits;
+
+  @Param("")
+  String gitLogFile;
+
+  private FileTypeService fileTypeService;
+  private char[] gitLog;
+
+  @Setup
+  public void setUp() {
+    gitLog = GitLogFixture.gitLog(gitLogFile, commits).toCharArray();
+    fileTypeService = new FileTypeService();
+  }
+
+  @Benchmark
+  public List<CommitRecord> parseCommits() {
+    return GitLogFixture.parse("bench", gitLog, fileTypeService);
+  }
+}
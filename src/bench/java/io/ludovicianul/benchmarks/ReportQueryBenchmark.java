@@ -0,0 +1,113 @@
+package io.ludovicianul.benchmarks;
+
+import io.ludovicianul.command.QueryCommand;
+import io.ludovicianul.db.QueryLog;
+import io.ludovicianul.db.RowCursor;
+import io.ludovicianul.db.SolDb;
+import io.ludovicianul.db.SolDbSession;
+import io.ludovicianul.model.CommitRecord;
+import io.ludovicianul.model.Tag;
+import io.ludovicianul.service.FileTypeService;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The predefined reports of {@code sol query}, over the whole history of an index of several
+ * repositories, reading every row like the command does. Queries are not recorded in the query
+ * log, so only running them is measured.
+ *
+ * <p>The index is created in {@code .sol} of the working directory, which the {@code benchmarks}
+ * profile sets to {@code target/benchmarks}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportQueryBenchmark {
+  private static final int REPOSITORIES = 4;
+  private static final int COMMITS_PER_TAG = 50;
+  private static final String FROM = "0000-01-01T00:00:00Z";
+  private static final String TO = "9999-12-31T23:59:59Z";
+
+  @Param
+  QueryCommand.ReportType reportType;
+
+  @Param("10000")
+  int commitsPerRepository;
+
+  private SolDbSession session;
+  private String query;
+
+  @Setup
+  public void setUp() throws SQLException {
+    QueryLog.setEnabled(false);
+    SolDb.initializeDatabase();
+    FileTypeService fileTypeService = new FileTypeService();
+    try (SolDbSession writer = SolDbSession.openForWriting()) {
+      for (int repo = 0; repo < REPOSITORIES; repo++) {
+        String repoName = "repo-" + repo;
+        List<CommitRecord> commits =
+            GitLogFixture.parse(
+                repoName,
+                GitLogFixture.generate(commitsPerRepository, GitLogFixture.SEED + repo)
+                    .toCharArray(),
+                fileTypeService);
+        writer.insertCommits(commits, false);
+        writer.insertTags(tags(commits));
+        writer.refreshRollup(repoName);
+      }
+    }
+    SolDb.createIndexes();
+    session = SolDbSession.open();
+    query = QueryCommand.getQuery(reportType);
+  }
+
+  @TearDown
+  public void tearDown() throws SQLException {
+    session.close();
+  }
+
+  @Benchmark
+  public void runReport(Blackhole blackhole) throws SQLException {
+    try (RowCursor cursor = session.query(query, FROM, TO)) {
+      int columns = cursor.columns().size();
+      while (cursor.next()) {
+        for (int column = 0; column < columns; column++) {
+          blackhole.consume(cursor.get(column));
+        }
+      }
+    }
+  }
+
+  private static List<Tag> tags(List<CommitRecord> commits) {
+    List<Tag> tags = new ArrayList<>();
+    for (int i = 0; i < commits.size(); i += COMMITS_PER_TAG) {
+      CommitRecord commit = commits.get(i);
+      tags.add(
+          new Tag(
+              commit.repoName(),
+              "v1." + (i / COMMITS_PER_TAG),
+              commit.commitHash(),
+              commit.date(),
+              "Release"));
+    }
+    return tags;
+  }
+}
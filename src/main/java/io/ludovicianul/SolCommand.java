@@ -1,13 +1,29 @@
 package io.ludovicianul;
 
+import io.ludovicianul.command.AdviseCommand;
 import io.ludovicianul.command.CaseInsensitiveAiSystemConverter;
+import io.ludovicianul.command.CaseInsensitiveAnalysisModeConverter;
+import io.ludovicianul.command.CaseInsensitiveStatsFormatConverter;
+import io.ludovicianul.command.ExportCommand;
 import io.ludovicianul.command.IndexSubcommand;
 import io.ludovicianul.command.QueryCommand;
+import io.ludovicianul.io.ResultWriter;
 import io.ludovicianul.log.Logger;
 import io.ludovicianul.model.QueryResult;
+import io.ludovicianul.model.ReportIntent;
+import io.ludovicianul.service.IntentMatcher;
 import io.ludovicianul.service.SqlQueryService;
 import io.quarkus.picocli.runtime.annotations.TopCommand;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Objects;
+import java.util.Optional;
 import picocli.AutoComplete;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -19,7 +35,12 @@ import picocli.CommandLine.Command;
         "%n@|bold,fg(208) sol - Statistics Over git Logs.|@%nGet meaningful insights around code and people behaviour from git activity.%n",
     mixinStandardHelpOptions = true,
     version = "@|bold,fg(208) sol 1.0.4 - Statistics Over git Logs|@",
-    subcommands = {AutoComplete.GenerateCompletion.class, QueryCommand.class})
+    subcommands = {
+      AutoComplete.GenerateCompletion.class,
+      QueryCommand.class,
+      AdviseCommand.class,
+      ExportCommand.class
+    })
 @TopCommand
 public class SolCommand implements Runnable {
 
@@ -52,14 +73,46 @@ public class SolCommand implements Runnable {
 
   @CommandLine.Option(
       names = {"-X", "--maxTokensToAnalyze"},
-      description = "Max tokens to use when interpreting the results. Default: 10000")
+      description =
+          "Max tokens of query results, queries and question sent to the AI to interpret the results. Rows beyond it are left out, and the AI is told how many. Default: 10000")
   int maxTokens = 10000;
 
+  @CommandLine.Option(
+      names = {"--analysis"},
+      converter = CaseInsensitiveAnalysisModeConverter.class,
+      description =
+          "How results larger than --maxTokensToAnalyze are analyzed. SUMMARY sends a summary of all rows and the rows which fit. MAP_REDUCE splits the rows into parts analyzed separately, then combines their analyses. Default: SUMMARY")
+  AnalysisMode analysisMode = AnalysisMode.SUMMARY;
+
+  @CommandLine.Option(
+      names = {"--analysis-concurrency"},
+      description = "Max calls to the AI service analyzing parts of a result at once. Default: 4")
+  int analysisConcurrency = 4;
+
   @CommandLine.Option(
       names = {"-i", "--index"},
       description = "Index current git repo")
   boolean index;
 
+  @CommandLine.Option(
+      names = {"--incremental"},
+      description =
+          "Only index commits added since the last index. Repositories with rewritten history are re-indexed")
+  boolean incremental;
+
+  @CommandLine.Option(
+      names = {"-P", "--parallelism"},
+      description =
+          "Number of repositories indexed in parallel when indexing a folder of repositories. Default: 1")
+  int parallelism = 1;
+
+  @CommandLine.Option(
+      names = {"--stats"},
+      converter = CaseInsensitiveStatsFormatConverter.class,
+      description =
+          "Print the time spent in each indexing phase, the rows written and the peak heap once indexing is done. Values: TEXT, JSON")
+  StatsFormat stats;
+
   @CommandLine.Option(
       names = {"-u", "--baseUrl"},
       description = "Base url when using Ollama. Default: http://localhost:11434")
@@ -71,6 +124,31 @@ public class SolCommand implements Runnable {
           "The output type. Default: AI. RAW will print the raw details without interpretation. AI will use the AI service to interpret the results.")
   ResultType outputType = ResultType.AI;
 
+  @CommandLine.Option(
+      names = {"--prune-prompt"},
+      negatable = true,
+      description =
+          "Send only the parts of the SQL generation instructions relevant to the question. Default: enabled for Ollama, disabled for OpenAI and Anthropic, which cache the whole instructions")
+  Boolean prunePrompt;
+
+  @CommandLine.Option(
+      names = {"--no-stream"},
+      description =
+          "Print the answer of the AI service once it is complete, instead of as it is written")
+  boolean noStream;
+
+  @CommandLine.Option(
+      names = {"--no-fast-path"},
+      description =
+          "Always ask the AI service, also for questions answered by a predefined report, like 'code churn per author since March'")
+  boolean noFastPath;
+
+  @CommandLine.Option(
+      names = {"--no-cache"},
+      description =
+          "Do not reuse the SQL and answers of questions asked before. By default they are reused until the next index")
+  boolean noCache;
+
   @CommandLine.Spec CommandLine.Model.CommandSpec spec;
 
   SqlQueryService sqlQueryService;
@@ -83,17 +161,31 @@ public class SolCommand implements Runnable {
     }
 
     Logger.setDebug(debug);
+    // the JSON summary is then the only output, so it can be parsed
+    Logger.setMessagesToStandardError(index && stats == StatsFormat.JSON);
     Logger.printNewLine();
 
     if (index) {
-      new IndexSubcommand(timeout).run();
+      new IndexSubcommand(timeout, incremental, parallelism, stats).run();
       return;
     }
 
-    validateEnvironmentVariables();
     checkDbIsAvailable();
+    if (!noFastPath && answerFromReport()) {
+      return;
+    }
+    validateEnvironmentVariables();
 
-    sqlQueryService = new SqlQueryService(aiService, aiModel, baseUrl, maxTokens);
+    sqlQueryService =
+        new SqlQueryService(
+            aiService,
+            aiModel,
+            baseUrl,
+            maxTokens,
+            !noCache,
+            analysisMode,
+            analysisConcurrency,
+            Optional.ofNullable(prunePrompt).orElse(aiService == AiSystem.OLLAMA));
     QueryResult queryResult = sqlQueryService.askQuestion("The user question is: " + question);
 
     displayResult(queryResult);
@@ -105,7 +197,67 @@ public class SolCommand implements Runnable {
       return;
     }
 
-    Logger.print(sqlQueryService.analyzeWithAi(queryResult));
+    if (noStream) {
+      Logger.print(sqlQueryService.analyzeWithAi(queryResult));
+      return;
+    }
+    sqlQueryService.streamAnalysis(queryResult, Logger::printPart);
+    Logger.endPart();
+  }
+
+  /**
+   * Answers the question with a predefined report when it asks for nothing more, which needs
+   * neither the AI service nor its API key.
+   *
+   * @return whether the question was answered
+   */
+  private boolean answerFromReport() {
+    long t0 = System.nanoTime();
+    Optional<ReportIntent> intent =
+        new IntentMatcher(LocalDate.now(ZoneOffset.UTC)).match(question);
+    Logger.debug(
+        "Matched the question against the reports in %.2f ms"
+            .formatted((System.nanoTime() - t0) / 1_000_000.0));
+    if (intent.isEmpty()) {
+      return false;
+    }
+
+    ReportIntent report = intent.get();
+    if (!QueryCommand.isIndexedFor(report.report(), QueryCommand.Engine.SQLITE)) {
+      throw new CommandLine.ParameterException(
+          spec.commandLine(),
+          "The index was written by an older version of sol. Please run 'sol --index'");
+    }
+    String from = Objects.toString(report.from(), null);
+    String to = Objects.toString(report.to(), null);
+    Logger.print(
+        "Answered with the %s report%s, without AI. Use --no-fast-path to ask the AI service instead."
+            .formatted(report.report(), describeRange(from, to)));
+    try {
+      QueryCommand.writeReport(
+          report.report(),
+          from,
+          to,
+          QueryCommand.Engine.SQLITE,
+          ResultWriter.Format.TABLE,
+          new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+    } catch (SQLException | IOException e) {
+      Logger.err("Error running query: " + e.getMessage());
+    }
+    return true;
+  }
+
+  private static String describeRange(String from, String to) {
+    if (from == null && to == null) {
+      return "";
+    }
+    if (to == null) {
+      return " since " + from;
+    }
+    if (from == null) {
+      return " until " + to;
+    }
+    return " from %s to %s".formatted(from, to);
   }
 
   private void checkDbIsAvailable() {
@@ -141,4 +293,14 @@ public class SolCommand implements Runnable {
     RAW,
     AI
   }
+
+  public enum StatsFormat {
+    TEXT,
+    JSON
+  }
+
+  public enum AnalysisMode {
+    SUMMARY,
+    MAP_REDUCE
+  }
 }
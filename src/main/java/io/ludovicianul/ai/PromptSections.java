@@ -0,0 +1,251 @@
+package io.ludovicianul.ai;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A prompt split into tagged sections, of which only the ones relevant to a question are sent. A
+ * section starts with a {@code [[section name]]} line and lasts until the next one. Sections
+ * tagged {@code always} are always sent, the others are ranked with BM25 on their text and on the
+ * keywords given after a colon in their tag, {@code [[section name: keyword keyword]]}.
+ *
+ * <p>Sections are kept when they score at least a fraction of the best section, and are sent in
+ * their order in the prompt. Sections tagged {@code table} describe the table they are named
+ * after, and are also sent when a kept section mentions the table, so examples and metrics never
+ * refer to tables missing from the schema. A question matching no section gets the whole prompt.
+ */
+public final class PromptSections {
+  private static final Pattern TAG =
+      Pattern.compile("^\\s*\\[\\[section ([\\w-]+)( always| table)?(?::([^]]*))?]]\\s*$");
+  private static final Pattern WORD = Pattern.compile("[a-z0-9_]+");
+  private static final Set<String> STOP_WORDS =
+      Set.of(
+          "a", "an", "and", "are", "as", "at", "be", "by", "can", "do", "doe", "for", "from",
+          "give", "ha", "have", "how", "i", "in", "is", "it", "list", "many", "me", "most", "much",
+          "of", "on", "or", "our", "per", "project", "question", "show", "that", "the", "their",
+          "there", "thi", "to", "user", "wa", "we", "were", "what", "when", "which", "with");
+
+  /** BM25 term frequency saturation and length normalization. */
+  private static final double K1 = 1.2;
+
+  private static final double B = 0.75;
+
+  /** Sections scoring less than this fraction of the best section are left out. */
+  private static final double RELATIVE_THRESHOLD = 0.25;
+
+  /**
+   * A section of the prompt.
+   *
+   * @param name the name given in its tag
+   * @param always whether it is sent for every question
+   * @param table whether it describes the table it is named after
+   * @param text the text, without its tag
+   * @param terms the number of occurrences of each term of the text and keywords
+   * @param length the number of terms
+   */
+  private record Section(
+      String name,
+      boolean always,
+      boolean table,
+      String text,
+      Map<String, Integer> terms,
+      int length) {
+
+    /** Whether the text refers to the table described by the given section. */
+    boolean mentions(Section table) {
+      return Pattern.compile("\\b" + Pattern.quote(table.name()) + "\\b").matcher(text).find();
+    }
+  }
+
+  private final List<Section> sections;
+  private final Map<String, Double> idf = new HashMap<>();
+  private final double averageLength;
+
+  private PromptSections(List<Section> sections) {
+    this.sections = sections;
+    List<Section> ranked = sections.stream().filter(section -> !section.always()).toList();
+    Map<String, Integer> documentFrequency = new HashMap<>();
+    for (Section section : ranked) {
+      section.terms().keySet().forEach(term -> documentFrequency.merge(term, 1, Integer::sum));
+    }
+    documentFrequency.forEach(
+        (term, frequency) ->
+            idf.put(
+                term, Math.log(1 + (ranked.size() - frequency + 0.5) / (frequency + 0.5))));
+    this.averageLength = ranked.stream().mapToInt(Section::length).average().orElse(1);
+  }
+
+  /**
+   * Splits a tagged prompt into its sections. Text before the first tag is a section sent for
+   * every question.
+   *
+   * @param prompt the prompt, with its section tags
+   * @return the sections of the prompt
+   */
+  public static PromptSections parse(String prompt) {
+    List<Section> sections = new ArrayList<>();
+    String name = "";
+    boolean always = true;
+    boolean table = false;
+    String keywords = "";
+    StringBuilder text = new StringBuilder();
+    for (String line : prompt.split("\n", -1)) {
+      Matcher tag = TAG.matcher(line);
+      if (!tag.matches()) {
+        text.append(line).append('\n');
+        continue;
+      }
+      addSection(sections, name, always, table, text.toString(), keywords);
+      name = tag.group(1);
+      always = " always".equals(tag.group(2));
+      table = " table".equals(tag.group(2));
+      keywords = tag.group(3) == null ? "" : tag.group(3);
+      text.setLength(0);
+    }
+    addSection(sections, name, always, table, text.toString(), keywords);
+    return new PromptSections(sections);
+  }
+
+  private static void addSection(
+      List<Section> sections,
+      String name,
+      boolean always,
+      boolean table,
+      String text,
+      String keywords) {
+    if (text.isBlank()) {
+      return;
+    }
+    Map<String, Integer> terms = new HashMap<>();
+    List<String> words = terms(text + " " + keywords);
+    words.forEach(term -> terms.merge(term, 1, Integer::sum));
+    sections.add(new Section(name, always, table, text, terms, words.size()));
+  }
+
+  /** Returns the whole prompt, without its section tags. */
+  public String full() {
+    return join(sections);
+  }
+
+  /**
+   * Returns the sections relevant to the question, in their order in the prompt.
+   *
+   * @param question the question of the user
+   * @return the pruned prompt
+   */
+  public String select(String question) {
+    return join(relevant(question));
+  }
+
+  /**
+   * Returns the names of the sections relevant to the question, in their order in the prompt.
+   *
+   * @param question the question of the user
+   * @return the names of the sections sent for the question
+   */
+  public List<String> selectedNames(String question) {
+    return relevant(question).stream().map(Section::name).toList();
+  }
+
+  private List<Section> relevant(String question) {
+    List<String> queryTerms = new ArrayList<>(new LinkedHashSet<>(terms(question)));
+    Map<Section, Double> scores = new HashMap<>();
+    double best = 0;
+    for (Section section : sections) {
+      if (!section.always()) {
+        double score = score(section, queryTerms);
+        scores.put(section, score);
+        best = Math.max(best, score);
+      }
+    }
+    if (best == 0) {
+      return sections;
+    }
+
+    Set<Section> kept = new LinkedHashSet<>();
+    for (Section section : sections) {
+      if (section.always() || scores.get(section) >= best * RELATIVE_THRESHOLD) {
+        kept.add(section);
+      }
+    }
+    // sections sent for every question, like the indexes, mention all tables
+    for (Section section : List.copyOf(kept)) {
+      for (Section table : sections) {
+        if (!section.always() && table.table() && section.mentions(table)) {
+          kept.add(table);
+        }
+      }
+    }
+    return sections.stream().filter(kept::contains).toList();
+  }
+
+  private double score(Section section, List<String> queryTerms) {
+    double score = 0;
+    for (String term : queryTerms) {
+      int frequency = section.terms().getOrDefault(term, 0);
+      if (frequency > 0) {
+        double norm = K1 * (1 - B + B * section.length() / averageLength);
+        score += idf.get(term) * frequency * (K1 + 1) / (frequency + norm);
+      }
+    }
+    return score;
+  }
+
+  private static String join(List<Section> sections) {
+    StringBuilder prompt = new StringBuilder();
+    sections.forEach(section -> prompt.append(section.text()));
+    return prompt.toString();
+  }
+
+  /** Lower case words, without stop words, reduced to a common stem. */
+  private static List<String> terms(String text) {
+    List<String> terms = new ArrayList<>();
+    Matcher word = WORD.matcher(text.toLowerCase(Locale.ROOT));
+    while (word.find()) {
+      String term = stem(word.group());
+      if (!STOP_WORDS.contains(term)) {
+        terms.add(term);
+      }
+    }
+    return terms;
+  }
+
+  /**
+   * Strips common English suffixes, so that "committed", "commits" and "commit" or "releases" and
+   * "release" match. Table names are kept as they are.
+   */
+  private static String stem(String word) {
+    if (word.indexOf('_') >= 0) {
+      return word;
+    }
+    String stem = word;
+    if (stem.length() > 4 && stem.endsWith("ies")) {
+      stem = stem.substring(0, stem.length() - 3) + "y";
+    } else if (stem.length() > 5 && stem.endsWith("ing")) {
+      stem = stem.substring(0, stem.length() - 3);
+    } else if (stem.length() > 4 && stem.endsWith("ed")) {
+      stem = stem.substring(0, stem.length() - 2);
+    } else if (stem.length() > 5 && stem.endsWith("ly") && !stem.endsWith("ily")) {
+      stem = stem.substring(0, stem.length() - 2);
+    } else if (stem.length() > 2 && stem.endsWith("s") && !stem.endsWith("ss")) {
+      stem = stem.substring(0, stem.length() - 1);
+    }
+    int length = stem.length();
+    if (length > 3
+        && stem.charAt(length - 1) == stem.charAt(length - 2)
+        && !"aeiouls".contains(String.valueOf(stem.charAt(length - 1)))) {
+      stem = stem.substring(0, length - 1);
+    }
+    if (stem.length() > 4 && stem.endsWith("e")) {
+      stem = stem.substring(0, stem.length() - 1);
+    }
+    return stem;
+  }
+}
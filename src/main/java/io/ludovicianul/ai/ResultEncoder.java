@@ -0,0 +1,293 @@
+package io.ludovicianul.ai;
+
+import io.ludovicianul.db.Rows;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes query results for the model within a token budget. The column names of a result are
+ * written once as a header, followed by one line of comma separated values per row, quoted like CSV
+ * where needed. Tokens are counted row by row while encoding, so once the budget is used up the
+ * remaining rows are only counted, never formatted, and the model is told how many were left out.
+ *
+ * <p>Every row is also fed to a {@link ResultSummarizer}, so a result which does not fully fit is
+ * sent with a summary of all its rows first, followed by as many of its rows as the rest of the
+ * budget allows. The model then answers from aggregates of the whole result rather than from an
+ * arbitrary prefix of it, and the size of the prompt stays flat as results grow.
+ *
+ * <p>The queries of a question run concurrently, so their results are encoded separately, each
+ * within the whole budget, then joined in the order of the queries, each one getting what the
+ * previous ones left.
+ *
+ * <p>For a map-reduce analysis, the encoder keeps enough rows to fill several parts of the budget
+ * each, which are analyzed separately.
+ */
+public class ResultEncoder {
+  /** Tokens kept for the line telling how many rows were left out. */
+  private static final int NOTE_TOKENS = 16;
+
+  private final SolTokenizer tokenizer;
+  private final int budget;
+  private final int maxParts;
+
+  /**
+   * Creates an encoder sending the results in a single part.
+   *
+   * @param tokenizer the tokenizer of the model the results are sent to
+   * @param budget the most tokens all the results may take together
+   */
+  public ResultEncoder(SolTokenizer tokenizer, int budget) {
+    this(tokenizer, budget, 1);
+  }
+
+  /**
+   * Creates an encoder splitting the results into parts.
+   *
+   * @param tokenizer the tokenizer of the model the results are sent to
+   * @param budget the most tokens a part may take
+   * @param maxParts the most parts the results are split into
+   */
+  public ResultEncoder(SolTokenizer tokenizer, int budget, int maxParts) {
+    this.tokenizer = tokenizer;
+    this.budget = Math.max(0, budget);
+    this.maxParts = Math.max(1, maxParts);
+  }
+
+  /**
+   * A line of text sent to the model.
+   *
+   * @param text the line, without line break
+   * @param tokens the tokens of the line, including its line break
+   */
+  record Line(String text, int tokens) {}
+
+  /**
+   * The lines of a result which fit in the budget, and the summary of all its rows.
+   *
+   * @param lines the header followed by the encoded rows
+   * @param summary the summary of all rows, sent when not all of them fit
+   * @param rows the number of rows of the result, including the ones not encoded
+   */
+  public record EncodedResult(List<Line> lines, List<Line> summary, long rows) {
+    public static EncodedResult empty() {
+      return new EncodedResult(List.of(), List.of(), 0);
+    }
+  }
+
+  /**
+   * Reads all rows, encoding them until the budget is used up.
+   *
+   * @param rows the rows of a query
+   * @return the encoded rows
+   * @throws SQLException if the rows cannot be read
+   */
+  public EncodedResult encode(Rows rows) throws SQLException {
+    List<Line> lines = new ArrayList<>();
+    StringBuilder line = new StringBuilder();
+
+    List<String> columns = rows.columns();
+    ResultSummarizer summarizer = new ResultSummarizer(columns);
+    Object[] values = new Object[columns.size()];
+    for (int i = 0; i < columns.size(); i++) {
+      appendValue(line.append(i > 0 ? "," : ""), columns.get(i));
+    }
+    lines.add(toLine(line));
+    int used = lines.getFirst().tokens();
+    // the header is repeated in every part
+    long available = (long) (budget - NOTE_TOKENS - used) * maxParts + used;
+    boolean full = used > budget - NOTE_TOKENS;
+
+    long count = 0;
+    while (rows.next()) {
+      count++;
+      for (int i = 0; i < values.length; i++) {
+        values[i] = rows.get(i);
+      }
+      summarizer.add(values);
+      if (full) {
+        continue;
+      }
+      line.setLength(0);
+      for (int i = 0; i < values.length; i++) {
+        appendValue(line.append(i > 0 ? "," : ""), values[i]);
+      }
+      Line encoded = toLine(line);
+      used += encoded.tokens();
+      if (used > available) {
+        full = true;
+      } else {
+        lines.add(encoded);
+      }
+    }
+    List<Line> summary =
+        count > 1 ? summarizer.lines().stream().map(this::toLine).toList() : List.of();
+    return new EncodedResult(lines, summary, count);
+  }
+
+  /**
+   * Joins the results in order, within the budget. Results without rows are left out.
+   *
+   * @param results the encoded results, in the order of their queries
+   * @return the text sent to the model
+   */
+  public String join(List<EncodedResult> results) {
+    StringBuilder text = new StringBuilder();
+    int remaining = budget;
+    for (EncodedResult result : results) {
+      if (result.rows() == 0) {
+        continue;
+      }
+      remaining -= NOTE_TOKENS;
+      int allRowsTokens = result.lines().stream().mapToInt(Line::tokens).sum();
+      if (result.lines().size() <= result.rows() || allRowsTokens > remaining) {
+        remaining = append(result.summary(), text, remaining);
+      }
+      int included = 0;
+      while (included < result.lines().size()
+          && result.lines().get(included).tokens() <= remaining) {
+        text.append(result.lines().get(included).text()).append('\n');
+        remaining -= result.lines().get(included).tokens();
+        included++;
+      }
+      // the header is not a row
+      long includedRows = Math.max(0, included - 1);
+      if (includedRows < result.rows()) {
+        text.append(
+            "(%d of %d rows not included, to keep within the token budget)\n"
+                .formatted(result.rows() - includedRows, result.rows()));
+      }
+      text.append('\n');
+    }
+    return text.toString();
+  }
+
+  /**
+   * Splits the results into parts of at most the budget each, for a map-reduce analysis. Rows are
+   * kept in order, and the header of a result is repeated at the start of every part it spans.
+   * Results which were not fully encoded start with their summary, like in {@link #join}.
+   *
+   * @param results the encoded results, in the order of their queries
+   * @return the parts, at most the number given when creating the encoder
+   */
+  public List<String> split(List<EncodedResult> results) {
+    Parts parts = new Parts();
+    for (EncodedResult result : results) {
+      if (result.rows() == 0) {
+        continue;
+      }
+      if (result.lines().size() <= result.rows()) {
+        result.summary().forEach(line -> parts.add(null, line));
+      }
+      Line header = result.lines().getFirst();
+      long included = 0;
+      for (Line row : result.lines().subList(1, result.lines().size())) {
+        if (!parts.add(header, row)) {
+          break;
+        }
+        included++;
+      }
+      if (included < result.rows()) {
+        parts.note(
+            "(%d of %d rows not included, to keep within the token budget)"
+                .formatted(result.rows() - included, result.rows()));
+      }
+    }
+    return parts.finish();
+  }
+
+  /** Parts being filled, in order. */
+  private final class Parts {
+    private final List<String> parts = new ArrayList<>();
+    private final StringBuilder part = new StringBuilder();
+    private int remaining = budget - NOTE_TOKENS;
+    private Line header;
+
+    /**
+     * Adds a line to the current part, or to a new one when it is full.
+     *
+     * @param lineHeader the header of the result of the line, written before its first line in a
+     *     part, null for lines of a summary
+     * @param line the line
+     * @return false once all parts are full
+     */
+    boolean add(Line lineHeader, Line line) {
+      boolean newHeader = lineHeader != null && lineHeader != header;
+      int needed = line.tokens() + (newHeader ? lineHeader.tokens() : 0);
+      if (needed > remaining && !part.isEmpty()) {
+        if (parts.size() + 1 == maxParts) {
+          return false;
+        }
+        parts.add(part.toString());
+        part.setLength(0);
+        remaining = budget - NOTE_TOKENS;
+        header = null;
+        needed = line.tokens() + (lineHeader != null ? lineHeader.tokens() : 0);
+      }
+      if (needed > remaining) {
+        return false;
+      }
+      if (lineHeader != null && lineHeader != header) {
+        part.append(lineHeader.text()).append('\n');
+      }
+      header = lineHeader;
+      part.append(line.text()).append('\n');
+      remaining -= needed;
+      return true;
+    }
+
+    void note(String text) {
+      part.append(text).append('\n');
+    }
+
+    List<String> finish() {
+      if (!part.isEmpty()) {
+        parts.add(part.toString());
+      }
+      return parts;
+    }
+  }
+
+  /** Appends the lines which fit, in order, and returns the tokens left. */
+  private static int append(List<Line> lines, StringBuilder text, int remaining) {
+    for (Line line : lines) {
+      if (line.tokens() > remaining) {
+        break;
+      }
+      text.append(line.text()).append('\n');
+      remaining -= line.tokens();
+    }
+    return remaining;
+  }
+
+  private Line toLine(CharSequence text) {
+    String line = text.toString();
+    return new Line(line, tokenizer.countTokens(line) + 1);
+  }
+
+  /** Values holding separators, quotes or line breaks are quoted, doubling their quotes. */
+  private static void appendValue(StringBuilder line, Object value) {
+    if (value == null) {
+      return;
+    }
+    String text = value.toString();
+    boolean quote = false;
+    for (int i = 0; i < text.length() && !quote; i++) {
+      char c = text.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      line.append(text);
+      return;
+    }
+    line.append('"');
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '"') {
+        line.append('"');
+      }
+      line.append(c);
+    }
+    line.append('"');
+  }
+}
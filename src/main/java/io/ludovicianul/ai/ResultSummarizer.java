@@ -0,0 +1,397 @@
+package io.ludovicianul.ai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Summarizes all the rows of a result in a single pass and in bounded memory, so the model can
+ * answer from the whole result when only part of its rows fit in the token budget. For each column
+ * it keeps:
+ *
+ * <ul>
+ *   <li>the number of values and an estimate of the distinct ones, with a HyperLogLog sketch
+ *   <li>the most frequent values, with Misra-Gries counters
+ *   <li>for numbers, the exact minimum, maximum, sum and mean, and quantiles and a histogram
+ *       estimated from a uniform sample of the values
+ *   <li>for dates, the first and last ones
+ * </ul>
+ *
+ * <p>When the result has a date column, the rows are also downsampled per month of its first date
+ * column, with the number of rows and the sum of every number column in each month.
+ */
+class ResultSummarizer {
+  private static final int TOP_VALUES = 5;
+  private static final int HISTOGRAM_BUCKETS = 8;
+  private static final int MAX_MONTHS = 120;
+
+  private final List<String> columns;
+  private final ColumnStats[] stats;
+  private long rows;
+
+  private int timeColumn = -1;
+  private final TreeMap<String, double[]> months = new TreeMap<>();
+
+  ResultSummarizer(List<String> columns) {
+    this.columns = columns;
+    this.stats = new ColumnStats[columns.size()];
+    for (int i = 0; i < stats.length; i++) {
+      stats[i] = new ColumnStats();
+    }
+  }
+
+  void add(Object[] values) {
+    rows++;
+    for (int i = 0; i < values.length; i++) {
+      stats[i].add(values[i]);
+      if (timeColumn < 0 && stats[i].dates > 0) {
+        timeColumn = i;
+      }
+    }
+    if (timeColumn >= 0 && values[timeColumn] instanceof String date && isDate(date)) {
+      double[] month =
+          months.computeIfAbsent(date.substring(0, 7), key -> new double[stats.length]);
+      // the slot of the time column counts the rows of the month
+      month[timeColumn]++;
+      for (int i = 0; i < values.length; i++) {
+        if (i != timeColumn && values[i] instanceof Number number) {
+          month[i] += number.doubleValue();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the summary, one line per column, followed by the rows per month when the result has a
+   * date column.
+   */
+  List<String> lines() {
+    List<String> lines = new ArrayList<>();
+    lines.add(
+        "Summary of all %d rows (distinct counts, quantiles and histograms are estimates):"
+            .formatted(rows));
+    for (int i = 0; i < stats.length; i++) {
+      lines.add(stats[i].describe(columns.get(i)));
+      if (stats[i].numbers > 1 && stats[i].min < stats[i].max && !stats[i].hasFewNumbers()) {
+        lines.add("  histogram: " + stats[i].histogram());
+      }
+    }
+    if (months.size() > 1) {
+      lines.addAll(timeSeries());
+    }
+    return lines;
+  }
+
+  private List<String> timeSeries() {
+    Map<String, double[]> buckets = months;
+    String unit = "month";
+    if (months.size() > MAX_MONTHS) {
+      buckets = new TreeMap<>();
+      for (Map.Entry<String, double[]> month : months.entrySet()) {
+        double[] year =
+            buckets.computeIfAbsent(
+                month.getKey().substring(0, 4), key -> new double[stats.length]);
+        for (int i = 0; i < year.length; i++) {
+          year[i] += month.getValue()[i];
+        }
+      }
+      unit = "year";
+    }
+    List<Integer> sums = new ArrayList<>();
+    StringBuilder header = new StringBuilder(columns.get(timeColumn) + " by " + unit + ",rows");
+    for (int i = 0; i < stats.length; i++) {
+      if (i != timeColumn && stats[i].numbers > 0) {
+        sums.add(i);
+        header.append(",sum of ").append(columns.get(i));
+      }
+    }
+    List<String> lines = new ArrayList<>();
+    lines.add(header.toString());
+    buckets.forEach(
+        (bucket, values) -> {
+          StringBuilder line =
+              new StringBuilder(bucket).append(',').append((long) values[timeColumn]);
+          sums.forEach(i -> line.append(',').append(format(values[i])));
+          lines.add(line.toString());
+        });
+    return lines;
+  }
+
+  private static boolean isDate(String value) {
+    return value.length() >= 10
+        && Character.isDigit(value.charAt(0))
+        && Character.isDigit(value.charAt(3))
+        && value.charAt(4) == '-'
+        && Character.isDigit(value.charAt(5))
+        && value.charAt(7) == '-'
+        && Character.isDigit(value.charAt(8));
+  }
+
+  private static String format(double value) {
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return String.valueOf((long) value);
+    }
+    return "%.2f".formatted(value);
+  }
+
+  /** The statistics of one column. */
+  private static final class ColumnStats {
+    private final HyperLogLog distinct = new HyperLogLog();
+    private final FrequentValues frequent = new FrequentValues();
+    private final Reservoir sample = new Reservoir();
+    private long values;
+    private long nulls;
+    private long numbers;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double sum;
+    private long dates;
+    private String firstDate;
+    private String lastDate;
+
+    void add(Object value) {
+      if (value == null) {
+        nulls++;
+        return;
+      }
+      values++;
+      frequent.add(value);
+      if (value instanceof Number number) {
+        double x = number.doubleValue();
+        distinct.add(Double.doubleToLongBits(x));
+        numbers++;
+        min = Math.min(min, x);
+        max = Math.max(max, x);
+        sum += x;
+        sample.add(x);
+        return;
+      }
+      String text = value.toString();
+      distinct.add(text);
+      if (isDate(text)) {
+        dates++;
+        if (firstDate == null || text.compareTo(firstDate) < 0) {
+          firstDate = text;
+        }
+        if (lastDate == null || text.compareTo(lastDate) > 0) {
+          lastDate = text;
+        }
+      }
+    }
+
+    String describe(String column) {
+      StringBuilder line = new StringBuilder(column).append(": ").append(values).append(" values");
+      if (nulls > 0) {
+        line.append(", ").append(nulls).append(" nulls");
+      }
+      long distinctValues = Math.min(values, distinct.estimate());
+      line.append(", ~").append(distinctValues).append(" distinct");
+      if (numbers > 0) {
+        double[] quantiles = sample.quantiles(0.5, 0.9, 0.99);
+        line.append(", min ").append(format(min));
+        line.append(", p50 ").append(format(quantiles[0]));
+        line.append(", p90 ").append(format(quantiles[1]));
+        line.append(", p99 ").append(format(quantiles[2]));
+        line.append(", max ").append(format(max));
+        line.append(", mean ").append(format(sum / numbers));
+        line.append(", sum ").append(format(sum));
+      }
+      if (dates > 0) {
+        line.append(", from ").append(firstDate).append(" to ").append(lastDate);
+      }
+      // values repeating often, in columns which are neither keys, measures nor dates
+      if ((numbers == 0 && dates == 0) || hasFewNumbers()) {
+        String top = frequent.top(TOP_VALUES);
+        if (!top.isEmpty()) {
+          line.append(", most frequent: ").append(top);
+        }
+      }
+      return line.toString();
+    }
+
+    /** Numbers taking only a few values are better described by their counts. */
+    boolean hasFewNumbers() {
+      return numbers > 0 && frequent.isExact() && frequent.counters.size() <= HISTOGRAM_BUCKETS;
+    }
+
+    String histogram() {
+      long[] counts = sample.histogram(min, max, HISTOGRAM_BUCKETS);
+      double width = (max - min) / HISTOGRAM_BUCKETS;
+      double scale = (double) numbers / Math.max(1, sample.size());
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < counts.length; i++) {
+        if (i > 0) {
+          text.append(", ");
+        }
+        text.append(format(min + i * width))
+            .append("..")
+            .append(format(i == counts.length - 1 ? max : min + (i + 1) * width))
+            .append(' ')
+            .append(Math.round(counts[i] * scale));
+      }
+      return text.toString();
+    }
+  }
+
+  /** HyperLogLog with 2^11 registers, about 2% standard error. */
+  private static final class HyperLogLog {
+    private static final int P = 11;
+    private static final int M = 1 << P;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / M);
+
+    private final byte[] registers = new byte[M];
+
+    void add(String value) {
+      add(hash(value));
+    }
+
+    /** Adds a value already hashed, or a number, which is mixed first. */
+    void add(long hash) {
+      hash = mix(hash);
+      int index = (int) (hash >>> (64 - P));
+      int rank = Long.numberOfLeadingZeros((hash << P) | (1L << (P - 1))) + 1;
+      if (rank > registers[index]) {
+        registers[index] = (byte) rank;
+      }
+    }
+
+    long estimate() {
+      double sum = 0;
+      int zeros = 0;
+      for (byte register : registers) {
+        sum += 1.0 / (1L << register);
+        if (register == 0) {
+          zeros++;
+        }
+      }
+      double estimate = ALPHA * M * M / sum;
+      if (estimate <= 2.5 * M && zeros > 0) {
+        // linear counting is more accurate for small cardinalities
+        estimate = M * Math.log((double) M / zeros);
+      }
+      return Math.round(estimate);
+    }
+
+    /** FNV-1a over the characters. */
+    private static long hash(String value) {
+      long hash = 0xcbf29ce484222325L;
+      for (int i = 0; i < value.length(); i++) {
+        hash ^= value.charAt(i);
+        hash *= 0x100000001b3L;
+      }
+      return hash;
+    }
+
+    /** The finalizer of MurmurHash3, spreading the bits of the hash. */
+    private static long mix(long hash) {
+      hash ^= hash >>> 33;
+      hash *= 0xff51afd7ed558ccdL;
+      hash ^= hash >>> 33;
+      hash *= 0xc4ceb9fe1a85ec53L;
+      hash ^= hash >>> 33;
+      return hash;
+    }
+  }
+
+  /**
+   * Misra-Gries counters of the most frequent values. When all counters are taken, a new value
+   * decrements all of them instead, dropping the ones reaching zero, which costs constant time per
+   * value on average. A count is then low by at most the number of decrements.
+   */
+  private static final class FrequentValues {
+    private static final int CAPACITY = 128;
+
+    private final Map<Object, long[]> counters = new HashMap<>();
+    private long decrements;
+
+    void add(Object value) {
+      long[] counter = counters.get(value);
+      if (counter != null) {
+        counter[0]++;
+      } else if (counters.size() < CAPACITY) {
+        counters.put(value, new long[] {1});
+      } else {
+        decrements++;
+        counters.values().removeIf(count -> --count[0] == 0);
+      }
+    }
+
+    /** Whether every distinct value has its exact count. */
+    boolean isExact() {
+      return decrements == 0;
+    }
+
+    /**
+     * Returns the values certainly more frequent than any value not counted, most frequent first.
+     */
+    String top(int limit) {
+      return counters.entrySet().stream()
+          .filter(e -> e.getValue()[0] > decrements && e.getValue()[0] + decrements > 1)
+          .sorted(Comparator.comparingLong((Map.Entry<Object, long[]> e) -> -e.getValue()[0]))
+          .limit(limit)
+          .map(e -> e.getKey() + " (" + range(e.getValue()[0]) + ")")
+          .reduce((a, b) -> a + ", " + b)
+          .orElse("");
+    }
+
+    private String range(long count) {
+      return decrements == 0 ? String.valueOf(count) : count + "-" + (count + decrements);
+    }
+  }
+
+  /**
+   * A uniform sample of the numbers of a column, kept with reservoir sampling. The seed is fixed,
+   * so the same rows always give the same summary.
+   */
+  private static final class Reservoir {
+    private static final int CAPACITY = 2048;
+
+    private final double[] sample = new double[CAPACITY];
+    private final Random random = new Random(CAPACITY);
+    private long seen;
+    private double[] sorted;
+
+    void add(double value) {
+      sorted = null;
+      if (seen < CAPACITY) {
+        sample[(int) seen] = value;
+      } else {
+        long slot = (long) (random.nextDouble() * (seen + 1));
+        if (slot < CAPACITY) {
+          sample[(int) slot] = value;
+        }
+      }
+      seen++;
+    }
+
+    int size() {
+      return (int) Math.min(seen, CAPACITY);
+    }
+
+    double[] quantiles(double... ranks) {
+      if (sorted == null) {
+        sorted = Arrays.copyOf(sample, size());
+        Arrays.sort(sorted);
+      }
+      double[] quantiles = new double[ranks.length];
+      for (int i = 0; i < ranks.length; i++) {
+        quantiles[i] = sorted[(int) Math.min(sorted.length - 1, ranks[i] * sorted.length)];
+      }
+      return quantiles;
+    }
+
+    long[] histogram(double min, double max, int buckets) {
+      long[] counts = new long[buckets];
+      double width = (max - min) / buckets;
+      for (int i = 0; i < size(); i++) {
+        counts[(int) Math.min(buckets - 1, (sample[i] - min) / width)]++;
+      }
+      return counts;
+    }
+  }
+}
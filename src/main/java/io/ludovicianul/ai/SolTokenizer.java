@@ -2,44 +2,42 @@ package io.ludovicianul.ai;
 
 import dev.langchain4j.model.openai.OpenAiTokenizer;
 import io.ludovicianul.log.Logger;
-import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /** Tokenizer for the AI models. */
 public class SolTokenizer {
+  private static final String DEFAULT_MODEL = "gpt-4o-mini";
   private static final String MARKDOWN_CODE = "(?s)```[^`]*?\\n([\\s\\S]*?)```";
   private static final Pattern KEEP_TEXT_INSIDE_BRACKETS = Pattern.compile("\\[[^\\]]+\\]");
 
   private final OpenAiTokenizer tokenizer;
-  private final int maxTokens;
 
-  private SolTokenizer(String model, int maxTokens) {
-    this.tokenizer = new OpenAiTokenizer(model);
-    this.maxTokens = maxTokens;
+  private SolTokenizer(String model) {
+    this.tokenizer = create(model);
   }
 
-  public static SolTokenizer createTokenizer(String model, int maxTokens) {
-    return new SolTokenizer(model, maxTokens);
+  public static SolTokenizer createTokenizer(String model) {
+    return new SolTokenizer(model);
   }
 
-  public String limitTokens(String text) {
+  /**
+   * Models unknown to the OpenAI tokenizer, like the Anthropic and Ollama ones, are counted with
+   * the encoding of the default OpenAI model, which is close enough to stay within a budget.
+   */
+  private static OpenAiTokenizer create(String model) {
     try {
-      int tokenCount = tokenizer.estimateTokenCountInText(text);
-      Logger.debug("Total tokens to be sent, before limiting: " + tokenCount);
-
-      if (tokenCount <= maxTokens) {
-        return text;
-      }
-      List<Integer> tokenIds = tokenizer.encode(text);
-      List<Integer> limitedTokens = tokenIds.subList(0, Math.min(5000, tokenIds.size()));
-      return tokenizer.decode(limitedTokens);
-    } catch (Exception e) {
-      Logger.err("Error while limiting tokens: " + e.getMessage());
-      return text;
+      return new OpenAiTokenizer(model);
+    } catch (IllegalArgumentException e) {
+      Logger.debug("Estimating tokens of %s with the %s encoding".formatted(model, DEFAULT_MODEL));
+      return new OpenAiTokenizer(DEFAULT_MODEL);
     }
   }
 
+  public int countTokens(String text) {
+    return tokenizer.estimateTokenCountInText(text);
+  }
+
   public String clean(String markdownText) {
     String cleanedText = removeCodeBlocks(markdownText);
     if (cleanedText.startsWith("[")) {
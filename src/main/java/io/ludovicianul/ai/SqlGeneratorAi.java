@@ -1,15 +1,172 @@
 package io.ludovicianul.ai;
 
 import dev.langchain4j.service.SystemMessage;
+import dev.langchain4j.service.TokenStream;
+import dev.langchain4j.service.UserMessage;
+import dev.langchain4j.service.V;
 
 /** An AI that generates SQL queries based on user questions. */
 public interface SqlGeneratorAi {
-  @SystemMessage(
+  /** Instructions for answering the question from the results. */
+  String BEAUTIFY_RESULT_PROMPT =
       """
+     You are an expert data analyst specializing in software development analytics and git repository data interpretation. You have received the results of SQL queries executed on a SQLite database containing git log data.
+
+     Your task is to analyze the data provided, interpret the metrics, and answer the user's question comprehensively. Provide insights, identify trends, and highlight any potential issues or noteworthy patterns in the data.
+
+     Include analysis of the following additional metrics derived from advanced git log analysis:
+
+    - **Temporal Coupling:**
+      - Identify files or modules that frequently change together.
+      - Detect hidden dependencies and coupling not evident from the code structure.
+      - Highlight clusters of files that are logically linked through change patterns.
+
+    - **Change Coupling:**
+      - Analyze commits to find patterns of simultaneous changes across different parts of the codebase.
+      - Assess the impact of these patterns on system stability and maintenance.
+
+    - **Code Churn Dynamics:**
+      - Examine the rate of code addition and deletion over time.
+      - Identify periods of high churn and correlate them with project events (e.g., releases, new features, refactoring).
+      - Assess the potential for code instability due to excessive churn.
+
+    - **Hotspot Analysis:**
+      - Detect files or modules with high complexity and frequent changes.
+      - Prioritize these hotspots for refactoring or increased testing efforts.
+      - Evaluate the risk associated with hotspots in terms of potential defects and maintenance cost.
+
+    - **Developer Productivity and Work Patterns:**
+      - Analyze individual and team productivity trends.
+      - Identify peak productivity periods and potential factors influencing them.
+      - Examine work patterns such as coding after hours or on weekends.
+
+    - **Knowledge Distribution and Bus Factor:**
+      - Assess the concentration of knowledge within the team.
+      - Identify critical areas of the codebase with limited contributors (low bus factor).
+      - Recommend strategies to distribute knowledge more evenly.
+
+    - **Code Ownership and Expertise:**
+      - Determine primary contributors to different parts of the codebase.
+      - Analyze the impact of code ownership on code quality and maintenance.
+      - Evaluate collaboration levels among team members.
+
+    - **Modularization and Architectural Analysis:**
+      - Investigate the alignment between the code's logical architecture and its actual change patterns.
+      - Identify modules that are too tightly coupled or insufficiently cohesive.
+      - Recommend architectural improvements based on empirical data.
+
+    - **Technical Debt Indicators:**
+      - Highlight areas with high modification complexity.
+      - Identify files with a history of quick fixes or workarounds.
+      - Assess the long-term implications of accumulated technical debt.
+
+    - **Effort Estimation and Forecasting:**
+      - Use historical data to estimate the effort required for future changes.
+      - Provide forecasts for maintenance needs based on current trends.
+
+    - **Defect Prediction:**
+      - Correlate past change patterns with defect occurrences.
+      - Identify files or modules likely to contain defects in the future.
+      - Suggest preventive measures to reduce defect rates.
+
+    - **Impact of Refactoring:**
+      - Evaluate the effectiveness of past refactoring efforts on code quality and maintenance.
+      - Analyze whether refactoring led to reduced complexity and fewer defects.
+
+    - **Socio-Technical Congruence:**
+      - Examine the alignment between the team's communication patterns and code dependencies.
+      - Identify mismatches that could lead to integration problems or defects.
+
+    - **Release Readiness and Stability:**
+      - Assess the codebase's stability in preparation for releases.
+      - Identify high-risk areas that may require additional testing before deployment.
+
+    - **Maintenance Patterns:**
+      - Analyze the proportion of time spent on new features versus maintenance and bug fixes.
+      - Evaluate how maintenance load affects development velocity.
+
+    - **Developer Onboarding and Ramp-Up:**
+      - Assess the learning curve for new contributors based on their initial commit patterns.
+      - Determine the point after which new developers become productive.
+      - Identify parts of the codebase that are challenging for newcomers.
+
+    - **Include analysis of release and deployment metrics derived from tag data:**
+      - Assess the frequency and cadence of releases.
+      - Analyze development activity between releases.
+      - Evaluate the effectiveness of the release process.
+      - Identify trends in code churn and bug fixes across releases.
+      - Provide insights on lead time for changes and deployment frequency.
+
+    When analyzing the results, consider:
+
+    - **Comprehensive Trend Analysis:**
+      - Use historical data to identify long-term trends and patterns.
+      - Forecast future developments and potential issues based on current trajectories.
+
+    - **Risk Assessment and Mitigation:**
+      - Prioritize high-risk areas and provide actionable recommendations.
+      - Suggest strategies for risk mitigation, such as targeted refactoring or increased testing.
+
+    - **Actionable Insights and Recommendations:**
+      - Provide clear, evidence-based suggestions to improve code quality, reduce technical debt, and enhance team productivity.
+      - Highlight quick wins and strategic initiatives for long-term improvement.
+
+    - **Visualization and Reporting:**
+      - Where appropriate, render visual representations of data (e.g., heat maps, graphs, charts) to illustrate key findings.
+      - Ensure that insights are communicated effectively to both technical and non-technical stakeholders.
+
+    - **Correlation between Results:**
+      - Identify relationships between different metrics and highlight correlations or dependencies.
+      - Use cross-analysis to validate findings and draw meaningful conclusions.
+      - Consider the interplay between different aspects of software development and team dynamics.
+      - Provide a holistic view of the project based on the combined analysis of multiple metrics.
+
+    Always present a table or chart with the results of the analysis, highlighting the key metrics and trends.
+    Present your analysis in a clear, structured manner, using bullet points, headings, or tables where appropriate. Offer recommendations or conclusions that can help improve the software development process, code quality, architecture, and team collaboration.
+    When analyzing the numbers, always consider them in the larger context. If the user asks "Are there many bug fixes in the project?" and the query result is 50, you should consider if 50 is a large number of bug fixes in the context of the project.
+
+    Avoid including the raw SQL query results unless necessary for context.
+    Don't include the fact that you are interpreting SQL queries.
+
+    The data I will send in the prompt has the following structure SQL QUERIES|QUESTION|RESULTS where:
+      - **SQL QUERIES** - are the queries run on the SQLite database that has the git log data
+      - **QUESTION** - is the question asked by the user
+      - **RESULTS** - are the results of the SQL QUERIES, one block per query: a header line with the column names, followed by one line of comma separated values per row. When not all rows fit, the block starts with a summary of all the rows, with counts, distinct values, most frequent values, quantiles, histograms and totals per month, and a line in parentheses at its end tells how many rows were left out. Base the answer on the summary rather than on the rows shown, as these are only the first ones
+
+    """;
+
+  /** Instructions for answering the question from the notes written for each part of the results. */
+  String COMBINE_ANALYSES_PROMPT =
+      """
+    You are an expert data analyst specializing in software development analytics and git repository data interpretation. The results of SQL queries executed on a SQLite database containing git log data were too large to analyze at once, so they were split into parts, and notes were written from each part.
+
+    The data I will send in the prompt has the following structure SQL QUERIES|NOTES|QUESTION where:
+      - **SQL QUERIES** - are the queries run on the SQLite database that has the git log data
+      - **NOTES** - are the notes written from each part of the results, in the order of the rows
+      - **QUESTION** - is the question asked by the user
+
+    Combine the notes into a single, comprehensive answer to the user's question. Each part only covers some of the rows: add up totals and counts over all parts, take minimums and maximums over all parts, and follow trends over the whole time range. Provide insights, identify trends, and highlight any potential issues or noteworthy patterns in the data.
+
+    Always present a table or chart with the results of the analysis, highlighting the key metrics and trends.
+    Present your analysis in a clear, structured manner, using bullet points, headings, or tables where appropriate. Offer recommendations or conclusions that can help improve the software development process, code quality, architecture, and team collaboration.
+
+    Don't include the fact that you are interpreting SQL queries, or that the results were split into parts.
+    """;
+
+  /**
+   * Instructions for generating the SQL queries, split into sections by {@code [[section name]]}
+   * lines. Sections marked {@code always} are sent for every question, the others only when
+   * relevant to it, matched on their text and on the keywords after the colon, and sections marked
+   * {@code table} when a section sent mentions their table. See {@link PromptSections}.
+   */
+  String GENERATE_SQL_PROMPT =
+      """
+  [[section intro always]]
   You are an expert data analyst and SQL developer specialized in software engineering metrics and version control systems. You have access to a SQLite database containing detailed git log data of software repositories.
 
   **The database schema is as follows:**
 
+  [[section commits always]]
   - Table: **commits**
     - commit_hash TEXT,
     - repo_name TEXT,
@@ -28,6 +185,7 @@ public interface SqlGeneratorAi {
     - message TEXT,
     - PRIMARY KEY (commit_hash, repo_name)
 
+  [[section file_changes table: file files path directory folder module extension language test build dot documentation config hotspot coupling ownership]]
   - Table: **file_changes**
     - id INTEGER PRIMARY KEY AUTOINCREMENT,
     - commit_hash TEXT,
@@ -43,6 +201,7 @@ public interface SqlGeneratorAi {
     - is_documentation_file INTEGER (0 = false, 1 = true),
     - FOREIGN KEY(commit_hash) REFERENCES commits(commit_hash)
 
+  [[section branches table: branch merged unmerged lived]]
   - Table: **branches**
     - branch_name TEXT PRIMARY KEY,
     - repo_name TEXT,
@@ -51,6 +210,7 @@ public interface SqlGeneratorAi {
     - merge_date TEXT
     - PRIMARY KEY (branch_name, repo_name)
 
+  [[section commit_parents table: parent ancestry graph]]
   - Table: **commit_parents**
     - commit_hash TEXT,
     - repo_name TEXT,
@@ -59,6 +219,7 @@ public interface SqlGeneratorAi {
     - FOREIGN KEY(commit_hash) REFERENCES commits(commit_hash),
     - FOREIGN KEY(parent_hash) REFERENCES commits(commit_hash)
 
+ [[section tags table: tag release version]]
  - Table: **tags**
     - tag_name TEXT,
     - repo_name TEXT,
@@ -67,45 +228,40 @@ public interface SqlGeneratorAi {
     - PRIMARY KEY (tag_name, repo_name)
     - FOREIGN KEY(tag_commit) REFERENCES commits(commit_hash)
 
+ [[section activity_rollup table: daily weekly monthly yearly day week month year period frequency time trend velocity activity active]]
+ - Table: **activity_rollup** (pre-aggregated commits, one row per period, repository and author)
+    - period_type TEXT ('day', 'week' or 'month'),
+    - period_start TEXT (YYYY-MM-DD; weeks start on Monday, months on the 1st),
+    - repo_name TEXT,
+    - author TEXT,
+    - commits INTEGER,
+    - merge_commits INTEGER,
+    - total_additions INTEGER, (like the test, build, dot and doc totals, counts only added and modified files)
+    - total_deletions INTEGER,
+    - total_additions_test INTEGER,
+    - total_deletions_test INTEGER,
+    - total_additions_build INTEGER,
+    - total_deletions_build INTEGER,
+    - total_additions_dot INTEGER,
+    - total_deletions_dot INTEGER,
+    - total_additions_doc INTEGER,
+    - total_deletions_doc INTEGER,
+    - PRIMARY KEY (period_type, period_start, repo_name, author)
+
+  [[section indexes always]]
   - **Indexes:**
-    • idx_commits_author ON commits(author)
-    •	idx_commits_author_repo ON commits(author, repo_name)
-    •	idx_commits_date ON commits(date)
-    •	idx_commits_date_repo ON commits(date, repo_name)
     •	idx_commits_author_date ON commits(author, date)
-    •	idx_commits_author_date_repo ON commits(author, date, repo_name)
-    •	idx_commit_date_merge ON commits(date, is_merge)
-    •	idx_commit_date_merge_repo ON commits(date, is_merge, repo_name)
+    •	idx_commits_date_repo ON commits(date, repo_name)
     •	idx_commit_merge_date ON commits(is_merge, date)
-    •	idx_commit_merge_date_repo ON commits(is_merge, date, repo_name)
-    •	idx_commit_date_id ON commits(date, commit_hash)
-    •	idx_commit_date_id_repo ON commits(date, commit_hash, repo_name)
-    •	idx_file_changes_file_path ON file_changes(file_path)
-    •	idx_file_changes_file_path_repo ON file_changes(file_path, repo_name)
-    •	idx_file_changes_commit_file ON file_changes(commit_hash, file_path)
-    •	idx_file_changes_commit_file_repo ON file_changes(commit_hash, file_path, repo_name)
     •	idx_file_changes_group_order ON file_changes(file_path, commit_hash)
-    •	idx_file_changes_group_order_repo ON file_changes(file_path, commit_hash, repo_name)
-    •	idx_file_changes_commit_hash ON file_changes(commit_hash)
-    •	idx_file_changes_commit_hash_repo ON file_changes(commit_hash, repo_name)
+    •	idx_file_changes_commit_file ON file_changes(commit_hash, file_path)
+    •	idx_file_changes_hash_add_del ON file_changes(commit_hash, additions, deletions)
     •	idx_is_test_file ON file_changes(is_test_file)
-    •	idx_is_test_file_repo ON file_changes(is_test_file, repo_name)
     •	idx_is_build_file ON file_changes(is_build_file)
-    •	idx_is_build_file_repo ON file_changes(is_build_file, repo_name)
     •	idx_is_dot_file ON file_changes(is_dot_file)
-    •	idx_is_dot_file_repo ON file_changes(is_dot_file, repo_name)
-    •	idx_tag_name ON tags(tag_name)
-    •	idx_tag_name_name ON tags(tag_name, repo_name)
     •	idx_is_documentation_file ON file_changes(is_documentation_file)
-    •	idx_is_documentation_file_repo ON file_changes(is_documentation_file, repo_name)
-    •	idx_file_changes_performance ON file_changes(commit_hash, file_path, is_test_file, is_build_file, is_dot_file, is_documentation_file)
-    •	idx_file_changes_performance_repo ON file_changes(commit_hash, file_path, is_test_file, is_build_file, is_dot_file, is_documentation_file, repo_name)
-    •	idx_file_changes_hash_add_del ON file_changes(commit_hash, additions, deletions)
-    •	idx_file_changes_hash_add_del_repo ON file_changes(commit_hash, additions, deletions, repo_name)
-    •	idx_commit_parents_commit_hash ON commit_parents(commit_hash)
-    •	idx_commit_parents_commit_hash_repo ON commit_parents(commit_hash, repo_name)
     •	idx_commit_parents_parent_hash ON commit_parents(parent_hash)
-    •	idx_commit_parents_parent_hash_repo ON commit_parents(parent_hash, repo_name)
+    •	primary keys also index commits(commit_hash, repo_name), commit_parents(commit_hash, repo_name, parent_hash), branches(branch_name, repo_name), tags(tag_name, repo_name) and activity_rollup(period_type, period_start, repo_name, author)
 
   Your task is to generate efficient and optimized SQL queries to extract and compute various software development metrics based on the user's questions. Ensure that the queries are compatible with SQLite syntax.
 
@@ -115,6 +271,7 @@ public interface SqlGeneratorAi {
     •	'tag_name' stores the tag name, **not** the tag commit hash
     •	SQL Syntax: Always use proper SQL syntax for SQLite.
     •	By default, don't segregate by 'repo_name' unless explicitly asked.
+    [[section languages: language programming extension technology stack java python javascript typescript kotlin golang go rust swift ruby shell html css markdown build configuration config github actions]]
     •	Programming Language Identification: Interpret user questions with an understanding of code-related language; identify programming languages from file extensions and use relevant language-specific terms. Common file extensions include:
       •	Java: .java
       •	Python: .py
@@ -132,6 +289,7 @@ public interface SqlGeneratorAi {
       •	Markdown: .md
       •	Build files: pom.xml, build.gradle, package.json, requirements.txt, yarn.lock, Gemfile, Gemfile.lock, Cargo.toml, Podfile, Podfile.lock, .csproj, .sln, .xcodeproj, .gradle, %lock.json, %lock.yaml, %lock.yml
       •	Configuration Files: .conf, .cfg, .ini, .yaml, .yml, .json, .xml, .properties, .toml, .env
+    [[section file-types always]]
     • **Test Code identification.** Identify test files based on **is_test_file** column.
     •	**Build File identification.** Identify build files based on **is_build_file** column.
     •	**Dot File identification.** Identify dot files based on **is_dot_file** column.
@@ -156,6 +314,9 @@ public interface SqlGeneratorAi {
       - Always use indexes when joining and sorting.
     • **Use window functions** for advanced analytics and calculations.
     • Use files_changes table only for file-level analysis. Use commits table columns like total_xxx for commit-level analysis.
+    [[section rollup-rule: daily weekly monthly yearly day week month year period frequency time trend velocity activity active]]
+    • **Prefer activity_rollup** for commit counts and line totals per day, week, month, year, repository or author: filter on period_type and period_start and SUM its columns instead of aggregating commits. Use commits when the question needs the message, the exact time, the timezone or single commits.
+    [[section query-rules always]]
     •	String Matching: Use LIKE or GLOB for pattern matching in WHERE clauses.
     •	Date Handling: Parse dates using SQLite functions
     •	Limiting Results: Limit results to 20 rows unless the user specifies “all” (use LIMIT 20).
@@ -164,6 +325,7 @@ public interface SqlGeneratorAi {
     • Searching in Multiple Columns: When appropriate, search for terms in both commits.message and file_changes.file_path columns to capture all relevant data.
     •	Synonyms and Variations: Include synonyms, related terms, and different word forms in your search patterns to ensure comprehensive results.
 
+  [[section string-functions: search message contains keyword word pattern substring name text mention]]
   **String Manipulation:**
     •	Extracting Substrings: Use SUBSTR(string, start, length).
     •	Start: The starting position (1-based index).
@@ -175,11 +337,13 @@ public interface SqlGeneratorAi {
     •	Grouping Data: Use GROUP BY to aggregate data when needed, such as grouping by author or file_path
     • Case Sensitivity: Ensure all text comparisons from the SQL queries  are case-insensitive using LOWER() functions.
 
+  [[section precedence always]]
   **Logical Operator Precedence:**
     •	Remember that AND has higher precedence than OR.
     •	Use parentheses to explicitly define the order of evaluation.
 
   Include as many relevant metrics as possible, such as:
+    [[section metrics-commits: commit frequency large size between]]
     - **Commit Metrics:**
       - Total number of commits
       - Commit frequency over time (daily, weekly, monthly)
@@ -187,6 +351,7 @@ public interface SqlGeneratorAi {
       - Number of commits per author, file or module
       - Identification of large commits (potential refactoring or feature additions)
 
+    [[section metrics-authors: author contributor developer people team who ownership hours]]
     - **Author Metrics:**
       - Total number of authors/contributors
       - Top contributors by number of commits or lines changed
@@ -195,6 +360,7 @@ public interface SqlGeneratorAi {
       - Developer churn (new authors joining and existing authors leaving over time)
       - Developer activity patterns (working hours, days of the week)
 
+    [[section metrics-code-changes: lines code added deleted modified churn hotspot refactoring coupling changed]]
     - **Code Change Metrics:**
       - Total lines of code added, modified, and deleted
       - Code churn (sum of lines added and deleted over time)
@@ -203,18 +369,21 @@ public interface SqlGeneratorAi {
       - Change coupling (files that frequently change together)
       - Temporal coupling analysis (identifying hidden dependencies)
 
+    [[section metrics-bugs: bug fix issue defect error]]
     - **Issue and Bug Metrics:**
       - Number of bug-fix commits (identified by commit messages or tags)
       - Bug-fix frequency over time
       - Files/modules with the most bug-fix commits
       - Correlation between code churn and bug frequency
 
+    [[section metrics-productivity: productivity productive active feature maintenance team compare]]
     - **Productivity Metrics:**
       - Average commits per author over time
       - Most active development periods
       - Comparison of productivity among authors or teams
       - Time spent on new features vs. maintenance tasks
 
+    [[section metrics-branches: branch merge merged pull request conflict]]
     - **Branching and Merging Metrics:**
       - Number of branches created and merged
       - Frequency and duration of branches
@@ -223,24 +392,29 @@ public interface SqlGeneratorAi {
       - Analysis of long-lived branches and their impact
       - Analyze the use of pull requests or merge requests by searching for keywords like 'pull request' or 'merge request'
 
+   [[section metrics-collaboration: collaboration co-author pair bus factor knowledge]]
    - **Collaboration Metrics:**
     - Degree of collaboration among authors: searching for keywords like 'co-author', 'co-authors', 'Co-authored-by', 'pair programming' in commits.message
     - Knowledge distribution and bus factor (risk assessment of knowledge concentration)
 
+  [[section metrics-debt: technical debt complexity patch]]
   - **Technical Debt Indicators:**
     - Files with high modification complexity and low code ownership
     - Areas with frequent bug fixes or quick patches
 
+  [[section metrics-refactoring: refactoring refactor stability]]
   - **Impact of Refactoring:**
     - Evaluation of past refactoring efforts on code stability
     - Changes in code churn and complexity post-refactoring
     - Impact on defect rates and maintenance effort
 
+  [[section metrics-onboarding: onboarding ramp new newcomer contributor]]
   - **Developer Onboarding and Ramp-Up:**
     - Analysis of new contributors' initial commit patterns
     - Time taken for new developers to become productive
     - Areas of the codebase challenging for newcomers
 
+ [[section metrics-releases: release tag version deployment lead]]
  - **Metrics related to releases and tags, such as:**
     - Number of commits per release
     - Code churn per release
@@ -249,12 +423,14 @@ public interface SqlGeneratorAi {
     - Deployment frequency
     - Lead time for changes from commit to release
 
+  [[section metrics-other: timezone geographical country weekend weekday size review]]
   - **Other Metrics:**
     - Timezone or geographical distribution of commits
     - Weekend vs. weekday commit activity
     - Average size of commits (in terms of files or lines changed)
     - Identification of code areas with low review activity (if code review data is available)
 
+  [[section expertise: expert expertise specialist specialization knows]]
   •	Identifying Expertise:
     •	Approach: Assume that repeated activity by a single author on specific files, directories, or subjects signifies specialization.
     •	Metrics:
@@ -262,15 +438,18 @@ public interface SqlGeneratorAi {
       •	Scope of changes
     •	Keywords in message, such as project names or features
 
+  [[section bug-patterns: bug fix issue patch]]
   •	Detecting Bug-Related Patterns:
     •	Approach: Prioritize files or authors with high frequencies of modifications or “fix” references in messages.
     •	Keywords: “bug,” “fix,” “issue,” “patch,” “error,” “defect”
 
+  [[section refactoring-activity: refactor refactoring cleanup restructure]]
   •	Refactoring Activity:
     •	Approach: Recognize ongoing refactoring through keywords or patterns of changes.
     •	Keywords: “refactor,” “cleanup,” “restructure,” “optimize”
     •	Metrics: Large deletions with fewer additions indicate structural changes.
 
+  [[section skill-gaps: skill gap backend frontend]]
   •	Detecting Skill Gaps:
     •	Approach: Analyze patterns in author contributions across file types.
     •	Backend Skills: .java, .cs, .py, .rb, .go, .rs, .cpp, .c
@@ -279,11 +458,13 @@ public interface SqlGeneratorAi {
     •	Testing Skills: Use is_test_file column to identify test files
     •	Indicator: Minimal contributions to certain file types suggest a skill gap
 
+  [[section file-stability: stable stability]]
   •	Evaluating File Stability:
     •	Approach: A file is “stable” if it has a low frequency of changes.
     •	Metrics: Number of modifications (COUNT(*) on file_changes)
     •	Consideration: Files rarely modified after initial commits or those with “fix” resolutions.
 
+  [[section notes always]]
   **Additional Notes:**
     •	Changing Together: Files are considered to change together when they are modified in the same commit (commit_hash).
     •	Case Sensitivity: Ensure all text comparisons are case-insensitive using LOWER() functions.
@@ -305,38 +486,45 @@ public interface SqlGeneratorAi {
     - When the user asks for numbers remember to analyze if it makes sense to include distinct values or not. For example, if the user asks for the number of authors, you should count the distinct authors. If the user asks for number of test files, you should count the total number of distinct test files.
     - If user asks to exclude certain file types, make sure they are excluded from all sides of the join.
 
+[[section example-time-between: time between average gap interval previous]]
 - **Examples of proper use of LAG function**:
 
   •	Calculating Time Between Commits:
       [
           "SELECT commit_hash, date, julianday(date) - julianday(prev_date) AS time_since_last_commit FROM (SELECT commit_hash, date, LAG(date) OVER (ORDER BY date) AS prev_date FROM commits) WHERE prev_date IS NOT NULL;"
       ]
+ [[section example-release-churn: release churn tag]]
  - **Example of calculating top 10 releases by code churn, considering releases are tagged:**:
   [
       "WITH ordered_tags AS (SELECT t.tag_name, t.tag_commit, c.date, c.commit_hash, ROW_NUMBER() OVER (ORDER BY c.date) AS rn FROM tags t JOIN commits c ON t.tag_commit = c.commit_hash), tag_pairs AS (SELECT ot1.tag_name AS tag_name1, ot1.commit_hash AS commit_hash1, ot1.date AS date1, ot2.tag_name AS tag_name2, ot2.commit_hash AS commit_hash2, ot2.date AS date2 FROM ordered_tags ot1 JOIN ordered_tags ot2 ON ot2.rn = ot1.rn + 1), churns AS (SELECT tp.tag_name1, tp.tag_name2, SUM(c.total_additions + c.total_deletions) AS churn FROM tag_pairs tp JOIN commits c ON c.date > tp.date1 AND c.date <= tp.date2 GROUP BY tp.tag_name1, tp.tag_name2) SELECT tag_name1, tag_name2, churn FROM churns ORDER BY churn DESC LIMIT 10;"
   ]
 
+[[section example-release-churn-dot: release churn dot excluding]]
 - **Example of calculating top 10 releases by code churn, excluding dot files, considering releases are tagged:**:
   [
       "WITH ordered_tags AS (SELECT t.tag_name, t.tag_commit, c.date, c.commit_hash, ROW_NUMBER() OVER (ORDER BY c.date) AS rn FROM tags t JOIN commits c ON t.tag_commit = c.commit_hash), tag_pairs AS (SELECT ot1.tag_name AS tag_name1, ot1.commit_hash AS commit_hash1, ot1.date AS date1, ot2.tag_name AS tag_name2, ot2.commit_hash AS commit_hash2, ot2.date AS date2 FROM ordered_tags ot1 JOIN ordered_tags ot2 ON ot2.rn = ot1.rn + 1), churns AS (SELECT tp.tag_name1, tp.tag_name2, SUM(c.total_additions + c.total_deletions) - SUM(c.total_additions_dot + c.total_deletions_dot) AS churn FROM tag_pairs tp JOIN commits c ON c.date > tp.date1 AND c.date <= tp.date2 GROUP BY tp.tag_name1, tp.tag_name2) SELECT tag_name1, tag_name2, churn FROM churns ORDER BY churn DESC LIMIT 10;"
   ]
 
+[[section example-release-commits: release commit count]]
 - **Example of calculating top 10 releases by commit count**:
 [
     " WITH ordered_tags AS (SELECT t.tag_name, t.tag_commit, c.date, c.commit_hash, ROW_NUMBER() OVER (ORDER BY c.date) AS rn FROM tags t JOIN commits c ON t.tag_commit = c.commit_hash), tag_pairs AS (SELECT ot1.tag_name AS tag_name1, ot1.commit_hash AS commit_hash1, ot1.date AS date1, ot2.tag_name AS tag_name2, ot2.commit_hash AS commit_hash2, ot2.date AS date2 FROM ordered_tags ot1 JOIN ordered_tags ot2 ON ot2.rn = ot1.rn + 1), commit_counts AS (SELECT tp.tag_name1, tp.tag_name2, COUNT(c.commit_hash) AS commit_count FROM tag_pairs tp JOIN commits c ON c.date > tp.date1 AND c.date <= tp.date2 GROUP BY tp.tag_name1, tp.tag_name2) SELECT tag_name1, tag_name2, commit_count FROM commit_counts ORDER BY commit_count DESC LIMIT 10;"
 ]
 
+[[section example-ramp-up: ramp onboarding new productive]]
 - **Example of Calculating Developer Ramp-Up Period:**
   [
       "WITH ranked_commits AS (SELECT author, commit_hash, date, ROW_NUMBER() OVER (PARTITION BY author ORDER BY date) AS commit_rank FROM commits), commit_counts AS (SELECT author, COUNT(commit_hash) AS total_commits FROM commits GROUP BY author) SELECT first_commits.author, CASE WHEN commit_counts.total_commits >= 10 THEN ROUND(julianday(tenth_commits.date) - julianday(first_commits.date), 2) ELSE 'still rampingup' END AS ramp_up_period_days, commit_counts.total_commits FROM (SELECT author, date FROM ranked_commits WHERE commit_rank = 1) AS first_commits LEFT JOIN (SELECT author, date FROM ranked_commits WHERE commit_rank = 10) AS tenth_commits ON first_commits.author = tenth_commits.author LEFT JOIN commit_counts ON first_commits.author = commit_counts.author ORDER BY ramp_up_period_days ASC;"
   ]
 
+[[section release-rules: release tag version]]
 **Additional Instructions for Release-Based Metrics:**
   - **When computing metrics related to releases (tags), you must consider all commits between consecutive tags based on their dates.**
   - **For each release (tag), include all commits where the commit date is greater than the date of the previous tag and less than or equal to the date of the current tag.**
   - **Order the tags by their tag dates to determine the sequence of releases.**
   - **Ensure that your queries accurately reflect this logic when calculating metrics per release.**
 
+[[section output always]]
 **Output Formatting Instructions:**
   - **Return SQL queries as a single JSON array**, where each query is a **complete query** and an individual JSON array element.
   - **Do not split** a single SQL query into multiple array elements.
@@ -347,137 +535,23 @@ public interface SqlGeneratorAi {
   [
       "WITH commit_counts AS (SELECT author, COUNT(commit_hash) AS total_commits FROM commits GROUP BY author), file_changes_counts AS (SELECT author, SUM(additions + deletions) AS total_changes FROM file_changes GROUP BY author), bus_factor AS (SELECT cc.author, cc.total_commits, fcc.total_changes, CASE WHEN cc.total_commits > 0 THEN ROUND((fcc.total_changes * 1.0 / cc.total_commits), 2) ELSE 0 END AS bus_factor FROM commit_counts cc LEFT JOIN file_changes_counts fcc ON cc.author = fcc.author) SELECT author, total_commits, total_changes, bus_factor FROM bus_factor ORDER BY bus_factor DESC;"
   ]
-      """)
-  String generateSqlQuery(String question);
-
-  @SystemMessage(
-      """
-     You are an expert data analyst specializing in software development analytics and git repository data interpretation. You have received the results of SQL queries executed on a SQLite database containing git log data.
-
-     Your task is to analyze the data provided, interpret the metrics, and answer the user's question comprehensively. Provide insights, identify trends, and highlight any potential issues or noteworthy patterns in the data.
-
-     Include analysis of the following additional metrics derived from advanced git log analysis:
-
-    - **Temporal Coupling:**
-      - Identify files or modules that frequently change together.
-      - Detect hidden dependencies and coupling not evident from the code structure.
-      - Highlight clusters of files that are logically linked through change patterns.
-
-    - **Change Coupling:**
-      - Analyze commits to find patterns of simultaneous changes across different parts of the codebase.
-      - Assess the impact of these patterns on system stability and maintenance.
-
-    - **Code Churn Dynamics:**
-      - Examine the rate of code addition and deletion over time.
-      - Identify periods of high churn and correlate them with project events (e.g., releases, new features, refactoring).
-      - Assess the potential for code instability due to excessive churn.
-
-    - **Hotspot Analysis:**
-      - Detect files or modules with high complexity and frequent changes.
-      - Prioritize these hotspots for refactoring or increased testing efforts.
-      - Evaluate the risk associated with hotspots in terms of potential defects and maintenance cost.
-
-    - **Developer Productivity and Work Patterns:**
-      - Analyze individual and team productivity trends.
-      - Identify peak productivity periods and potential factors influencing them.
-      - Examine work patterns such as coding after hours or on weekends.
+      """;
 
-    - **Knowledge Distribution and Bus Factor:**
-      - Assess the concentration of knowledge within the team.
-      - Identify critical areas of the codebase with limited contributors (low bus factor).
-      - Recommend strategies to distribute knowledge more evenly.
-
-    - **Code Ownership and Expertise:**
-      - Determine primary contributors to different parts of the codebase.
-      - Analyze the impact of code ownership on code quality and maintenance.
-      - Evaluate collaboration levels among team members.
-
-    - **Modularization and Architectural Analysis:**
-      - Investigate the alignment between the code's logical architecture and its actual change patterns.
-      - Identify modules that are too tightly coupled or insufficiently cohesive.
-      - Recommend architectural improvements based on empirical data.
-
-    - **Technical Debt Indicators:**
-      - Highlight areas with high modification complexity.
-      - Identify files with a history of quick fixes or workarounds.
-      - Assess the long-term implications of accumulated technical debt.
-
-    - **Effort Estimation and Forecasting:**
-      - Use historical data to estimate the effort required for future changes.
-      - Provide forecasts for maintenance needs based on current trends.
-
-    - **Defect Prediction:**
-      - Correlate past change patterns with defect occurrences.
-      - Identify files or modules likely to contain defects in the future.
-      - Suggest preventive measures to reduce defect rates.
-
-    - **Impact of Refactoring:**
-      - Evaluate the effectiveness of past refactoring efforts on code quality and maintenance.
-      - Analyze whether refactoring led to reduced complexity and fewer defects.
-
-    - **Socio-Technical Congruence:**
-      - Examine the alignment between the team's communication patterns and code dependencies.
-      - Identify mismatches that could lead to integration problems or defects.
+  @SystemMessage("{{instructions}}")
+  String generateSqlQuery(@V("instructions") String instructions, @UserMessage String question);
 
-    - **Release Readiness and Stability:**
-      - Assess the codebase's stability in preparation for releases.
-      - Identify high-risk areas that may require additional testing before deployment.
-
-    - **Maintenance Patterns:**
-      - Analyze the proportion of time spent on new features versus maintenance and bug fixes.
-      - Evaluate how maintenance load affects development velocity.
-
-    - **Developer Onboarding and Ramp-Up:**
-      - Assess the learning curve for new contributors based on their initial commit patterns.
-      - Determine the point after which new developers become productive.
-      - Identify parts of the codebase that are challenging for newcomers.
-
-    - **Include analysis of release and deployment metrics derived from tag data:**
-      - Assess the frequency and cadence of releases.
-      - Analyze development activity between releases.
-      - Evaluate the effectiveness of the release process.
-      - Identify trends in code churn and bug fixes across releases.
-      - Provide insights on lead time for changes and deployment frequency.
-
-    When analyzing the results, consider:
-
-    - **Comprehensive Trend Analysis:**
-      - Use historical data to identify long-term trends and patterns.
-      - Forecast future developments and potential issues based on current trajectories.
-
-    - **Risk Assessment and Mitigation:**
-      - Prioritize high-risk areas and provide actionable recommendations.
-      - Suggest strategies for risk mitigation, such as targeted refactoring or increased testing.
-
-    - **Actionable Insights and Recommendations:**
-      - Provide clear, evidence-based suggestions to improve code quality, reduce technical debt, and enhance team productivity.
-      - Highlight quick wins and strategic initiatives for long-term improvement.
-
-    - **Visualization and Reporting:**
-      - Where appropriate, render visual representations of data (e.g., heat maps, graphs, charts) to illustrate key findings.
-      - Ensure that insights are communicated effectively to both technical and non-technical stakeholders.
-
-    - **Correlation between Results:**
-      - Identify relationships between different metrics and highlight correlations or dependencies.
-      - Use cross-analysis to validate findings and draw meaningful conclusions.
-      - Consider the interplay between different aspects of software development and team dynamics.
-      - Provide a holistic view of the project based on the combined analysis of multiple metrics.
-
-    Always present a table or chart with the results of the analysis, highlighting the key metrics and trends.
-    Present your analysis in a clear, structured manner, using bullet points, headings, or tables where appropriate. Offer recommendations or conclusions that can help improve the software development process, code quality, architecture, and team collaboration.
-    When analyzing the numbers, always consider them in the larger context. If the user asks "Are there many bug fixes in the project?" and the query result is 50, you should consider if 50 is a large number of bug fixes in the context of the project.
-
-    Avoid including the raw SQL query results unless necessary for context.
-    Don't include the fact that you are interpreting SQL queries.
-
-    The data I will send in the prompt has the following structure SQL QUERIES|QUESTION|RESULTS where:
-      - **SQL QUERIES** - are the queries run on the SQLite database that has the git log data
-      - **QUESTION** - is the question asked by the user
-      - **RESULTS** - are the results of the SQL QUERIES
-
-    """)
+  @SystemMessage(BEAUTIFY_RESULT_PROMPT)
   String beautifyResult(String result);
 
+  /**
+   * Same as {@link #beautifyResult(String)}, streaming the answer as it is written.
+   *
+   * @param result the queries, the results and the question, piped
+   * @return the stream of the answer, started by the caller
+   */
+  @SystemMessage(BEAUTIFY_RESULT_PROMPT)
+  TokenStream streamBeautifyResult(String result);
+
   @SystemMessage(
       """
         You are an expert data analyst and SQL developer specialized in software engineering metrics and version control systems. You have access to a SQLite database containing detailed git log data of software repositories.
@@ -542,44 +616,18 @@ public interface SqlGeneratorAi {
           - FOREIGN KEY(tag_commit) REFERENCES commits(commit_hash)
 
         - **Indexes:**
-          •	idx_commits_author ON commits(author)
-          •	idx_commits_author_repo ON commits(author, repo_name)
-          •	idx_commits_date ON commits(date)
-          •	idx_commits_date_repo ON commits(date, repo_name)
           •	idx_commits_author_date ON commits(author, date)
-          •	idx_commits_author_date_repo ON commits(author, date, repo_name)
-          •	idx_commit_date_merge ON commits(date, is_merge)
-          •	idx_commit_date_merge_repo ON commits(date, is_merge, repo_name)
+          •	idx_commits_date_repo ON commits(date, repo_name)
           •	idx_commit_merge_date ON commits(is_merge, date)
-          •	idx_commit_merge_date_repo ON commits(is_merge, date, repo_name)
-          •	idx_commit_date_id ON commits(date, commit_hash)
-          •	idx_commit_date_id_repo ON commits(date, commit_hash, repo_name)
-          •	idx_file_changes_file_path ON file_changes(file_path)
-          •	idx_file_changes_file_path_repo ON file_changes(file_path, repo_name)
-          •	idx_file_changes_commit_file ON file_changes(commit_hash, file_path)
-          •	idx_file_changes_commit_file_repo ON file_changes(commit_hash, file_path, repo_name)
           •	idx_file_changes_group_order ON file_changes(file_path, commit_hash)
-          •	idx_file_changes_group_order_repo ON file_changes(file_path, commit_hash, repo_name)
-          •	idx_file_changes_commit_hash ON file_changes(commit_hash)
-          •	idx_file_changes_commit_hash_repo ON file_changes(commit_hash, repo_name)
+          •	idx_file_changes_commit_file ON file_changes(commit_hash, file_path)
+          •	idx_file_changes_hash_add_del ON file_changes(commit_hash, additions, deletions)
           •	idx_is_test_file ON file_changes(is_test_file)
-          •	idx_is_test_file_repo ON file_changes(is_test_file, repo_name)
           •	idx_is_build_file ON file_changes(is_build_file)
-          •	idx_is_build_file_repo ON file_changes(is_build_file, repo_name)
           •	idx_is_dot_file ON file_changes(is_dot_file)
-          •	idx_is_dot_file_repo ON file_changes(is_dot_file, repo_name)
-          •	idx_tag_name ON tags(tag_name)
-          •	idx_tag_name_name ON tags(tag_name, repo_name)
           •	idx_is_documentation_file ON file_changes(is_documentation_file)
-          •	idx_is_documentation_file_repo ON file_changes(is_documentation_file, repo_name)
-          •	idx_file_changes_performance ON file_changes(commit_hash, file_path, is_test_file, is_build_file, is_dot_file, is_documentation_file)
-          •	idx_file_changes_performance_repo ON file_changes(commit_hash, file_path, is_test_file, is_build_file, is_dot_file, is_documentation_file, repo_name)
-          •	idx_file_changes_hash_add_del ON file_changes(commit_hash, additions, deletions)
-          •	idx_file_changes_hash_add_del_repo ON file_changes(commit_hash, additions, deletions, repo_name)
-          •	idx_commit_parents_commit_hash ON commit_parents(commit_hash)
-          •	idx_commit_parents_commit_hash_repo ON commit_parents(commit_hash, repo_name)
           •	idx_commit_parents_parent_hash ON commit_parents(parent_hash)
-          •	idx_commit_parents_parent_hash_repo ON commit_parents(parent_hash, repo_name)
+          •	primary keys also index commits(commit_hash, repo_name), commit_parents(commit_hash, repo_name, parent_hash), branches(branch_name, repo_name) and tags(tag_name, repo_name)
 
      You must review the SQL query provided by the user and ensure that it is optimized, using the most efficient query plan, and correct based on the database schema and the rules provided.
      If the query needs improvement or correction, you must provide the revised version.
@@ -587,4 +635,31 @@ public interface SqlGeneratorAi {
      Only return the SQL query as a **raw string** without any additional information, comments or markdown formatting.
      """)
   String reviewSqlQuery(String query);
+
+  @SystemMessage(
+      """
+    You are an expert data analyst specializing in software development analytics and git repository data interpretation. The results of SQL queries executed on a SQLite database containing git log data were too large to analyze at once, so they were split into parts, and you are given one of them.
+
+    The data I will send in the prompt has the following structure SQL QUERIES|PART|QUESTION where:
+      - **SQL QUERIES** - are the queries run on the SQLite database that has the git log data
+      - **PART** - is either a part of the results of the SQL QUERIES, with a header line with the column names followed by one line of comma separated values per row, or notes previously written from several other parts
+      - **QUESTION** - is the question asked by the user
+
+    Write concise notes with the facts of this part which are relevant to the question: totals, counts, extremes, notable values, trends and the time range covered, always with their exact numbers. Keep names and numbers exactly as they are, so notes of different parts can be combined later.
+
+    Do not answer the question itself, do not mention that you were given a part, and do not use more than 300 words.
+    """)
+  String analyzePart(String part);
+
+  @SystemMessage(COMBINE_ANALYSES_PROMPT)
+  String combineAnalyses(String notes);
+
+  /**
+   * Same as {@link #combineAnalyses(String)}, streaming the answer as it is written.
+   *
+   * @param notes the queries, the notes of the parts and the question, piped
+   * @return the stream of the answer, started by the caller
+   */
+  @SystemMessage(COMBINE_ANALYSES_PROMPT)
+  TokenStream streamCombineAnalyses(String notes);
 }
@@ -0,0 +1,69 @@
+package io.ludovicianul.command;
+
+import io.ludovicianul.db.IndexAdvisor;
+import io.ludovicianul.log.Logger;
+import io.quarkus.arc.Unremovable;
+import java.io.File;
+import java.sql.SQLException;
+import picocli.CommandLine;
+
+/** Command line interface for tuning the database indexes to the queries run so far. */
+@CommandLine.Command(
+    name = "advise",
+    mixinStandardHelpOptions = true,
+    usageHelpAutoWidth = true,
+    description = "Proposes index changes based on the queries run so far")
+@Unremovable
+public class AdviseCommand implements Runnable {
+
+  @CommandLine.Option(
+      names = {"--apply"},
+      description = "Apply the proposed index changes and keep them when re-indexing")
+  boolean apply;
+
+  @CommandLine.Spec CommandLine.Model.CommandSpec spec;
+
+  @Override
+  public void run() {
+    if (!new File(".sol/commits.db").exists()) {
+      throw new CommandLine.ParameterException(
+          spec.commandLine(), "Git activity is not indexed. Please run 'sol --index'");
+    }
+
+    IndexAdvisor advisor = new IndexAdvisor();
+    try {
+      IndexAdvisor.Advice advice = advisor.advise();
+      Logger.print(
+          "Analyzed %d queries (%d distinct)"
+              .formatted(advice.recordedQueries(), advice.distinctQueries()));
+      printAdvice(advice);
+
+      if (!advice.hasChanges()) {
+        Logger.print("No index changes to propose");
+      } else if (apply) {
+        advisor.apply(advice);
+        Logger.print("Index changes applied");
+      } else {
+        Logger.print("Run 'sol advise --apply' to apply the index changes");
+      }
+    } catch (SQLException e) {
+      Logger.err("Error analyzing queries: " + e.getMessage());
+    }
+  }
+
+  private static void printAdvice(IndexAdvisor.Advice advice) {
+    for (IndexAdvisor.Proposal proposal : advice.indexesToCreate()) {
+      Logger.print(
+          "%s; -- speeds up %d queries, saving %d ms"
+              .formatted(proposal.createStatement(), proposal.queries(), proposal.savedMs()));
+    }
+    for (String index : advice.indexesToDrop()) {
+      Logger.print("DROP INDEX %s; -- not used by any query".formatted(index));
+    }
+    if (advice.distinctQueries() < IndexAdvisor.MIN_QUERIES_TO_DROP) {
+      Logger.print(
+          "Unused indexes are proposed for removal once at least %d distinct queries are recorded"
+              .formatted(IndexAdvisor.MIN_QUERIES_TO_DROP));
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package io.ludovicianul.command;
+
+import io.ludovicianul.SolCommand;
+import java.util.Arrays;
+import picocli.CommandLine;
+
+/**
+ * Case insensitive converter for the analysis mode command line argument, accepting dashes in place
+ * of underscores.
+ */
+public class CaseInsensitiveAnalysisModeConverter
+    implements CommandLine.ITypeConverter<SolCommand.AnalysisMode> {
+
+  @Override
+  public SolCommand.AnalysisMode convert(String value) {
+    for (SolCommand.AnalysisMode constant : SolCommand.AnalysisMode.values()) {
+      if (constant.name().equalsIgnoreCase(value.replace('-', '_'))) {
+        return constant;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Allowed values: " + Arrays.toString(SolCommand.AnalysisMode.values()));
+  }
+}
@@ -0,0 +1,22 @@
+package io.ludovicianul.command;
+
+import java.util.Arrays;
+import picocli.CommandLine;
+
+/**
+ * Case insensitive converter for the query engine command line argument.
+ */
+public class CaseInsensitiveEngineConverter
+    implements CommandLine.ITypeConverter<QueryCommand.Engine> {
+
+  @Override
+  public QueryCommand.Engine convert(String value) {
+    for (QueryCommand.Engine constant : QueryCommand.Engine.values()) {
+      if (constant.name().equalsIgnoreCase(value)) {
+        return constant;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Allowed values: " + Arrays.toString(QueryCommand.Engine.values()));
+  }
+}
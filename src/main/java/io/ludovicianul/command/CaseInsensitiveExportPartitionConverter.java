@@ -0,0 +1,23 @@
+package io.ludovicianul.command;
+
+import io.ludovicianul.db.IndexExporter;
+import java.util.Arrays;
+import picocli.CommandLine;
+
+/**
+ * Case insensitive converter for the export partition command line argument.
+ */
+public class CaseInsensitiveExportPartitionConverter
+    implements CommandLine.ITypeConverter<IndexExporter.Partition> {
+
+  @Override
+  public IndexExporter.Partition convert(String value) {
+    for (IndexExporter.Partition constant : IndexExporter.Partition.values()) {
+      if (constant.name().equalsIgnoreCase(value)) {
+        return constant;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Allowed values: " + Arrays.toString(IndexExporter.Partition.values()));
+  }
+}
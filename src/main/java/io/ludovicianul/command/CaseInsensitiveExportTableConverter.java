@@ -0,0 +1,23 @@
+package io.ludovicianul.command;
+
+import io.ludovicianul.db.IndexExporter;
+import java.util.Arrays;
+import picocli.CommandLine;
+
+/**
+ * Case insensitive converter for the export table command line argument.
+ */
+public class CaseInsensitiveExportTableConverter
+    implements CommandLine.ITypeConverter<IndexExporter.Table> {
+
+  @Override
+  public IndexExporter.Table convert(String value) {
+    for (IndexExporter.Table constant : IndexExporter.Table.values()) {
+      if (constant.name().equalsIgnoreCase(value)) {
+        return constant;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Allowed values: " + Arrays.toString(IndexExporter.Table.values()));
+  }
+}
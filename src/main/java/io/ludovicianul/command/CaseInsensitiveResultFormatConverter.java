@@ -0,0 +1,23 @@
+package io.ludovicianul.command;
+
+import io.ludovicianul.io.ResultWriter;
+import java.util.Arrays;
+import picocli.CommandLine;
+
+/**
+ * Case insensitive converter for the output format command line argument.
+ */
+public class CaseInsensitiveResultFormatConverter
+    implements CommandLine.ITypeConverter<ResultWriter.Format> {
+
+  @Override
+  public ResultWriter.Format convert(String value) {
+    for (ResultWriter.Format constant : ResultWriter.Format.values()) {
+      if (constant.name().equalsIgnoreCase(value)) {
+        return constant;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Allowed values: " + Arrays.toString(ResultWriter.Format.values()));
+  }
+}
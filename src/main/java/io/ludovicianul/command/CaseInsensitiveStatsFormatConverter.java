@@ -0,0 +1,23 @@
+package io.ludovicianul.command;
+
+import io.ludovicianul.SolCommand;
+import java.util.Arrays;
+import picocli.CommandLine;
+
+/**
+ * Case insensitive converter for the indexing stats format command line argument.
+ */
+public class CaseInsensitiveStatsFormatConverter
+    implements CommandLine.ITypeConverter<SolCommand.StatsFormat> {
+
+  @Override
+  public SolCommand.StatsFormat convert(String value) {
+    for (SolCommand.StatsFormat constant : SolCommand.StatsFormat.values()) {
+      if (constant.name().equalsIgnoreCase(value)) {
+        return constant;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Allowed values: " + Arrays.toString(SolCommand.StatsFormat.values()));
+  }
+}
@@ -0,0 +1,72 @@
+package io.ludovicianul.command;
+
+import io.ludovicianul.db.IndexExporter;
+import io.ludovicianul.log.Logger;
+import io.quarkus.arc.Unremovable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import picocli.CommandLine;
+
+/** Command line interface for exporting the index to Parquet files. */
+@CommandLine.Command(
+    name = "export",
+    mixinStandardHelpOptions = true,
+    usageHelpAutoWidth = true,
+    description = "Exports the index to Parquet files, for use in other analytics tools")
+@Unremovable
+public class ExportCommand implements Runnable {
+
+  @CommandLine.Option(
+      names = {"-o", "--output"},
+      description = "Directory to write the files to, with a subdirectory per table. Default: .sol/export")
+  Path output = Path.of(".sol", "export");
+
+  @CommandLine.Option(
+      names = {"--tables"},
+      split = ",",
+      converter = CaseInsensitiveExportTableConverter.class,
+      description = "Tables to export. Valid values: ${COMPLETION-CANDIDATES}. Default: all of them")
+  List<IndexExporter.Table> tables = Arrays.asList(IndexExporter.Table.values());
+
+  @CommandLine.Option(
+      names = {"--partition-by"},
+      split = ",",
+      converter = CaseInsensitiveExportPartitionConverter.class,
+      description =
+          "Partition the files by repository and by the year or month of the commit, e.g. repo,month."
+              + " Valid values: ${COMPLETION-CANDIDATES}. Default: no partitions")
+  List<IndexExporter.Partition> partitions = List.of();
+
+  @CommandLine.Spec CommandLine.Model.CommandSpec spec;
+
+  @Override
+  public void run() {
+    if (!new File(".sol/commits.db").exists()) {
+      throw new CommandLine.ParameterException(
+          spec.commandLine(), "Git activity is not indexed. Please run 'sol --index'");
+    }
+    if (partitions.contains(IndexExporter.Partition.YEAR)
+        && partitions.contains(IndexExporter.Partition.MONTH)) {
+      throw new CommandLine.ParameterException(
+          spec.commandLine(), "Files can be partitioned by year or by month, not both");
+    }
+
+    IndexExporter exporter = new IndexExporter(output, partitions);
+    try {
+      for (IndexExporter.Table table : tables.stream().distinct().toList()) {
+        IndexExporter.Summary summary = exporter.export(table);
+        Logger.print(
+            "Exported %d rows of %s to %d files in %d ms"
+                .formatted(
+                    summary.rows(), table.tableName(), summary.files(), summary.millis()));
+      }
+      Logger.print("Files written to " + output.toAbsolutePath().normalize());
+    } catch (SQLException | IOException e) {
+      Logger.err("Error exporting the index: " + e.getMessage());
+    }
+  }
+}
@@ -1,51 +1,124 @@
 package io.ludovicianul.command;
 
+import com.google.gson.Gson;
+import io.ludovicianul.SolCommand;
+import io.ludovicianul.db.IndexWriter;
 import io.ludovicianul.db.SolDb;
-import io.ludovicianul.io.ProcessRunner;
 import io.ludovicianul.log.Logger;
-import io.ludovicianul.model.Branch;
-import io.ludovicianul.model.CommitRecord;
-import io.ludovicianul.model.FileChange;
-import io.ludovicianul.model.Tag;
+import io.ludovicianul.model.IndexStats;
 import io.ludovicianul.service.FileTypeService;
+import io.ludovicianul.service.IndexMetrics;
+import io.ludovicianul.service.IndexProgress;
+import io.ludovicianul.service.RepositoryIndexer;
 import java.io.File;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
  * Indexes the git repository and stores the data in the database. It collects commits, branches and
- * tags.
+ * tags. When run in a folder containing several repositories, they can be indexed in parallel while
+ * a single writer persists their data.
+ *
+ * <p>While indexing, a progress line shows the commits collected and rows written, and a summary
+ * of the time spent in each phase can be printed at the end.
  */
 public class IndexSubcommand implements Runnable {
 
+  private static final int MAX_PENDING_WRITES = 4;
+
   private final int timeout;
-  private List<CommitRecord> commits;
-  private Map<String, String> branchAndCreationDates;
+  private final boolean incremental;
+  private final int parallelism;
+  private final SolCommand.StatsFormat statsFormat;
 
   private final FileTypeService fileTypeService;
+  private final IndexMetrics metrics = new IndexMetrics();
 
   public IndexSubcommand(int timeout) {
+    this(timeout, false, 1);
+  }
+
+  public IndexSubcommand(int timeout, boolean incremental, int parallelism) {
+    this(timeout, incremental, parallelism, null);
+  }
+
+  /**
+   * Creates the command.
+   *
+   * @param timeout seconds to wait for git commands
+   * @param incremental whether to only index what changed since the last index
+   * @param parallelism the number of repositories indexed at once
+   * @param statsFormat how to print the summary of the run, or {@code null} to not print it
+   */
+  public IndexSubcommand(
+      int timeout, boolean incremental, int parallelism, SolCommand.StatsFormat statsFormat) {
     this.timeout = timeout;
+    this.incremental = incremental;
+    this.parallelism = Math.max(1, parallelism);
+    this.statsFormat = statsFormat;
     this.fileTypeService = new FileTypeService();
   }
 
   @Override
   public void run() {
     initializeDatabase();
-    List<String> directories =
-        getDirectories().stream().filter(directory -> !directory.equals(".sol")).toList();
-    for (String directory : directories) {
-      if (isGitDirectory(directory)) {
-        parseCommits(directory);
-        parseBranches(directory);
-        parseTags(directory);
+    List<String> repositories =
+        getDirectories().stream()
+            .filter(directory -> !directory.equals(".sol"))
+            .filter(this::isGitDirectory)
+            .toList();
+    Queue<String> failed = new ConcurrentLinkedQueue<>();
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+
+    // progress is printed until the last write is done, after the writer is closed
+    IndexProgress progress = IndexProgress.start(metrics);
+    try (IndexWriter writer = new IndexWriter(MAX_PENDING_WRITES * parallelism)) {
+      for (String repository : repositories) {
+        executor.submit(() -> indexRepository(repository, repositories.size() > 1, writer, failed));
       }
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      Logger.err("Indexing was interrupted");
+    } finally {
+      progress.close();
+    }
+    finishDatabase();
+
+    if (repositories.size() > 1) {
+      Logger.print(
+          "Indexed %d of %d repositories"
+              .formatted(repositories.size() - failed.size(), repositories.size()));
+    }
+    if (!failed.isEmpty()) {
+      Logger.err("Failed to index: " + String.join(", ", failed));
+    }
+    printStats(metrics.toStats(repositories.size(), failed.size()));
+  }
+
+  /** A failing repository is reported and skipped, without aborting the other ones. */
+  private void indexRepository(
+      String repository, boolean prefixLogs, IndexWriter writer, Queue<String> failed) {
+    try {
+      new RepositoryIndexer(
+              repository, timeout, incremental, fileTypeService, writer, prefixLogs, metrics)
+          .run();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failed.add(repository);
+    } catch (Exception e) {
+      Logger.err("Error while indexing %s: %s".formatted(repository, e.getMessage()));
+      failed.add(repository);
     }
   }
 
@@ -66,206 +139,46 @@ public class IndexSubcommand implements Runnable {
   }
 
   private void initializeDatabase() {
-    SolDb.initializeDatabase();
+    SolDb.initializeDatabase(incremental);
     Logger.print("Database initialized");
   }
 
-  private void parseBranches(String directory) {
-    branchAndCreationDates = getBranchAndCreationDates(directory);
-    parseBranches(directory, "merged");
-    parseBranches(directory, "no-merged");
-  }
-
-  private Map<String, String> getBranchAndCreationDates(String directory) {
-    Logger.print("Getting branch creation dates...");
-    return ProcessRunner.INSTANCE
-        .getMultiLineProcessOut(
-            timeout,
-            "cd "
-                + directory
-                + " && git for-each-ref --format='%(refname:short),%(creatordate:iso-strict)' refs/heads/ refs/remotes/")
-        .stream()
-        .map(String::trim)
-        .map(branch -> branch.replace("origin/", ""))
-        .distinct()
-        .map(branch -> branch.split(","))
-        .filter(branch -> branch.length == 2)
-        .collect(
-            Collectors.toMap(
-                branch -> branch[0].trim(),
-                branch -> branch[1].trim(),
-                (existing, replacement) -> existing));
-  }
-
-  private void parseTags(String directory) {
-    Logger.print("Collecting tags...");
-
-    List<String> tags =
-        ProcessRunner.INSTANCE.getMultiLineProcessOut(
-            timeout,
-            "cd "
-                + directory
-                + " && git for-each-ref --format='%(refname:short),%(objectname),%(object),%(creatordate:iso-strict),%(contents)' refs/tags");
-
-    tags.stream()
-        .map(tag -> tag.split(","))
-        .filter(tag -> tag.length == 5)
-        .map(
-            tag ->
-                new Tag(
-                    directory,
-                    tag[0].trim(),
-                    tag[2].trim().isEmpty() ? tag[1].trim() : tag[2].trim(),
-                    tag[3].trim(),
-                    tag[4].trim()))
-        .forEach(SolDb::insertTag);
-
-    Logger.print("Finished collecting tags");
-  }
-
-  private void parseBranches(String directory, String merged) {
-    Logger.print("Collecting " + merged + " branches...");
-    boolean isMerged = "merged".equals(merged);
-
-    List<String> branches =
-        ProcessRunner.INSTANCE.getMultiLineProcessOut(
-            timeout, "cd %s && git branch -a --%s".formatted(directory, merged));
-    Set<String> mergedBranches =
-        branches.stream()
-            .map(String::trim)
-            .filter(Branch::isNotMaster)
-            .map(Branch::removeRemoteOriginPrefix)
-            .collect(Collectors.toSet());
-    mergedBranches.stream()
-        .map(branch -> createBranch(directory, branch, isMerged))
-        .forEach(SolDb::insertBranch);
-
-    Logger.print("Finished collecting " + merged + " branches");
-  }
-
-  private Branch createBranch(String directory, String branch, boolean isMerged) {
-    String creationDate = branchAndCreationDates.get(branch);
-    String mergeDate = isMerged ? getMergeDate(branch) : null;
-    int active = isMerged ? 0 : 1;
-
-    return new Branch(directory, branch, active, creationDate, mergeDate);
-  }
-
-  private String getMergeDate(String branch) {
-    return commits.stream()
-        .filter(commit -> commit.messageContains(branch))
-        .findFirst()
-        .map(CommitRecord::date)
-        .orElse(null);
-  }
-
-  private void parseCommits(String directory) {
-    Logger.print("Collecting commits data...");
-
-    List<String> gitLog =
-        ProcessRunner.INSTANCE.getMultiLineProcessOut(
-            timeout,
-            "cd "
-                + directory
-                + " && git log --all --encoding=UTF-8 --numstat --raw --format=\"commit:%H%nauthor:%an%ndate:%cI %nparents:%P%nmessage:%n%s%n%b%nnumstat:\"");
-
-    commits = parseCommits(directory, gitLog);
-
-    SolDb.insertCommits(commits);
-    Logger.print("Commits indexed successfully");
+  /**
+   * A full index is bulk loaded, so its indexes are only built once all data is written. Every run
+   * is then recorded, so that answers cached for the previous index are not reused.
+   */
+  private void finishDatabase() {
+    if (incremental) {
+      SolDb.optimize();
+    } else {
+      Logger.print("Creating indexes...");
+      long start = System.nanoTime();
+      SolDb.createIndexes();
+      metrics.record(IndexMetrics.Phase.INDEX_BUILD, start);
+      Logger.print("Indexes created");
+    }
+    SolDb.recordIndexRun();
   }
 
-  public List<CommitRecord> parseCommits(String directory, List<String> lines) {
-    List<CommitRecord> commits = new ArrayList<>();
-    String commitHash = null;
-    String author = null;
-    String date = null;
-    StringBuilder message = new StringBuilder();
-    List<FileChange> fileChanges = new ArrayList<>();
-    List<String> parents = new ArrayList<>();
-
-    for (String line : lines) {
-      if (line.startsWith("commit:")) {
-        if (commitHash != null) {
-          commits.add(
-              new CommitRecord(
-                  directory,
-                  commitHash,
-                  author,
-                  date,
-                  message.toString().trim(),
-                  new ArrayList<>(fileChanges),
-                  new ArrayList<>(parents)));
-          fileChanges.clear();
-          parents.clear();
-        }
-        commitHash = line.substring(7).trim();
-        message.setLength(0);
-      } else if (line.startsWith("author:")) {
-        author = line.substring(7).trim();
-      } else if (line.startsWith("date:")) {
-        date = line.substring(5).trim();
-      } else if (line.startsWith("message:")) {
-        message.setLength(0);
-      } else if (line.trim().isEmpty() || line.startsWith("numstat:")) {
-        // do nothing
-      } else if (line.startsWith("parents:")) {
-        String[] parts = line.substring(8).trim().split("\\s+");
-        parents.addAll(Arrays.asList(parts));
-      } else if (line.matches("^:\\d{6} \\d{6}.*")) {
-        String[] parts = line.split("\\s+");
-        String changeType = parts[4];
-        String filePath = parts[5];
-        fileChanges.add(
-            new FileChange(
-                directory,
-                changeType,
-                filePath,
-                0,
-                0,
-                fileTypeService.isTestFile(filePath),
-                fileTypeService.isBuildFile(filePath),
-                fileTypeService.isDotFile(filePath),
-                fileTypeService.isDocumentationFile(filePath)));
-      } else if (line.matches("\\d+\\s+\\d+\\s+.*")) {
-        String[] parts = line.split("\\s+");
-        int additions = Integer.parseInt(parts[0]);
-        int deletions = Integer.parseInt(parts[1]);
-        String filePath = parts[2];
-
-        for (FileChange fileChange : fileChanges) {
-          if (fileChange.filePath().equals(filePath)) {
-            fileChanges.set(
-                fileChanges.indexOf(fileChange),
-                new FileChange(
-                    directory,
-                    fileChange.changeType(),
-                    filePath,
-                    additions,
-                    deletions,
-                    fileChange.isTestFile(),
-                    fileChange.isBuildFile(),
-                    fileChange.isDotFile(),
-                    fileChange.isDocumentationFile()));
-            break;
-          }
-        }
-      } else {
-        message.append(line).append("\n");
-      }
+  private void printStats(IndexStats stats) {
+    if (statsFormat == SolCommand.StatsFormat.JSON) {
+      // on the standard output even when messages are not, so it can be piped
+      System.out.println(new Gson().toJson(stats));
+    } else if (statsFormat == SolCommand.StatsFormat.TEXT) {
+      Logger.printNewLine();
+      Logger.print(
+          "Indexed %,d commits in %,d ms, %,d commits/s, peak heap %,d MB"
+              .formatted(
+                  stats.rows().get("commits"),
+                  stats.totalMillis(),
+                  stats.commitsPerSecond(),
+                  stats.peakHeapBytes() / (1024 * 1024)));
+      Logger.print("Time per phase, summed over repositories:");
+      stats
+          .phaseMillis()
+          .forEach((phase, millis) -> Logger.print("  %-16s %,10d ms".formatted(phase, millis)));
+      Logger.print("Rows written:");
+      stats.rows().forEach((table, rows) -> Logger.print("  %-16s %,10d".formatted(table, rows)));
     }
-    if (commitHash != null) {
-      commits.add(
-          new CommitRecord(
-              directory,
-              commitHash,
-              author,
-              date,
-              message.toString().trim(),
-              fileChanges,
-              parents));
-    }
-
-    return commits;
   }
 }
@@ -1,15 +1,27 @@
 package io.ludovicianul.command;
 
+import io.ludovicianul.db.ColumnarReports;
+import io.ludovicianul.db.ColumnarStore;
+import io.ludovicianul.db.RowCursor;
+import io.ludovicianul.db.Rows;
 import io.ludovicianul.db.SolDb;
+import io.ludovicianul.db.SolDbSession;
+import io.ludovicianul.io.ResultWriter;
 import io.ludovicianul.log.Logger;
 import io.quarkus.arc.Unremovable;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.EnumMap;
-import java.util.List;
-import java.util.Map;
+import java.util.EnumSet;
+import java.util.Set;
 import picocli.CommandLine;
 
 /** Command line interface for running predefined queries on git data. */
@@ -38,100 +50,169 @@ public class QueryCommand implements Runnable {
       required = true)
   ReportType reportType;
 
+  @CommandLine.Option(
+      names = {"--format"},
+      converter = CaseInsensitiveResultFormatConverter.class,
+      description = "Output format. Valid values: ${COMPLETION-CANDIDATES}. Default: CSV")
+  ResultWriter.Format format = ResultWriter.Format.CSV;
+
+  @CommandLine.Option(
+      names = {"--engine"},
+      converter = CaseInsensitiveEngineConverter.class,
+      description =
+          "Engine running the report. COLUMNAR scans an in-memory copy of the data, built on first use"
+              + " after each index. Valid values: ${COMPLETION-CANDIDATES}. Default: SQLITE")
+  Engine engine = Engine.SQLITE;
+
+  @CommandLine.Spec CommandLine.Model.CommandSpec spec;
+
+  /** Bounds used when no date is given, so the queries keep the same shape and can be reused. */
+  private static final String MIN_DATE = "0000-01-01T00:00:00Z";
+
+  private static final String MAX_DATE = "9999-12-31T23:59:59Z";
+
   @Override
   public void run() {
-    String query = getQueryToRun(QUERIES.get(reportType));
+    if (!new File(".sol/commits.db").exists()) {
+      throw new CommandLine.ParameterException(
+          spec.commandLine(), "Git activity is not indexed. Please run 'sol --index'");
+    }
+    if (!isIndexedFor(reportType, engine)) {
+      throw new CommandLine.ParameterException(
+          spec.commandLine(),
+          "The index was written by an older version of sol. Please run 'sol --index'");
+    }
+
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
     try {
-      List<Map<String, Object>> result = SolDb.executeQuery(query);
-      Logger.print(formatResult(result));
-    } catch (SQLException e) {
+      writeReport(reportType, from, to, engine, format, out);
+    } catch (SQLException | IOException e) {
       Logger.err("Error running query: " + e.getMessage());
     }
   }
 
-  public enum ReportType {
-    CHURN,
-    RELEASES,
-    MERGE_TIME,
-    COMMIT_VELOCITY,
-    TEST_CHANGES
-  }
-
-  public static String formatResult(List<Map<String, Object>> result) {
-    StringBuilder sb = new StringBuilder();
-    if (!result.isEmpty()) {
-      Map<String, Object> firstRow = result.getFirst();
-      sb.append(String.join(", ", firstRow.keySet())).append("\n");
+  /**
+   * Runs a report and writes its rows.
+   *
+   * @param reportType the report
+   * @param from the first day of the range, format yyyy-MM-dd, null for no lower bound
+   * @param to the last day of the range, format yyyy-MM-dd, null for no upper bound
+   * @param engine the engine running the report
+   * @param format the output format
+   * @param out where to write the rows
+   * @return the number of rows written
+   * @throws SQLException if the report cannot be run
+   * @throws IOException if the rows cannot be written
+   */
+  public static long writeReport(
+      ReportType reportType,
+      String from,
+      String to,
+      Engine engine,
+      ResultWriter.Format format,
+      Writer out)
+      throws SQLException, IOException {
+    if (engine == Engine.COLUMNAR) {
+      return ResultWriter.create(format, out)
+          .write(runColumnar(reportType, getStartOfDayFrom(from), getEndOfDayTo(to)));
     }
-    for (Map<String, Object> map : result) {
-      sb.append(
-              String.join(
-                  ", ",
-                  map.values().stream()
-                      .map(value -> value != null ? value.toString() : "")
-                      .toArray(String[]::new)))
-          .append("\n");
+    try (SolDbSession session = SolDbSession.open();
+        RowCursor cursor =
+            session.query(QUERIES.get(reportType), getStartOfDayFrom(from), getEndOfDayTo(to))) {
+      return ResultWriter.create(format, out).write(cursor);
     }
+  }
 
-    return sb.toString().trim();
+  /**
+   * Returns whether the index has the tables the report reads with the engine. The columnar store
+   * is built from the commits, but reports run on SQLite may read the activity rollup, which
+   * indexes written by older versions lack.
+   *
+   * @param reportType the report
+   * @param engine the engine running the report
+   * @return false if the repositories have to be indexed again to run the report
+   */
+  public static boolean isIndexedFor(ReportType reportType, Engine engine) {
+    return engine == Engine.COLUMNAR
+        || !ROLLUP_REPORTS.contains(reportType)
+        || SolDb.hasActivityRollup();
   }
 
-  public String getQueryToRun(String baseQuery) {
-    String fromPlaceholder = getStartOfDayFrom();
-    String toPlaceholder = getEndOfDayTo();
-
-    if (from == null && to == null) {
-      baseQuery = baseQuery.replace("AND date BETWEEN %s AND %s", "");
-    } else if (from == null) {
-      baseQuery =
-          baseQuery
-              .replace("AND date BETWEEN %s AND %s", "AND date <= %s")
-              .replaceFirst("%s", toPlaceholder);
-    } else if (to == null) {
-      baseQuery =
-          baseQuery
-              .replace("AND date BETWEEN %s AND %s", "AND date >= %s")
-              .replaceFirst("%s", fromPlaceholder);
-    } else {
-      baseQuery = baseQuery.formatted(fromPlaceholder, toPlaceholder);
-    }
+  /** Runs the report on the columnar store, which gives the same rows as the SQL below. */
+  private static Rows runColumnar(ReportType reportType, String from, String to)
+      throws SQLException, IOException {
+    ColumnarReports reports = new ColumnarReports(ColumnarStore.open());
+    return switch (reportType) {
+      case CHURN -> reports.churn(from, to);
+      case RELEASES -> reports.releases(from, to);
+      case MERGE_TIME -> reports.mergeTime(from, to);
+      case COMMIT_VELOCITY -> reports.commitVelocity(from, to);
+      case TEST_CHANGES -> reports.testChanges(from, to);
+    };
+  }
 
-    return baseQuery;
+  public enum Engine {
+    SQLITE,
+    COLUMNAR
+  }
+
+  public enum ReportType {
+    CHURN,
+    RELEASES,
+    MERGE_TIME,
+    COMMIT_VELOCITY,
+    TEST_CHANGES
   }
 
-  private String getEndOfDayTo() {
+  private static String getEndOfDayTo(String to) {
     return to != null
-        ? "'"
-            + DateTimeFormatter.ISO_INSTANT.format(
-                LocalDate.parse(to).atTime(23, 59, 59).atZone(ZoneId.of("UTC")).toInstant())
-            + "'"
-        : "NULL";
+        ? DateTimeFormatter.ISO_INSTANT.format(
+            LocalDate.parse(to).atTime(23, 59, 59).atZone(ZoneId.of("UTC")).toInstant())
+        : MAX_DATE;
   }
 
-  private String getStartOfDayFrom() {
+  private static String getStartOfDayFrom(String from) {
     return from != null
-        ? "'"
-            + DateTimeFormatter.ISO_INSTANT.format(
-                LocalDate.parse(from).atStartOfDay(ZoneId.of("UTC")).toInstant())
-            + "'"
-        : "NULL";
+        ? DateTimeFormatter.ISO_INSTANT.format(
+            LocalDate.parse(from).atStartOfDay(ZoneId.of("UTC")).toInstant())
+        : MIN_DATE;
   }
 
   private static final EnumMap<ReportType, String> QUERIES = new EnumMap<>(ReportType.class);
 
+  /** Reports whose SQL reads the activity rollup. */
+  private static final Set<ReportType> ROLLUP_REPORTS =
+      EnumSet.of(ReportType.CHURN, ReportType.COMMIT_VELOCITY, ReportType.TEST_CHANGES);
+
+  /**
+   * Returns the SQL of a report, which takes the start and the end of the date range as parameters.
+   *
+   * @param reportType the report
+   * @return the SQL of the report
+   */
+  public static String getQuery(ReportType reportType) {
+    return QUERIES.get(reportType);
+  }
+
+  /*
+   * Reports aggregating whole days read the daily activity rollup instead of the commits. The bounds
+   * are at the start and end of a day, so comparing the day they fall on gives the same rows.
+   */
   private static final String CHURN_QUERY =
       """
       SELECT
           author,
-          COUNT(commit_hash) AS num_commits,
+          SUM(commits) AS num_commits,
           SUM(total_deletions) AS total_deletions,
           SUM(total_additions) AS total_additions
       FROM
-          commits
+          activity_rollup
       WHERE
-          1 = 1
-          AND date BETWEEN %s AND %s
+          period_type = 'day'
+          AND period_start BETWEEN substr(?, 1, 10) AND substr(?, 1, 10)
       GROUP BY
+          author
+      ORDER BY
           author;
     """;
 
@@ -145,7 +226,7 @@ public class QueryCommand implements Runnable {
           commits c ON t.tag_commit = c.commit_hash
       WHERE
           1 = 1
-          AND date BETWEEN %s AND %s;
+          AND date BETWEEN ? AND ?;
     """;
 
   private static final String AVERAGE_MERGE_TIME_QUERY =
@@ -159,7 +240,7 @@ public class QueryCommand implements Runnable {
               commits
           WHERE
               is_merge = 1
-              AND date BETWEEN %s AND %s
+              AND date BETWEEN ? AND ?
       ),
       merge_durations AS (
           SELECT
@@ -176,20 +257,22 @@ public class QueryCommand implements Runnable {
       FROM
           merge_durations
       GROUP BY
+          repo_name
+      ORDER BY
           repo_name;
     """;
 
   private static final String COMMIT_VELOCITY =
       """
       SELECT
-          substr(date, 1, 10) AS day,
+          period_start AS day,
           repo_name,
-          COUNT(commit_hash) AS commits_per_day
+          SUM(commits) AS commits_per_day
       FROM
-          commits
+          activity_rollup
       WHERE
-          1 = 1
-          AND date BETWEEN %s AND %s
+          period_type = 'day'
+          AND period_start BETWEEN substr(?, 1, 10) AND substr(?, 1, 10)
       GROUP BY
           repo_name, day
       ORDER BY
@@ -204,14 +287,14 @@ public class QueryCommand implements Runnable {
         SUM(total_additions_test + total_deletions_test) AS test_file_changes,
         ROUND((SUM(total_additions_test + total_deletions_test) * 100.0 / SUM(total_additions + total_deletions)), 2) AS test_file_change_percentage
     FROM
-        commits
+        activity_rollup
     WHERE
-          1 = 1
-          AND date BETWEEN %s AND %s
+          period_type = 'day'
+          AND period_start BETWEEN substr(?, 1, 10) AND substr(?, 1, 10)
     GROUP BY
         repo_name
     ORDER BY
-        test_file_change_percentage DESC;
+        test_file_change_percentage DESC, repo_name;
     """;
 
   static {
@@ -0,0 +1,356 @@
+package io.ludovicianul.db;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * The predefined reports of {@code sol query}, computed by scanning a {@link ColumnarStore} instead
+ * of running SQL. The scans are split in ranges of rows which run in parallel, each one adding up
+ * into its own totals, merged at the end.
+ *
+ * <p>Reports return the same rows as their SQL, in the same order, with SQLite's semantics for
+ * rounding and for summing floating point numbers.
+ */
+public class ColumnarReports {
+  private static final int MIN_RANGE_ROWS = 16 * 1024;
+  private static final long MS_PER_DAY = 86_400_000L;
+
+  /** Julian day of the Unix epoch in milliseconds, which is how SQLite represents dates. */
+  private static final long UNIX_EPOCH_JULIAN_MS = 210_866_760_000_000L;
+
+  private final ColumnarStore store;
+
+  /**
+   * Creates the reports of a store.
+   *
+   * @param store the store to scan
+   */
+  public ColumnarReports(ColumnarStore store) {
+    this.store = store;
+  }
+
+  /**
+   * Returns the commits and lines changed per author.
+   *
+   * @param from the start of the date range, an ISO instant
+   * @param to the end of the date range, included
+   * @return the rows of the report
+   */
+  public Rows churn(String from, String to) {
+    int authors = store.authors.length;
+    long[] totals =
+        scanCommits(
+            from,
+            to,
+            () -> new long[authors * 3],
+            (acc, repo, start, end) -> {
+              for (int row = start; row < end; row++) {
+                int author = store.author[row] * 3;
+                acc[author]++;
+                acc[author + 1] += store.deletions[row];
+                acc[author + 2] += store.additions[row];
+              }
+            },
+            ColumnarReports::add);
+
+    List<Object[]> rows = new ArrayList<>();
+    for (int author = 0; author < authors; author++) {
+      if (totals[author * 3] > 0) {
+        rows.add(
+            new Object[] {
+              store.authors[author], totals[author * 3], totals[author * 3 + 1], totals[author * 3 + 2]
+            });
+      }
+    }
+    return new ListRows(
+        List.of("author", "num_commits", "total_deletions", "total_additions"), rows);
+  }
+
+  /**
+   * Returns the number of tags pointing to commits of the date range.
+   *
+   * @param from the start of the date range, an ISO instant
+   * @param to the end of the date range, included
+   * @return the single row of the report
+   */
+  public Rows releases(String from, String to) {
+    long start = epochSecond(from);
+    long end = epochSecond(to);
+    long releases =
+        Arrays.stream(store.taggedCommits)
+            .parallel()
+            .filter(row -> store.date[row] >= start && store.date[row] <= end)
+            .count();
+    return new ListRows(List.of("no_of_releases"), List.<Object[]>of(new Object[] {releases}));
+  }
+
+  /**
+   * Returns the average number of days between consecutive merge commits, per repository.
+   *
+   * @param from the start of the date range, an ISO instant
+   * @param to the end of the date range, included
+   * @return the rows of the report
+   */
+  public Rows mergeTime(String from, String to) {
+    long start = epochSecond(from);
+    long end = epochSecond(to);
+    Double[] averages = new Double[store.repos.length];
+    IntStream.range(0, store.repos.length)
+        .parallel()
+        .forEach(
+            repo -> {
+              Average average = new Average();
+              double previous = Double.NaN;
+              int last = endRow(repo, end);
+              for (int row = firstRow(repo, start); row < last; row++) {
+                if (store.merge.get(row)) {
+                  double julianDay = julianDay(store.date[row]);
+                  if (!Double.isNaN(previous)) {
+                    average.add(julianDay - previous);
+                  }
+                  previous = julianDay;
+                }
+              }
+              averages[repo] = average.value();
+            });
+
+    List<Object[]> rows = new ArrayList<>();
+    for (int repo = 0; repo < averages.length; repo++) {
+      if (averages[repo] != null) {
+        rows.add(new Object[] {store.repos[repo], averages[repo]});
+      }
+    }
+    return new ListRows(List.of("repo_name", "avg_time_in_days_between_merges"), rows);
+  }
+
+  /**
+   * Returns the commits per day and repository. Each range yields its days in order, and a day
+   * split between two ranges is joined when they are merged.
+   *
+   * @param from the start of the date range, an ISO instant
+   * @param to the end of the date range, included
+   * @return the rows of the report
+   */
+  public Rows commitVelocity(String from, String to) {
+    List<long[]> days =
+        scanCommits(
+            from,
+            to,
+            ArrayList::new,
+            (acc, repo, start, end) -> {
+              for (int row = start; row < end; row++) {
+                long day = Math.floorDiv(store.date[row], 86_400L);
+                long[] last = acc.isEmpty() ? null : acc.getLast();
+                if (last != null && last[0] == repo && last[1] == day) {
+                  last[2]++;
+                } else {
+                  acc.add(new long[] {repo, day, 1});
+                }
+              }
+            },
+            (left, right) -> {
+              if (!left.isEmpty()
+                  && !right.isEmpty()
+                  && left.getLast()[0] == right.getFirst()[0]
+                  && left.getLast()[1] == right.getFirst()[1]) {
+                left.getLast()[2] += right.removeFirst()[2];
+              }
+              left.addAll(right);
+            });
+
+    List<Object[]> rows = new ArrayList<>(days.size());
+    for (long[] day : days) {
+      rows.add(
+          new Object[] {LocalDate.ofEpochDay(day[1]).toString(), store.repos[(int) day[0]], day[2]});
+    }
+    return new ListRows(List.of("day", "repo_name", "commits_per_day"), rows);
+  }
+
+  /**
+   * Returns the share of the lines changed in test files, per repository, the highest first.
+   *
+   * @param from the start of the date range, an ISO instant
+   * @param to the end of the date range, included
+   * @return the rows of the report
+   */
+  public Rows testChanges(String from, String to) {
+    int repos = store.repos.length;
+    long[] totals =
+        scanCommits(
+            from,
+            to,
+            () -> new long[repos * 3],
+            (acc, repo, start, end) -> {
+              for (int row = start; row < end; row++) {
+                acc[repo * 3]++;
+                acc[repo * 3 + 1] += store.additions[row] + store.deletions[row];
+                acc[repo * 3 + 2] += store.testAdditions[row] + store.testDeletions[row];
+              }
+            },
+            ColumnarReports::add);
+
+    List<Object[]> rows = new ArrayList<>();
+    for (int repo = 0; repo < repos; repo++) {
+      if (totals[repo * 3] > 0) {
+        long changes = totals[repo * 3 + 1];
+        long testChanges = totals[repo * 3 + 2];
+        Double percentage = changes == 0 ? null : round(testChanges * 100.0 / changes, 2);
+        rows.add(new Object[] {store.repos[repo], changes, testChanges, percentage});
+      }
+    }
+    // Sorting is stable, and SQLite puts NULL last when sorting in descending order
+    rows.sort(
+        Comparator.comparing(
+            (Object[] row) -> (Double) row[3], Comparator.nullsFirst(Comparator.<Double>naturalOrder()))
+            .reversed());
+    return new ListRows(
+        List.of("repo_name", "total_changes", "test_file_changes", "test_file_change_percentage"),
+        rows);
+  }
+
+  /**
+   * Scans the commits of every repository within the date range, in parallel ranges of rows. Ranges
+   * never span two repositories.
+   */
+  private <A> A scanCommits(
+      String from, String to, Supplier<A> accumulator, RangeScan<A> scan, BiConsumer<A, A> merge) {
+    long start = epochSecond(from);
+    long end = epochSecond(to);
+    List<int[]> ranges = new ArrayList<>();
+    int rows = 0;
+    for (int repo = 0; repo < store.repos.length; repo++) {
+      rows += Math.max(0, endRow(repo, end) - firstRow(repo, start));
+    }
+    int rangeRows = Math.max(MIN_RANGE_ROWS, rows / (ForkJoinPool.getCommonPoolParallelism() * 4));
+
+    for (int repo = 0; repo < store.repos.length; repo++) {
+      int last = endRow(repo, end);
+      for (int first = firstRow(repo, start); first < last; first += rangeRows) {
+        ranges.add(new int[] {repo, first, Math.min(first + rangeRows, last)});
+      }
+    }
+    return ranges.parallelStream()
+        .collect(accumulator, (acc, range) -> scan.scan(acc, range[0], range[1], range[2]), merge);
+  }
+
+  /** First row of the repository with a date from the given one. */
+  private int firstRow(int repo, long date) {
+    return search(repo, date, false);
+  }
+
+  /** Row following the last row of the repository with a date up to the given one. */
+  private int endRow(int repo, long date) {
+    return search(repo, date, true);
+  }
+
+  private int search(int repo, long date, boolean inclusive) {
+    int low = store.repoStart[repo];
+    int high = store.repoStart[repo + 1];
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      long value = store.date[middle];
+      if (value < date || (inclusive && value == date)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private static long epochSecond(String date) {
+    return Instant.parse(date).getEpochSecond();
+  }
+
+  private static double julianDay(long epochSecond) {
+    return (epochSecond * 1000 + UNIX_EPOCH_JULIAN_MS) / (double) MS_PER_DAY;
+  }
+
+  /** Rounds like SQLite's {@code ROUND}: half away from zero, on the decimal digits. */
+  private static double round(double value, int digits) {
+    if (!Double.isFinite(value)) {
+      return value;
+    }
+    return new BigDecimal(value).setScale(digits, RoundingMode.HALF_UP).doubleValue();
+  }
+
+  private static void add(long[] totals, long[] other) {
+    for (int i = 0; i < totals.length; i++) {
+      totals[i] += other[i];
+    }
+  }
+
+  /** Scans the rows of a repository from start to end, adding them up into the accumulator. */
+  @FunctionalInterface
+  private interface RangeScan<A> {
+    void scan(A accumulator, int repo, int start, int end);
+  }
+
+  /**
+   * Average of floating point numbers, summed with the Kahan-Babuska-Neumaier algorithm like
+   * SQLite's {@code AVG}, so both give the same result to the last bit.
+   */
+  private static final class Average {
+    private double sum;
+    private double error;
+    private long count;
+
+    void add(double value) {
+      double total = sum + value;
+      if (Math.abs(sum) > Math.abs(value)) {
+        error += (sum - total) + value;
+      } else {
+        error += (value - total) + sum;
+      }
+      sum = total;
+      count++;
+    }
+
+    Double value() {
+      if (count == 0) {
+        return null;
+      }
+      double total = Double.isFinite(error) ? sum + error : sum;
+      return total / count;
+    }
+  }
+
+  /** Rows computed in memory. */
+  private static final class ListRows implements Rows {
+    private final List<String> columns;
+    private final Iterator<Object[]> rows;
+    private Object[] current;
+
+    ListRows(List<String> columns, List<Object[]> rows) {
+      this.columns = columns;
+      this.rows = rows.iterator();
+    }
+
+    @Override
+    public List<String> columns() {
+      return columns;
+    }
+
+    @Override
+    public boolean next() {
+      current = rows.hasNext() ? rows.next() : null;
+      return current != null;
+    }
+
+    @Override
+    public Object get(int column) {
+      return current[column];
+    }
+  }
+}
@@ -0,0 +1,387 @@
+package io.ludovicianul.db;
+
+import io.ludovicianul.log.Logger;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Column oriented copy of the commits and tags, for the scan heavy reports of {@code sol query}.
+ * Each column is a primitive array: dates are epoch seconds, repositories and authors are ids into
+ * dictionaries sorted like SQLite sorts text, and the merge flag is a bitset.
+ *
+ * <p>Commits are sorted by repository and date, so the commits of a repository within a date range
+ * are a contiguous run of rows found by binary search.
+ *
+ * <p>The copy is written to {@code .sol/columnar.bin} the first time it is needed after an index
+ * run, and memory mapped on later runs.
+ */
+public final class ColumnarStore {
+  private static final Path STORE_FILE = Path.of(".sol", "columnar.bin");
+  private static final int MAGIC = 0x534F4C43;
+  private static final int VERSION = 2;
+
+  /** Date of the commits without one. It sorts before any date range. */
+  static final long NO_DATE = Long.MIN_VALUE;
+
+  final String[] repos;
+  final String[] authors;
+
+  /**
+   * The commits of repository {@code r} are the rows from {@code repoStart[r]} to {@code
+   * repoStart[r + 1]}.
+   */
+  final int[] repoStart;
+
+  final long[] date;
+  final int[] author;
+  final BitSet merge;
+  final int[] additions;
+  final int[] deletions;
+  final int[] testAdditions;
+  final int[] testDeletions;
+
+  /** The commits tags point to, once for each tag and commit with the hash of the tag commit. */
+  final int[] taggedCommits;
+
+  private ColumnarStore(Columns columns) {
+    this.repos = columns.repos;
+    this.authors = columns.authors;
+    this.repoStart = columns.repoStart;
+    this.date = columns.date;
+    this.author = columns.author;
+    this.merge = columns.merge;
+    this.additions = columns.additions;
+    this.deletions = columns.deletions;
+    this.testAdditions = columns.testAdditions;
+    this.testDeletions = columns.testDeletions;
+    this.taggedCommits = columns.taggedCommits;
+  }
+
+  /**
+   * Opens the store of the current index, building it first if it is missing or was built from a
+   * previous index.
+   *
+   * @return the store
+   * @throws SQLException if the database cannot be read
+   * @throws IOException if the store cannot be read or written
+   */
+  public static ColumnarStore open() throws SQLException, IOException {
+    String fingerprint =
+        SolDb.getIndexFingerprint()
+            .orElseThrow(() -> new SQLException("Cannot read the index state of commits.db"));
+    long start = System.nanoTime();
+
+    if (Files.exists(STORE_FILE)) {
+      try {
+        ColumnarStore store = read(fingerprint);
+        if (store != null) {
+          Logger.debug("Columnar store mapped in " + elapsedMs(start) + "ms");
+          return store;
+        }
+      } catch (IOException | RuntimeException e) {
+        Logger.debug("Rebuilding unreadable columnar store: " + e.getMessage());
+      }
+    }
+
+    Columns columns = load();
+    write(fingerprint, columns);
+    Logger.debug("Columnar store built in " + elapsedMs(start) + "ms");
+    return new ColumnarStore(columns);
+  }
+
+  /** Reads the columns from commits.db, with SQLite sorting the commits. */
+  private static Columns load() throws SQLException {
+    Columns columns = new Columns();
+    try (Connection conn = DriverManager.getConnection(SolDb.DB_URL);
+        Statement stmt = conn.createStatement()) {
+      int commitCount = count(stmt, "SELECT COUNT(*) FROM commits");
+      int[] rowOfRowid = new int[count(stmt, "SELECT COALESCE(MAX(rowid), 0) FROM commits") + 1];
+      loadCommits(stmt, columns, commitCount, rowOfRowid);
+      loadTags(stmt, columns, rowOfRowid);
+    }
+    return columns;
+  }
+
+  private static void loadCommits(
+      Statement stmt, Columns columns, int commitCount, int[] rowOfRowid) throws SQLException {
+    columns.date = new long[commitCount];
+    columns.author = new int[commitCount];
+    columns.merge = new BitSet(commitCount);
+    columns.additions = new int[commitCount];
+    columns.deletions = new int[commitCount];
+    columns.testAdditions = new int[commitCount];
+    columns.testDeletions = new int[commitCount];
+
+    Dictionary repos = new Dictionary();
+    Dictionary authors = new Dictionary();
+    int[] repo = new int[commitCount];
+    String query =
+        """
+        SELECT rowid, repo_name, author, date, is_merge, total_additions, total_deletions,
+            total_additions_test, total_deletions_test
+        FROM commits
+        ORDER BY repo_name, date
+        """;
+    try (ResultSet rs = stmt.executeQuery(query)) {
+      for (int row = 0; row < commitCount && rs.next(); row++) {
+        rowOfRowid[rs.getInt(1)] = row;
+        repo[row] = repos.id(rs.getString(2));
+        columns.author[row] = authors.id(rs.getString(3));
+        String date = rs.getString(4);
+        columns.date[row] = date == null ? NO_DATE : Instant.parse(date).getEpochSecond();
+        columns.merge.set(row, rs.getInt(5) == 1);
+        columns.additions[row] = rs.getInt(6);
+        columns.deletions[row] = rs.getInt(7);
+        columns.testAdditions[row] = rs.getInt(8);
+        columns.testDeletions[row] = rs.getInt(9);
+      }
+    }
+
+    // Repositories come sorted from SQLite, so their ids already follow the sort order
+    columns.repos = repos.values();
+    columns.repoStart = new int[columns.repos.length + 1];
+    for (int row = 0; row < commitCount; row++) {
+      columns.repoStart[repo[row] + 1]++;
+    }
+    Arrays.parallelPrefix(columns.repoStart, Integer::sum);
+
+    int[] authorIds = authors.sortedIds();
+    columns.authors = authors.sortedValues();
+    for (int row = 0; row < commitCount; row++) {
+      columns.author[row] = authorIds[columns.author[row]];
+    }
+  }
+
+  private static void loadTags(Statement stmt, Columns columns, int[] rowOfRowid)
+      throws SQLException {
+    int[] tagged = new int[count(stmt, "SELECT COUNT(*) FROM tags")];
+    int taggedCount = 0;
+    String query = "SELECT c.rowid FROM tags t JOIN commits c ON t.tag_commit = c.commit_hash";
+    try (ResultSet rs = stmt.executeQuery(query)) {
+      while (rs.next()) {
+        if (taggedCount == tagged.length) {
+          tagged = Arrays.copyOf(tagged, Math.max(16, taggedCount * 2));
+        }
+        tagged[taggedCount++] = rowOfRowid[rs.getInt(1)];
+      }
+    }
+    columns.taggedCommits = Arrays.copyOf(tagged, taggedCount);
+  }
+
+  private static int count(Statement stmt, String query) throws SQLException {
+    try (ResultSet rs = stmt.executeQuery(query)) {
+      return rs.next() ? rs.getInt(1) : 0;
+    }
+  }
+
+  /** The file is replaced atomically, so a concurrent run never maps a partially written store. */
+  private static void write(String fingerprint, Columns columns) throws IOException {
+    Path temp = Files.createTempFile(STORE_FILE.getParent(), "columnar", ".bin");
+    try (OutputStream file = Files.newOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 20))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeString(out, fingerprint);
+      writeStrings(out, columns.repos);
+      writeStrings(out, columns.authors);
+      writeInts(out, columns.repoStart);
+      writeLongs(out, columns.date);
+      writeInts(out, columns.author);
+      writeLongs(out, columns.merge.toLongArray());
+      writeInts(out, columns.additions);
+      writeInts(out, columns.deletions);
+      writeInts(out, columns.testAdditions);
+      writeInts(out, columns.testDeletions);
+      writeInts(out, columns.taggedCommits);
+    }
+    Files.move(temp, STORE_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** Returns null when the store was built from another index or by another version. */
+  private static ColumnarStore read(String fingerprint) throws IOException {
+    try (FileChannel channel = FileChannel.open(STORE_FILE, StandardOpenOption.READ)) {
+      ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (in.getInt() != MAGIC || in.getInt() != VERSION || !fingerprint.equals(readString(in))) {
+        return null;
+      }
+      Columns columns = new Columns();
+      columns.repos = readStrings(in);
+      columns.authors = readStrings(in);
+      columns.repoStart = readInts(in);
+      columns.date = readLongs(in);
+      columns.author = readInts(in);
+      columns.merge = BitSet.valueOf(readLongs(in));
+      columns.additions = readInts(in);
+      columns.deletions = readInts(in);
+      columns.testAdditions = readInts(in);
+      columns.testDeletions = readInts(in);
+      columns.taggedCommits = readInts(in);
+      return new ColumnarStore(columns);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+    out.writeInt(values.length);
+    for (String value : values) {
+      writeString(out, value);
+    }
+  }
+
+  private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+    out.writeInt(values.length);
+    for (int value : values) {
+      out.writeInt(value);
+    }
+  }
+
+  private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+    out.writeInt(values.length);
+    for (long value : values) {
+      out.writeLong(value);
+    }
+  }
+
+  private static String readString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static String[] readStrings(ByteBuffer in) {
+    String[] values = new String[in.getInt()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = readString(in);
+    }
+    return values;
+  }
+
+  private static int[] readInts(ByteBuffer in) {
+    int[] values = new int[in.getInt()];
+    in.asIntBuffer().get(values);
+    in.position(in.position() + values.length * Integer.BYTES);
+    return values;
+  }
+
+  private static long[] readLongs(ByteBuffer in) {
+    long[] values = new long[in.getInt()];
+    in.asLongBuffer().get(values);
+    in.position(in.position() + values.length * Long.BYTES);
+    return values;
+  }
+
+  private static long elapsedMs(long start) {
+    return (System.nanoTime() - start) / 1_000_000;
+  }
+
+  /**
+   * Compares text like SQLite does by default, by the bytes of its UTF-8 encoding, which is the
+   * order of its code points. Null comes first.
+   */
+  static int compareText(String a, String b) {
+    if (a == null || b == null) {
+      return a == null ? (b == null ? 0 : -1) : 1;
+    }
+    int i = 0;
+    int j = 0;
+    while (i < a.length() && j < b.length()) {
+      int ca = a.codePointAt(i);
+      int cb = b.codePointAt(j);
+      if (ca != cb) {
+        return Integer.compare(ca, cb);
+      }
+      i += Character.charCount(ca);
+      j += Character.charCount(cb);
+    }
+    return Integer.compare(a.length() - i, b.length() - j);
+  }
+
+  /** Columns being loaded or read. */
+  private static final class Columns {
+    String[] repos;
+    String[] authors;
+    int[] repoStart;
+    long[] date;
+    int[] author;
+    BitSet merge;
+    int[] additions;
+    int[] deletions;
+    int[] testAdditions;
+    int[] testDeletions;
+    int[] taggedCommits;
+  }
+
+  /** Assigns ids to values in the order they are first seen. */
+  private static final class Dictionary {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] values = new String[16];
+
+    int id(String value) {
+      Integer id = ids.get(value);
+      if (id == null) {
+        id = ids.size();
+        ids.put(value, id);
+        if (id == values.length) {
+          values = Arrays.copyOf(values, id * 2);
+        }
+        values[id] = value;
+      }
+      return id;
+    }
+
+    String[] values() {
+      return Arrays.copyOf(values, ids.size());
+    }
+
+    String[] sortedValues() {
+      String[] sorted = values();
+      Arrays.sort(sorted, ColumnarStore::compareText);
+      return sorted;
+    }
+
+    /** Maps the ids assigned while loading to the ids of the sorted values. */
+    int[] sortedIds() {
+      Integer[] order = new Integer[ids.size()];
+      Arrays.setAll(order, i -> i);
+      Arrays.sort(order, Comparator.comparing(i -> values[i], ColumnarStore::compareText));
+      int[] sortedIds = new int[order.length];
+      for (int i = 0; i < order.length; i++) {
+        sortedIds[order[i]] = i;
+      }
+      return sortedIds;
+    }
+  }
+}
@@ -0,0 +1,531 @@
+package io.ludovicianul.db;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.ludovicianul.log.Logger;
+import io.ludovicianul.model.IndexAdvice;
+import io.ludovicianul.model.QueryLogEntry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Proposes index changes from the queries recorded in the {@link QueryLog}.
+ *
+ * <p>Candidate indexes are derived from the columns used by the slowest queries on tables they
+ * fully scan. Each candidate is created inside a transaction, the queries it might help are
+ * explained and timed against it, and the transaction is rolled back. A minimal set of candidates
+ * is then picked greedily, by the time they save on queries not already sped up by a previous pick.
+ * Existing indexes which neither the recorded queries nor the queries sol runs on its own use are
+ * proposed for removal, once enough distinct queries are recorded to tell.
+ */
+public class IndexAdvisor {
+  private static final Path ADVICE_FILE = Path.of(".sol", "index-advice.json");
+  private static final String CANDIDATE_INDEX = "idx_advisor_candidate";
+  private static final int MAX_QUERIES_TO_TUNE = 20;
+  private static final int MAX_CANDIDATE_COLUMNS = 3;
+  private static final double MIN_SPEEDUP = 0.8;
+  private static final long MIN_SAVED_MS = 5;
+
+  /**
+   * Below this number of distinct recorded queries, unused indexes are not reliable enough to drop.
+   * Running the same report many times does not tell which indexes other queries need.
+   */
+  public static final int MIN_QUERIES_TO_DROP = 10;
+
+  private static final List<String> TABLES =
+      List.of(
+          "commits", "file_changes", "commit_parents", "branches", "tags", "activity_rollup");
+  private static final Set<String> KEYWORDS =
+      Set.of(
+          "WHERE", "JOIN", "ON", "GROUP", "ORDER", "LEFT", "RIGHT", "INNER", "OUTER", "CROSS",
+          "NATURAL", "LIMIT", "UNION", "USING", "HAVING", "WINDOW", "SELECT", "EXCEPT",
+          "INTERSECT");
+  private static final Pattern USED_INDEX = Pattern.compile("USING (?:COVERING )?INDEX (\\w+)");
+  private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (\\w+)$");
+  private static final Pattern TABLE_REFERENCE =
+      Pattern.compile("(?i)\\b(?:FROM|JOIN)\\s+(\\w+)(?:\\s+(?:AS\\s+)?(\\w+))?");
+  private static final Pattern CLAUSE =
+      Pattern.compile("(?i)\\b(SELECT|FROM|WHERE|GROUP\\s+BY|ORDER\\s+BY|HAVING|ON)\\b");
+  private static final Pattern EQUALITY_AFTER = Pattern.compile("(?i)^\\s*(=|IN\\b)");
+  private static final Pattern EQUALITY_BEFORE = Pattern.compile("=\\s*$");
+  private static final Pattern RANGE_AFTER =
+      Pattern.compile("(?i)^\\s*(BETWEEN\\b|LIKE\\s+'[^%_']|<|>|>=|<=)");
+  private static final Gson GSON = new Gson();
+
+  /**
+   * An index to create.
+   *
+   * @param table the table to index
+   * @param columns the indexed columns, in order
+   * @param queries the number of distinct recorded queries it speeds up
+   * @param savedMs the time it saved on the recorded queries, over all their runs
+   */
+  public record Proposal(String table, List<String> columns, int queries, long savedMs) {
+    public String name() {
+      return "idx_advised_" + table + "_" + String.join("_", columns);
+    }
+
+    public String createStatement() {
+      return "CREATE INDEX IF NOT EXISTS %s ON %s(%s)"
+          .formatted(name(), table, String.join(", ", columns));
+    }
+  }
+
+  /**
+   * The outcome of analysing the query log.
+   *
+   * @param recordedQueries the number of queries in the log
+   * @param distinctQueries the number of distinct queries in the log
+   * @param indexesToCreate the indexes worth adding
+   * @param indexesToDrop the names of the indexes no recorded query uses
+   */
+  public record Advice(
+      int recordedQueries,
+      int distinctQueries,
+      List<Proposal> indexesToCreate,
+      List<String> indexesToDrop) {
+    public boolean hasChanges() {
+      return !indexesToCreate.isEmpty() || !indexesToDrop.isEmpty();
+    }
+  }
+
+  private record Workload(String query, List<Object> parameters, int runs) {}
+
+  private record Candidate(String table, List<String> columns) {}
+
+  /**
+   * Analyses the query log against the current database.
+   *
+   * @return the proposed index changes
+   * @throws SQLException if the database cannot be read
+   */
+  public Advice advise() throws SQLException {
+    List<QueryLogEntry> entries = QueryLog.read();
+    Map<String, Workload> workloads = new LinkedHashMap<>();
+    Map<String, Long> totalDurations = new HashMap<>();
+    for (QueryLogEntry entry : entries) {
+      String query = normalize(entry.query());
+      workloads.merge(
+          query,
+          new Workload(query, entry.parameters(), 1),
+          (a, b) -> new Workload(a.query(), a.parameters(), a.runs() + 1));
+      totalDurations.merge(query, entry.durationMs(), Long::sum);
+    }
+
+    try (Connection conn = DriverManager.getConnection(SolDb.DB_URL)) {
+      Set<String> usedIndexes = new HashSet<>();
+      Map<String, List<String>> plans = new HashMap<>();
+      for (Workload workload : workloads.values()) {
+        try {
+          List<String> plan = QueryLog.explain(conn, workload.query(), workload.parameters());
+          plans.put(workload.query(), plan);
+          plan.stream()
+              .flatMap(step -> USED_INDEX.matcher(step).results())
+              .forEach(used -> usedIndexes.add(used.group(1)));
+        } catch (SQLException e) {
+          Logger.debug("Skipping query which no longer runs: " + e.getMessage());
+        }
+      }
+
+      List<Workload> slowest =
+          workloads.values().stream()
+              .filter(workload -> plans.containsKey(workload.query()))
+              .sorted(
+                  Comparator.comparingLong(
+                          (Workload workload) -> totalDurations.get(workload.query()))
+                      .reversed())
+              .limit(MAX_QUERIES_TO_TUNE)
+              .toList();
+      List<Proposal> indexesToCreate = proposeIndexes(conn, slowest, plans);
+
+      List<String> indexesToDrop = new ArrayList<>();
+      if (workloads.size() >= MIN_QUERIES_TO_DROP) {
+        usedIndexes.addAll(getIndexesUsedBySol(conn));
+        getIndexNames(conn).stream()
+            .filter(name -> !usedIndexes.contains(name))
+            .filter(name -> !SolDb.REQUIRED_INDEXES.contains(name))
+            .forEach(indexesToDrop::add);
+      }
+      return new Advice(entries.size(), workloads.size(), indexesToCreate, indexesToDrop);
+    }
+  }
+
+  /** Returns the indexes used by the queries sol runs on its own, which are never recorded. */
+  private static Set<String> getIndexesUsedBySol(Connection conn) throws SQLException {
+    Set<String> usedIndexes = new HashSet<>();
+    for (String query : SolDb.maintenanceQueries()) {
+      // the plan does not depend on the values, so every parameter is left null
+      int parameters = (int) query.chars().filter(c -> c == '?').count();
+      QueryLog.explain(conn, query, Collections.nCopies(parameters, null)).stream()
+          .flatMap(step -> USED_INDEX.matcher(step).results())
+          .forEach(used -> usedIndexes.add(used.group(1)));
+    }
+    return usedIndexes;
+  }
+
+  /**
+   * Creates and drops the indexes of the advice and records them, so they are kept when indexing
+   * from scratch.
+   *
+   * @param advice the advice to apply
+   * @throws SQLException if the indexes cannot be changed
+   */
+  public void apply(Advice advice) throws SQLException {
+    try (Connection conn = DriverManager.getConnection(SolDb.DB_URL);
+        Statement stmt = conn.createStatement()) {
+      for (Proposal proposal : advice.indexesToCreate()) {
+        stmt.execute(proposal.createStatement());
+      }
+      for (String index : advice.indexesToDrop()) {
+        stmt.execute("DROP INDEX IF EXISTS " + index);
+      }
+      stmt.execute("ANALYZE");
+    }
+
+    IndexAdvice applied = readAppliedAdvice();
+    List<String> created = new ArrayList<>();
+    applied.createdIndexes().stream()
+        .filter(sql -> advice.indexesToDrop().stream().noneMatch(name -> isIndex(sql, name)))
+        .forEach(created::add);
+    advice.indexesToCreate().stream().map(Proposal::createStatement).forEach(created::add);
+    Set<String> dropped = new LinkedHashSet<>(applied.droppedIndexes());
+    advice.indexesToDrop().stream()
+        .filter(name -> !name.startsWith("idx_advised_"))
+        .forEach(dropped::add);
+    saveAppliedAdvice(new IndexAdvice(created, new ArrayList<>(dropped)));
+  }
+
+  /**
+   * Returns the index changes applied so far, or no changes if the advisor was never applied.
+   *
+   * @return the applied index changes
+   */
+  public static IndexAdvice readAppliedAdvice() {
+    if (!Files.exists(ADVICE_FILE)) {
+      return IndexAdvice.none();
+    }
+    try {
+      IndexAdvice advice =
+          GSON.fromJson(Files.readString(ADVICE_FILE, StandardCharsets.UTF_8), IndexAdvice.class);
+      return advice == null || advice.createdIndexes() == null || advice.droppedIndexes() == null
+          ? IndexAdvice.none()
+          : advice;
+    } catch (IOException | JsonParseException e) {
+      Logger.err("There was an issue reading the index advice: " + e.getMessage());
+      return IndexAdvice.none();
+    }
+  }
+
+  private static boolean isIndex(String createIndex, String name) {
+    return createIndex.contains(" " + name + " ");
+  }
+
+  private static void saveAppliedAdvice(IndexAdvice advice) {
+    try {
+      Files.writeString(ADVICE_FILE, GSON.toJson(advice), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      Logger.err("There was an issue saving the index advice: " + e.getMessage());
+    }
+  }
+
+  private List<Proposal> proposeIndexes(
+      Connection conn, List<Workload> workloads, Map<String, List<String>> plans)
+      throws SQLException {
+    Map<Candidate, List<Workload>> candidates = new LinkedHashMap<>();
+    for (Workload workload : workloads) {
+      Map<String, String> aliases = getTableAliases(workload.query());
+      for (String step : plans.get(workload.query())) {
+        Matcher scan = FULL_SCAN.matcher(step);
+        String table = scan.matches() ? aliases.get(scan.group(1).toLowerCase()) : null;
+        if (table == null) {
+          continue;
+        }
+        for (List<String> columns : candidateColumns(conn, workload.query(), table, aliases)) {
+          candidates
+              .computeIfAbsent(new Candidate(table, columns), key -> new ArrayList<>())
+              .add(workload);
+        }
+      }
+    }
+
+    Map<String, Long> baselines = new HashMap<>();
+    Map<Candidate, Map<String, Long>> savings = new LinkedHashMap<>();
+    for (Map.Entry<Candidate, List<Workload>> candidate : candidates.entrySet()) {
+      savings.put(
+          candidate.getKey(), evaluate(conn, candidate.getKey(), candidate.getValue(), baselines));
+    }
+    return pickMinimalSet(savings, candidates);
+  }
+
+  /**
+   * Creates and analyzes the candidate in a transaction which is rolled back, so the planner weighs
+   * it as it would a real index, and times the queries it is used for.
+   *
+   * @return the time saved over all runs, by query
+   */
+  private Map<String, Long> evaluate(
+      Connection conn, Candidate candidate, List<Workload> workloads, Map<String, Long> baselines)
+      throws SQLException {
+    Map<String, Long> savedMs = new HashMap<>();
+    for (Workload workload : workloads) {
+      baselines.computeIfAbsent(workload.query(), query -> time(conn, workload));
+    }
+    conn.setAutoCommit(false);
+    try (Statement stmt = conn.createStatement()) {
+      String columns = String.join(", ", candidate.columns());
+      stmt.execute(
+          "CREATE INDEX %s ON %s(%s)".formatted(CANDIDATE_INDEX, candidate.table(), columns));
+      stmt.execute("ANALYZE " + CANDIDATE_INDEX);
+      for (Workload workload : workloads) {
+        boolean used =
+            QueryLog.explain(conn, workload.query(), workload.parameters()).stream()
+                .anyMatch(step -> step.contains(CANDIDATE_INDEX));
+        if (!used) {
+          continue;
+        }
+        long baseline = baselines.get(workload.query());
+        if (baseline == Long.MAX_VALUE) {
+          continue;
+        }
+        long duration = time(conn, workload);
+        if (duration < baseline * MIN_SPEEDUP && baseline - duration >= MIN_SAVED_MS) {
+          savedMs.merge(workload.query(), (baseline - duration) * workload.runs(), Long::sum);
+        }
+      }
+    } finally {
+      conn.rollback();
+      conn.setAutoCommit(true);
+    }
+    return savedMs;
+  }
+
+  private List<Proposal> pickMinimalSet(
+      Map<Candidate, Map<String, Long>> savings, Map<Candidate, List<Workload>> candidates) {
+    List<Proposal> picked = new ArrayList<>();
+    Set<String> covered = new HashSet<>();
+    while (true) {
+      Candidate best = null;
+      long bestSaving = 0;
+      for (Map.Entry<Candidate, Map<String, Long>> candidate : savings.entrySet()) {
+        long saving =
+            candidate.getValue().entrySet().stream()
+                .filter(entry -> !covered.contains(entry.getKey()))
+                .mapToLong(Map.Entry::getValue)
+                .sum();
+        if (saving > bestSaving) {
+          best = candidate.getKey();
+          bestSaving = saving;
+        }
+      }
+      if (best == null) {
+        return picked;
+      }
+      Set<String> sped = new HashSet<>(savings.remove(best).keySet());
+      sped.removeAll(covered);
+      covered.addAll(sped);
+      picked.add(new Proposal(best.table(), best.columns(), sped.size(), bestSaving));
+    }
+  }
+
+  /**
+   * Columns compared for equality come first, then the ones filtered by range and the ones used
+   * for grouping or sorting, as SQLite can only use an index up to its first range constraint.
+   */
+  private List<List<String>> candidateColumns(
+      Connection conn, String query, String table, Map<String, String> aliases)
+      throws SQLException {
+    Set<String> tableAliases = new HashSet<>();
+    aliases.forEach(
+        (alias, aliasedTable) -> {
+          if (aliasedTable.equals(table)) {
+            tableAliases.add(alias);
+          }
+        });
+
+    List<String> equality = new ArrayList<>();
+    List<String> range = new ArrayList<>();
+    List<String> ordering = new ArrayList<>();
+    for (String column : getColumns(conn, table)) {
+      Matcher reference =
+          Pattern.compile("(?i)(?<![\\w.])(?:(\\w+)\\.)?" + Pattern.quote(column) + "\\b")
+              .matcher(query);
+      String usage = null;
+      while (reference.find()) {
+        String qualifier = reference.group(1);
+        if (qualifier != null && !tableAliases.contains(qualifier.toLowerCase())) {
+          continue;
+        }
+        String before = query.substring(0, reference.start());
+        String after = query.substring(reference.end());
+        if (EQUALITY_AFTER.matcher(after).find() || EQUALITY_BEFORE.matcher(before).find()) {
+          usage = "equality";
+          break;
+        } else if (RANGE_AFTER.matcher(after).find()) {
+          usage = "range";
+        } else if (usage == null && isGroupingOrSorting(before)) {
+          usage = "ordering";
+        }
+      }
+      if ("equality".equals(usage)) {
+        equality.add(column);
+      } else if ("range".equals(usage)) {
+        range.add(column);
+      } else if ("ordering".equals(usage)) {
+        ordering.add(column);
+      }
+    }
+
+    Set<List<String>> candidates = new LinkedHashSet<>();
+    List<String> leading = equality.subList(0, Math.min(2, equality.size()));
+    equality.forEach(column -> candidates.add(List.of(column)));
+    range.forEach(column -> candidates.add(List.of(column)));
+    if (leading.size() == 2) {
+      candidates.add(List.copyOf(leading));
+    }
+    if (!range.isEmpty()) {
+      candidates.add(concat(leading, range.subList(0, 1)));
+    }
+    if (!ordering.isEmpty()) {
+      candidates.add(concat(leading, ordering));
+      candidates.add(concat(List.of(), ordering));
+    }
+
+    List<List<String>> existing = getIndexedColumns(conn, table);
+    return candidates.stream()
+        .filter(columns -> !columns.isEmpty())
+        .filter(columns -> existing.stream().noneMatch(index -> startsWith(index, columns)))
+        .toList();
+  }
+
+  private static List<String> concat(List<String> first, List<String> second) {
+    List<String> columns = new ArrayList<>(first);
+    second.stream().filter(column -> !columns.contains(column)).forEach(columns::add);
+    return List.copyOf(columns.subList(0, Math.min(MAX_CANDIDATE_COLUMNS, columns.size())));
+  }
+
+  private static boolean startsWith(List<String> index, List<String> columns) {
+    return index.size() >= columns.size() && index.subList(0, columns.size()).equals(columns);
+  }
+
+  private static boolean isGroupingOrSorting(String before) {
+    Matcher clause = CLAUSE.matcher(before);
+    String last = null;
+    while (clause.find()) {
+      last = clause.group(1).toUpperCase();
+    }
+    return last != null && (last.startsWith("GROUP") || last.startsWith("ORDER"));
+  }
+
+  /** Maps the tables referenced by the query, and their aliases, lower cased to the table names. */
+  private static Map<String, String> getTableAliases(String query) {
+    Map<String, String> aliases = new HashMap<>();
+    Matcher reference = TABLE_REFERENCE.matcher(query);
+    while (reference.find()) {
+      String table = reference.group(1).toLowerCase();
+      if (!TABLES.contains(table)) {
+        continue;
+      }
+      aliases.put(table, table);
+      String alias = reference.group(2);
+      if (alias != null && !KEYWORDS.contains(alias.toUpperCase())) {
+        aliases.put(alias.toLowerCase(), table);
+      }
+    }
+    return aliases;
+  }
+
+  private static List<String> getColumns(Connection conn, String table) throws SQLException {
+    List<String> columns = new ArrayList<>();
+    try (Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+      while (rs.next()) {
+        columns.add(rs.getString("name"));
+      }
+    }
+    return columns;
+  }
+
+  /** Returns the columns of every index of the table, including the primary key. */
+  private static List<List<String>> getIndexedColumns(Connection conn, String table)
+      throws SQLException {
+    List<String> indexes = new ArrayList<>();
+    try (Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery("PRAGMA index_list(" + table + ")")) {
+      while (rs.next()) {
+        indexes.add(rs.getString("name"));
+      }
+    }
+    List<List<String>> indexedColumns = new ArrayList<>();
+    for (String index : indexes) {
+      List<String> columns = new ArrayList<>();
+      try (Statement stmt = conn.createStatement();
+          ResultSet rs = stmt.executeQuery("PRAGMA index_info(" + index + ")")) {
+        while (rs.next()) {
+          columns.add(rs.getString("name"));
+        }
+      }
+      indexedColumns.add(columns);
+    }
+    return indexedColumns;
+  }
+
+  private static List<String> getIndexNames(Connection conn) throws SQLException {
+    List<String> names = new ArrayList<>();
+    try (Statement stmt = conn.createStatement();
+        ResultSet rs =
+            stmt.executeQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'index'"
+                    + " AND name LIKE 'idx\\_%' ESCAPE '\\' ORDER BY name")) {
+      while (rs.next()) {
+        names.add(rs.getString(1));
+      }
+    }
+    return names;
+  }
+
+  /** Runs the query three times, reading all rows, and returns the fastest run in milliseconds. */
+  private static long time(Connection conn, Workload workload) {
+    long fastest = Long.MAX_VALUE;
+    for (int run = 0; run < 3; run++) {
+      long start = System.nanoTime();
+      try (PreparedStatement stmt =
+              QueryLog.prepare(conn, workload.query(), workload.parameters());
+          ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          // only the time to produce the rows matters
+        }
+      } catch (SQLException e) {
+        return Long.MAX_VALUE;
+      }
+      fastest = Math.min(fastest, (System.nanoTime() - start) / 1_000_000);
+    }
+    return fastest;
+  }
+
+  private static String normalize(String query) {
+    String normalized = query.trim().replaceAll("\\s+", " ");
+    return normalized.endsWith(";")
+        ? normalized.substring(0, normalized.length() - 1).trim()
+        : normalized;
+  }
+}
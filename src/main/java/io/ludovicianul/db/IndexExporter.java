@@ -0,0 +1,339 @@
+package io.ludovicianul.db;
+
+import io.ludovicianul.io.ParquetWriter;
+import io.ludovicianul.io.ParquetWriter.Column;
+import io.ludovicianul.io.ParquetWriter.Type;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Exports the tables of the index to Parquet files. Rows are streamed from SQLite straight into
+ * the files, one row group at a time, so tables of any size are exported with the same memory.
+ *
+ * <p>Files can be partitioned by repository and by the year or month of the commit, in
+ * directories named {@code column=value} which most analytics tools read as partitions. Rows are
+ * sorted by partition, so only one file is open at a time. Tables without a date of their own use
+ * the date of their commit, and branches the date they were created.
+ */
+public class IndexExporter {
+  private static final long ROWS_PER_FILE = 1_000_000;
+  private static final String NULL_PARTITION = "__HIVE_DEFAULT_PARTITION__";
+
+  /** Tables which can be exported. */
+  public enum Table {
+    COMMITS(
+        "commits t",
+        "t.date",
+        List.of(
+            new Column("commit_hash", Type.STRING),
+            new Column("repo_name", Type.STRING),
+            new Column("author", Type.STRING),
+            new Column("date", Type.TIMESTAMP),
+            new Column("timezone", Type.STRING),
+            new Column("is_merge", Type.BOOLEAN),
+            new Column("total_additions", Type.LONG),
+            new Column("total_deletions", Type.LONG),
+            new Column("total_additions_test", Type.LONG),
+            new Column("total_deletions_test", Type.LONG),
+            new Column("total_additions_dot", Type.LONG),
+            new Column("total_deletions_dot", Type.LONG),
+            new Column("total_additions_build", Type.LONG),
+            new Column("total_deletions_build", Type.LONG),
+            new Column("message", Type.STRING))),
+    FILE_CHANGES(
+        "file_changes t LEFT JOIN commits c"
+            + " ON c.commit_hash = t.commit_hash AND c.repo_name = t.repo_name",
+        "c.date",
+        List.of(
+            new Column("id", Type.LONG),
+            new Column("commit_hash", Type.STRING),
+            new Column("repo_name", Type.STRING),
+            new Column("author", Type.STRING),
+            new Column("change_type", Type.STRING),
+            new Column("file_path", Type.STRING),
+            new Column("additions", Type.LONG),
+            new Column("deletions", Type.LONG),
+            new Column("is_test_file", Type.BOOLEAN),
+            new Column("is_build_file", Type.BOOLEAN),
+            new Column("is_dot_file", Type.BOOLEAN),
+            new Column("is_documentation_file", Type.BOOLEAN))),
+    COMMIT_PARENTS(
+        "commit_parents t LEFT JOIN commits c"
+            + " ON c.commit_hash = t.commit_hash AND c.repo_name = t.repo_name",
+        "c.date",
+        List.of(
+            new Column("commit_hash", Type.STRING),
+            new Column("repo_name", Type.STRING),
+            new Column("parent_hash", Type.STRING))),
+    BRANCHES(
+        "branches t",
+        "t.creation_date",
+        List.of(
+            new Column("branch_name", Type.STRING),
+            new Column("repo_name", Type.STRING),
+            new Column("is_active", Type.BOOLEAN),
+            new Column("creation_date", Type.TIMESTAMP),
+            new Column("merge_date", Type.TIMESTAMP))),
+    TAGS(
+        "tags t LEFT JOIN commits c ON c.commit_hash = t.tag_commit AND c.repo_name = t.repo_name",
+        "c.date",
+        List.of(
+            new Column("tag_name", Type.STRING),
+            new Column("repo_name", Type.STRING),
+            new Column("tag_commit", Type.STRING),
+            new Column("tag_message", Type.STRING)));
+
+    private final String joinedFrom;
+    private final String date;
+    private final List<Column> columns;
+
+    Table(String joinedFrom, String date, List<Column> columns) {
+      this.joinedFrom = joinedFrom;
+      this.date = date;
+      this.columns = columns;
+    }
+
+    public String tableName() {
+      return name().toLowerCase();
+    }
+
+    /** Columns of the exported files, in the order they are written. */
+    public List<Column> columns() {
+      return columns;
+    }
+
+    /** Tables are only joined with commits when the date of the commit is needed. */
+    private String from(boolean byDate) {
+      return byDate ? joinedFrom : tableName() + " t";
+    }
+  }
+
+  /** Keys the files can be partitioned by. */
+  public enum Partition {
+    REPO,
+    YEAR,
+    MONTH
+  }
+
+  /** Rows and files written for a table. */
+  public record Summary(Table table, long rows, int files, long millis) {}
+
+  private final Path output;
+  private final List<Partition> partitions;
+
+  /**
+   * Creates an exporter.
+   *
+   * @param output the directory to write to, with a subdirectory per table
+   * @param partitions the keys to partition the files by, in the order of the directories
+   */
+  public IndexExporter(Path output, List<Partition> partitions) {
+    this.output = output;
+    this.partitions = List.copyOf(partitions);
+  }
+
+  /**
+   * Exports a table, replacing the files of a previous export.
+   *
+   * @param table the table to export
+   * @return the rows and files written
+   * @throws SQLException if the table cannot be read
+   * @throws IOException if the files cannot be written
+   */
+  public Summary export(Table table) throws SQLException, IOException {
+    long start = System.currentTimeMillis();
+    Path tableDir = output.resolve(table.tableName());
+    deletePreviousExport(tableDir);
+
+    List<Column> columns = table.columns;
+    long rows = 0;
+    int files = 0;
+    try (Connection conn = DriverManager.getConnection(SolDb.DB_URL);
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery(query(table))) {
+      ParquetWriter writer = null;
+      String partition = null;
+      int part = 0;
+      try {
+        while (rs.next()) {
+          String rowPartition = partitionPath(rs, columns.size());
+          if (writer == null
+              || !rowPartition.equals(partition)
+              || writer.rows() == ROWS_PER_FILE) {
+            if (writer != null) {
+              writer.close();
+            }
+            part = rowPartition.equals(partition) ? part + 1 : 0;
+            partition = rowPartition;
+            Path dir = tableDir.resolve(partition);
+            Files.createDirectories(dir);
+            writer = new ParquetWriter(dir.resolve("part-%05d.parquet".formatted(part)), columns);
+            files++;
+          }
+          writeRow(rs, columns, writer);
+          rows++;
+        }
+      } finally {
+        if (writer != null) {
+          writer.close();
+        }
+      }
+    }
+    return new Summary(table, rows, files, System.currentTimeMillis() - start);
+  }
+
+  private String query(Table table) {
+    boolean byDate = partitions.contains(Partition.YEAR) || partitions.contains(Partition.MONTH);
+    List<String> select = new ArrayList<>();
+    for (Column column : table.columns) {
+      select.add("t." + column.name());
+    }
+    List<String> keys = new ArrayList<>();
+    for (Partition key : partitions) {
+      keys.add(
+          switch (key) {
+            case REPO -> "t.repo_name";
+            case YEAR -> "substr(%s, 1, 4)".formatted(table.date);
+            case MONTH -> "substr(%s, 1, 7)".formatted(table.date);
+          });
+    }
+    select.addAll(keys);
+    String query = "SELECT " + String.join(", ", select) + " FROM " + table.from(byDate);
+    return keys.isEmpty() ? query : query + " ORDER BY " + String.join(", ", keys);
+  }
+
+  /** Directory of the partition of the current row, relative to the directory of the table. */
+  private String partitionPath(ResultSet rs, int columns) throws SQLException {
+    StringBuilder path = new StringBuilder();
+    for (int i = 0; i < partitions.size(); i++) {
+      String value = rs.getString(columns + i + 1);
+      if (!path.isEmpty()) {
+        path.append('/');
+      }
+      path.append(partitionColumn(partitions.get(i)))
+          .append('=')
+          .append(value == null ? NULL_PARTITION : escape(value));
+    }
+    return path.toString();
+  }
+
+  private static String partitionColumn(Partition partition) {
+    return switch (partition) {
+      case REPO -> "repo_name";
+      case YEAR -> "year";
+      case MONTH -> "month";
+    };
+  }
+
+  /** Escapes the characters which are not safe in a directory name, like Hive does. */
+  private static String escape(String value) {
+    StringBuilder escaped = new StringBuilder();
+    for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+      char c = (char) (b & 0xFF);
+      if ((c >= 'a' && c <= 'z')
+          || (c >= 'A' && c <= 'Z')
+          || (c >= '0' && c <= '9')
+          || c == '-'
+          || c == '_'
+          || (c == '.' && !escaped.isEmpty())) {
+        escaped.append(c);
+      } else {
+        escaped.append('%').append("%02X".formatted((int) c));
+      }
+    }
+    return escaped.toString();
+  }
+
+  private static void writeRow(ResultSet rs, List<Column> columns, ParquetWriter writer)
+      throws SQLException, IOException {
+    for (int i = 0; i < columns.size(); i++) {
+      int index = i + 1;
+      switch (columns.get(i).type()) {
+        case STRING -> writer.writeString(rs.getString(index));
+        case LONG -> {
+          long value = rs.getLong(index);
+          if (rs.wasNull()) {
+            writer.writeNull();
+          } else {
+            writer.writeLong(value);
+          }
+        }
+        case BOOLEAN -> {
+          int value = rs.getInt(index);
+          if (rs.wasNull()) {
+            writer.writeNull();
+          } else {
+            writer.writeBoolean(value != 0);
+          }
+        }
+        case TIMESTAMP -> {
+          String value = rs.getString(index);
+          if (value == null) {
+            writer.writeNull();
+          } else {
+            writer.writeLong(epochMilli(value));
+          }
+        }
+      }
+    }
+    writer.endRow();
+  }
+
+  /**
+   * Parses a date of the index. Dates are stored in UTC, like {@code 2024-05-17T09:30:00Z}, which is
+   * parsed directly as it is the bulk of the dates exported; others go through {@link Instant}.
+   */
+  private static long epochMilli(String date) {
+    if (date.length() == 20 && date.charAt(10) == 'T' && date.charAt(19) == 'Z') {
+      try {
+        long day =
+            LocalDate.of(digits(date, 0, 4), digits(date, 5, 7), digits(date, 8, 10)).toEpochDay();
+        int second = digits(date, 11, 13) * 3600 + digits(date, 14, 16) * 60 + digits(date, 17, 19);
+        return (day * 86_400 + second) * 1000;
+      } catch (DateTimeException | NumberFormatException e) {
+        // not in the usual format, parsed below
+      }
+    }
+    return Instant.parse(date).toEpochMilli();
+  }
+
+  private static int digits(String value, int start, int end) {
+    return Integer.parseUnsignedInt(value, start, end, 10);
+  }
+
+  /** Deletes the Parquet files of a previous export and the directories left empty. */
+  private static void deletePreviousExport(Path tableDir) throws IOException {
+    if (!Files.isDirectory(tableDir)) {
+      return;
+    }
+    List<Path> paths;
+    try (Stream<Path> walk = Files.walk(tableDir)) {
+      paths = walk.sorted(Comparator.reverseOrder()).toList();
+    }
+    for (Path path : paths) {
+      if (Files.isDirectory(path)) {
+        try (Stream<Path> children = Files.list(path)) {
+          if (children.findAny().isEmpty()) {
+            Files.delete(path);
+          }
+        }
+      } else if (path.getFileName().toString().endsWith(".parquet")) {
+        Files.delete(path);
+      }
+    }
+  }
+}
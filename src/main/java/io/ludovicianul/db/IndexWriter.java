@@ -0,0 +1,105 @@
+package io.ludovicianul.db;
+
+import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs all database writes of an indexing run on a single thread, as SQLite only supports one
+ * writer at a time. The writes share one {@link SolDbSession}, opened on the first write, so the
+ * connection and its prepared statements are reused for the whole run. The number of pending
+ * writes is bounded, so producers block instead of buffering an unbounded amount of history in
+ * memory.
+ */
+public class IndexWriter implements AutoCloseable {
+  private final ExecutorService executor =
+      Executors.newSingleThreadExecutor(
+          Thread.ofPlatform().name("sol-db-writer").daemon().factory());
+  private final Semaphore pendingWrites;
+
+  /** Only accessed from the writer thread, and once it terminated. */
+  private SolDbSession session;
+
+  public IndexWriter(int maxPendingWrites) {
+    this.pendingWrites = new Semaphore(maxPendingWrites);
+  }
+
+  /**
+   * Queues a write, blocking while the maximum number of writes is already pending. Writes are
+   * executed in submission order.
+   *
+   * @param write the write to execute, given the session of the writer
+   * @return a future completed once the write was executed
+   * @throws InterruptedException if interrupted while waiting for a free slot
+   */
+  public Future<?> submit(Consumer<SolDbSession> write) throws InterruptedException {
+    pendingWrites.acquire();
+    try {
+      return executor.submit(
+          () -> {
+            try {
+              write.accept(session());
+            } finally {
+              pendingWrites.release();
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      pendingWrites.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Waits until all previously submitted writes were executed.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void awaitPendingWrites() throws InterruptedException {
+    try {
+      submit(session -> {}).get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private SolDbSession session() {
+    if (session == null) {
+      try {
+        session = SolDbSession.openForWriting();
+      } catch (SQLException e) {
+        throw new IllegalStateException("Cannot open commits.db: " + e.getMessage(), e);
+      }
+    }
+    return session;
+  }
+
+  /**
+   * Waits for the pending writes, then closes the session. When interrupted, the pending writes are
+   * cancelled and the interrupt flag is restored. The session is then left to the writer thread,
+   * which may still be using it.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      return;
+    }
+    if (session != null) {
+      try {
+        session.close();
+      } catch (SQLException e) {
+        System.err.println("There was an issue closing commits.db: " + e.getMessage());
+      }
+    }
+  }
+}
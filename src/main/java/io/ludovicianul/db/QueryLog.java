@@ -0,0 +1,157 @@
+package io.ludovicianul.db;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.ludovicianul.log.Logger;
+import io.ludovicianul.model.QueryLogEntry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Local log of the queries run against the database, one JSON object per line in {@code
+ * .sol/query-log.ndjson}. Each entry records how long the query took and its query plan, which is
+ * what the index advisor works from. When the log grows too large it is rotated, keeping a single
+ * previous file.
+ */
+public class QueryLog {
+  private static final Path LOG_FILE = Path.of(".sol", "query-log.ndjson");
+  private static final Path PREVIOUS_LOG_FILE = Path.of(".sol", "query-log.ndjson.1");
+  private static final long MAX_LOG_SIZE = 5 * 1024 * 1024;
+  private static final Gson GSON = new Gson();
+
+  private static volatile boolean enabled = true;
+
+  private QueryLog() {}
+
+  /**
+   * Turns recording on or off, for runs whose queries must not be measured with the time it takes
+   * to explain and log them, like benchmarks.
+   *
+   * @param enabled whether queries are recorded
+   */
+  public static void setEnabled(boolean enabled) {
+    QueryLog.enabled = enabled;
+  }
+
+  /**
+   * Records a query which ran successfully. Failures to write the log are only reported in debug
+   * mode, as they must not fail the query.
+   *
+   * @param conn the connection the query ran on, used to explain it
+   * @param query the SQL query
+   * @param parameters the values bound to the parameters of the query
+   * @param durationMs how long the query took
+   */
+  static synchronized void record(
+      Connection conn, String query, List<Object> parameters, long durationMs) {
+    if (!enabled) {
+      return;
+    }
+    try {
+      QueryLogEntry entry =
+          new QueryLogEntry(
+              Instant.now().toString(),
+              query,
+              parameters,
+              durationMs,
+              explain(conn, query, parameters));
+      if (Files.exists(LOG_FILE) && Files.size(LOG_FILE) > MAX_LOG_SIZE) {
+        Files.move(LOG_FILE, PREVIOUS_LOG_FILE, StandardCopyOption.REPLACE_EXISTING);
+      }
+      Files.writeString(
+          LOG_FILE,
+          GSON.toJson(entry) + "\n",
+          StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE,
+          StandardOpenOption.APPEND);
+    } catch (IOException | SQLException e) {
+      Logger.debug("Could not record query in the query log: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the details of the query plan SQLite uses for the query.
+   *
+   * @param conn the connection to explain the query on
+   * @param query the SQL query
+   * @param parameters the values bound to the parameters of the query, as they can change the plan
+   * @return one line per step of the plan
+   * @throws SQLException if the query cannot be explained
+   */
+  static List<String> explain(Connection conn, String query, List<Object> parameters)
+      throws SQLException {
+    List<String> plan = new ArrayList<>();
+    try (PreparedStatement stmt = prepare(conn, "EXPLAIN QUERY PLAN " + query, parameters);
+        ResultSet rs = stmt.executeQuery()) {
+      while (rs.next()) {
+        plan.add(rs.getString("detail"));
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * Prepares the query with the parameters bound.
+   *
+   * @param conn the connection to prepare the query on
+   * @param query the SQL query
+   * @param parameters the values bound to the parameters of the query, in order
+   * @return the statement, to be closed by the caller
+   * @throws SQLException if the query cannot be prepared
+   */
+  static PreparedStatement prepare(Connection conn, String query, List<Object> parameters)
+      throws SQLException {
+    PreparedStatement stmt = conn.prepareStatement(query);
+    try {
+      for (int i = 0; i < parameters.size(); i++) {
+        stmt.setObject(i + 1, parameters.get(i));
+      }
+    } catch (SQLException e) {
+      stmt.close();
+      throw e;
+    }
+    return stmt;
+  }
+
+  /**
+   * Reads all the recorded queries, oldest first. Malformed lines are skipped.
+   *
+   * @return the recorded queries
+   */
+  public static synchronized List<QueryLogEntry> read() {
+    List<QueryLogEntry> entries = new ArrayList<>();
+    for (Path file : List.of(PREVIOUS_LOG_FILE, LOG_FILE)) {
+      if (!Files.exists(file)) {
+        continue;
+      }
+      try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+        lines.forEach(
+            line -> {
+              try {
+                QueryLogEntry entry = GSON.fromJson(line, QueryLogEntry.class);
+                if (entry != null && entry.query() != null) {
+                  entries.add(entry);
+                }
+              } catch (JsonParseException e) {
+                Logger.debug("Skipping malformed query log entry: " + line);
+              }
+            });
+      } catch (IOException e) {
+        Logger.err("There was an issue reading the query log: " + e.getMessage());
+      }
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,81 @@
+package io.ludovicianul.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of read-only sessions, so queries can run concurrently. The database is in WAL mode, which
+ * lets readers proceed in parallel with each other and with a writer. Sessions are opened on first
+ * use, up to the size of the pool, and closed with it.
+ */
+public class ReadSessionPool implements AutoCloseable {
+  private final BlockingQueue<SolDbSession> idle;
+  private final List<SolDbSession> opened = new ArrayList<>();
+  private final int size;
+
+  /**
+   * Creates a pool.
+   *
+   * @param size the maximum number of sessions open at once
+   */
+  public ReadSessionPool(int size) {
+    this.size = size;
+    this.idle = new ArrayBlockingQueue<>(size);
+  }
+
+  /**
+   * Runs the work with a session of the pool, waiting for one to be free if all of them are in use.
+   *
+   * @param work the work to run
+   * @return the result of the work
+   * @throws SQLException if a session cannot be opened or the work fails
+   * @throws InterruptedException if interrupted while waiting for a session
+   */
+  public <T> T withSession(SessionWork<T> work) throws SQLException, InterruptedException {
+    SolDbSession session = borrow();
+    try {
+      return work.apply(session);
+    } finally {
+      idle.add(session);
+    }
+  }
+
+  private SolDbSession borrow() throws SQLException, InterruptedException {
+    SolDbSession session = idle.poll();
+    if (session != null) {
+      return session;
+    }
+    synchronized (opened) {
+      if (opened.size() < size) {
+        session = SolDbSession.openReadOnly();
+        opened.add(session);
+        return session;
+      }
+    }
+    return idle.take();
+  }
+
+  /** Closes all sessions opened by the pool. */
+  @Override
+  public void close() {
+    synchronized (opened) {
+      for (SolDbSession session : opened) {
+        try {
+          session.close();
+        } catch (SQLException e) {
+          System.err.println("There was an issue closing commits.db: " + e.getMessage());
+        }
+      }
+      opened.clear();
+    }
+  }
+
+  /** Work run with a session. */
+  @FunctionalInterface
+  public interface SessionWork<T> {
+    T apply(SolDbSession session) throws SQLException;
+  }
+}
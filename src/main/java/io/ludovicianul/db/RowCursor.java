@@ -0,0 +1,100 @@
+package io.ludovicianul.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Forward-only cursor over the rows of a query. Rows are read from SQLite one at a time, so memory
+ * use does not depend on the size of the result. Values are accessed by the position of their
+ * column in {@link #columns()}, which follows the order of the query.
+ *
+ * <p>The query is recorded in the {@link QueryLog} once all its rows were read.
+ */
+public class RowCursor implements Rows, AutoCloseable {
+  private final Connection conn;
+  private final String query;
+  private final List<Object> parameters;
+  private final ResultSet rs;
+  private final List<String> columns;
+  private final long start;
+  private long rowCount;
+  private boolean exhausted;
+
+  RowCursor(Connection conn, String query, List<Object> parameters, ResultSet rs, long start)
+      throws SQLException {
+    this.conn = conn;
+    this.query = query;
+    this.parameters = parameters;
+    this.rs = rs;
+    this.start = start;
+
+    ResultSetMetaData metaData = rs.getMetaData();
+    List<String> names = new ArrayList<>(metaData.getColumnCount());
+    for (int i = 1; i <= metaData.getColumnCount(); i++) {
+      names.add(metaData.getColumnLabel(i));
+    }
+    this.columns = Collections.unmodifiableList(names);
+  }
+
+  /**
+   * Returns the names of the columns, in the order of the query.
+   *
+   * @return the column names
+   */
+  @Override
+  public List<String> columns() {
+    return columns;
+  }
+
+  /**
+   * Moves to the next row.
+   *
+   * @return false once all rows were read
+   * @throws SQLException if the next row cannot be read
+   */
+  @Override
+  public boolean next() throws SQLException {
+    if (exhausted) {
+      return false;
+    }
+    if (rs.next()) {
+      rowCount++;
+      return true;
+    }
+    exhausted = true;
+    QueryLog.record(conn, query, parameters, (System.nanoTime() - start) / 1_000_000);
+    return false;
+  }
+
+  /**
+   * Returns a value of the current row.
+   *
+   * @param column the position of the column, starting from 0
+   * @return the value, null for SQL NULL
+   * @throws SQLException if the value cannot be read
+   */
+  @Override
+  public Object get(int column) throws SQLException {
+    return rs.getObject(column + 1);
+  }
+
+  /**
+   * Returns the number of rows read so far.
+   *
+   * @return the number of rows
+   */
+  public long rowCount() {
+    return rowCount;
+  }
+
+  /** Releases the rows not read yet. The statement itself stays cached in its session. */
+  @Override
+  public void close() throws SQLException {
+    rs.close();
+  }
+}
@@ -0,0 +1,32 @@
+package io.ludovicianul.db;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/** Rows of a result, read one at a time. Values are accessed by the position of their column. */
+public interface Rows {
+
+  /**
+   * Returns the names of the columns.
+   *
+   * @return the column names
+   */
+  List<String> columns();
+
+  /**
+   * Moves to the next row.
+   *
+   * @return false once all rows were read
+   * @throws SQLException if the next row cannot be read
+   */
+  boolean next() throws SQLException;
+
+  /**
+   * Returns a value of the current row.
+   *
+   * @param column the position of the column, starting from 0
+   * @return the value, null for SQL NULL
+   * @throws SQLException if the value cannot be read
+   */
+  Object get(int column) throws SQLException;
+}
@@ -1,42 +1,136 @@
 package io.ludovicianul.db;
 
-import io.ludovicianul.model.Branch;
-import io.ludovicianul.model.CommitRecord;
-import io.ludovicianul.model.FileChange;
-import io.ludovicianul.model.Tag;
+import io.ludovicianul.model.IndexAdvice;
 import io.quarkus.arc.Unremovable;
 import jakarta.inject.Singleton;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.time.format.TextStyle;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.function.Predicate;
-import java.util.function.ToIntFunction;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.function.BiPredicate;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConfig.JournalMode;
+import org.sqlite.SQLiteConfig.SynchronousMode;
+import org.sqlite.SQLiteConfig.TempStore;
 
 /** Interacts with the sqlite db. */
 @Singleton
 @Unremovable
 public class SolDb {
   private static final DateTimeFormatter ISO_FORMATTER = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
-  private static final String DB_URL = "jdbc:sqlite:.sol/commits.db";
+  static final String DB_URL = "jdbc:sqlite:.sol/commits.db";
+
+  /**
+   * Secondary indexes. They are created after the data when doing a full index, as building them
+   * once is much faster than maintaining them on every insert.
+   */
+  private static final List<String> INDEXES =
+      List.of(
+          "CREATE INDEX IF NOT EXISTS idx_commits_author_date ON commits(author, date);",
+          "CREATE INDEX IF NOT EXISTS idx_commits_date_repo ON commits(date, repo_name);",
+          "CREATE INDEX IF NOT EXISTS idx_commit_merge_date on commits(is_merge, date);",
+          "CREATE INDEX IF NOT EXISTS idx_file_changes_group_order ON file_changes(file_path, commit_hash);",
+          "CREATE INDEX IF NOT EXISTS idx_file_changes_commit_file ON file_changes(commit_hash, file_path);",
+          "CREATE INDEX IF NOT EXISTS idx_file_changes_hash_add_del ON file_changes(commit_hash, additions, deletions);",
+          "CREATE INDEX IF NOT EXISTS idx_is_test_file ON file_changes(is_test_file);",
+          "CREATE INDEX IF NOT EXISTS idx_is_build_file ON file_changes(is_build_file);",
+          "CREATE INDEX IF NOT EXISTS idx_is_dot_file ON file_changes(is_dot_file);",
+          "CREATE INDEX IF NOT EXISTS idx_is_documentation_file ON file_changes(is_documentation_file);",
+          "CREATE INDEX IF NOT EXISTS idx_commit_parents_parent_hash ON commit_parents(parent_hash);");
+
+  /** Indexes incremental indexing relies on to replace commits, never dropped by the advisor. */
+  static final List<String> REQUIRED_INDEXES = List.of("idx_file_changes_commit_file");
+
+  private static final String INDEXED_REFS_SQL =
+      "SELECT ref_name, commit_hash FROM index_state WHERE repo_name = ?";
+  private static final String MERGE_DATES_SQL =
+      "SELECT branch_name, merge_date FROM branches WHERE repo_name = ? AND merge_date IS NOT NULL";
+  private static final String COMMIT_MESSAGES_SQL =
+      "SELECT date, message FROM commits WHERE repo_name = ? ORDER BY date DESC, rowid";
+  private static final String HAS_TABLE_SQL =
+      "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?";
+
+  /** Indexes created by previous versions, redundant with the ones above or the primary keys. */
+  private static final List<String> RETIRED_INDEXES =
+      List.of(
+          "idx_commits_author",
+          "idx_commits_author_repo",
+          "idx_commits_date",
+          "idx_commits_author_date_repo",
+          "idx_commit_date_merge",
+          "idx_commit_date_merge_repo",
+          "idx_commit_merge_date_repo",
+          "idx_commit_date_id",
+          "idx_commit_date_id_repo",
+          "idx_file_changes_file_path",
+          "idx_file_changes_file_path_repo",
+          "idx_file_changes_commit_file_repo",
+          "idx_file_changes_group_order_repo",
+          "idx_file_changes_commit_hash",
+          "idx_file_changes_commit_hash_repo",
+          "idx_is_test_file_repo",
+          "idx_is_build_file_repo",
+          "idx_is_dot_file_repo",
+          "idx_tag_name",
+          "idx_tag_name_name",
+          "idx_is_documentation_file_repo",
+          "idx_file_changes_performance",
+          "idx_file_changes_performance_repo",
+          "idx_file_changes_hash_add_del_repo",
+          "idx_commit_parents_commit_hash",
+          "idx_commit_parents_commit_hash_repo",
+          "idx_commit_parents_parent_hash_repo");
+
+  /**
+   * Version of the way activity_rollup is computed, kept as the user_version of the database.
+   * Rollups of an older version are deleted, so indexing rolls every repository up again.
+   */
+  private static final int ROLLUP_VERSION = 1;
+
+  private static final Properties WRITE_PROPERTIES = writeProperties(SynchronousMode.NORMAL);
+  private static final Properties BULK_LOAD_PROPERTIES = writeProperties(SynchronousMode.OFF);
+
+  private static volatile boolean bulkLoad;
 
   public static void initializeDatabase() {
+    initializeDatabase(false);
+  }
+
+  /**
+   * Creates the database schema. A new database is bulk loaded: it is created without secondary
+   * indexes and written with relaxed durability settings until {@link #createIndexes()} is called.
+   * An existing database keeps its indexes, as incremental updates need them.
+   *
+   * @param keepExisting whether to keep an existing database, for incremental indexing, or to start
+   *     from an empty one
+   */
+  public static void initializeDatabase(boolean keepExisting) {
     createSolDotFolderIfNoExists();
-    removeSolDbIfExists();
+    if (!keepExisting) {
+      removeSolDbIfExists();
+    }
+    bulkLoad = !keepExisting;
 
-    try (Connection conn = DriverManager.getConnection(DB_URL)) {
+    // WAL lets repositories indexed in parallel read while the single writer commits
+    try (Connection conn = DriverManager.getConnection(DB_URL, connectionProperties())) {
       String createCommitsTable =
           """
             CREATE TABLE IF NOT EXISTS commits (
@@ -114,46 +208,49 @@ public class SolDb {
                 );
               """;
 
-      List<String> indexes =
-          List.of(
-              "CREATE INDEX idx_commits_author ON commits(author);",
-              "CREATE INDEX idx_commits_author_repo ON commits(author, repo_name);",
-              "CREATE INDEX idx_commits_date ON commits(date);",
-              "CREATE INDEX idx_commits_date_repo ON commits(date, repo_name);",
-              "CREATE INDEX idx_commits_author_date ON commits(author, date);",
-              "CREATE INDEX idx_commits_author_date_repo ON commits(author, date, repo_name);",
-              "CREATE INDEX idx_commit_date_merge on commits(date, is_merge);",
-              "CREATE INDEX idx_commit_date_merge_repo on commits(date, is_merge, repo_name);",
-              "CREATE INDEX idx_commit_merge_date on commits(is_merge, date);",
-              "CREATE INDEX idx_commit_merge_date_repo on commits(is_merge, date, repo_name);",
-              "CREATE INDEX idx_commit_date_id on commits(date, commit_hash);",
-              "CREATE INDEX idx_commit_date_id_repo on commits(date, commit_hash, repo_name);",
-              "CREATE INDEX idx_file_changes_file_path ON file_changes(file_path);",
-              "CREATE INDEX idx_file_changes_file_path_repo ON file_changes(file_path,repo_name);",
-              "CREATE INDEX idx_file_changes_commit_file ON file_changes(commit_hash, file_path);",
-              "CREATE INDEX idx_file_changes_commit_file_repo ON file_changes(commit_hash, file_path, repo_name);",
-              "CREATE INDEX idx_file_changes_group_order ON file_changes(file_path, commit_hash);",
-              "CREATE INDEX idx_file_changes_group_order_repo ON file_changes(file_path, commit_hash, repo_name);",
-              "CREATE INDEX idx_file_changes_commit_hash ON file_changes(commit_hash);",
-              "CREATE INDEX idx_file_changes_commit_hash_repo ON file_changes(commit_hash, repo_name);",
-              "CREATE INDEX idx_is_test_file ON file_changes(is_test_file);",
-              "CREATE INDEX idx_is_test_file_repo ON file_changes(is_test_file, repo_name);",
-              "CREATE INDEX idx_is_build_file ON file_changes(is_build_file);",
-              "CREATE INDEX idx_is_build_file_repo ON file_changes(is_build_file, repo_name);",
-              "CREATE INDEX idx_is_dot_file ON file_changes(is_dot_file);",
-              "CREATE INDEX idx_is_dot_file_repo ON file_changes(is_dot_file, repo_name);",
-              "CREATE INDEX idx_tag_name on tags(tag_name);",
-              "CREATE INDEX idx_tag_name_name on tags(tag_name, repo_name);",
-              "CREATE INDEX idx_is_documentation_file ON file_changes(is_documentation_file);",
-              "CREATE INDEX idx_is_documentation_file_repo ON file_changes(is_documentation_file, repo_name);",
-              "CREATE INDEX idx_file_changes_performance ON file_changes(commit_hash, file_path, is_test_file, is_build_file, is_dot_file, is_documentation_file);",
-              "CREATE INDEX idx_file_changes_performance_repo ON file_changes(commit_hash, file_path, is_test_file, is_build_file, is_dot_file, is_documentation_file, repo_name);",
-              "CREATE INDEX idx_file_changes_hash_add_del ON file_changes(commit_hash, additions, deletions);",
-              "CREATE INDEX idx_file_changes_hash_add_del_repo ON file_changes(commit_hash, additions, deletions, repo_name);",
-              "CREATE INDEX idx_commit_parents_commit_hash ON commit_parents(commit_hash);",
-              "CREATE INDEX idx_commit_parents_commit_hash_repo ON commit_parents(commit_hash, repo_name);",
-              "CREATE INDEX idx_commit_parents_parent_hash ON commit_parents(parent_hash);",
-              "CREATE INDEX idx_commit_parents_parent_hash_repo ON commit_parents(parent_hash, repo_name);");
+      String indexStateTable =
+          """
+              CREATE TABLE IF NOT EXISTS index_state (
+                  repo_name TEXT,
+                  ref_name TEXT,
+                  commit_hash TEXT,
+                  PRIMARY KEY (repo_name, ref_name)
+              );
+              """;
+
+      // A single row, replaced at the end of every index run
+      String indexRunTable =
+          """
+              CREATE TABLE IF NOT EXISTS index_run (
+                  id INTEGER PRIMARY KEY CHECK (id = 1),
+                  run_id TEXT,
+                  finished_at TEXT
+              );
+              """;
+
+      // Commits and line totals per day, week and month, kept up to date by SolDbSession
+      String activityRollupTable =
+          """
+              CREATE TABLE IF NOT EXISTS activity_rollup (
+                  period_type TEXT,
+                  period_start TEXT,
+                  repo_name TEXT,
+                  author TEXT,
+                  commits INTEGER,
+                  merge_commits INTEGER,
+                  total_additions INTEGER,
+                  total_deletions INTEGER,
+                  total_additions_test INTEGER,
+                  total_deletions_test INTEGER,
+                  total_additions_build INTEGER,
+                  total_deletions_build INTEGER,
+                  total_additions_dot INTEGER,
+                  total_deletions_dot INTEGER,
+                  total_additions_doc INTEGER,
+                  total_deletions_doc INTEGER,
+                  PRIMARY KEY (period_type, period_start, repo_name, author)
+              );
+              """;
 
       try (Statement stmt = conn.createStatement()) {
         stmt.execute(createCommitsTable);
@@ -161,25 +258,133 @@ public class SolDb {
         stmt.execute(commitParentsTable);
         stmt.execute(branchesTable);
         stmt.execute(tagsTable);
+        stmt.execute(indexStateTable);
+        stmt.execute(indexRunTable);
+        stmt.execute(activityRollupTable);
+        upgradeRollup(stmt);
 
-        indexes.forEach(
-            sql -> {
-              try {
-                stmt.execute(sql);
-              } catch (SQLException e) {
-                System.err.println("Error while creating indexes: " + e.getMessage());
-              }
-            });
+        if (!bulkLoad) {
+          createIndexes(stmt);
+        }
       }
     } catch (SQLException e) {
       System.err.println("There was an issue creating commits.db: " + e.getMessage());
     }
   }
 
+  /**
+   * Creates the secondary indexes deferred by a bulk load and gathers the statistics used by the
+   * query planner. The loaded data is then checkpointed and synced to disk, as later writes are.
+   */
+  public static void createIndexes() {
+    try (Connection conn = DriverManager.getConnection(DB_URL, connectionProperties());
+        Statement stmt = conn.createStatement()) {
+      createIndexes(stmt);
+      stmt.execute("ANALYZE");
+      stmt.execute("PRAGMA optimize");
+    } catch (SQLException e) {
+      System.err.println("There was an issue creating indexes: " + e.getMessage());
+    }
+    bulkLoad = false;
+
+    try (Connection conn = DriverManager.getConnection(DB_URL, connectionProperties());
+        Statement stmt = conn.createStatement()) {
+      stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+    } catch (SQLException e) {
+      System.err.println("There was an issue syncing commits.db: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Records the end of an index run with a new run id, which changes the fingerprint of the index
+   * even when no ref moved, as the data derived from the commits may still differ.
+   */
+  public static void recordIndexRun() {
+    try (Connection conn = DriverManager.getConnection(DB_URL, connectionProperties());
+        PreparedStatement stmt =
+            conn.prepareStatement(
+                "INSERT OR REPLACE INTO index_run (id, run_id, finished_at) VALUES (1, ?, ?)")) {
+      stmt.setString(1, UUID.randomUUID().toString());
+      stmt.setString(2, Instant.now().toString());
+      stmt.executeUpdate();
+    } catch (SQLException e) {
+      System.err.println("There was an issue recording the index run: " + e.getMessage());
+    }
+  }
+
+  /** Refreshes the query planner statistics which are out of date after an incremental index. */
+  public static void optimize() {
+    try (Connection conn = DriverManager.getConnection(DB_URL);
+        Statement stmt = conn.createStatement()) {
+      stmt.execute("PRAGMA optimize");
+    } catch (SQLException e) {
+      System.err.println("There was an issue optimizing commits.db: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Creates the secondary indexes, taking into account the advice applied with {@code sol advise
+   * --apply}, and drops the ones retired since the database was created.
+   */
+  private static void createIndexes(Statement stmt) {
+    IndexAdvice advice = IndexAdvisor.readAppliedAdvice();
+    List<String> statements = new ArrayList<>();
+    INDEXES.stream()
+        .filter(sql -> !advice.droppedIndexes().contains(indexName(sql)))
+        .forEach(statements::add);
+    statements.addAll(advice.createdIndexes());
+    RETIRED_INDEXES.stream().map(name -> "DROP INDEX IF EXISTS " + name).forEach(statements::add);
+
+    statements.forEach(
+        sql -> {
+          try {
+            stmt.execute(sql);
+          } catch (SQLException e) {
+            System.err.println("Error while creating indexes: " + e.getMessage());
+          }
+        });
+  }
+
+  /** Deletes rollups computed by previous versions, which counted doc lines differently. */
+  private static void upgradeRollup(Statement stmt) throws SQLException {
+    try (ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+      if (rs.next() && rs.getInt(1) >= ROLLUP_VERSION) {
+        return;
+      }
+    }
+    stmt.execute("DELETE FROM activity_rollup");
+    stmt.execute("PRAGMA user_version = " + ROLLUP_VERSION);
+  }
+
+  /** Returns the name of the index created by a CREATE INDEX IF NOT EXISTS statement. */
+  private static String indexName(String createIndex) {
+    return createIndex.split("\\s+")[5];
+  }
+
+  /**
+   * Settings of connections writing to the database. A bulk loaded database is written from
+   * scratch and can be indexed again if anything goes wrong, so it skips syncing to disk. WAL
+   * otherwise stays durable with {@code NORMAL} syncing.
+   */
+  static Properties connectionProperties() {
+    return bulkLoad ? BULK_LOAD_PROPERTIES : WRITE_PROPERTIES;
+  }
+
+  private static Properties writeProperties(SynchronousMode synchronous) {
+    SQLiteConfig config = new SQLiteConfig();
+    config.setJournalMode(JournalMode.WAL);
+    config.setSynchronous(synchronous);
+    config.setCacheSize(-64 * 1024);
+    config.setTempStore(TempStore.MEMORY);
+    return config.toProperties();
+  }
+
   private static void removeSolDbIfExists() {
-    File file = new File(".sol/commits.db");
-    if (file.exists()) {
-      file.delete();
+    for (String name : List.of("commits.db", "commits.db-wal", "commits.db-shm", "columnar.bin")) {
+      File file = new File(".sol", name);
+      if (file.exists()) {
+        file.delete();
+      }
     }
   }
 
@@ -190,192 +395,139 @@ public class SolDb {
     }
   }
 
-  public static void insertTag(Tag tag) {
-    String insertTagSQL = "INSERT INTO tags (tag_name, tag_commit, tag_message, repo_name) VALUES (?, ?, ?, ?)";
+  /**
+   * Returns the queries sol runs on its own, while indexing or reading history, which are not
+   * recorded in the {@link QueryLog}.
+   *
+   * @return the queries, with their parameters left unbound
+   */
+  static List<String> maintenanceQueries() {
+    List<String> queries = new ArrayList<>(SolDbSession.maintenanceQueries());
+    queries.addAll(List.of(INDEXED_REFS_SQL, MERGE_DATES_SQL, COMMIT_MESSAGES_SQL));
+    return queries;
+  }
 
+  /**
+   * Returns the ref tips recorded the last time the repository was indexed.
+   *
+   * @param repoName the repository
+   * @return ref name to commit hash, empty if the repository was never indexed
+   */
+  public static Map<String, String> getIndexedRefs(String repoName) {
+    Map<String, String> refs = new HashMap<>();
     try (Connection conn = DriverManager.getConnection(DB_URL);
-        PreparedStatement tagStmt = conn.prepareStatement(insertTagSQL)) {
-
-      tagStmt.setString(1, tag.name());
-      tagStmt.setString(2, tag.commitId());
-      tagStmt.setString(3, tag.message());
-      tagStmt.setString(4, tag.repoName());
-      tagStmt.executeUpdate();
+        PreparedStatement stmt = conn.prepareStatement(INDEXED_REFS_SQL)) {
+      stmt.setString(1, repoName);
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          refs.put(rs.getString(1), rs.getString(2));
+        }
+      }
     } catch (SQLException e) {
-      System.err.println("There was an issue inserting tags: " + e.getMessage());
+      System.err.println("There was an issue reading the index state: " + e.getMessage());
     }
+    return refs;
   }
 
-  public static void insertBranch(Branch branch) {
-    String insertBranchSQL =
-        "INSERT INTO branches (branch_name, is_active, creation_date, merge_date, repo_name) VALUES (?, ?, ?, ?, ?)";
-
+  /**
+   * Returns whether the index has the activity rollup. Indexes written by versions before it have
+   * none until they are indexed again.
+   *
+   * @return whether the activity_rollup table exists, false if the database cannot be read
+   */
+  public static boolean hasActivityRollup() {
     try (Connection conn = DriverManager.getConnection(DB_URL);
-        PreparedStatement branchStmt = conn.prepareStatement(insertBranchSQL)) {
-
-      branchStmt.setString(1, branch.name());
-      branchStmt.setInt(2, branch.active());
-      branchStmt.setString(3, convertDateToUtc(branch.creationDate()));
-      branchStmt.setString(4, convertDateToUtc(branch.mergeDate()));
-      branchStmt.setString(5, branch.repoName());
-      branchStmt.executeUpdate();
+        PreparedStatement stmt = conn.prepareStatement(HAS_TABLE_SQL)) {
+      stmt.setString(1, "activity_rollup");
+      try (ResultSet rs = stmt.executeQuery()) {
+        return rs.next();
+      }
     } catch (SQLException e) {
-      System.err.println("There was an issue inserting branches: " + e.getMessage());
+      System.err.println("There was an issue reading the index: " + e.getMessage());
+      return false;
     }
   }
 
   /**
-   * Inserts a commit record into the database.
+   * Returns a fingerprint of the indexed data, derived from the id of the last index run and the
+   * ref tips recorded for every repository. It changes with every index run, as well as when a
+   * repository is indexed again with new commits, branches or tags.
    *
-   * @param commits the list of commit records to insert
+   * @return the fingerprint, empty if the database cannot be read
    */
-  public static void insertCommits(List<CommitRecord> commits) {
-    String insertCommitSQL =
-        "INSERT INTO commits (commit_hash, author, date, timezone, is_merge, total_additions, "
-            + "total_deletions, message, total_additions_test, total_deletions_test, "
-            + "total_additions_build, total_deletions_build, "
-            + "total_additions_dot, total_deletions_dot, repo_name) "
-            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-    String insertFileChangeSQL =
-        "INSERT INTO file_changes (commit_hash, author, change_type, file_path, additions, deletions, is_test_file, is_build_file, is_dot_file, is_documentation_file, repo_name) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-    String insertIntoCommitParentsSQL =
-        "INSERT INTO commit_parents (commit_hash, parent_hash, repo_name) VALUES (?, ?, ?)";
-
-    final int BATCH_SIZE = 1000;
-    int batchCount = 0;
-
-    try (Connection conn = DriverManager.getConnection(DB_URL)) {
-      conn.setAutoCommit(false);
-
-      try (PreparedStatement commitStmt = conn.prepareStatement(insertCommitSQL);
-          PreparedStatement fileChangeStmt = conn.prepareStatement(insertFileChangeSQL);
-          PreparedStatement parentStmt = conn.prepareStatement(insertIntoCommitParentsSQL)) {
-
-        for (CommitRecord commit : commits) {
-          // Prepare commit batch
-          int totalAdd = count(commit, x -> true, FileChange::additions);
-          int totalDel = count(commit, x -> true, FileChange::deletions);
-
-          int totalDelTestFiles = count(commit, FileChange::isTestFile, FileChange::deletions);
-          int totalAddTestFiles = count(commit, FileChange::isTestFile, FileChange::additions);
-          int totalDelDotFiles = count(commit, FileChange::isDotFile, FileChange::deletions);
-          int totalAddDotFiles = count(commit, FileChange::isDotFile, FileChange::additions);
-          int totalDelBuildFiles = count(commit, FileChange::isBuildFile, FileChange::deletions);
-          int totalAddBuildFiles = count(commit, FileChange::isBuildFile, FileChange::additions);
-
-          String zone =
-              OffsetDateTime.parse(commit.date())
-                  .getOffset()
-                  .getDisplayName(TextStyle.SHORT, Locale.getDefault());
-
-          commitStmt.setString(1, commit.commitHash());
-          commitStmt.setString(2, commit.author());
-          commitStmt.setString(3, convertDateToUtc(commit.date()));
-          commitStmt.setString(4, zone);
-          commitStmt.setInt(5, commit.parents().size() > 1 ? 1 : 0);
-          commitStmt.setInt(6, totalAdd);
-          commitStmt.setInt(7, totalDel);
-          commitStmt.setString(8, commit.message());
-          commitStmt.setInt(9, totalAddTestFiles);
-          commitStmt.setInt(10, totalDelTestFiles);
-          commitStmt.setInt(11, totalAddDotFiles);
-          commitStmt.setInt(12, totalDelDotFiles);
-          commitStmt.setInt(13, totalAddBuildFiles);
-          commitStmt.setInt(14, totalDelBuildFiles);
-          commitStmt.setString(15, commit.repoName());
-
-          commitStmt.addBatch();
-
-          // Prepare file changes batch
-          for (FileChange fileChange : commit.fileChanges()) {
-            fileChangeStmt.setString(1, commit.commitHash());
-            fileChangeStmt.setString(2, commit.author());
-            fileChangeStmt.setString(3, fileChange.changeType());
-            fileChangeStmt.setString(4, fileChange.filePath());
-            fileChangeStmt.setInt(5, fileChange.additions());
-            fileChangeStmt.setInt(6, fileChange.deletions());
-            fileChangeStmt.setInt(7, fileChange.isTestFile() ? 1 : 0);
-            fileChangeStmt.setInt(8, fileChange.isBuildFile() ? 1 : 0);
-            fileChangeStmt.setInt(9, fileChange.isDotFile() ? 1 : 0);
-            fileChangeStmt.setInt(10, fileChange.isDocumentationFile() ? 1 : 0);
-            fileChangeStmt.setString(11, commit.repoName());
-            fileChangeStmt.addBatch();
-          }
-
-          // Prepare commit parents batch
-          for (String parent : commit.parents()) {
-            parentStmt.setString(1, commit.commitHash());
-            parentStmt.setString(2, parent);
-            parentStmt.setString(3, commit.repoName());
-            parentStmt.addBatch();
-          }
-
-          batchCount++;
+  public static Optional<String> getIndexFingerprint() {
+    try (Connection conn = DriverManager.getConnection(DB_URL);
+        Statement stmt = conn.createStatement()) {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest(stmt, "SELECT run_id, finished_at FROM index_run", digest);
+      digest(
+          stmt,
+          "SELECT repo_name, ref_name, commit_hash FROM index_state ORDER BY 1, 2",
+          digest);
+      return Optional.of(HexFormat.of().formatHex(digest.digest()));
+    } catch (SQLException | NoSuchAlgorithmException e) {
+      System.err.println("There was an issue reading the index state: " + e.getMessage());
+      return Optional.empty();
+    }
+  }
 
-          // Execute and commit every BATCH_SIZE records
-          if (batchCount % BATCH_SIZE == 0) {
-            commitStmt.executeBatch();
-            fileChangeStmt.executeBatch();
-            parentStmt.executeBatch();
-            conn.commit();
-          }
+  private static void digest(Statement stmt, String query, MessageDigest digest)
+      throws SQLException {
+    try (ResultSet rs = stmt.executeQuery(query)) {
+      int columns = rs.getMetaData().getColumnCount();
+      while (rs.next()) {
+        for (int i = 1; i <= columns; i++) {
+          digest.update(rs.getString(i).getBytes(StandardCharsets.UTF_8));
+          digest.update((byte) 0);
         }
-
-        // Execute batches
-        commitStmt.executeBatch();
-        fileChangeStmt.executeBatch();
-        parentStmt.executeBatch();
-
-        conn.commit();
-      } catch (SQLException e) {
-        conn.rollback();
-        System.err.println("There was an issue inserting commits: " + e.getMessage());
       }
-    } catch (SQLException e) {
-      System.err.println("There was an issue connecting to commits.db: " + e.getMessage());
     }
   }
 
-  private static int count(
-      CommitRecord commit, Predicate<FileChange> predicate, ToIntFunction<FileChange> sumFunction) {
-    return commit.fileChanges().stream()
-        .filter(FileChange::isAddOrModify)
-        .filter(predicate)
-        .mapToInt(sumFunction)
-        .sum();
+  /**
+   * Returns the merge dates already known for the merged branches of a repository.
+   *
+   * @param repoName the repository
+   * @return branch name to merge date
+   */
+  public static Map<String, String> getMergeDates(String repoName) {
+    Map<String, String> mergeDates = new HashMap<>();
+    try (Connection conn = DriverManager.getConnection(DB_URL);
+        PreparedStatement stmt = conn.prepareStatement(MERGE_DATES_SQL)) {
+      stmt.setString(1, repoName);
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          mergeDates.put(rs.getString(1), rs.getString(2));
+        }
+      }
+    } catch (SQLException e) {
+      System.err.println("There was an issue reading branches: " + e.getMessage());
+    }
+    return mergeDates;
   }
 
   /**
-   * Executes a query and returns the results. The query is trusted by default as it will run
-   * against the local commits.db.
+   * Streams the date and message of the commits of a repository, most recent first, without keeping
+   * them in memory.
    *
-   * @param query the query to execute
-   * @return the results of the query
-   * @throws SQLException if there is an issue executing the query
+   * @param repoName the repository to read
+   * @param visitor receives the date and message of each commit, returns false to stop reading
    */
-  public static List<Map<String, Object>> executeQuery(String query) throws SQLException {
-    List<Map<String, Object>> results = new ArrayList<>();
-
+  public static void forEachCommitMessage(String repoName, BiPredicate<String, String> visitor) {
     try (Connection conn = DriverManager.getConnection(DB_URL);
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery(query)) {
-
-      int columnCount = rs.getMetaData().getColumnCount();
-
-      while (rs.next()) {
-        Map<String, Object> row = new HashMap<>();
-        for (int i = 1; i <= columnCount; i++) {
-          String columnName = rs.getMetaData().getColumnName(i);
-          Object value = rs.getObject(i);
-          row.put(columnName, value);
+        PreparedStatement stmt = conn.prepareStatement(COMMIT_MESSAGES_SQL)) {
+      stmt.setString(1, repoName);
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next() && visitor.test(rs.getString(1), rs.getString(2))) {
+          // keep reading until the visitor is done
         }
-        results.add(row);
       }
+    } catch (SQLException e) {
+      System.err.println("There was an issue reading commits: " + e.getMessage());
     }
-    return results;
   }
 
-  private static String convertDateToUtc(String date) {
+  static String convertDateToUtc(String date) {
     if (date == null) {
       return null;
     }
@@ -0,0 +1,590 @@
+package io.ludovicianul.db;
+
+import io.ludovicianul.model.Branch;
+import io.ludovicianul.model.CommitRecord;
+import io.ludovicianul.model.FileChange;
+import io.ludovicianul.model.Tag;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.format.TextStyle;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConfig.TempStore;
+
+/**
+ * A connection to the sqlite db which is kept open across operations, together with the
+ * statements prepared on it. Each statement is only prepared once, the first time it is used, and
+ * is reused until the session is closed. Writes are batched and each operation runs in its own
+ * transaction. A failed write is rolled back and rethrown as an {@link IllegalStateException}, so
+ * the indexing run can tell that data is missing.
+ *
+ * <p>A session is not thread safe. All writes of an indexing run go through the session of the
+ * {@link IndexWriter}.
+ */
+public class SolDbSession implements AutoCloseable {
+  private static final int BATCH_SIZE = 1000;
+
+  private static final String INSERT_COMMIT_SQL =
+      " INTO commits (commit_hash, author, date, timezone, is_merge, total_additions, "
+          + "total_deletions, message, total_additions_test, total_deletions_test, "
+          + "total_additions_build, total_deletions_build, "
+          + "total_additions_dot, total_deletions_dot, repo_name) "
+          + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String INSERT_FILE_CHANGE_SQL =
+      "INSERT INTO file_changes (commit_hash, author, change_type, file_path, additions, deletions, is_test_file, is_build_file, is_dot_file, is_documentation_file, repo_name) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String INSERT_COMMIT_PARENT_SQL =
+      "INSERT INTO commit_parents (commit_hash, parent_hash, repo_name) VALUES (?, ?, ?)";
+  private static final String DELETE_FILE_CHANGES_SQL =
+      "DELETE FROM file_changes WHERE commit_hash = ? AND repo_name = ?";
+  private static final String DELETE_COMMIT_PARENTS_SQL =
+      "DELETE FROM commit_parents WHERE commit_hash = ? AND repo_name = ?";
+  private static final String INSERT_TAG_SQL =
+      "INSERT INTO tags (tag_name, tag_commit, tag_message, repo_name) VALUES (?, ?, ?, ?)";
+  private static final String INSERT_BRANCH_SQL =
+      "INSERT INTO branches (branch_name, is_active, creation_date, merge_date, repo_name) VALUES (?, ?, ?, ?, ?)";
+  private static final String DELETE_REPOSITORY_SQL = "DELETE FROM %s WHERE repo_name = ?";
+  private static final List<String> REPOSITORY_TABLES =
+      List.of(
+          "commits",
+          "file_changes",
+          "commit_parents",
+          "branches",
+          "tags",
+          "index_state",
+          "activity_rollup");
+  private static final String INSERT_INDEX_STATE_SQL =
+      "INSERT INTO index_state (repo_name, ref_name, commit_hash) VALUES (?, ?, ?)";
+
+  private static final String ROLLUP_COLUMNS =
+      "period_type, period_start, repo_name, author, commits, merge_commits, "
+          + "total_additions, total_deletions, total_additions_test, total_deletions_test, "
+          + "total_additions_build, total_deletions_build, total_additions_dot, total_deletions_dot, "
+          + "total_additions_doc, total_deletions_doc";
+  private static final String HAS_ROLLUP_SQL =
+      "SELECT 1 FROM activity_rollup WHERE repo_name = ? LIMIT 1";
+  private static final String DELETE_ROLLUP_SQL =
+      "DELETE FROM activity_rollup WHERE period_type = ? AND repo_name = ? AND period_start >= ?";
+  private static final String INSERT_DAY_ROLLUP_SQL =
+      """
+      INSERT INTO activity_rollup (%s)
+      SELECT 'day', substr(c.date, 1, 10), c.repo_name, c.author, COUNT(*), SUM(c.is_merge),
+          SUM(c.total_additions), SUM(c.total_deletions),
+          SUM(c.total_additions_test), SUM(c.total_deletions_test),
+          SUM(c.total_additions_build), SUM(c.total_deletions_build),
+          SUM(c.total_additions_dot), SUM(c.total_deletions_dot),
+          SUM(COALESCE(doc.additions, 0)), SUM(COALESCE(doc.deletions, 0))
+      FROM commits c
+      LEFT JOIN (
+          SELECT commit_hash, SUM(additions) AS additions, SUM(deletions) AS deletions
+          FROM file_changes
+          WHERE repo_name = ?
+              AND is_documentation_file = 1
+              AND change_type IN ('A', 'M')
+              AND commit_hash IN (SELECT commit_hash FROM commits WHERE repo_name = ? AND date >= ?)
+          GROUP BY commit_hash
+      ) doc ON doc.commit_hash = c.commit_hash
+      WHERE c.repo_name = ? AND c.date >= ?
+      GROUP BY substr(c.date, 1, 10), c.author
+      """
+          .formatted(ROLLUP_COLUMNS);
+  private static final String INSERT_PERIOD_ROLLUP_SQL =
+      """
+      INSERT INTO activity_rollup (%s)
+      SELECT '%s', %s AS period, repo_name, author, SUM(commits), SUM(merge_commits),
+          SUM(total_additions), SUM(total_deletions),
+          SUM(total_additions_test), SUM(total_deletions_test),
+          SUM(total_additions_build), SUM(total_deletions_build),
+          SUM(total_additions_dot), SUM(total_deletions_dot),
+          SUM(total_additions_doc), SUM(total_deletions_doc)
+      FROM activity_rollup
+      WHERE period_type = 'day' AND repo_name = ? AND period_start >= ?
+      GROUP BY period, author
+      """;
+  private static final String INSERT_WEEK_ROLLUP_SQL =
+      INSERT_PERIOD_ROLLUP_SQL.formatted(
+          ROLLUP_COLUMNS, "week", "date(period_start, '-6 days', 'weekday 1')");
+  private static final String INSERT_MONTH_ROLLUP_SQL =
+      INSERT_PERIOD_ROLLUP_SQL.formatted(
+          ROLLUP_COLUMNS, "month", "substr(period_start, 1, 7) || '-01'");
+
+  /** Start of the periods rolled up when a repository has no rollup yet. */
+  private static final String FIRST_DAY = "0000-01-01";
+
+  private static final Properties READ_ONLY_PROPERTIES = readOnlyProperties();
+
+  private final Connection conn;
+  private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+  /** Earliest date of the commits written per repository since its rollup was last refreshed. */
+  private final Map<String, String> rollupFrom = new HashMap<>();
+
+  private SolDbSession(Connection conn) {
+    this.conn = conn;
+  }
+
+  /**
+   * Opens a session for running queries.
+   *
+   * @return the session
+   * @throws SQLException if the database cannot be opened
+   */
+  public static SolDbSession open() throws SQLException {
+    return new SolDbSession(DriverManager.getConnection(SolDb.DB_URL));
+  }
+
+  /**
+   * Opens a session which can only read. Several of them can run queries concurrently.
+   *
+   * @return the session
+   * @throws SQLException if the database cannot be opened
+   */
+  public static SolDbSession openReadOnly() throws SQLException {
+    return new SolDbSession(DriverManager.getConnection(SolDb.DB_URL, READ_ONLY_PROPERTIES));
+  }
+
+  /**
+   * Opens a session for writing, with the settings of the current indexing run.
+   *
+   * @return the session
+   * @throws SQLException if the database cannot be opened
+   */
+  public static SolDbSession openForWriting() throws SQLException {
+    return new SolDbSession(
+        DriverManager.getConnection(SolDb.DB_URL, SolDb.connectionProperties()));
+  }
+
+  /**
+   * Returns the statement prepared for the given SQL, preparing it on first use.
+   *
+   * @param sql the SQL of the statement
+   * @return the prepared statement, with the parameters of its previous use cleared
+   * @throws SQLException if the statement cannot be prepared
+   */
+  PreparedStatement prepare(String sql) throws SQLException {
+    PreparedStatement stmt = statements.get(sql);
+    if (stmt == null) {
+      stmt = conn.prepareStatement(sql);
+      statements.put(sql, stmt);
+    } else {
+      stmt.clearParameters();
+    }
+    return stmt;
+  }
+
+  /**
+   * Runs a query and returns a cursor over its rows. The query is trusted by default as it will run
+   * against the local commits.db.
+   *
+   * @param query the query to run
+   * @param parameters the values bound to the parameters of the query, in order
+   * @return the cursor, to be closed before the statement is reused
+   * @throws SQLException if there is an issue running the query
+   */
+  public RowCursor query(String query, Object... parameters) throws SQLException {
+    long start = System.nanoTime();
+    PreparedStatement stmt = prepare(query);
+    for (int i = 0; i < parameters.length; i++) {
+      stmt.setObject(i + 1, parameters[i]);
+    }
+    return new RowCursor(conn, query, Arrays.asList(parameters), stmt.executeQuery(), start);
+  }
+
+  /**
+   * Inserts commit records into the database.
+   *
+   * @param commits the list of commit records to insert
+   * @param replaceExisting whether commits already present should be replaced, together with their
+   *     file changes and parents, instead of failing the batch
+   */
+  public void insertCommits(List<CommitRecord> commits, boolean replaceExisting) {
+    try {
+      inTransaction(
+          () -> {
+            if (replaceExisting) {
+              deleteFileChangesAndParents(commits);
+            }
+
+            PreparedStatement commitStmt =
+                prepare((replaceExisting ? "INSERT OR REPLACE" : "INSERT") + INSERT_COMMIT_SQL);
+            PreparedStatement fileChangeStmt = prepare(INSERT_FILE_CHANGE_SQL);
+            PreparedStatement parentStmt = prepare(INSERT_COMMIT_PARENT_SQL);
+            int batchCount = 0;
+
+            for (CommitRecord commit : commits) {
+              // Prepare commit batch
+              int totalAdd = count(commit, x -> true, FileChange::additions);
+              int totalDel = count(commit, x -> true, FileChange::deletions);
+
+              int totalDelTestFiles = count(commit, FileChange::isTestFile, FileChange::deletions);
+              int totalAddTestFiles = count(commit, FileChange::isTestFile, FileChange::additions);
+              int totalDelDotFiles = count(commit, FileChange::isDotFile, FileChange::deletions);
+              int totalAddDotFiles = count(commit, FileChange::isDotFile, FileChange::additions);
+              int totalDelBuildFiles =
+                  count(commit, FileChange::isBuildFile, FileChange::deletions);
+              int totalAddBuildFiles =
+                  count(commit, FileChange::isBuildFile, FileChange::additions);
+
+              String zone =
+                  OffsetDateTime.parse(commit.date())
+                      .getOffset()
+                      .getDisplayName(TextStyle.SHORT, Locale.getDefault());
+
+              commitStmt.setString(1, commit.commitHash());
+              commitStmt.setString(2, commit.author());
+              String date = SolDb.convertDateToUtc(commit.date());
+              if (date != null) {
+                rollupFrom.merge(commit.repoName(), date, SolDbSession::earliest);
+              }
+
+              commitStmt.setString(3, date);
+              commitStmt.setString(4, zone);
+              commitStmt.setInt(5, commit.parents().size() > 1 ? 1 : 0);
+              commitStmt.setInt(6, totalAdd);
+              commitStmt.setInt(7, totalDel);
+              commitStmt.setString(8, commit.message());
+              commitStmt.setInt(9, totalAddTestFiles);
+              commitStmt.setInt(10, totalDelTestFiles);
+              commitStmt.setInt(11, totalAddBuildFiles);
+              commitStmt.setInt(12, totalDelBuildFiles);
+              commitStmt.setInt(13, totalAddDotFiles);
+              commitStmt.setInt(14, totalDelDotFiles);
+              commitStmt.setString(15, commit.repoName());
+
+              commitStmt.addBatch();
+
+              // Prepare file changes batch
+              for (FileChange fileChange : commit.fileChanges()) {
+                fileChangeStmt.setString(1, commit.commitHash());
+                fileChangeStmt.setString(2, commit.author());
+                fileChangeStmt.setString(3, fileChange.changeType());
+                fileChangeStmt.setString(4, fileChange.filePath());
+                fileChangeStmt.setInt(5, fileChange.additions());
+                fileChangeStmt.setInt(6, fileChange.deletions());
+                fileChangeStmt.setInt(7, fileChange.isTestFile() ? 1 : 0);
+                fileChangeStmt.setInt(8, fileChange.isBuildFile() ? 1 : 0);
+                fileChangeStmt.setInt(9, fileChange.isDotFile() ? 1 : 0);
+                fileChangeStmt.setInt(10, fileChange.isDocumentationFile() ? 1 : 0);
+                fileChangeStmt.setString(11, commit.repoName());
+                fileChangeStmt.addBatch();
+              }
+
+              // Prepare commit parents batch
+              for (String parent : commit.parents()) {
+                parentStmt.setString(1, commit.commitHash());
+                parentStmt.setString(2, parent);
+                parentStmt.setString(3, commit.repoName());
+                parentStmt.addBatch();
+              }
+
+              batchCount++;
+
+              // Execute every BATCH_SIZE records
+              if (batchCount % BATCH_SIZE == 0) {
+                commitStmt.executeBatch();
+                fileChangeStmt.executeBatch();
+                parentStmt.executeBatch();
+              }
+            }
+
+            commitStmt.executeBatch();
+            fileChangeStmt.executeBatch();
+            parentStmt.executeBatch();
+          });
+    } catch (SQLException e) {
+      throw new IllegalStateException("There was an issue inserting commits: " + e.getMessage(), e);
+    }
+  }
+
+  private void deleteFileChangesAndParents(List<CommitRecord> commits) throws SQLException {
+    PreparedStatement deleteFileChangesStmt = prepare(DELETE_FILE_CHANGES_SQL);
+    PreparedStatement deleteParentsStmt = prepare(DELETE_COMMIT_PARENTS_SQL);
+    for (CommitRecord commit : commits) {
+      deleteFileChangesStmt.setString(1, commit.commitHash());
+      deleteFileChangesStmt.setString(2, commit.repoName());
+      deleteFileChangesStmt.addBatch();
+      deleteParentsStmt.setString(1, commit.commitHash());
+      deleteParentsStmt.setString(2, commit.repoName());
+      deleteParentsStmt.addBatch();
+    }
+    deleteFileChangesStmt.executeBatch();
+    deleteParentsStmt.executeBatch();
+  }
+
+  /**
+   * Brings the activity rollup of a repository up to date with its commits. Only the periods from
+   * the one containing the earliest commit written since the last refresh are rolled up again, or
+   * all of them when the repository has no rollup yet, such as after a full index or an upgrade.
+   *
+   * <p>Days are aggregated from the commits, weeks (starting on Monday) and months from the days.
+   * The days of a whole week or month are needed to roll it up, so days are rolled up again from
+   * the start of whichever of the two starts first.
+   *
+   * @param repoName the repository
+   */
+  public void refreshRollup(String repoName) {
+    String earliest = rollupFrom.remove(repoName);
+    try {
+      boolean hasRollup = hasRollup(repoName);
+      if (earliest == null && hasRollup) {
+        return;
+      }
+      LocalDate day = hasRollup ? LocalDate.parse(earliest.substring(0, 10)) : null;
+      String week = day == null ? FIRST_DAY : weekStart(day).toString();
+      String month = day == null ? FIRST_DAY : day.withDayOfMonth(1).toString();
+      String days = week.compareTo(month) <= 0 ? week : month;
+      inTransaction(
+          () -> {
+            executeUpdate(DELETE_ROLLUP_SQL, "day", repoName, days);
+            executeUpdate(DELETE_ROLLUP_SQL, "week", repoName, week);
+            executeUpdate(DELETE_ROLLUP_SQL, "month", repoName, month);
+            executeUpdate(INSERT_DAY_ROLLUP_SQL, repoName, repoName, days, repoName, days);
+            executeUpdate(INSERT_WEEK_ROLLUP_SQL, repoName, week);
+            executeUpdate(INSERT_MONTH_ROLLUP_SQL, repoName, month);
+          });
+    } catch (SQLException e) {
+      throw new IllegalStateException(
+          "There was an issue updating the activity rollup: " + e.getMessage(), e);
+    }
+  }
+
+  private boolean hasRollup(String repoName) throws SQLException {
+    PreparedStatement stmt = prepare(HAS_ROLLUP_SQL);
+    stmt.setString(1, repoName);
+    try (ResultSet rs = stmt.executeQuery()) {
+      return rs.next();
+    }
+  }
+
+  private static LocalDate weekStart(LocalDate day) {
+    return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+  }
+
+  private static String earliest(String date, String other) {
+    return date.compareTo(other) <= 0 ? date : other;
+  }
+
+  private void executeUpdate(String sql, String... parameters) throws SQLException {
+    PreparedStatement stmt = prepare(sql);
+    for (int i = 0; i < parameters.length; i++) {
+      stmt.setString(i + 1, parameters[i]);
+    }
+    stmt.executeUpdate();
+  }
+
+  /**
+   * Inserts tags into the database, in batches within a single transaction.
+   *
+   * @param tags the tags to insert
+   */
+  public void insertTags(List<Tag> tags) {
+    try {
+      inTransaction(
+          () ->
+              insertInBatches(
+                  prepare(INSERT_TAG_SQL),
+                  tags,
+                  (tagStmt, tag) -> {
+                    tagStmt.setString(1, tag.name());
+                    tagStmt.setString(2, tag.commitId());
+                    tagStmt.setString(3, tag.message());
+                    tagStmt.setString(4, tag.repoName());
+                  }));
+    } catch (SQLException e) {
+      throw new IllegalStateException("There was an issue inserting tags: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Inserts branches into the database, in batches within a single transaction.
+   *
+   * @param branches the branches to insert
+   */
+  public void insertBranches(List<Branch> branches) {
+    try {
+      inTransaction(
+          () ->
+              insertInBatches(
+                  prepare(INSERT_BRANCH_SQL),
+                  branches,
+                  (branchStmt, branch) -> {
+                    branchStmt.setString(1, branch.name());
+                    branchStmt.setInt(2, branch.active());
+                    branchStmt.setString(3, SolDb.convertDateToUtc(branch.creationDate()));
+                    branchStmt.setString(4, SolDb.convertDateToUtc(branch.mergeDate()));
+                    branchStmt.setString(5, branch.repoName());
+                  }));
+    } catch (SQLException e) {
+      throw new IllegalStateException(
+          "There was an issue inserting branches: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Replaces the recorded ref tips of a repository, so that the next incremental index only
+   * collects commits added after them.
+   *
+   * @param repoName the repository
+   * @param refs ref name to commit hash
+   */
+  public void saveIndexedRefs(String repoName, Map<String, String> refs) {
+    try {
+      inTransaction(
+          () -> {
+            deleteFrom("index_state", repoName);
+            insertInBatches(
+                prepare(INSERT_INDEX_STATE_SQL),
+                List.copyOf(refs.entrySet()),
+                (insertStmt, ref) -> {
+                  insertStmt.setString(1, repoName);
+                  insertStmt.setString(2, ref.getKey());
+                  insertStmt.setString(3, ref.getValue());
+                });
+          });
+    } catch (SQLException e) {
+      throw new IllegalStateException(
+          "There was an issue saving the index state: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Removes all data of a repository, so it can be indexed again from scratch.
+   *
+   * @param repoName the repository
+   */
+  public void deleteRepository(String repoName) {
+    deleteFromTables(repoName, REPOSITORY_TABLES.toArray(String[]::new));
+  }
+
+  /**
+   * Removes the branches and tags of a repository. They are collected again on every index.
+   *
+   * @param repoName the repository
+   */
+  public void deleteBranchesAndTags(String repoName) {
+    deleteFromTables(repoName, "branches", "tags");
+  }
+
+  private void deleteFromTables(String repoName, String... tables) {
+    try {
+      inTransaction(
+          () -> {
+            for (String table : tables) {
+              deleteFrom(table, repoName);
+            }
+          });
+    } catch (SQLException e) {
+      throw new IllegalStateException(
+          "There was an issue deleting data of " + repoName + ": " + e.getMessage(), e);
+    }
+  }
+
+  private void deleteFrom(String table, String repoName) throws SQLException {
+    PreparedStatement stmt = prepare(DELETE_REPOSITORY_SQL.formatted(table));
+    stmt.setString(1, repoName);
+    stmt.executeUpdate();
+  }
+
+  /**
+   * Returns the queries indexing runs to replace and roll up data. They are not recorded in the
+   * {@link QueryLog}, so the indexes they use must be kept even when no recorded query uses them.
+   *
+   * @return the queries, with their parameters left unbound
+   */
+  static List<String> maintenanceQueries() {
+    List<String> queries =
+        new ArrayList<>(
+            List.of(
+                DELETE_FILE_CHANGES_SQL,
+                DELETE_COMMIT_PARENTS_SQL,
+                HAS_ROLLUP_SQL,
+                DELETE_ROLLUP_SQL,
+                INSERT_DAY_ROLLUP_SQL,
+                INSERT_WEEK_ROLLUP_SQL,
+                INSERT_MONTH_ROLLUP_SQL));
+    REPOSITORY_TABLES.forEach(table -> queries.add(DELETE_REPOSITORY_SQL.formatted(table)));
+    return queries;
+  }
+
+  private <T> void insertInBatches(PreparedStatement stmt, List<T> rows, Binder<T> binder)
+      throws SQLException {
+    int batchCount = 0;
+    for (T row : rows) {
+      binder.bind(stmt, row);
+      stmt.addBatch();
+      batchCount++;
+      if (batchCount % BATCH_SIZE == 0) {
+        stmt.executeBatch();
+      }
+    }
+    stmt.executeBatch();
+  }
+
+  /** Runs the work in a transaction, which is rolled back if the work fails. */
+  private void inTransaction(SqlWork work) throws SQLException {
+    conn.setAutoCommit(false);
+    try {
+      work.run();
+      conn.commit();
+    } catch (SQLException | RuntimeException e) {
+      conn.rollback();
+      throw e;
+    } finally {
+      conn.setAutoCommit(true);
+    }
+  }
+
+  private static Properties readOnlyProperties() {
+    SQLiteConfig config = new SQLiteConfig();
+    config.setReadOnly(true);
+    config.setTempStore(TempStore.MEMORY);
+    return config.toProperties();
+  }
+
+  /** Sums the lines of the added and modified files, as do the doc totals of the rollup. */
+  private static int count(
+      CommitRecord commit, Predicate<FileChange> predicate, ToIntFunction<FileChange> sumFunction) {
+    return commit.fileChanges().stream()
+        .filter(FileChange::isAddOrModify)
+        .filter(predicate)
+        .mapToInt(sumFunction)
+        .sum();
+  }
+
+  /** Closes the cached statements and the connection. */
+  @Override
+  public void close() throws SQLException {
+    try {
+      for (PreparedStatement stmt : statements.values()) {
+        stmt.close();
+      }
+      statements.clear();
+    } finally {
+      conn.close();
+    }
+  }
+
+  @FunctionalInterface
+  private interface SqlWork {
+    void run() throws SQLException;
+  }
+
+  @FunctionalInterface
+  private interface Binder<T> {
+    void bind(PreparedStatement stmt, T row) throws SQLException;
+  }
+}
@@ -0,0 +1,623 @@
+package io.ludovicianul.io;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes rows to a Parquet file, one row group at a time, so memory use only depends on the size
+ * of a row group. Only flat schemas of optional columns are supported.
+ *
+ * <p>Each column of a row group is a single data page: definition levels are RLE encoded, values
+ * are PLAIN encoded and the page is GZIP compressed. The file metadata is written in the Thrift
+ * compact protocol, as the format requires.
+ *
+ * <p>A full row group is compressed and written in the background, its columns in parallel, while
+ * the rows of the next one are added, so adding rows is not held up by compression. At most one
+ * row group is pending at a time.
+ *
+ * <p>Values of a row are written column by column, in the order of the schema, followed by {@link
+ * #endRow()}.
+ */
+public class ParquetWriter implements AutoCloseable {
+  private static final byte[] MAGIC = "PAR1".getBytes(StandardCharsets.US_ASCII);
+  private static final int MAX_ROWS_PER_GROUP = 128 * 1024;
+  private static final long MAX_BYTES_PER_GROUP = 64L * 1024 * 1024;
+
+  // Values of the Parquet enums used below
+  private static final int TYPE_BOOLEAN = 0;
+  private static final int TYPE_INT64 = 2;
+  private static final int TYPE_BYTE_ARRAY = 6;
+  private static final int REPETITION_OPTIONAL = 1;
+  private static final int CONVERTED_UTF8 = 0;
+  private static final int CONVERTED_TIMESTAMP_MILLIS = 9;
+  private static final int ENCODING_PLAIN = 0;
+  private static final int ENCODING_RLE = 3;
+  private static final int CODEC_GZIP = 2;
+  private static final int PAGE_DATA = 0;
+
+  /** Types of columns. Timestamps are milliseconds since the epoch, in UTC. */
+  public enum Type {
+    STRING,
+    LONG,
+    BOOLEAN,
+    TIMESTAMP
+  }
+
+  /** A column of the schema. */
+  public record Column(String name, Type type) {}
+
+  private final CountingOutputStream out;
+  private final List<Column> columns;
+  private final List<RowGroup> rowGroups = new ArrayList<>();
+  private ColumnBuffer[] buffers;
+  private ColumnBuffer[] spareBuffers;
+  private CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
+  private int column;
+  private int groupRows;
+  private long rows;
+
+  private record ColumnChunk(long offset, long compressedSize, long uncompressedSize, int values) {}
+
+  private record Page(Bytes header, Bytes data, int uncompressedSize) {}
+
+  private record RowGroup(List<ColumnChunk> chunks, long rows, long uncompressedSize) {}
+
+  /**
+   * Creates the file and writes its header.
+   *
+   * @param file the file to create, replaced if it exists
+   * @param columns the schema of the rows
+   * @throws IOException if the file cannot be written
+   */
+  public ParquetWriter(Path file, List<Column> columns) throws IOException {
+    this.out = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+    this.columns = List.copyOf(columns);
+    this.buffers = newBuffers(columns.size());
+    out.write(MAGIC);
+  }
+
+  public void writeString(String value) {
+    if (value == null) {
+      writeNull();
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    ColumnBuffer buffer = next(Type.STRING);
+    buffer.defined(true);
+    buffer.values.writeIntLe(bytes.length);
+    buffer.values.write(bytes);
+  }
+
+  /** Writes a value of a {@link Type#LONG} or {@link Type#TIMESTAMP} column. */
+  public void writeLong(long value) {
+    ColumnBuffer buffer = next(columns.get(column).type() == Type.TIMESTAMP ? Type.TIMESTAMP : Type.LONG);
+    buffer.defined(true);
+    buffer.values.writeLongLe(value);
+  }
+
+  public void writeBoolean(boolean value) {
+    ColumnBuffer buffer = next(Type.BOOLEAN);
+    buffer.defined(true);
+    buffer.writeBit(value);
+  }
+
+  public void writeNull() {
+    next(columns.get(column).type()).defined(false);
+  }
+
+  /**
+   * Ends the current row, writing the row group once it is full.
+   *
+   * @throws IOException if the row group cannot be written
+   */
+  public void endRow() throws IOException {
+    if (column != columns.size()) {
+      throw new IllegalStateException("Row ended after %d of %d values".formatted(column, columns.size()));
+    }
+    column = 0;
+    groupRows++;
+    rows++;
+    long bufferedBytes = 0;
+    for (ColumnBuffer buffer : buffers) {
+      bufferedBytes += buffer.values.size();
+    }
+    if (groupRows == MAX_ROWS_PER_GROUP || bufferedBytes >= MAX_BYTES_PER_GROUP) {
+      writeRowGroup();
+    }
+  }
+
+  /**
+   * Returns the number of rows written so far.
+   *
+   * @return the number of rows
+   */
+  public long rows() {
+    return rows;
+  }
+
+  private ColumnBuffer next(Type type) {
+    if (column == columns.size() || columns.get(column).type() != type) {
+      throw new IllegalStateException("Unexpected %s value for column %d".formatted(type, column));
+    }
+    return buffers[column++];
+  }
+
+  private static ColumnBuffer[] newBuffers(int columns) {
+    ColumnBuffer[] buffers = new ColumnBuffer[columns];
+    Arrays.setAll(buffers, i -> new ColumnBuffer());
+    return buffers;
+  }
+
+  /** Hands the row group over to be written in the background, once the previous one is written. */
+  private void writeRowGroup() throws IOException {
+    awaitPending();
+    ColumnBuffer[] full = buffers;
+    int rowsInGroup = groupRows;
+    buffers = spareBuffers != null ? spareBuffers : newBuffers(full.length);
+    groupRows = 0;
+    pending =
+        CompletableFuture.runAsync(
+            () -> {
+              try {
+                writeRowGroup(full, rowsInGroup);
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+              for (ColumnBuffer buffer : full) {
+                buffer.reset();
+              }
+              spareBuffers = full;
+            });
+  }
+
+  private void awaitPending() throws IOException {
+    try {
+      pending.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException io) {
+        throw io.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private void writeRowGroup(ColumnBuffer[] full, int rowsInGroup) throws IOException {
+    Page[] pages =
+        IntStream.range(0, full.length)
+            .parallel()
+            .mapToObj(i -> page(full[i], rowsInGroup))
+            .toArray(Page[]::new);
+    List<ColumnChunk> chunks = new ArrayList<>(pages.length);
+    long uncompressedSize = 0;
+    for (Page page : pages) {
+      long offset = out.count();
+      page.header().writeTo(out);
+      page.data().writeTo(out);
+      ColumnChunk chunk =
+          new ColumnChunk(
+              offset,
+              page.header().size() + page.data().size(),
+              page.header().size() + page.uncompressedSize(),
+              rowsInGroup);
+      chunks.add(chunk);
+      uncompressedSize += chunk.uncompressedSize();
+    }
+    rowGroups.add(new RowGroup(chunks, rowsInGroup, uncompressedSize));
+  }
+
+  /** Builds the column of the row group as a single compressed data page. */
+  private static Page page(ColumnBuffer buffer, int rowsInGroup) {
+    Bytes levels = buffer.definitionLevels();
+    buffer.flushBits();
+    Bytes data = new Bytes(4 + levels.size() + buffer.values.size());
+    data.writeIntLe(levels.size());
+    levels.writeTo(data);
+    buffer.values.writeTo(data);
+    Bytes compressed = gzip(data);
+
+    CompactWriter header = new CompactWriter();
+    header.fieldI32(1, PAGE_DATA);
+    header.fieldI32(2, data.size());
+    header.fieldI32(3, compressed.size());
+    header.fieldStructBegin(5);
+    header.fieldI32(1, rowsInGroup);
+    header.fieldI32(2, ENCODING_PLAIN);
+    header.fieldI32(3, ENCODING_RLE);
+    header.fieldI32(4, ENCODING_RLE);
+    header.structEnd();
+    header.structEnd();
+    return new Page(header.bytes, compressed, data.size());
+  }
+
+  private static Bytes gzip(Bytes data) {
+    Bytes compressed = new Bytes(Math.max(64, data.size() / 4));
+    try (GZIPOutputStream gzip =
+        new GZIPOutputStream(compressed.asOutputStream(), 1 << 16) {
+          {
+            def.setLevel(Deflater.BEST_SPEED);
+          }
+        }) {
+      data.writeTo(gzip);
+    } catch (IOException e) {
+      // only thrown by the underlying stream, which writes to memory
+      throw new UncheckedIOException(e);
+    }
+    return compressed;
+  }
+
+  /** Writes the last row group and the file metadata. */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (groupRows > 0) {
+        writeRowGroup();
+      }
+      awaitPending();
+      CompactWriter footer = new CompactWriter();
+      writeFileMetaData(footer);
+      footer.bytes.writeTo(out);
+      Bytes length = new Bytes(4);
+      length.writeIntLe(footer.bytes.size());
+      length.writeTo(out);
+      out.write(MAGIC);
+    } finally {
+      out.close();
+    }
+  }
+
+  private void writeFileMetaData(CompactWriter footer) {
+    footer.fieldI32(1, 1);
+
+    footer.fieldListBegin(2, CompactWriter.STRUCT, columns.size() + 1);
+    footer.structBegin();
+    footer.fieldBinary(4, "schema");
+    footer.fieldI32(5, columns.size());
+    footer.structEnd();
+    for (Column col : columns) {
+      writeSchemaElement(footer, col);
+    }
+
+    footer.fieldI64(3, rows);
+
+    footer.fieldListBegin(4, CompactWriter.STRUCT, rowGroups.size());
+    for (RowGroup rowGroup : rowGroups) {
+      footer.structBegin();
+      footer.fieldListBegin(1, CompactWriter.STRUCT, columns.size());
+      for (int i = 0; i < columns.size(); i++) {
+        writeColumnChunk(footer, columns.get(i), rowGroup.chunks().get(i));
+      }
+      footer.fieldI64(2, rowGroup.uncompressedSize());
+      footer.fieldI64(3, rowGroup.rows());
+      footer.structEnd();
+    }
+
+    footer.fieldBinary(6, "sol");
+    footer.structEnd();
+  }
+
+  private static void writeSchemaElement(CompactWriter footer, Column col) {
+    footer.structBegin();
+    footer.fieldI32(1, physicalType(col.type()));
+    footer.fieldI32(3, REPETITION_OPTIONAL);
+    footer.fieldBinary(4, col.name());
+    switch (col.type()) {
+      case STRING -> {
+        footer.fieldI32(6, CONVERTED_UTF8);
+        footer.fieldStructBegin(10);
+        footer.fieldStructBegin(1);
+        footer.structEnd();
+        footer.structEnd();
+      }
+      case TIMESTAMP -> {
+        footer.fieldI32(6, CONVERTED_TIMESTAMP_MILLIS);
+        footer.fieldStructBegin(10);
+        footer.fieldStructBegin(8);
+        footer.fieldBool(1, true);
+        footer.fieldStructBegin(2);
+        footer.fieldStructBegin(1);
+        footer.structEnd();
+        footer.structEnd();
+        footer.structEnd();
+        footer.structEnd();
+      }
+      default -> {
+        // no logical type
+      }
+    }
+    footer.structEnd();
+  }
+
+  private static void writeColumnChunk(CompactWriter footer, Column col, ColumnChunk chunk) {
+    footer.structBegin();
+    footer.fieldI64(2, chunk.offset());
+    footer.fieldStructBegin(3);
+    footer.fieldI32(1, physicalType(col.type()));
+    footer.fieldListBegin(2, CompactWriter.I32, 2);
+    footer.i32(ENCODING_PLAIN);
+    footer.i32(ENCODING_RLE);
+    footer.fieldListBegin(3, CompactWriter.BINARY, 1);
+    footer.binary(col.name());
+    footer.fieldI32(4, CODEC_GZIP);
+    footer.fieldI64(5, chunk.values());
+    footer.fieldI64(6, chunk.uncompressedSize());
+    footer.fieldI64(7, chunk.compressedSize());
+    footer.fieldI64(9, chunk.offset());
+    footer.structEnd();
+    footer.structEnd();
+  }
+
+  private static int physicalType(Type type) {
+    return switch (type) {
+      case STRING -> TYPE_BYTE_ARRAY;
+      case LONG, TIMESTAMP -> TYPE_INT64;
+      case BOOLEAN -> TYPE_BOOLEAN;
+    };
+  }
+
+  /** Definition levels and values of a column, for the rows of the current row group. */
+  private static final class ColumnBuffer {
+    private final Bytes levels = new Bytes(1024);
+    private final Bytes values = new Bytes(1024);
+    private boolean runDefined;
+    private int runLength;
+    private int bits;
+    private int bitCount;
+
+    /** Definition levels are 0 or 1, written as runs of the same level. */
+    void defined(boolean defined) {
+      if (runLength > 0 && runDefined != defined) {
+        flushRun();
+      }
+      runDefined = defined;
+      runLength++;
+    }
+
+    private void flushRun() {
+      levels.writeVarInt((long) runLength << 1);
+      levels.write(runDefined ? 1 : 0);
+      runLength = 0;
+    }
+
+    Bytes definitionLevels() {
+      if (runLength > 0) {
+        flushRun();
+      }
+      return levels;
+    }
+
+    /** Booleans are bit packed, the first value in the least significant bit. */
+    void writeBit(boolean value) {
+      if (value) {
+        bits |= 1 << bitCount;
+      }
+      if (++bitCount == 8) {
+        flushBits();
+      }
+    }
+
+    void flushBits() {
+      if (bitCount > 0) {
+        values.write(bits);
+        bits = 0;
+        bitCount = 0;
+      }
+    }
+
+    void reset() {
+      levels.reset();
+      values.reset();
+      runLength = 0;
+    }
+  }
+
+  /** Writer of the Thrift compact protocol, for the few types the metadata uses. */
+  private static final class CompactWriter {
+    static final int I32 = 5;
+    static final int I64 = 6;
+    static final int BINARY = 8;
+    static final int LIST = 9;
+    static final int STRUCT = 12;
+    private static final int BOOLEAN_TRUE = 1;
+    private static final int BOOLEAN_FALSE = 2;
+
+    final Bytes bytes = new Bytes(256);
+    private final int[] lastFieldIds = new int[16];
+    private int depth;
+
+    void fieldI32(int id, int value) {
+      fieldHeader(id, I32);
+      i32(value);
+    }
+
+    void fieldI64(int id, long value) {
+      fieldHeader(id, I64);
+      bytes.writeVarInt(zigzag(value));
+    }
+
+    void fieldBinary(int id, String value) {
+      fieldHeader(id, BINARY);
+      binary(value);
+    }
+
+    void fieldBool(int id, boolean value) {
+      fieldHeader(id, value ? BOOLEAN_TRUE : BOOLEAN_FALSE);
+    }
+
+    void fieldStructBegin(int id) {
+      fieldHeader(id, STRUCT);
+      structBegin();
+    }
+
+    void fieldListBegin(int id, int elementType, int size) {
+      fieldHeader(id, LIST);
+      if (size < 15) {
+        bytes.write(size << 4 | elementType);
+      } else {
+        bytes.write(0xF0 | elementType);
+        bytes.writeVarInt(size);
+      }
+    }
+
+    /** Starts a struct, either as a field or as an element of a list. */
+    void structBegin() {
+      lastFieldIds[++depth] = 0;
+    }
+
+    void structEnd() {
+      bytes.write(0);
+      depth--;
+    }
+
+    void i32(int value) {
+      bytes.writeVarInt(zigzag(value));
+    }
+
+    void binary(String value) {
+      byte[] data = value.getBytes(StandardCharsets.UTF_8);
+      bytes.writeVarInt(data.length);
+      bytes.write(data);
+    }
+
+    private void fieldHeader(int id, int type) {
+      int delta = id - lastFieldIds[depth];
+      if (delta > 0 && delta <= 15) {
+        bytes.write(delta << 4 | type);
+      } else {
+        bytes.write(type);
+        bytes.writeVarInt(zigzag(id));
+      }
+      lastFieldIds[depth] = id;
+    }
+
+    private static long zigzag(long value) {
+      return (value << 1) ^ (value >> 63);
+    }
+  }
+
+  /** Growable byte buffer, with little endian writes. */
+  private static final class Bytes {
+    private byte[] data;
+    private int size;
+
+    Bytes(int capacity) {
+      data = new byte[capacity];
+    }
+
+    void write(int b) {
+      ensure(1);
+      data[size++] = (byte) b;
+    }
+
+    void write(byte[] bytes) {
+      ensure(bytes.length);
+      System.arraycopy(bytes, 0, data, size, bytes.length);
+      size += bytes.length;
+    }
+
+    void writeIntLe(int value) {
+      ensure(4);
+      for (int i = 0; i < 4; i++) {
+        data[size++] = (byte) (value >>> (8 * i));
+      }
+    }
+
+    void writeLongLe(long value) {
+      ensure(8);
+      for (int i = 0; i < 8; i++) {
+        data[size++] = (byte) (value >>> (8 * i));
+      }
+    }
+
+    void writeVarInt(long value) {
+      while ((value & ~0x7FL) != 0) {
+        write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      write((int) value);
+    }
+
+    void writeTo(Bytes other) {
+      other.ensure(size);
+      System.arraycopy(data, 0, other.data, other.size, size);
+      other.size += size;
+    }
+
+    void writeTo(OutputStream stream) throws IOException {
+      stream.write(data, 0, size);
+    }
+
+    OutputStream asOutputStream() {
+      return new OutputStream() {
+        @Override
+        public void write(int b) {
+          Bytes.this.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+          ensure(length);
+          System.arraycopy(bytes, offset, data, size, length);
+          size += length;
+        }
+      };
+    }
+
+    int size() {
+      return size;
+    }
+
+    void reset() {
+      size = 0;
+    }
+
+    private void ensure(int extra) {
+      if (size + extra > data.length) {
+        data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
+      }
+    }
+  }
+
+  /** Keeps track of the position in the file, which the metadata refers to. */
+  private static final class CountingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      out.write(bytes, offset, length);
+      count += length;
+    }
+
+    long count() {
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+}
@@ -1,6 +1,9 @@
 package io.ludovicianul.io;
 
 import io.ludovicianul.log.Logger;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -29,6 +32,32 @@ public enum ProcessRunner {
     return List.of();
   }
 
+  /**
+   * Starts the command without waiting for it, so callers can consume its output while it is
+   * being produced. Only the standard output is returned, the error output, such as warnings git
+   * prints on large repositories, is drained separately and logged in debug mode, so it never ends
+   * up in the middle of the parsed output.
+   *
+   * @param command the shell command to run
+   * @return the started process
+   * @throws IOException if the process cannot be started
+   */
+  public Process startProcess(String command) throws IOException {
+    ProcessBuilder builder = createProcess("/bin/sh", "-c", command);
+    builder.redirectErrorStream(false);
+    Process process = builder.start();
+    EXECUTOR_SERVICE.submit(() -> logErrorOutput(process));
+    return process;
+  }
+
+  private static void logErrorOutput(Process process) {
+    try (BufferedReader reader = process.errorReader(StandardCharsets.UTF_8)) {
+      reader.lines().forEach(line -> Logger.debug("stderr: " + line));
+    } catch (IOException | UncheckedIOException e) {
+      // the process was destroyed while its error output was read
+    }
+  }
+
   public String getSingleLineProcessOut(int timeout, String command) {
     List<String> listOutput = this.getMultiLineProcessOut(timeout, command);
     return listOutput.isEmpty() ? null : listOutput.getFirst();
@@ -0,0 +1,262 @@
+package io.ludovicianul.io;
+
+import io.ludovicianul.db.Rows;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes {@link Rows} as they are read, so memory use does not depend on the size of the result.
+ * The output is flushed after the first row, so it shows up right away even for long running
+ * queries.
+ */
+public abstract class ResultWriter {
+  protected final Writer out;
+
+  /** Output formats of query results. */
+  public enum Format {
+    CSV,
+    NDJSON,
+    TABLE
+  }
+
+  protected ResultWriter(Writer out) {
+    this.out = out;
+  }
+
+  /**
+   * Creates a writer for the given format.
+   *
+   * @param format the output format
+   * @param out where to write the rows
+   * @return the writer
+   */
+  public static ResultWriter create(Format format, Writer out) {
+    return switch (format) {
+      case CSV -> new CsvWriter(out);
+      case NDJSON -> new NdjsonWriter(out);
+      case TABLE -> new TableWriter(out);
+    };
+  }
+
+  /**
+   * Writes all remaining rows.
+   *
+   * @param rows the rows to write
+   * @return the number of rows written
+   * @throws SQLException if the rows cannot be read
+   * @throws IOException if the rows cannot be written
+   */
+  public long write(Rows rows) throws SQLException, IOException {
+    List<String> columns = rows.columns();
+    Object[] row = new Object[columns.size()];
+    long written = 0;
+
+    start(columns);
+    while (rows.next()) {
+      for (int i = 0; i < row.length; i++) {
+        row[i] = rows.get(i);
+      }
+      writeRow(row);
+      if (++written == 1) {
+        out.flush();
+      }
+    }
+    finish();
+    out.flush();
+    return written;
+  }
+
+  protected abstract void start(List<String> columns) throws IOException;
+
+  /** The row array is reused for the next row, so implementations must not keep it. */
+  protected abstract void writeRow(Object[] row) throws IOException;
+
+  protected void finish() throws IOException {}
+
+  /** RFC 4180 CSV, with a header line. */
+  private static final class CsvWriter extends ResultWriter {
+    private CsvWriter(Writer out) {
+      super(out);
+    }
+
+    @Override
+    protected void start(List<String> columns) throws IOException {
+      writeRow(columns.toArray());
+    }
+
+    @Override
+    protected void writeRow(Object[] row) throws IOException {
+      for (int i = 0; i < row.length; i++) {
+        if (i > 0) {
+          out.write(',');
+        }
+        if (row[i] != null) {
+          writeField(row[i].toString());
+        }
+      }
+      out.write('\n');
+    }
+
+    private void writeField(String value) throws IOException {
+      boolean quoted = false;
+      for (int i = 0; i < value.length() && !quoted; i++) {
+        char c = value.charAt(i);
+        quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+      }
+      if (!quoted) {
+        out.write(value);
+        return;
+      }
+      out.write('"');
+      out.write(value.replace("\"", "\"\""));
+      out.write('"');
+    }
+  }
+
+  /** One JSON object per row, keyed by column name. */
+  private static final class NdjsonWriter extends ResultWriter {
+    private List<String> columns;
+
+    private NdjsonWriter(Writer out) {
+      super(out);
+    }
+
+    @Override
+    protected void start(List<String> columns) {
+      this.columns = columns;
+    }
+
+    @Override
+    protected void writeRow(Object[] row) throws IOException {
+      out.write('{');
+      for (int i = 0; i < row.length; i++) {
+        if (i > 0) {
+          out.write(',');
+        }
+        writeString(columns.get(i));
+        out.write(':');
+        Object value = row[i];
+        if (value == null) {
+          out.write("null");
+        } else if (value instanceof Number number && isFinite(number)) {
+          out.write(number.toString());
+        } else {
+          writeString(value.toString());
+        }
+      }
+      out.write("}\n");
+    }
+
+    private static boolean isFinite(Number number) {
+      return !(number instanceof Double d) || Double.isFinite(d);
+    }
+
+    private void writeString(String value) throws IOException {
+      out.write('"');
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        switch (c) {
+          case '"' -> out.write("\\\"");
+          case '\\' -> out.write("\\\\");
+          case '\n' -> out.write("\\n");
+          case '\r' -> out.write("\\r");
+          case '\t' -> out.write("\\t");
+          default -> {
+            if (c < 0x20) {
+              out.write("\\u%04x".formatted((int) c));
+            } else {
+              out.write(c);
+            }
+          }
+        }
+      }
+      out.write('"');
+    }
+  }
+
+  /**
+   * Aligned columns. Widths are taken from the first rows, which are held back until there are
+   * enough of them; longer values in later rows are cut.
+   */
+  private static final class TableWriter extends ResultWriter {
+    private static final int ROWS_TO_MEASURE = 100;
+    private static final int MAX_WIDTH = 60;
+
+    private final List<String[]> pending = new ArrayList<>();
+    private List<String> columns;
+    private int[] widths;
+
+    private TableWriter(Writer out) {
+      super(out);
+    }
+
+    @Override
+    protected void start(List<String> columns) {
+      this.columns = columns;
+    }
+
+    @Override
+    protected void writeRow(Object[] row) throws IOException {
+      String[] values = new String[row.length];
+      for (int i = 0; i < row.length; i++) {
+        values[i] = row[i] == null ? "" : row[i].toString().replaceAll("\\s+", " ");
+      }
+      if (widths != null) {
+        writeLine(values);
+        return;
+      }
+      pending.add(values);
+      if (pending.size() == ROWS_TO_MEASURE) {
+        writePending();
+      }
+    }
+
+    @Override
+    protected void finish() throws IOException {
+      if (widths == null) {
+        writePending();
+      }
+    }
+
+    private void writePending() throws IOException {
+      widths = new int[columns.size()];
+      for (int i = 0; i < widths.length; i++) {
+        widths[i] = columns.get(i).length();
+        for (String[] values : pending) {
+          widths[i] = Math.max(widths[i], values[i].length());
+        }
+        widths[i] = Math.min(widths[i], MAX_WIDTH);
+      }
+
+      writeLine(columns.toArray(String[]::new));
+      String[] separator = new String[widths.length];
+      for (int i = 0; i < widths.length; i++) {
+        separator[i] = "-".repeat(widths[i]);
+      }
+      writeLine(separator);
+      for (String[] values : pending) {
+        writeLine(values);
+      }
+      pending.clear();
+    }
+
+    private void writeLine(String[] values) throws IOException {
+      StringBuilder line = new StringBuilder();
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0) {
+          line.append(" | ");
+        }
+        String value = values[i];
+        if (value.length() > widths[i]) {
+          value = value.substring(0, widths[i] - 1) + "…";
+        }
+        line.append(value).append(" ".repeat(widths[i] - value.length()));
+      }
+      out.write(line.toString().stripTrailing());
+      out.write('\n');
+    }
+  }
+}
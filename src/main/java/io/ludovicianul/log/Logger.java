@@ -1,8 +1,13 @@
 package io.ludovicianul.log;
 
+import java.io.PrintStream;
+
 /** Logger class for logging debug information. */
 public class Logger {
   private static boolean debug;
+  private static boolean messagesToStandardError;
+  private static int progressLength;
+  private static boolean partPrinted;
 
   public static boolean isDebug() {
     return debug;
@@ -12,21 +17,91 @@ public class Logger {
     Logger.debug = debug;
   }
 
-  public static void print(String message) {
-    System.out.println(message);
+  /**
+   * Sends all messages to the standard error, keeping the standard output for a result meant to be
+   * parsed, like the JSON summary of {@code sol --index --stats json}.
+   *
+   * @param messagesToStandardError whether to print messages to the standard error
+   */
+  public static synchronized void setMessagesToStandardError(boolean messagesToStandardError) {
+    Logger.messagesToStandardError = messagesToStandardError;
+  }
+
+  public static synchronized void print(String message) {
+    startMessage();
+    out().println(message);
   }
 
-  public static void err(String message) {
+  public static synchronized void err(String message) {
+    startMessage();
     System.err.println(message);
   }
 
-  public static void debug(String message) {
+  public static synchronized void debug(String message) {
     if (debug) {
-      System.out.println(message);
+      startMessage();
+      out().println(message);
+    }
+  }
+
+  public static synchronized void printNewLine() {
+    startMessage();
+    out().println();
+  }
+
+  /**
+   * Prints part of a message as it is written, without a line break.
+   *
+   * @param text the part of the message
+   */
+  public static synchronized void printPart(String text) {
+    clearProgress();
+    out().print(text);
+    out().flush();
+    if (!text.isEmpty()) {
+      partPrinted = text.charAt(text.length() - 1) != '\n';
+    }
+  }
+
+  /** Ends the line of the parts printed so far, unless they already ended with a line break. */
+  public static synchronized void endPart() {
+    if (partPrinted) {
+      out().println();
+      partPrinted = false;
+    }
+  }
+
+  /**
+   * Prints a progress line. On a terminal it is overwritten by the next progress line and cleared
+   * before any other message, otherwise it is printed like any other message.
+   *
+   * @param message the progress line
+   */
+  public static synchronized void progress(String message) {
+    if (System.console() == null) {
+      out().println(message);
+      return;
+    }
+    out().print(
+        "\r" + message + " ".repeat(Math.max(0, progressLength - message.length())));
+    out().flush();
+    progressLength = message.length();
+  }
+
+  /** Messages start on their own line, clearing the progress line. */
+  private static void startMessage() {
+    endPart();
+    clearProgress();
+  }
+
+  private static void clearProgress() {
+    if (progressLength > 0) {
+      out().print("\r" + " ".repeat(progressLength) + "\r");
+      progressLength = 0;
     }
   }
 
-  public static void printNewLine() {
-    System.out.println();
+  private static PrintStream out() {
+    return messagesToStandardError ? System.err : System.out;
   }
 }
@@ -0,0 +1,17 @@
+package io.ludovicianul.model;
+
+import java.util.List;
+
+/**
+ * Index changes applied by the index advisor. They are kept next to the database, so indexing
+ * from scratch creates the same indexes.
+ *
+ * @param createdIndexes the CREATE INDEX statements of the indexes added
+ * @param droppedIndexes the names of the indexes dropped
+ */
+public record IndexAdvice(List<String> createdIndexes, List<String> droppedIndexes) {
+
+  public static IndexAdvice none() {
+    return new IndexAdvice(List.of(), List.of());
+  }
+}
@@ -0,0 +1,24 @@
+package io.ludovicianul.model;
+
+import java.util.Map;
+
+/**
+ * The summary of an indexing run, as printed by {@code sol --index --stats json}.
+ *
+ * @param repositories the number of repositories indexed
+ * @param failedRepositories the number of repositories which failed to index
+ * @param totalMillis the wall time of the whole run
+ * @param commitsPerSecond the number of commits indexed per second of wall time
+ * @param phaseMillis the time spent in each phase, summed over all repositories, so with several
+ *     repositories indexed in parallel their sum can exceed the wall time
+ * @param rows the number of rows written to each table
+ * @param peakHeapBytes the highest heap in use during the run, sampled every 100 ms
+ */
+public record IndexStats(
+    int repositories,
+    int failedRepositories,
+    long totalMillis,
+    long commitsPerSecond,
+    Map<String, Long> phaseMillis,
+    Map<String, Long> rows,
+    long peakHeapBytes) {}
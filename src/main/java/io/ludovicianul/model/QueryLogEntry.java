@@ -0,0 +1,25 @@
+package io.ludovicianul.model;
+
+import java.util.List;
+
+/**
+ * A query run against the database, as recorded in the query log.
+ *
+ * @param timestamp when the query was run, in ISO format
+ * @param query the SQL query
+ * @param parameters the values bound to the parameters of the query, in order
+ * @param durationMs how long running the query and reading its rows took
+ * @param plan the details of the {@code EXPLAIN QUERY PLAN} output
+ */
+public record QueryLogEntry(
+    String timestamp,
+    String query,
+    List<Object> parameters,
+    long durationMs,
+    List<String> plan) {
+
+  /** Entries recorded before parameters were logged have none. */
+  public List<Object> parameters() {
+    return parameters == null ? List.of() : parameters;
+  }
+}
@@ -1,12 +1,32 @@
 package io.ludovicianul.model;
 
-public record QueryResult(String queries, String answers, String question) {
+import java.util.List;
+
+/**
+ * The result of the queries answering a question.
+ *
+ * @param queries the SQL queries, as generated
+ * @param answers the rows of the queries, as sent to the AI
+ * @param question the user question
+ * @param parts the rows split into parts analyzed separately, a single one unless the result was
+ *     encoded for a map-reduce analysis
+ */
+public record QueryResult(String queries, String answers, String question, List<String> parts) {
   private static final String NO_RESULT = "No data could be retrieved for the given question";
 
+  public QueryResult(String queries, String answers, String question) {
+    this(queries, answers, question, List.of(answers));
+  }
+
   public String piped() {
     return queries + "|" + answers + "|" + question;
   }
 
+  /** Returns the given text, rows of a part or notes, piped like the whole result. */
+  public String piped(String text) {
+    return queries + "|" + text + "|" + question;
+  }
+
   public static QueryResult empty() {
     return new QueryResult("", NO_RESULT, "");
   }
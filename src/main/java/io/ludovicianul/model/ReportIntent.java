@@ -0,0 +1,13 @@
+package io.ludovicianul.model;
+
+import io.ludovicianul.command.QueryCommand;
+import java.time.LocalDate;
+
+/**
+ * A question recognized as one of the predefined reports.
+ *
+ * @param report the report answering the question
+ * @param from the first day asked about, null when the question has no lower bound
+ * @param to the last day asked about, null when the question has no upper bound
+ */
+public record ReportIntent(QueryCommand.ReportType report, LocalDate from, LocalDate to) {}
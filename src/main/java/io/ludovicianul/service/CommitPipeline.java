@@ -0,0 +1,235 @@
+package io.ludovicianul.service;
+
+import io.ludovicianul.db.IndexWriter;
+import io.ludovicianul.io.ErrorExecutionException;
+import io.ludovicianul.io.ProcessRunner;
+import io.ludovicianul.model.CommitRecord;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Streams {@code git log} output straight into the database. A reader thread pulls chunks of
+ * characters from git, the parser runs on the calling thread and batches of parsed commits are
+ * persisted by the {@link IndexWriter}. The stages are connected by bounded queues, so heap usage
+ * does not depend on the length of the history, and reading, parsing and writing overlap. Chunk
+ * buffers are handed back to the reader once parsed, so they are only allocated once.
+ */
+public class CommitPipeline {
+  private static final int CHUNK_SIZE = 16 * 1024;
+  private static final int MAX_PENDING_CHUNKS = 64;
+  private static final int BATCH_SIZE = 1000;
+  private static final Chunk END_OF_OUTPUT = new Chunk(new char[0], 0);
+  private static final ExecutorService READERS =
+      Executors.newCachedThreadPool(Thread.ofPlatform().name("sol-git-reader-", 0).daemon().factory());
+
+  private final int timeout;
+  private final FileTypeService fileTypeService;
+  private final IndexWriter writer;
+  private final boolean replaceExisting;
+  private final IndexMetrics metrics;
+
+  /**
+   * Creates a new pipeline.
+   *
+   * @param timeout seconds to wait for git to produce output before giving up
+   * @param fileTypeService the service used to classify changed files
+   * @param writer the writer persisting the parsed commits
+   * @param replaceExisting whether commits already in the database should be replaced
+   * @param metrics the metrics of the indexing run
+   */
+  public CommitPipeline(
+      int timeout,
+      FileTypeService fileTypeService,
+      IndexWriter writer,
+      boolean replaceExisting,
+      IndexMetrics metrics) {
+    this.timeout = timeout;
+    this.fileTypeService = fileTypeService;
+    this.writer = writer;
+    this.replaceExisting = replaceExisting;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Runs the given git log command and indexes its output. Returns once all parsed commits were
+   * written.
+   *
+   * @param repoName the name of the repository being indexed
+   * @param command the git log command to run
+   * @return the number of commits indexed
+   * @throws IllegalStateException if git fails, stalls or the commits cannot be written
+   */
+  public int run(String repoName, String command) {
+    BatchingConsumer batches = new BatchingConsumer();
+    GitLogParser parser = new GitLogParser(repoName, fileTypeService, batches, metrics);
+    Process process = null;
+    Future<?> reader = null;
+
+    try {
+      long start = System.nanoTime();
+      process = ProcessRunner.INSTANCE.startProcess(command);
+      metrics.record(IndexMetrics.Phase.GIT, start);
+      BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS);
+      BlockingQueue<char[]> buffers = new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS + 1);
+      Process gitProcess = process;
+      reader =
+          READERS.submit(
+              () -> {
+                readChunks(gitProcess, chunks, buffers);
+                return null;
+              });
+
+      Chunk chunk;
+      while ((chunk = nextChunk(chunks)) != END_OF_OUTPUT) {
+        start = System.nanoTime();
+        parser.accept(chunk.chars(), 0, chunk.length());
+        metrics.record(IndexMetrics.Phase.PARSE, start);
+        buffers.offer(chunk.chars());
+      }
+      reader.get();
+      start = System.nanoTime();
+      parser.finish();
+      metrics.record(IndexMetrics.Phase.PARSE, start);
+      batches.flush();
+      writer.awaitPendingWrites();
+      batches.rethrowFailure();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while running command " + command, e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(
+          "Error while running command %s: %s".formatted(command, e.getCause()), e.getCause());
+    } catch (Exception e) {
+      throw new IllegalStateException(
+          "Error while running command %s: %s".formatted(command, e.getMessage()), e);
+    } finally {
+      if (reader != null) {
+        reader.cancel(true);
+      }
+      if (process != null) {
+        process.destroy();
+      }
+    }
+    return batches.count;
+  }
+
+  /** Time spent waiting here is time git takes to produce its output. */
+  private Chunk nextChunk(BlockingQueue<Chunk> chunks)
+      throws InterruptedException, TimeoutException {
+    long start = System.nanoTime();
+    Chunk chunk = chunks.poll(timeout, TimeUnit.SECONDS);
+    metrics.record(IndexMetrics.Phase.GIT, start);
+    if (chunk == null) {
+      throw new TimeoutException("git produced no output for " + timeout + " seconds");
+    }
+    return chunk;
+  }
+
+  private static void readChunks(
+      Process process, BlockingQueue<Chunk> chunks, BlockingQueue<char[]> buffers)
+      throws IOException, InterruptedException {
+    boolean complete = false;
+    try (Reader reader = process.inputReader(StandardCharsets.UTF_8)) {
+      while (true) {
+        char[] buffer = buffers.poll();
+        if (buffer == null) {
+          buffer = new char[CHUNK_SIZE];
+        }
+        int length = reader.read(buffer);
+        if (length < 0) {
+          break;
+        }
+        chunks.put(new Chunk(buffer, length));
+      }
+      if (process.waitFor() != 0) {
+        throw new ErrorExecutionException();
+      }
+      complete = true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw e;
+    } finally {
+      if (complete) {
+        chunks.put(END_OF_OUTPUT);
+      } else {
+        // the run fails and the parser may no longer take chunks, so never wait for free space
+        chunks.clear();
+        chunks.offer(END_OF_OUTPUT);
+      }
+    }
+  }
+
+  private record Chunk(char[] chars, int length) {}
+
+  /** Groups parsed commits into batches and hands them over to the writer. */
+  private final class BatchingConsumer implements Consumer<CommitRecord> {
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private List<CommitRecord> batch = new ArrayList<>(BATCH_SIZE);
+    private int count;
+
+    @Override
+    public void accept(CommitRecord commit) {
+      batch.add(commit);
+      count++;
+      metrics.commitParsed();
+      if (batch.size() == BATCH_SIZE) {
+        flush();
+      }
+    }
+
+    void flush() {
+      if (batch.isEmpty()) {
+        return;
+      }
+      List<CommitRecord> toWrite = batch;
+      batch = new ArrayList<>(BATCH_SIZE);
+      try {
+        writer.submit(
+            session -> {
+              try {
+                long start = System.nanoTime();
+                session.insertCommits(toWrite, replaceExisting);
+                metrics.record(IndexMetrics.Phase.INSERT, start);
+                recordRows(toWrite);
+              } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+              }
+            });
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while writing commits", e);
+      }
+    }
+
+    private void recordRows(List<CommitRecord> commits) {
+      long fileChanges = 0;
+      long parents = 0;
+      for (CommitRecord commit : commits) {
+        fileChanges += commit.fileChanges().size();
+        parents += commit.parents().size();
+      }
+      metrics.addRows(IndexMetrics.Table.COMMITS, commits.size());
+      metrics.addRows(IndexMetrics.Table.FILE_CHANGES, fileChanges);
+      metrics.addRows(IndexMetrics.Table.COMMIT_PARENTS, parents);
+    }
+
+    void rethrowFailure() {
+      if (failure.get() != null) {
+        throw failure.get();
+      }
+    }
+  }
+}
@@ -0,0 +1,216 @@
+package io.ludovicianul.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a path against several sets of regular expressions in a single pass. Patterns of the
+ * form {@code .*suffix$} are expanded into a reversed suffix trie, walked once from the end of the
+ * path. The remaining patterns are compiled once and only evaluated when the path contains their
+ * longest literal part.
+ */
+final class FileClassifier {
+  private static final char ANY = '\0';
+  private static final String META_CHARACTERS = "*+?{}[]^$|()";
+
+  private final Node suffixes = new Node();
+  private final List<Fallback> fallbacks = new ArrayList<>();
+
+  private FileClassifier() {}
+
+  /**
+   * Compiles the given pattern sets. A path matching any pattern of a set gets the flag of that set.
+   *
+   * @param patternsByFlag regular expressions, as used with {@link String#matches(String)}, keyed by
+   *     the flag they set
+   * @return the compiled classifier
+   */
+  static FileClassifier compile(Map<Integer, List<String>> patternsByFlag) {
+    FileClassifier classifier = new FileClassifier();
+    patternsByFlag.forEach(
+        (flag, patterns) -> patterns.forEach(pattern -> classifier.add(flag, pattern)));
+    return classifier;
+  }
+
+  /**
+   * Returns the flags of all pattern sets matching the path.
+   *
+   * @param path the path to classify
+   * @return the matching flags, or 0 if nothing matches
+   */
+  int classify(String path) {
+    int flags = matchSuffixes(suffixes, path, path.length() - 1);
+    for (Fallback fallback : fallbacks) {
+      if ((flags & fallback.flag()) == 0
+          && path.contains(fallback.literal())
+          && fallback.pattern().matcher(path).matches()) {
+        flags |= fallback.flag();
+      }
+    }
+    return flags;
+  }
+
+  private void add(int flag, String regex) {
+    List<String> expanded = expandSuffixes(regex);
+    if (expanded == null) {
+      fallbacks.add(new Fallback(flag, requiredLiteral(regex), Pattern.compile(regex)));
+      return;
+    }
+    for (String suffix : expanded) {
+      Node node = suffixes;
+      for (int i = suffix.length() - 1; i >= 0; i--) {
+        node = node.child(suffix.charAt(i));
+      }
+      node.flags |= flag;
+    }
+  }
+
+  private static int matchSuffixes(Node node, String path, int index) {
+    int flags = node.flags;
+    if (index < 0) {
+      return flags;
+    }
+    Node next = node.children.get(path.charAt(index));
+    if (next != null) {
+      flags |= matchSuffixes(next, path, index - 1);
+    }
+    if (node.any != null) {
+      flags |= matchSuffixes(node.any, path, index - 1);
+    }
+    return flags;
+  }
+
+  /**
+   * Expands a {@code .*suffix$} pattern, where the suffix only consists of literals, {@code .} and
+   * (optional) groups of alternatives, into all the suffixes it matches. Any character is encoded
+   * as {@link #ANY}.
+   *
+   * @return the suffixes or null if the pattern has a different shape
+   */
+  static List<String> expandSuffixes(String regex) {
+    if (!regex.startsWith(".*")) {
+      return null;
+    }
+    String body = regex.substring(2, regex.endsWith("$") ? regex.length() - 1 : regex.length());
+    SuffixParser parser = new SuffixParser(body);
+    try {
+      List<String> suffixes = parser.sequence();
+      return parser.position == body.length() ? suffixes : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /** Returns the longest run of literal characters every match of the pattern must contain. */
+  static String requiredLiteral(String regex) {
+    String longest = "";
+    StringBuilder run = new StringBuilder();
+    int depth = 0;
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      Character literal = null;
+      if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (c == '\\' && i + 1 < regex.length()) {
+        char escaped = regex.charAt(++i);
+        literal = Character.isLetterOrDigit(escaped) ? null : escaped;
+      } else if (c != '.' && META_CHARACTERS.indexOf(c) < 0) {
+        literal = c;
+      }
+      boolean optional = i + 1 < regex.length() && "*?{".indexOf(regex.charAt(i + 1)) >= 0;
+
+      if (depth == 0 && literal != null && !optional) {
+        run.append(literal.charValue());
+        if (run.length() > longest.length()) {
+          longest = run.toString();
+        }
+      } else {
+        run.setLength(0);
+      }
+    }
+    return longest;
+  }
+
+  private static final class Node {
+    private final Map<Character, Node> children = new HashMap<>();
+    private Node any;
+    private int flags;
+
+    private Node child(char c) {
+      if (c == ANY) {
+        if (any == null) {
+          any = new Node();
+        }
+        return any;
+      }
+      return children.computeIfAbsent(c, key -> new Node());
+    }
+  }
+
+  private record Fallback(int flag, String literal, Pattern pattern) {}
+
+  /** Parses sequences of literals, {@code .} and groups of alternatives into their expansions. */
+  private static final class SuffixParser {
+    private final String body;
+    private int position;
+
+    private SuffixParser(String body) {
+      this.body = body;
+    }
+
+    private List<String> sequence() {
+      List<String> expansions = List.of("");
+      while (position < body.length() && "|)".indexOf(body.charAt(position)) < 0) {
+        List<String> atom = atom();
+        if (position < body.length() && body.charAt(position) == '?') {
+          position++;
+          atom = new ArrayList<>(atom);
+          atom.add("");
+        }
+        List<String> combined = new ArrayList<>();
+        for (String prefix : expansions) {
+          for (String suffix : atom) {
+            combined.add(prefix + suffix);
+          }
+        }
+        expansions = combined;
+      }
+      return expansions;
+    }
+
+    private List<String> atom() {
+      char c = body.charAt(position++);
+      if (c == '\\' && position < body.length()) {
+        char escaped = body.charAt(position++);
+        if (Character.isLetterOrDigit(escaped)) {
+          throw new IllegalArgumentException("Character classes are not supported");
+        }
+        return List.of(String.valueOf(escaped));
+      }
+      if (c == '.') {
+        return List.of(String.valueOf(ANY));
+      }
+      if (c == '(') {
+        List<String> alternatives = new ArrayList<>(sequence());
+        while (position < body.length() && body.charAt(position) == '|') {
+          position++;
+          alternatives.addAll(sequence());
+        }
+        if (position >= body.length() || body.charAt(position) != ')') {
+          throw new IllegalArgumentException("Unbalanced group");
+        }
+        position++;
+        return alternatives;
+      }
+      if (META_CHARACTERS.indexOf(c) >= 0) {
+        throw new IllegalArgumentException("Unsupported construct: " + c);
+      }
+      return List.of(String.valueOf(c));
+    }
+  }
+}
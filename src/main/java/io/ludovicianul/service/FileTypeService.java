@@ -1,9 +1,22 @@
 package io.ludovicianul.service;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-/** Service class that provides methods to determine the type of a file based on its path. */
+/**
+ * Service class that provides methods to determine the type of a file based on its path. The
+ * patterns below are compiled once into a {@link FileClassifier}, which computes all the file types
+ * of a path in a single pass. Results are cached, as the same paths recur across many commits.
+ */
 public class FileTypeService {
+  public static final int TEST_FILE = 1;
+  public static final int BUILD_FILE = 2;
+  public static final int DOT_FILE = 4;
+  public static final int DOCUMENTATION_FILE = 8;
+
+  private static final int MAX_CACHED_PATHS = 50_000;
+
   public static final String DOT_FILES = ".*(^|/|\\.)\\.[^/]+.*$";
 
   public static final List<String> DOCUMENTATION_FILES =
@@ -100,19 +113,69 @@ public class FileTypeService {
           ".*version.js" // Version file
           );
 
+  private static final FileClassifier CLASSIFIER =
+      FileClassifier.compile(
+          Map.of(
+              TEST_FILE, TEST_FILES,
+              BUILD_FILE, BUILD_FILES,
+              DOCUMENTATION_FILE, DOCUMENTATION_FILES));
+
+  private final Map<String, Integer> cache =
+      new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+          return size() > MAX_CACHED_PATHS;
+        }
+      };
+
+  /**
+   * Returns all the file types of the given path as a combination of {@link #TEST_FILE}, {@link
+   * #BUILD_FILE}, {@link #DOT_FILE} and {@link #DOCUMENTATION_FILE}.
+   *
+   * @param filePath the path of the file
+   * @return the file type flags
+   */
+  public int classify(String filePath) {
+    synchronized (cache) {
+      Integer flags = cache.get(filePath);
+      if (flags != null) {
+        return flags;
+      }
+    }
+    int flags = CLASSIFIER.classify(filePath) | (isDotPath(filePath) ? DOT_FILE : 0);
+    synchronized (cache) {
+      cache.put(filePath, flags);
+    }
+    return flags;
+  }
+
   public boolean isDocumentationFile(String filePath) {
-    return DOCUMENTATION_FILES.stream().anyMatch(filePath::matches);
+    return (classify(filePath) & DOCUMENTATION_FILE) != 0;
   }
 
   public boolean isTestFile(String filePath) {
-    return TEST_FILES.stream().anyMatch(filePath::matches);
+    return (classify(filePath) & TEST_FILE) != 0;
   }
 
   public boolean isBuildFile(String filePath) {
-    return BUILD_FILES.stream().anyMatch(filePath::matches);
+    return (classify(filePath) & BUILD_FILE) != 0;
   }
 
   public boolean isDotFile(String filePath) {
-    return filePath.matches(DOT_FILES);
+    return (classify(filePath) & DOT_FILE) != 0;
+  }
+
+  /**
+   * Equivalent of {@link #DOT_FILES}: a dot starting the path, a path segment or following another
+   * dot, followed by at least one character of the same segment.
+   */
+  private static boolean isDotPath(String filePath) {
+    for (int i = filePath.indexOf('.'); i >= 0; i = filePath.indexOf('.', i + 1)) {
+      boolean starts = i == 0 || filePath.charAt(i - 1) == '/' || filePath.charAt(i - 1) == '.';
+      if (starts && i + 1 < filePath.length() && filePath.charAt(i + 1) != '/') {
+        return true;
+      }
+    }
+    return false;
   }
 }
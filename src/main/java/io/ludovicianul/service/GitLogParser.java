@@ -0,0 +1,340 @@
+package io.ludovicianul.service;
+
+import io.ludovicianul.model.CommitRecord;
+import io.ludovicianul.model.FileChange;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Incrementally parses the NUL-delimited output of {@code git log} run with {@link
+ * #GIT_LOG_ARGUMENTS}. Output is fed in chunks of characters of any size and split into NUL
+ * terminated fields, which are parsed by hand without regular expressions. Each commit is handed to
+ * the consumer as soon as the next one starts, so only the commit being parsed is kept in memory.
+ *
+ * <p>Every commit starts with a header field holding the formatted commit details, followed by
+ * its {@code --raw} entries ({@code :<modes> <hashes> <status>} then one path, or two for renames
+ * and copies) and its {@code --numstat} entries ({@code <added>\t<deleted>\t<path>}, or an empty
+ * path followed by the old and new paths for renames). Binary files are reported with {@code -}
+ * counts.
+ */
+public class GitLogParser {
+  public static final String GIT_LOG_ARGUMENTS =
+      "-z --encoding=UTF-8 --numstat --raw --format=\"commit:%H%nauthor:%an%ndate:%cI %nparents:%P%nmessage:%n%s%n%b%nnumstat:\"";
+
+  private static final String COMMIT = "commit:";
+  private static final String NUMSTAT = "numstat:";
+
+  private final String repoName;
+  private final FileTypeService fileTypeService;
+  private final Consumer<CommitRecord> consumer;
+  private final IndexMetrics metrics;
+
+  private final StringBuilder field = new StringBuilder();
+  private final List<Entry> entries = new ArrayList<>();
+  private final Map<String, Entry> entriesByPath = new HashMap<>();
+  private int entryCount;
+  private int numstatCount;
+  private int pendingPaths;
+  private Entry pendingEntry;
+  private int pendingAdditions;
+  private int pendingDeletions;
+
+  private String commitHash;
+  private String author;
+  private String date;
+  private String message;
+  private List<String> parents;
+
+  public GitLogParser(
+      String repoName, FileTypeService fileTypeService, Consumer<CommitRecord> consumer) {
+    this(repoName, fileTypeService, consumer, null);
+  }
+
+  /**
+   * Creates a parser recording the time spent classifying paths.
+   *
+   * @param repoName the name of the repository the log belongs to
+   * @param fileTypeService the service used to classify changed files
+   * @param consumer receives every parsed commit
+   * @param metrics the metrics of the indexing run, or {@code null} to not record any
+   */
+  public GitLogParser(
+      String repoName,
+      FileTypeService fileTypeService,
+      Consumer<CommitRecord> consumer,
+      IndexMetrics metrics) {
+    this.repoName = repoName;
+    this.fileTypeService = fileTypeService;
+    this.consumer = consumer;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Parses the next chunk of output. Fields may span several chunks.
+   *
+   * @param chars the buffer holding the chunk
+   * @param offset the start of the chunk in the buffer
+   * @param length the number of characters in the chunk
+   */
+  public void accept(char[] chars, int offset, int length) {
+    int start = offset;
+    int end = offset + length;
+    for (int i = offset; i < end; i++) {
+      if (chars[i] == '\0') {
+        field.append(chars, start, i - start);
+        parseField();
+        field.setLength(0);
+        start = i + 1;
+      }
+    }
+    field.append(chars, start, end - start);
+  }
+
+  /** Emits the last commit. Must be called once the whole log has been consumed. */
+  public void finish() {
+    if (!field.isEmpty()) {
+      parseField();
+      field.setLength(0);
+    }
+    emitCurrentCommit();
+    commitHash = null;
+  }
+
+  private void parseField() {
+    if (pendingPaths > 0) {
+      parsePath();
+      return;
+    }
+    int start = field.isEmpty() || field.charAt(0) != '\n' ? 0 : 1;
+    if (startsWith(start, COMMIT)) {
+      emitCurrentCommit();
+      parseHeader(start);
+    } else if (start < field.length() && field.charAt(start) == ':') {
+      parseRawEntry(start);
+    } else if (start < field.length()) {
+      parseNumstat(start);
+    }
+  }
+
+  private void parseHeader(int start) {
+    int end = nextLine(start);
+    commitHash = field.substring(start + COMMIT.length(), end).trim();
+    int next = end + 1;
+    end = nextLine(next);
+    author = valueOf(next, end);
+    next = end + 1;
+    end = nextLine(next);
+    date = valueOf(next, end);
+    next = end + 1;
+    end = nextLine(next);
+    parents = splitParents(valueOf(next, end));
+    next = nextLine(end + 1) + 1;
+
+    int messageEnd = field.length();
+    if (field.lastIndexOf(NUMSTAT) == messageEnd - NUMSTAT.length()) {
+      messageEnd -= NUMSTAT.length();
+    }
+    message = next < messageEnd ? field.substring(next, messageEnd).trim() : "";
+  }
+
+  /** Returns the value of a {@code key:value} line. */
+  private String valueOf(int start, int end) {
+    if (start >= end) {
+      return "";
+    }
+    int colon = field.indexOf(":", start);
+    return colon < 0 || colon >= end ? "" : field.substring(colon + 1, end).trim();
+  }
+
+  private int nextLine(int start) {
+    if (start >= field.length()) {
+      return field.length();
+    }
+    int newLine = field.indexOf("\n", start);
+    return newLine < 0 ? field.length() : newLine;
+  }
+
+  private static List<String> splitParents(String parents) {
+    List<String> result = new ArrayList<>(2);
+    int start = 0;
+    for (int i = 0; i <= parents.length(); i++) {
+      if (i == parents.length() || parents.charAt(i) == ' ') {
+        if (i > start) {
+          result.add(parents.substring(start, i));
+        }
+        start = i + 1;
+      }
+    }
+    return result;
+  }
+
+  /** Parses {@code :<old mode> <new mode> <old hash> <new hash> <status>[<score>]}. */
+  private void parseRawEntry(int start) {
+    int status = field.lastIndexOf(" ") + 1;
+    if (status <= start || status >= field.length()) {
+      return;
+    }
+    char changeType = field.charAt(status);
+    pendingEntry = nextEntry();
+    pendingEntry.changeType = changeType(changeType);
+    pendingPaths = changeType == 'R' || changeType == 'C' ? 2 : 1;
+  }
+
+  /** Parses {@code <added>\t<deleted>\t<path>}, where the path is empty for renames. */
+  private void parseNumstat(int start) {
+    int firstTab = field.indexOf("\t", start);
+    int secondTab = firstTab < 0 ? -1 : field.indexOf("\t", firstTab + 1);
+    if (secondTab < 0) {
+      return;
+    }
+    pendingAdditions = parseCount(start, firstTab);
+    pendingDeletions = parseCount(firstTab + 1, secondTab);
+    if (secondTab + 1 == field.length()) {
+      pendingPaths = 2;
+    } else {
+      joinNumstat(secondTab + 1);
+    }
+  }
+
+  /** Binary files have {@code -} counts, which are recorded as 0. */
+  private int parseCount(int start, int end) {
+    int count = 0;
+    for (int i = start; i < end; i++) {
+      char c = field.charAt(i);
+      if (c < '0' || c > '9') {
+        return 0;
+      }
+      count = count * 10 + (c - '0');
+    }
+    return count;
+  }
+
+  /** Renames and copies are followed by the old and the new path, only the new one is kept. */
+  private void parsePath() {
+    pendingPaths--;
+    if (pendingPaths > 0) {
+      return;
+    }
+    if (pendingEntry != null) {
+      String filePath = field.toString();
+      pendingEntry.filePath = filePath;
+      long start = metrics == null ? 0 : System.nanoTime();
+      pendingEntry.fileType = fileTypeService.classify(filePath);
+      if (metrics != null) {
+        metrics.record(IndexMetrics.Phase.CLASSIFICATION, start);
+      }
+      entriesByPath.put(filePath, pendingEntry);
+      pendingEntry = null;
+    } else {
+      joinNumstat(0);
+    }
+  }
+
+  /**
+   * Git reports numstat entries in the same order as raw ones, so the entry at the same position is
+   * checked first, without creating a string for the path. Otherwise it is looked up by path.
+   */
+  private void joinNumstat(int pathStart) {
+    Entry entry = numstatCount < entryCount ? entries.get(numstatCount) : null;
+    numstatCount++;
+    if (entry == null || !isPath(entry.filePath, pathStart)) {
+      entry = entriesByPath.get(field.substring(pathStart));
+    }
+    if (entry != null) {
+      entry.additions = pendingAdditions;
+      entry.deletions = pendingDeletions;
+    }
+  }
+
+  private boolean isPath(String filePath, int pathStart) {
+    if (filePath == null || filePath.length() != field.length() - pathStart) {
+      return false;
+    }
+    for (int i = 0; i < filePath.length(); i++) {
+      if (filePath.charAt(i) != field.charAt(pathStart + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean startsWith(int start, String prefix) {
+    if (field.length() - start < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (field.charAt(start + i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Entries are reused across commits, as most of them only touch a few files. */
+  private Entry nextEntry() {
+    if (entryCount == entries.size()) {
+      entries.add(new Entry());
+    }
+    Entry entry = entries.get(entryCount++);
+    entry.additions = 0;
+    entry.deletions = 0;
+    entry.filePath = null;
+    return entry;
+  }
+
+  private static String changeType(char status) {
+    return switch (status) {
+      case 'A' -> "A";
+      case 'M' -> "M";
+      case 'D' -> "D";
+      case 'R' -> "R";
+      case 'C' -> "C";
+      case 'T' -> "T";
+      default -> String.valueOf(status);
+    };
+  }
+
+  private void emitCurrentCommit() {
+    if (commitHash == null) {
+      return;
+    }
+    List<FileChange> fileChanges = new ArrayList<>(entryCount);
+    for (int i = 0; i < entryCount; i++) {
+      Entry entry = entries.get(i);
+      if (entry.filePath != null) {
+        fileChanges.add(entry.toFileChange(repoName));
+      }
+    }
+    consumer.accept(
+        new CommitRecord(repoName, commitHash, author, date, message, fileChanges, parents));
+    entriesByPath.clear();
+    entryCount = 0;
+    numstatCount = 0;
+    pendingPaths = 0;
+    pendingEntry = null;
+  }
+
+  private static final class Entry {
+    private String changeType;
+    private String filePath;
+    private int fileType;
+    private int additions;
+    private int deletions;
+
+    private FileChange toFileChange(String repoName) {
+      return new FileChange(
+          repoName,
+          changeType,
+          filePath,
+          additions,
+          deletions,
+          (fileType & FileTypeService.TEST_FILE) != 0,
+          (fileType & FileTypeService.BUILD_FILE) != 0,
+          (fileType & FileTypeService.DOT_FILE) != 0,
+          (fileType & FileTypeService.DOCUMENTATION_FILE) != 0);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package io.ludovicianul.service;
+
+import io.ludovicianul.model.IndexStats;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent in each phase of an indexing run and rows written, shared by all the threads of the
+ * run. Phase times are summed over the threads doing the work, so they show where the time goes
+ * rather than adding up to the wall time.
+ */
+public class IndexMetrics {
+  private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+  /** The phases of indexing a repository. */
+  public enum Phase {
+    /** Starting {@code git log} and waiting for its output. */
+    GIT,
+    /** Parsing the output of {@code git log}, without classifying paths. */
+    PARSE,
+    /** Classifying the changed paths as test, build, documentation or dot files. */
+    CLASSIFICATION,
+    /** Writing commits, their file changes and parents. */
+    INSERT,
+    /** Creating the indexes of the tables, once all data is written. */
+    INDEX_BUILD,
+    /** Collecting branches and their creation and merge dates. */
+    BRANCHES,
+    /** Collecting tags. */
+    TAGS
+  }
+
+  /** The tables rows are written to. */
+  public enum Table {
+    COMMITS,
+    FILE_CHANGES,
+    COMMIT_PARENTS,
+    BRANCHES,
+    TAGS
+  }
+
+  private final long startNanos = System.nanoTime();
+  private final Map<Phase, LongAdder> phaseNanos = new EnumMap<>(Phase.class);
+  private final Map<Table, LongAdder> rows = new EnumMap<>(Table.class);
+  private final LongAdder commitsParsed = new LongAdder();
+  private final LongAdder expectedCommits = new LongAdder();
+  private final LongAccumulator peakHeapBytes = new LongAccumulator(Math::max, 0);
+
+  public IndexMetrics() {
+    for (Phase phase : Phase.values()) {
+      phaseNanos.put(phase, new LongAdder());
+    }
+    for (Table table : Table.values()) {
+      rows.put(table, new LongAdder());
+    }
+  }
+
+  /**
+   * Adds time spent in a phase.
+   *
+   * @param phase the phase
+   * @param startNanos the {@link System#nanoTime()} when the work started
+   */
+  public void record(Phase phase, long startNanos) {
+    phaseNanos.get(phase).add(System.nanoTime() - startNanos);
+  }
+
+  public void addRows(Table table, long count) {
+    rows.get(table).add(count);
+  }
+
+  public void commitParsed() {
+    commitsParsed.increment();
+  }
+
+  /**
+   * Adds commits about to be indexed, as counted by {@code git rev-list}, used to estimate the
+   * remaining time.
+   */
+  public void addExpectedCommits(long count) {
+    expectedCommits.add(count);
+  }
+
+  /**
+   * Records the heap in use. The peak of the run is the highest sample, as the peaks of the heap
+   * pools, reached at different times, do not add up to the peak of the whole heap.
+   */
+  public void sampleHeap() {
+    peakHeapBytes.accumulate(MEMORY.getHeapMemoryUsage().getUsed());
+  }
+
+  public long commitsParsed() {
+    return commitsParsed.sum();
+  }
+
+  public long expectedCommits() {
+    return expectedCommits.sum();
+  }
+
+  public long rowsWritten() {
+    return rows.values().stream().mapToLong(LongAdder::sum).sum();
+  }
+
+  public long elapsedNanos() {
+    return System.nanoTime() - startNanos;
+  }
+
+  /**
+   * Returns the summary of the run so far.
+   *
+   * @param repositories the number of repositories indexed
+   * @param failedRepositories the number of repositories which failed to index
+   * @return the summary
+   */
+  public IndexStats toStats(int repositories, int failedRepositories) {
+    long totalNanos = elapsedNanos();
+    Map<String, Long> phaseMillis = new LinkedHashMap<>();
+    for (Phase phase : Phase.values()) {
+      long nanos = phaseNanos.get(phase).sum();
+      if (phase == Phase.PARSE) {
+        // paths are classified while parsing, on the same thread
+        nanos -= phaseNanos.get(Phase.CLASSIFICATION).sum();
+      }
+      phaseMillis.put(
+          toCamelCase(phase.name()), TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos)));
+    }
+    Map<String, Long> rowCounts = new LinkedHashMap<>();
+    rows.forEach((table, count) -> rowCounts.put(toCamelCase(table.name()), count.sum()));
+    long commits = rows.get(Table.COMMITS).sum();
+    sampleHeap();
+
+    return new IndexStats(
+        repositories,
+        failedRepositories,
+        TimeUnit.NANOSECONDS.toMillis(totalNanos),
+        totalNanos == 0 ? 0 : commits * TimeUnit.SECONDS.toNanos(1) / totalNanos,
+        phaseMillis,
+        rowCounts,
+        peakHeapBytes.get());
+  }
+
+  private static String toCamelCase(String constant) {
+    StringBuilder result = new StringBuilder();
+    for (String word : constant.toLowerCase().split("_")) {
+      result.append(
+          result.isEmpty() ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,75 @@
+package io.ludovicianul.service;
+
+import io.ludovicianul.log.Logger;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically prints how many commits an indexing run collected, how fast, how many rows it wrote
+ * and when it should be done. The line is refreshed every second on a terminal, and printed every
+ * ten seconds otherwise, so logs of scheduled jobs show whether indexing still progresses. The heap
+ * in use is sampled more often, for the peak heap of the run.
+ */
+public class IndexProgress implements AutoCloseable {
+  private static final long TERMINAL_INTERVAL_SECONDS = 1;
+  private static final long LOG_INTERVAL_SECONDS = 10;
+  private static final long HEAP_SAMPLE_INTERVAL_MILLIS = 100;
+
+  private final IndexMetrics metrics;
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          Thread.ofPlatform().name("sol-index-progress").daemon().factory());
+
+  private IndexProgress(IndexMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Starts printing the progress of the run, until closed.
+   *
+   * @param metrics the metrics of the indexing run
+   * @return the progress, to close once the run is over
+   */
+  public static IndexProgress start(IndexMetrics metrics) {
+    IndexProgress progress = new IndexProgress(metrics);
+    long interval = System.console() != null ? TERMINAL_INTERVAL_SECONDS : LOG_INTERVAL_SECONDS;
+    progress.scheduler.scheduleAtFixedRate(
+        () -> Logger.progress(progress.format()), interval, interval, TimeUnit.SECONDS);
+    progress.scheduler.scheduleAtFixedRate(
+        metrics::sampleHeap, 0, HEAP_SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    return progress;
+  }
+
+  /**
+   * The estimate of the remaining time assumes the current rate is kept, and only knows about
+   * repositories which started indexing.
+   */
+  String format() {
+    long collected = metrics.commitsParsed();
+    long expected = metrics.expectedCommits();
+    long rate = collected * TimeUnit.SECONDS.toNanos(1) / Math.max(1, metrics.elapsedNanos());
+
+    StringBuilder line = new StringBuilder("Collected %,d".formatted(collected));
+    if (expected >= collected) {
+      line.append(" of %,d".formatted(expected));
+    }
+    line.append(" commits, %,d commits/s, %,d rows written".formatted(rate, metrics.rowsWritten()));
+    if (expected > collected && rate > 0) {
+      line.append(", ETA ").append(formatDuration((expected - collected) / rate));
+    }
+    return line.toString();
+  }
+
+  private static String formatDuration(long seconds) {
+    if (seconds >= 3600) {
+      return "%d:%02d:%02d".formatted(seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+    return "%d:%02d".formatted(seconds / 60, seconds % 60);
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+}
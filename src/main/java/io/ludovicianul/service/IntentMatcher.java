@@ -0,0 +1,278 @@
+package io.ludovicianul.service;
+
+import io.ludovicianul.command.QueryCommand.ReportType;
+import io.ludovicianul.model.ReportIntent;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.time.format.TextStyle;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Recognizes questions which one of the predefined reports answers, without AI. The date range of
+ * the question is extracted first, then every remaining word must belong to the vocabulary of a
+ * report, and the question must contain the words the report requires. Any other word, or a number
+ * which is not part of a date, means the question asks for more than the report gives, so it is
+ * left to the AI. So is a date range without any day in it, like "the last 0 days".
+ */
+public class IntentMatcher {
+  private static final String MONTHS =
+      Stream.of(Month.values())
+          .flatMap(
+              month ->
+                  Stream.of(
+                      month.getDisplayName(TextStyle.FULL, Locale.ENGLISH),
+                      month.getDisplayName(TextStyle.SHORT, Locale.ENGLISH)))
+          .map(name -> name.toLowerCase(Locale.ROOT))
+          .distinct()
+          .collect(Collectors.joining("|"));
+
+  /** A day, a month with an optional year, or a year. */
+  private static final String POINT =
+      "(\\d{4}-\\d{2}-\\d{2}|(?:" + MONTHS + ")(?: \\d{4})?|\\d{4})";
+
+  private static final Pattern WORD = Pattern.compile("[a-z]+");
+  private static final Pattern DIGIT = Pattern.compile("\\d");
+
+  /** Words which do not change which report answers a question. */
+  private static final Set<String> FILLER =
+      Set.of(
+          "a", "across", "all", "an", "and", "are", "be", "been", "by", "can", "codebase", "did",
+          "do", "does", "each", "for", "give", "had", "has", "have", "i", "in", "is", "it", "its",
+          "list", "me", "my", "of", "on", "our", "overall", "per", "please", "project", "repo",
+          "report", "repository", "repositories", "show", "tell", "that", "the", "there", "this",
+          "to", "total", "us", "was", "we", "were", "what", "whats", "which", "who", "with", "you");
+
+  /**
+   * The words recognizing a report.
+   *
+   * @param report the report
+   * @param required groups of words, of which the question contains at least one per group
+   * @param vocabulary the other words the question may contain
+   */
+  private record Rule(ReportType report, List<Set<String>> required, Set<String> vocabulary) {
+    boolean matches(Set<String> words) {
+      return required.stream().allMatch(group -> words.stream().anyMatch(group::contains))
+          && words.stream()
+              .allMatch(
+                  word ->
+                      vocabulary.contains(word)
+                          || required.stream().anyMatch(group -> group.contains(word)));
+    }
+  }
+
+  private static final List<Rule> RULES =
+      List.of(
+          new Rule(
+              ReportType.CHURN,
+              List.of(Set.of("churn", "additions", "deletions", "added", "deleted")),
+              Set.of(
+                  "author", "authors", "code", "committer", "committers", "contributor",
+                  "contributors", "developer", "developers", "everyone", "how", "lines", "many",
+                  "much", "number", "people", "person")),
+          new Rule(
+              ReportType.RELEASES,
+              List.of(
+                  Set.of("release", "releases", "tag", "tags", "version", "versions"),
+                  Set.of("how", "many", "number", "count")),
+              Set.of("created", "cut", "made", "published", "released", "shipped")),
+          new Rule(
+              ReportType.MERGE_TIME,
+              List.of(
+                  Set.of("merge", "merges", "merged"),
+                  Set.of("time", "between", "often", "frequency", "frequently", "long", "days")),
+              Set.of("average", "commits", "happen", "how", "mean", "typical", "typically")),
+          new Rule(
+              ReportType.COMMIT_VELOCITY,
+              List.of(Set.of("commit", "commits"), Set.of("day", "daily", "velocity")),
+              Set.of("count", "how", "made", "many", "number")),
+          new Rule(
+              ReportType.TEST_CHANGES,
+              List.of(
+                  Set.of("test", "tests", "testing"),
+                  Set.of("change", "changed", "changes", "touched")),
+              Set.of(
+                  "code", "file", "files", "how", "lines", "many", "much", "percent", "percentage",
+                  "proportion", "ratio", "share")));
+
+  private final LocalDate today;
+  private final List<DateRule> dateRules;
+
+  /**
+   * Creates a matcher resolving relative dates, like "last month", against the given day.
+   *
+   * @param today the current day
+   */
+  public IntentMatcher(LocalDate today) {
+    this.today = today;
+    this.dateRules =
+        List.of(
+            new DateRule(
+                "(?:between|from) " + POINT + " (?:and|to|until) " + POINT,
+                m -> new Range(point(m.group(1)).from(), point(m.group(2)).to())),
+            new DateRule(
+                "(?:in |during |over )?(?:the )?(?:last|past) (\\d+) (day|week|month|year)s?",
+                m -> lastUnits(Integer.parseInt(m.group(1)), m.group(2))),
+            new DateRule(
+                "(?:since|from) " + POINT, m -> new Range(point(m.group(1)).from(), null)),
+            new DateRule(
+                "after " + POINT, m -> new Range(point(m.group(1)).to().plusDays(1), null)),
+            new DateRule(
+                "before " + POINT, m -> new Range(null, point(m.group(1)).from().minusDays(1))),
+            new DateRule(
+                "(?:until|till|up to) " + POINT, m -> new Range(null, point(m.group(1)).to())),
+            new DateRule("(?:in |during |for )?last (week|month|year)", m -> previous(m.group(1))),
+            new DateRule(
+                "(?:in |during |for )?this (week|month|year)|(year) to date|(ytd)",
+                m -> current(m.group(1) != null ? m.group(1) : "year")),
+            new DateRule("today", m -> new Range(today, today)),
+            new DateRule("yesterday", m -> new Range(today.minusDays(1), today.minusDays(1))),
+            new DateRule("(?:in|during|for|of) " + POINT, m -> point(m.group(1))));
+  }
+
+  /** A date range, either bound missing for open ranges. */
+  private record Range(LocalDate from, LocalDate to) {
+    Range {
+      if (from != null && to != null && from.isAfter(to)) {
+        throw new IllegalArgumentException("Empty range from %s to %s".formatted(from, to));
+      }
+    }
+  }
+
+  /** A date expression and how it resolves to a range. */
+  private record DateRule(Pattern pattern, Function<Matcher, Range> range) {
+    DateRule(String regex, Function<Matcher, Range> range) {
+      this(Pattern.compile("\\b" + regex + "\\b"), range);
+    }
+  }
+
+  /**
+   * Returns the report answering the question, with its date range, if there is one.
+   *
+   * @param question the question of the user
+   * @return the report, empty when the question needs the AI
+   */
+  public Optional<ReportIntent> match(String question) {
+    String text =
+        question.toLowerCase(Locale.ROOT).replace("'", "").replaceAll("[^a-z0-9-]+", " ");
+
+    List<Range> ranges = new ArrayList<>();
+    try {
+      for (DateRule rule : dateRules) {
+        Matcher matcher = rule.pattern().matcher(text);
+        StringBuilder rest = new StringBuilder();
+        while (matcher.find()) {
+          ranges.add(rule.range().apply(matcher));
+          matcher.appendReplacement(rest, " ");
+        }
+        text = matcher.appendTail(rest).toString();
+      }
+    } catch (DateTimeParseException | IllegalArgumentException e) {
+      return Optional.empty();
+    }
+    // several date ranges, or numbers left, ask for more than a single report
+    if (ranges.size() > 1 || DIGIT.matcher(text).find()) {
+      return Optional.empty();
+    }
+
+    Set<String> words =
+        WORD.matcher(text).results()
+            .map(MatchResult::group)
+            .filter(word -> !FILLER.contains(word))
+            .collect(Collectors.toSet());
+    Range range = ranges.isEmpty() ? new Range(null, null) : ranges.getFirst();
+    return RULES.stream()
+        .filter(rule -> rule.matches(words))
+        .findFirst()
+        .map(rule -> new ReportIntent(rule.report(), range.from(), range.to()));
+  }
+
+  /** The day, month or year, the latest one not after today when the year is not given. */
+  private Range point(String text) {
+    if (text.matches("\\d{4}-\\d{2}-\\d{2}")) {
+      LocalDate day = LocalDate.parse(text);
+      return new Range(day, day);
+    }
+    if (text.matches("\\d{4}")) {
+      int year = year(text);
+      return new Range(LocalDate.of(year, 1, 1), LocalDate.of(year, 12, 31));
+    }
+    String[] parts = text.split(" ");
+    Month month = month(parts[0]);
+    YearMonth yearMonth =
+        parts.length > 1
+            ? YearMonth.of(year(parts[1]), month)
+            : YearMonth.of(
+                month.getValue() > today.getMonthValue() ? today.getYear() - 1 : today.getYear(),
+                month);
+    return new Range(yearMonth.atDay(1), yearMonth.atEndOfMonth());
+  }
+
+  /** Years outside the history of any repository are rather counts, like "top 2000". */
+  private static int year(String text) {
+    int year = Integer.parseInt(text);
+    if (year < 1970 || year > 2100) {
+      throw new IllegalArgumentException("Not a year: " + text);
+    }
+    return year;
+  }
+
+  private static Month month(String name) {
+    for (Month month : Month.values()) {
+      if (month.getDisplayName(TextStyle.FULL, Locale.ENGLISH).equalsIgnoreCase(name)
+          || month.getDisplayName(TextStyle.SHORT, Locale.ENGLISH).equalsIgnoreCase(name)) {
+        return month;
+      }
+    }
+    throw new IllegalArgumentException("Not a month: " + name);
+  }
+
+  /** The given number of days, weeks, months or years up to today. */
+  private Range lastUnits(int count, String unit) {
+    ChronoUnit chronoUnit = ChronoUnit.valueOf(unit.toUpperCase(Locale.ROOT) + "S");
+    return new Range(today.minus(count, chronoUnit).plusDays(1), today);
+  }
+
+  /** The whole previous calendar week, starting on Monday, month or year. */
+  private Range previous(String unit) {
+    return switch (unit) {
+      case "week" -> {
+        LocalDate monday =
+            today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).minusWeeks(1);
+        yield new Range(monday, monday.plusDays(6));
+      }
+      case "month" -> {
+        YearMonth month = YearMonth.from(today).minusMonths(1);
+        yield new Range(month.atDay(1), month.atEndOfMonth());
+      }
+      default -> {
+        int year = today.getYear() - 1;
+        yield new Range(LocalDate.of(year, 1, 1), LocalDate.of(year, 12, 31));
+      }
+    };
+  }
+
+  /** The current calendar week, month or year, up to today. */
+  private Range current(String unit) {
+    return switch (unit) {
+      case "week" ->
+          new Range(today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)), today);
+      case "month" -> new Range(today.withDayOfMonth(1), today);
+      default -> new Range(today.withDayOfYear(1), today);
+    };
+  }
+}
@@ -0,0 +1,92 @@
+package io.ludovicianul.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.function.IntConsumer;
+
+/**
+ * Aho-Corasick automaton finding all occurrences of a set of keywords in a text in a single pass,
+ * regardless of how many keywords there are.
+ */
+final class KeywordMatcher {
+  private final Node root = new Node();
+
+  /**
+   * Builds the automaton for the given keywords. Empty keywords are ignored.
+   *
+   * @param keywords the keywords to look for, reported by their position in the list
+   */
+  KeywordMatcher(List<String> keywords) {
+    for (int i = 0; i < keywords.size(); i++) {
+      String keyword = keywords.get(i);
+      if (keyword.isEmpty()) {
+        continue;
+      }
+      Node node = root;
+      for (int j = 0; j < keyword.length(); j++) {
+        node = node.children.computeIfAbsent(keyword.charAt(j), key -> new Node());
+      }
+      node.keywords.add(i);
+    }
+    linkFailures();
+  }
+
+  /**
+   * Reports the position of every keyword contained in the text. A keyword occurring several times
+   * is reported for each occurrence.
+   *
+   * @param text the text to search
+   * @param onMatch receives the position of each matching keyword
+   */
+  void findAll(String text, IntConsumer onMatch) {
+    Node node = root;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      Node next = node.children.get(c);
+      while (next == null && node != root) {
+        node = node.failure;
+        next = node.children.get(c);
+      }
+      node = next == null ? root : next;
+      for (Node output = node; output != null; output = output.output) {
+        output.keywords.forEach(onMatch::accept);
+      }
+    }
+  }
+
+  /** Breadth first, so the failure link of a node's parent is known before the node itself. */
+  private void linkFailures() {
+    Queue<Node> queue = new ArrayDeque<>();
+    for (Node child : root.children.values()) {
+      child.failure = root;
+      queue.add(child);
+    }
+    while (!queue.isEmpty()) {
+      Node node = queue.poll();
+      node.children.forEach(
+          (c, child) -> {
+            Node failure = node.failure;
+            while (failure != root && !failure.children.containsKey(c)) {
+              failure = failure.failure;
+            }
+            Node target = failure.children.get(c);
+            child.failure = target == null || target == child ? root : target;
+            child.output = child.failure.keywords.isEmpty() ? child.failure.output : child.failure;
+            queue.add(child);
+          });
+    }
+  }
+
+  private static final class Node {
+    private final Map<Character, Node> children = new HashMap<>();
+    private final List<Integer> keywords = new ArrayList<>(0);
+    private Node failure;
+
+    /** The closest node along the failure links that completes a keyword. */
+    private Node output;
+  }
+}
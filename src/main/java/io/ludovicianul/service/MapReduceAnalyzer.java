@@ -0,0 +1,130 @@
+package io.ludovicianul.service;
+
+import io.ludovicianul.ai.SolTokenizer;
+import io.ludovicianul.ai.SqlGeneratorAi;
+import io.ludovicianul.log.Logger;
+import io.ludovicianul.model.QueryResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Analyzes results too large for a single call to the model. Each part of the result is analyzed
+ * on its own, with at most a given number of calls running at once, and the notes written for the
+ * parts are then combined into the answer. When the notes are too large to combine at once, they
+ * are first grouped and analyzed again, like parts, until they fit.
+ *
+ * <p>The time taken depends on the number of parts divided by the concurrency, not on the number
+ * of rows, as every part is at most the token budget.
+ */
+public class MapReduceAnalyzer {
+  private final SqlGeneratorAi analyst;
+  private final SolTokenizer tokenizer;
+  private final int budget;
+  private final int concurrency;
+
+  /**
+   * Creates an analyzer.
+   *
+   * @param analyst the AI service analyzing the parts
+   * @param tokenizer the tokenizer of the model
+   * @param budget the most tokens of notes combined in a single call
+   * @param concurrency the most calls to the model running at once
+   */
+  MapReduceAnalyzer(SqlGeneratorAi analyst, SolTokenizer tokenizer, int budget, int concurrency) {
+    this.analyst = analyst;
+    this.tokenizer = tokenizer;
+    this.budget = Math.max(1, budget);
+    this.concurrency = Math.max(1, concurrency);
+  }
+
+  /**
+   * Analyzes every part of the result, then combines the notes into the answer.
+   *
+   * @param result the result, split into parts
+   * @return the answer to the question of the result
+   */
+  public String analyze(QueryResult result) {
+    return analyst.combineAnalyses(result.piped(reduce(result)));
+  }
+
+  /**
+   * Analyzes every part of the result, then streams the answer combining their notes.
+   *
+   * @param result the result, split into parts
+   * @param onToken called with every token of the answer, as it arrives
+   * @return the answer to the question of the result
+   */
+  public String stream(QueryResult result, Consumer<String> onToken) {
+    return StreamedAnswer.await(
+        analyst.streamCombineAnalyses(result.piped(reduce(result))), onToken);
+  }
+
+  /** Returns the notes of all parts, reduced until they can be combined in a single call. */
+  private String reduce(QueryResult result) {
+    long t0 = System.currentTimeMillis();
+    List<String> notes = analyzeAll(result, result.parts());
+    Logger.debug(
+        "Analyzed %d parts in %d ms"
+            .formatted(result.parts().size(), System.currentTimeMillis() - t0));
+
+    List<String> batches = batch(notes);
+    while (batches.size() > 1 && batches.size() < notes.size()) {
+      notes = analyzeAll(result, batches);
+      batches = batch(notes);
+      Logger.debug("Reduced the notes to %d batches".formatted(batches.size()));
+    }
+    return String.join("\n", notes);
+  }
+
+  /** Analyzes the parts concurrently, returning their notes in the order of the parts. */
+  private List<String> analyzeAll(QueryResult result, List<String> parts) {
+    try (ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.min(parts.size(), concurrency),
+            Thread.ofPlatform().name("sol-analysis-", 0).daemon().factory())) {
+      List<Future<String>> futures =
+          parts.stream()
+              .map(part -> executor.submit(() -> analyst.analyzePart(result.piped(part))))
+              .toList();
+      List<String> notes = new ArrayList<>(futures.size());
+      for (Future<String> future : futures) {
+        notes.add(future.get());
+      }
+      return notes;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while analyzing the results", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /** Groups consecutive notes into batches of at most the budget, a note larger than it alone. */
+  private List<String> batch(List<String> notes) {
+    List<String> batches = new ArrayList<>();
+    StringBuilder batch = new StringBuilder();
+    int used = 0;
+    for (String note : notes) {
+      int tokens = tokenizer.countTokens(note) + 1;
+      if (used + tokens > budget && !batch.isEmpty()) {
+        batches.add(batch.toString());
+        batch.setLength(0);
+        used = 0;
+      }
+      batch.append(note).append('\n');
+      used += tokens;
+    }
+    if (!batch.isEmpty()) {
+      batches.add(batch.toString());
+    }
+    return batches;
+  }
+}
@@ -0,0 +1,282 @@
+package io.ludovicianul.service;
+
+import io.ludovicianul.db.SolDb;
+import io.ludovicianul.io.ProcessRunner;
+import io.ludovicianul.log.Logger;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Finds when merged branches were merged into HEAD, for all branches at once.
+ *
+ * <p>The ancestry of HEAD is loaded into primitive arrays and every commit is marked with the
+ * first commit of the mainline (the first-parent chain of HEAD) it is reachable from. A branch was
+ * merged by the mainline merge commit marking its tip. Each commit is visited once, so this is
+ * linear in the size of the history.
+ *
+ * <p>Branches without such a merge commit, fast-forwarded ones for example, fall back to the most
+ * recent commit whose message mentions them. All branch names are searched in a single pass over
+ * the commit messages.
+ */
+public class MergeDateResolver {
+  /** {@code <hash> <commit time> <parent hashes>}, with SHA-1 or SHA-256 hashes. */
+  private static final Pattern COMMIT_LINE =
+      Pattern.compile("[0-9a-f]{40,64} \\d+( [0-9a-f]{40,64})*");
+
+  private final String directory;
+  private final int timeout;
+
+  public MergeDateResolver(String directory, int timeout) {
+    this.directory = directory;
+    this.timeout = timeout;
+  }
+
+  /**
+   * Resolves the merge dates of the given branches.
+   *
+   * @param branches the names of the merged branches
+   * @param refs the tips of all refs, by full ref name, including HEAD
+   * @return the merge dates by branch name, branches without a merge date are omitted
+   */
+  public Map<String, String> resolve(Collection<String> branches, Map<String, String> refs) {
+    Map<String, String> mergeDates = new HashMap<>();
+    if (branches.isEmpty()) {
+      return mergeDates;
+    }
+    String head = refs.get("HEAD");
+    if (head != null) {
+      try {
+        mergeDates.putAll(resolveFromTopology(branches, refs, head));
+      } catch (IOException | RuntimeException e) {
+        Logger.err("Could not read the commit graph, matching commit messages instead");
+        Logger.debug("Reading the commit graph failed: " + e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return mergeDates;
+      }
+    }
+
+    List<String> unresolved =
+        branches.stream().filter(branch -> !mergeDates.containsKey(branch)).toList();
+    if (!unresolved.isEmpty()) {
+      mergeDates.putAll(resolveFromMessages(unresolved));
+    }
+    return mergeDates;
+  }
+
+  private Map<String, String> resolveFromTopology(
+      Collection<String> branches, Map<String, String> refs, String head)
+      throws IOException, InterruptedException {
+    CommitGraph graph = readCommitGraph();
+    int[] mainline = graph.mainline(graph.idOf(head));
+    int[] mergedBy = graph.markFirstReachableFrom(mainline);
+
+    Map<String, String> mergeDates = new HashMap<>();
+    for (String branch : branches) {
+      String tip = findTip(branch, refs);
+      int tipId = tip == null ? -1 : graph.idOf(tip);
+      if (tipId < 0 || mergedBy[tipId] < 0) {
+        continue;
+      }
+      int merge = mainline[mergedBy[tipId]];
+      if (merge != tipId && graph.parentCount(merge) > 1) {
+        mergeDates.put(branch, Instant.ofEpochSecond(graph.commitTime(merge)).toString());
+      }
+    }
+    return mergeDates;
+  }
+
+  /** Branch names are listed without their {@code origin/} prefix, local branches win. */
+  private static String findTip(String branch, Map<String, String> refs) {
+    String tip = refs.get("refs/heads/" + branch);
+    return tip != null ? tip : refs.get("refs/remotes/origin/" + branch);
+  }
+
+  private CommitGraph readCommitGraph() throws IOException, InterruptedException {
+    Process process =
+        ProcessRunner.INSTANCE.startProcess(
+            "cd " + directory + " && git log --format='%H %ct %P' HEAD");
+    CommitGraph graph = new CommitGraph();
+    try (BufferedReader reader = process.inputReader(StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (COMMIT_LINE.matcher(line).matches()) {
+          graph.add(line.split(" "));
+        } else {
+          Logger.debug("Skipping unexpected git log line: " + line);
+        }
+      }
+      if (!process.waitFor(timeout, TimeUnit.SECONDS) || process.exitValue() != 0) {
+        throw new IllegalStateException("git log failed for " + directory);
+      }
+    } finally {
+      process.destroy();
+    }
+    return graph;
+  }
+
+  /**
+   * Commit dates are scanned from the most recent, so the first commit mentioning a branch is the
+   * one used, like {@code git log} order would give.
+   */
+  private Map<String, String> resolveFromMessages(List<String> branches) {
+    KeywordMatcher matcher = new KeywordMatcher(branches);
+    Map<String, String> mergeDates = new HashMap<>();
+    SolDb.forEachCommitMessage(
+        directory,
+        (date, message) -> {
+          matcher.findAll(message, branch -> mergeDates.putIfAbsent(branches.get(branch), date));
+          return mergeDates.size() < branches.size();
+        });
+    return mergeDates;
+  }
+
+  /**
+   * Commits are identified by dense int ids. Hashes are keyed by their first 64 bits, as a
+   * collision within a single repository is practically impossible, and parents are stored in one
+   * flat array.
+   */
+  private static final class CommitGraph {
+    private long[] keys = new long[1024];
+    private int[] keyIds = new int[1024];
+    private int size;
+
+    private long[] commitTimes = new long[512];
+    private int[] parentStart = new int[512];
+    private int[] parentCounts = new int[512];
+    private int[] parents = new int[1024];
+    private int parentsSize;
+
+    private void add(String[] commit) {
+      int id = getOrCreateId(commit[0]);
+      commitTimes[id] = Long.parseLong(commit[1]);
+      parentStart[id] = parentsSize;
+      parentCounts[id] = commit.length - 2;
+      for (int i = 2; i < commit.length; i++) {
+        if (parentsSize == parents.length) {
+          parents = Arrays.copyOf(parents, parentsSize * 2);
+        }
+        parents[parentsSize++] = getOrCreateId(commit[i]);
+      }
+    }
+
+    private int idOf(String hash) {
+      long key = keyOf(hash);
+      for (int slot = slotOf(key); keyIds[slot] != 0; slot = (slot + 1) & (keys.length - 1)) {
+        if (keys[slot] == key) {
+          return keyIds[slot] - 1;
+        }
+      }
+      return -1;
+    }
+
+    private int getOrCreateId(String hash) {
+      int id = idOf(hash);
+      if (id >= 0) {
+        return id;
+      }
+      if (size * 2 >= keys.length) {
+        rehash();
+      }
+      if (size == commitTimes.length) {
+        commitTimes = Arrays.copyOf(commitTimes, size * 2);
+        parentStart = Arrays.copyOf(parentStart, size * 2);
+        parentCounts = Arrays.copyOf(parentCounts, size * 2);
+      }
+      insert(keyOf(hash), size);
+      return size++;
+    }
+
+    private void insert(long key, int id) {
+      int slot = slotOf(key);
+      while (keyIds[slot] != 0) {
+        slot = (slot + 1) & (keys.length - 1);
+      }
+      keys[slot] = key;
+      keyIds[slot] = id + 1;
+    }
+
+    private void rehash() {
+      long[] oldKeys = keys;
+      int[] oldIds = keyIds;
+      keys = new long[oldKeys.length * 2];
+      keyIds = new int[oldKeys.length * 2];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldIds[i] != 0) {
+          insert(oldKeys[i], oldIds[i] - 1);
+        }
+      }
+    }
+
+    private int slotOf(long key) {
+      return (int) (key ^ (key >>> 32)) & (keys.length - 1);
+    }
+
+    private static long keyOf(String hash) {
+      return Long.parseUnsignedLong(hash.substring(0, Math.min(16, hash.length())), 16);
+    }
+
+    private long commitTime(int id) {
+      return commitTimes[id];
+    }
+
+    private int parentCount(int id) {
+      return parentCounts[id];
+    }
+
+    /** Returns the first-parent chain of the given commit, oldest first. */
+    private int[] mainline(int head) {
+      List<Integer> chain = new ArrayList<>();
+      for (int id = head; id >= 0; id = parentCounts[id] > 0 ? parents[parentStart[id]] : -1) {
+        chain.add(id);
+      }
+      int[] mainline = new int[chain.size()];
+      for (int i = 0; i < mainline.length; i++) {
+        mainline[i] = chain.get(mainline.length - 1 - i);
+      }
+      return mainline;
+    }
+
+    /**
+     * Returns, for each commit, the position in the mainline of the first mainline commit it is
+     * reachable from, or -1 if none. Commits already marked are not walked again.
+     */
+    private int[] markFirstReachableFrom(int[] mainline) {
+      int[] marks = new int[size];
+      Arrays.fill(marks, -1);
+      int[] stack = new int[64];
+      for (int position = 0; position < mainline.length; position++) {
+        int stackSize = 0;
+        stack[stackSize++] = mainline[position];
+        while (stackSize > 0) {
+          int id = stack[--stackSize];
+          if (marks[id] >= 0) {
+            continue;
+          }
+          marks[id] = position;
+          for (int i = 0; i < parentCounts[id]; i++) {
+            int parent = parents[parentStart[id] + i];
+            if (marks[parent] < 0) {
+              if (stackSize == stack.length) {
+                stack = Arrays.copyOf(stack, stackSize * 2);
+              }
+              stack[stackSize++] = parent;
+            }
+          }
+        }
+      }
+      return marks;
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package io.ludovicianul.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.ludovicianul.log.Logger;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Two tier cache of answered questions, persisted in {@code .sol/query-cache.json}.
+ *
+ * <ul>
+ *   <li>Questions: the SQL generated for a question by a given model. SQL does not depend on the
+ *       indexed data, so these entries stay valid across index runs.
+ *   <li>Results: the rows returned by the SQL and the answers written from them, keyed by the
+ *       fingerprint of the index. Entries of a previous fingerprint are dropped when the cache is
+ *       loaded, so re-indexing invalidates them.
+ * </ul>
+ *
+ * Each tier evicts its least recently used entries once it holds more than {@link #MAX_ENTRIES}
+ * entries or {@link #MAX_CHARS} characters. Hits count as uses, so they are saved too.
+ */
+public class QueryCache {
+  private static final Path CACHE_FILE = Path.of(".sol", "query-cache.json");
+  private static final int MAX_ENTRIES = 1000;
+  private static final long MAX_CHARS = 8 * 1024 * 1024;
+  private static final Gson GSON = new Gson();
+
+  private final String fingerprint;
+  private final boolean enabled;
+  private final Tier questions = new Tier();
+  private final Tier results = new Tier();
+  private boolean changed;
+
+  private record Entry(String key, String value, String fingerprint) {}
+
+  private record Store(List<Entry> questions, List<Entry> results) {}
+
+  private QueryCache(String fingerprint, boolean enabled) {
+    this.fingerprint = fingerprint;
+    this.enabled = enabled;
+  }
+
+  /**
+   * Returns a cache which never hits and is never saved.
+   *
+   * @return the disabled cache
+   */
+  public static QueryCache disabled() {
+    return new QueryCache(null, false);
+  }
+
+  /**
+   * Loads the cache, keeping only the results of the given index fingerprint.
+   *
+   * @param fingerprint the fingerprint of the current index
+   * @return the cache
+   */
+  public static QueryCache load(String fingerprint) {
+    QueryCache cache = new QueryCache(fingerprint, true);
+    if (!Files.exists(CACHE_FILE)) {
+      return cache;
+    }
+    try {
+      Store store =
+          GSON.fromJson(Files.readString(CACHE_FILE, StandardCharsets.UTF_8), Store.class);
+      if (store != null && store.questions() != null && store.results() != null) {
+        store.questions().stream().filter(QueryCache::isValid).forEach(cache.questions::put);
+        store.results().stream()
+            .filter(QueryCache::isValid)
+            .filter(entry -> fingerprint.equals(entry.fingerprint()))
+            .forEach(cache.results::put);
+        cache.changed = cache.results.size() != store.results().size();
+      }
+    } catch (IOException | JsonParseException e) {
+      Logger.debug("Ignoring unreadable query cache: " + e.getMessage());
+    }
+    return cache;
+  }
+
+  /**
+   * Returns the SQL previously generated for the question.
+   *
+   * @param model the AI system and model which generated the SQL
+   * @param question the user question
+   * @return the SQL, empty if the question was never answered by this model
+   */
+  public Optional<String> getSql(String model, String question) {
+    return questions.get(key(model, normalize(question)));
+  }
+
+  public void putSql(String model, String question, String sql) {
+    questions.put(new Entry(key(model, normalize(question)), sql, null));
+    changed = true;
+  }
+
+  /**
+   * Returns the rows previously returned by the SQL on the current index, encoded within the same
+   * token budget.
+   *
+   * @param sql the SQL queries, as generated
+   * @param tokenBudget the most tokens the rows may take
+   * @return the rows, empty if the SQL was not run on the current index with this budget
+   */
+  public Optional<String> getResult(String sql, int tokenBudget) {
+    return results.get(key("result", String.valueOf(tokenBudget), sql));
+  }
+
+  public void putResult(String sql, int tokenBudget, String result) {
+    results.put(new Entry(key("result", String.valueOf(tokenBudget), sql), result, fingerprint));
+    changed = true;
+  }
+
+  /**
+   * Returns the answer previously written by the model for the same rows and question.
+   *
+   * @param model the AI system and model which wrote the answer
+   * @param input the rows and question given to the model
+   * @return the answer, empty if the model never answered this input on the current index
+   */
+  public Optional<String> getAnswer(String model, String input) {
+    return results.get(key("answer", model, input));
+  }
+
+  public void putAnswer(String model, String input, String answer) {
+    results.put(new Entry(key("answer", model, input), answer, fingerprint));
+    changed = true;
+  }
+
+  /**
+   * Writes the cache, if it changed. The file is replaced atomically, so concurrent runs never read
+   * a partially written cache.
+   */
+  public void save() {
+    if (!enabled || !changed) {
+      return;
+    }
+    try {
+      Path temp = Files.createTempFile(CACHE_FILE.getParent(), "query-cache", ".json");
+      Store store = new Store(questions.entries(), results.entries());
+      Files.writeString(temp, GSON.toJson(store), StandardCharsets.UTF_8);
+      Files.move(
+          temp, CACHE_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      changed = false;
+    } catch (IOException e) {
+      Logger.debug("Could not save the query cache: " + e.getMessage());
+    }
+  }
+
+  private static boolean isValid(Entry entry) {
+    return entry != null && entry.key() != null && entry.value() != null;
+  }
+
+  /** Questions differing only in case, spacing or trailing punctuation share their SQL. */
+  private static String normalize(String question) {
+    return question
+        .toLowerCase(Locale.ROOT)
+        .replaceAll("\\s+", " ")
+        .replaceAll("[\\s?.!]+$", "")
+        .trim();
+  }
+
+  private static String key(String... parts) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      for (String part : parts) {
+        digest.update(part.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Entries in access order, the least recently used first. */
+  private final class Tier {
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long chars;
+
+    Optional<String> get(String key) {
+      if (!enabled) {
+        return Optional.empty();
+      }
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        return Optional.empty();
+      }
+      changed = true;
+      return Optional.of(entry.value());
+    }
+
+    void put(Entry entry) {
+      Entry previous = entries.put(entry.key(), entry);
+      if (previous != null) {
+        chars -= previous.value().length();
+      }
+      chars += entry.value().length();
+
+      Iterator<Entry> eldest = entries.values().iterator();
+      while (entries.size() > 1 && (entries.size() > MAX_ENTRIES || chars > MAX_CHARS)) {
+        chars -= eldest.next().value().length();
+        eldest.remove();
+      }
+    }
+
+    int size() {
+      return entries.size();
+    }
+
+    List<Entry> entries() {
+      return new ArrayList<>(entries.values());
+    }
+  }
+}
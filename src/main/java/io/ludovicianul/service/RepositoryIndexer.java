@@ -0,0 +1,353 @@
+package io.ludovicianul.service;
+
+import io.ludovicianul.db.IndexWriter;
+import io.ludovicianul.db.SolDb;
+import io.ludovicianul.db.SolDbSession;
+import io.ludovicianul.io.ProcessRunner;
+import io.ludovicianul.log.Logger;
+import io.ludovicianul.model.Branch;
+import io.ludovicianul.model.Tag;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Indexes the commits, branches and tags of a single repository. All writes go through the shared
+ * {@link IndexWriter}, so several repositories can be indexed concurrently.
+ */
+public class RepositoryIndexer {
+  private final String directory;
+  private final int timeout;
+  private final boolean incremental;
+  private final FileTypeService fileTypeService;
+  private final IndexWriter writer;
+  private final String logPrefix;
+  private final IndexMetrics metrics;
+
+  private Map<String, String> branchAndCreationDates;
+  private Map<String, String> knownMergeDates = Map.of();
+
+  /** The writes submitted for this repository, checked before its ref tips are recorded. */
+  private final List<Future<?>> writes = new ArrayList<>();
+
+  /**
+   * Creates an indexer for one repository.
+   *
+   * @param directory the repository directory, also used as repository name
+   * @param timeout seconds to wait for git commands
+   * @param incremental whether to only index what changed since the last index
+   * @param fileTypeService the service used to classify changed files
+   * @param writer the writer shared by all repositories
+   * @param prefixLogs whether to prefix progress messages with the repository name
+   * @param metrics the metrics of the indexing run
+   */
+  public RepositoryIndexer(
+      String directory,
+      int timeout,
+      boolean incremental,
+      FileTypeService fileTypeService,
+      IndexWriter writer,
+      boolean prefixLogs,
+      IndexMetrics metrics) {
+    this.directory = directory;
+    this.timeout = timeout;
+    this.incremental = incremental;
+    this.fileTypeService = fileTypeService;
+    this.writer = writer;
+    this.logPrefix = prefixLogs ? "[" + directory + "] " : "";
+    this.metrics = metrics;
+  }
+
+  /**
+   * Indexes the repository. The recorded ref tips are only updated once everything was written, so
+   * a failed run is fully retried by the next incremental index.
+   *
+   * @throws InterruptedException if interrupted while waiting for the writer
+   * @throws IllegalStateException if git fails or some of the commits could not be written
+   */
+  public void run() throws InterruptedException {
+    Map<String, String> refs = getRefs();
+    Map<String, String> indexedRefs = incremental ? SolDb.getIndexedRefs(directory) : Map.of();
+
+    if (!incremental) {
+      parseCommits();
+    } else if (indexedRefs.isEmpty()) {
+      write(session -> session.deleteRepository(directory));
+      parseCommits();
+    } else if (isHistoryRewritten(indexedRefs, refs)) {
+      log("History was rewritten since the last index, re-indexing");
+      write(session -> session.deleteRepository(directory));
+      parseCommits();
+    } else {
+      knownMergeDates = SolDb.getMergeDates(directory);
+      writeMetadata(session -> session.deleteBranchesAndTags(directory));
+      parseNewCommits(indexedRefs, refs);
+    }
+    write(session -> session.refreshRollup(directory));
+    long start = System.nanoTime();
+    parseBranches(refs);
+    metrics.record(IndexMetrics.Phase.BRANCHES, start);
+    start = System.nanoTime();
+    parseTags();
+    metrics.record(IndexMetrics.Phase.TAGS, start);
+    checkWrites();
+    write(session -> session.saveIndexedRefs(directory, refs));
+    checkWrites();
+  }
+
+  private void write(Consumer<SolDbSession> write) throws InterruptedException {
+    writes.add(writer.submit(write));
+  }
+
+  /**
+   * Writes branches or tags, which are collected again on every index. A failure is reported and
+   * skipped, so it does not keep the commits of the repository from being recorded as indexed.
+   */
+  private void writeMetadata(Consumer<SolDbSession> write) throws InterruptedException {
+    writer.submit(
+        session -> {
+          try {
+            write.accept(session);
+          } catch (IllegalStateException e) {
+            Logger.err(logPrefix + e.getMessage());
+          }
+        });
+  }
+
+  /** Waits for the writes of this repository, failing if any of them failed. */
+  private void checkWrites() throws InterruptedException {
+    try {
+      for (Future<?> write : writes) {
+        write.get();
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+    }
+    writes.clear();
+  }
+
+  /** Returns the tips of all refs, including HEAD, with annotated tags peeled to their commit. */
+  private Map<String, String> getRefs() {
+    Map<String, String> refs = new HashMap<>();
+    ProcessRunner.INSTANCE
+        .getMultiLineProcessOut(timeout, "cd " + directory + " && git show-ref --head --dereference")
+        .stream()
+        .map(ref -> ref.trim().split(" "))
+        .filter(ref -> ref.length == 2)
+        .forEach(ref -> refs.put(ref[1].replace("^{}", ""), ref[0]));
+    return refs;
+  }
+
+  /**
+   * History was rewritten, by a force push or a deleted branch for example, when commits reachable
+   * from the previously indexed tips are no longer reachable from the current ones.
+   */
+  private boolean isHistoryRewritten(Map<String, String> indexedRefs, Map<String, String> refs) {
+    Path revisions = writeRevisions(indexedRefs.values(), refs.values());
+    try {
+      String unreachable =
+          ProcessRunner.INSTANCE.getSingleLineProcessOut(
+              timeout, "cd %s && git rev-list --count --stdin < '%s'".formatted(directory, revisions));
+      return unreachable == null || !unreachable.trim().equals("0");
+    } finally {
+      revisions.toFile().delete();
+    }
+  }
+
+  /**
+   * Revisions are passed to git through a file, as repositories with many refs would exceed the
+   * maximum command line length.
+   */
+  private Path writeRevisions(Collection<String> included, Collection<String> excluded) {
+    List<String> revisions = new ArrayList<>(new LinkedHashSet<>(included));
+    excluded.stream().distinct().map(revision -> "^" + revision).forEach(revisions::add);
+    try {
+      Path file = Files.createTempFile("sol-revisions", ".txt");
+      return Files.write(file, revisions);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void parseCommits() {
+    log("Collecting commits data...");
+    countCommits("git rev-list --all --count");
+
+    String command = "cd " + directory + " && git log --all " + GitLogParser.GIT_LOG_ARGUMENTS;
+    int indexed =
+        new CommitPipeline(timeout, fileTypeService, writer, false, metrics)
+            .run(directory, command);
+
+    log("Commits indexed successfully: " + indexed);
+  }
+
+  private void parseNewCommits(Map<String, String> indexedRefs, Map<String, String> refs) {
+    if (indexedRefs.equals(refs)) {
+      log("No new commits since the last index");
+      return;
+    }
+    log("Collecting new commits data...");
+
+    Path revisions = writeRevisions(refs.values(), indexedRefs.values());
+    try {
+      countCommits("git rev-list --count --stdin < '%s'".formatted(revisions));
+      String command =
+          "cd %s && git log --stdin %s < '%s'"
+              .formatted(directory, GitLogParser.GIT_LOG_ARGUMENTS, revisions);
+      int indexed =
+          new CommitPipeline(timeout, fileTypeService, writer, true, metrics)
+              .run(directory, command);
+
+      log("New commits indexed successfully: " + indexed);
+    } finally {
+      revisions.toFile().delete();
+    }
+  }
+
+  /** Counts the commits about to be indexed, only used to estimate the remaining time. */
+  private void countCommits(String revListCommand) {
+    String count =
+        ProcessRunner.INSTANCE.getSingleLineProcessOut(
+            timeout, "cd " + directory + " && " + revListCommand);
+    if (count != null && count.trim().matches("\\d+")) {
+      metrics.addExpectedCommits(Long.parseLong(count.trim()));
+    } else {
+      Logger.debug(logPrefix + "Could not count the commits to index: " + count);
+    }
+  }
+
+  /**
+   * A local branch and its remote are recorded under the same name, so they can end up in both
+   * lists, like a merged {@code feature} whose {@code origin/feature} has commits not merged yet.
+   * Such a branch is only recorded once, as merged.
+   */
+  private void parseBranches(Map<String, String> refs) throws InterruptedException {
+    branchAndCreationDates = getBranchAndCreationDates();
+    Set<String> merged = parseBranches("merged", refs, Set.of());
+    parseBranches("no-merged", refs, merged);
+  }
+
+  private Map<String, String> getBranchAndCreationDates() {
+    log("Getting branch creation dates...");
+    return ProcessRunner.INSTANCE
+        .getMultiLineProcessOut(
+            timeout,
+            "cd "
+                + directory
+                + " && git for-each-ref --format='%(refname:short),%(creatordate:iso-strict)' refs/heads/ refs/remotes/")
+        .stream()
+        .map(String::trim)
+        .map(branch -> branch.replace("origin/", ""))
+        .distinct()
+        .map(branch -> branch.split(","))
+        .filter(branch -> branch.length == 2)
+        .collect(
+            Collectors.toMap(
+                branch -> branch[0].trim(),
+                branch -> branch[1].trim(),
+                (existing, replacement) -> existing));
+  }
+
+  private void parseTags() throws InterruptedException {
+    log("Collecting tags...");
+
+    List<String> tags =
+        ProcessRunner.INSTANCE.getMultiLineProcessOut(
+            timeout,
+            "cd "
+                + directory
+                + " && git for-each-ref --format='%(refname:short),%(objectname),%(object),%(creatordate:iso-strict),%(contents)' refs/tags");
+
+    List<Tag> parsedTags =
+        tags.stream()
+            .map(tag -> tag.split(","))
+            .filter(tag -> tag.length == 5)
+            .map(
+                tag ->
+                    new Tag(
+                        directory,
+                        tag[0].trim(),
+                        tag[2].trim().isEmpty() ? tag[1].trim() : tag[2].trim(),
+                        tag[3].trim(),
+                        tag[4].trim()))
+            .toList();
+    writeMetadata(
+        session -> {
+          session.insertTags(parsedTags);
+          metrics.addRows(IndexMetrics.Table.TAGS, parsedTags.size());
+        });
+
+    log("Finished collecting tags");
+  }
+
+  private Set<String> parseBranches(
+      String merged, Map<String, String> refs, Set<String> alreadyParsed)
+      throws InterruptedException {
+    log("Collecting " + merged + " branches...");
+    boolean isMerged = "merged".equals(merged);
+
+    List<String> branches =
+        ProcessRunner.INSTANCE.getMultiLineProcessOut(
+            timeout, "cd %s && git branch -a --%s".formatted(directory, merged));
+    Set<String> mergedBranches =
+        branches.stream()
+            .map(String::trim)
+            .filter(Branch::isNotMaster)
+            .map(Branch::removeRemoteOriginPrefix)
+            .filter(branch -> !alreadyParsed.contains(branch))
+            .collect(Collectors.toSet());
+    Map<String, String> mergeDates =
+        isMerged ? resolveMergeDates(mergedBranches, refs) : Map.of();
+    List<Branch> parsedBranches =
+        mergedBranches.stream()
+            .map(branch -> createBranch(branch, isMerged, mergeDates.get(branch)))
+            .toList();
+    writeMetadata(
+        session -> {
+          session.insertBranches(parsedBranches);
+          metrics.addRows(IndexMetrics.Table.BRANCHES, parsedBranches.size());
+        });
+
+    log("Finished collecting " + merged + " branches");
+    return mergedBranches;
+  }
+
+  private Branch createBranch(String branch, boolean isMerged, String mergeDate) {
+    String creationDate = branchAndCreationDates.get(branch);
+    int active = isMerged ? 0 : 1;
+
+    return new Branch(directory, branch, active, creationDate, mergeDate);
+  }
+
+  /** Merge dates known from a previous index are kept, the others are resolved all at once. */
+  private Map<String, String> resolveMergeDates(Set<String> branches, Map<String, String> refs) {
+    Map<String, String> mergeDates = new HashMap<>();
+    List<String> unresolved = new ArrayList<>();
+    for (String branch : branches) {
+      String knownMergeDate = knownMergeDates.get(branch);
+      if (knownMergeDate != null) {
+        mergeDates.put(branch, knownMergeDate);
+      } else {
+        unresolved.add(branch);
+      }
+    }
+    mergeDates.putAll(new MergeDateResolver(directory, timeout).resolve(unresolved, refs));
+    return mergeDates;
+  }
+
+  private void log(String message) {
+    Logger.print(logPrefix + message);
+  }
+}
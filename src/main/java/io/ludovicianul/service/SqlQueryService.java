@@ -3,42 +3,151 @@ package io.ludovicianul.service;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import dev.langchain4j.model.anthropic.AnthropicChatModel;
+import dev.langchain4j.model.anthropic.AnthropicStreamingChatModel;
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
 import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
 import dev.langchain4j.service.AiServices;
 import io.ludovicianul.SolCommand;
+import io.ludovicianul.ai.PromptSections;
+import io.ludovicianul.ai.ResultEncoder;
 import io.ludovicianul.ai.SolTokenizer;
 import io.ludovicianul.ai.SqlGeneratorAi;
+import io.ludovicianul.db.ReadSessionPool;
+import io.ludovicianul.db.RowCursor;
 import io.ludovicianul.db.SolDb;
+import io.ludovicianul.db.SolDbSession;
 import io.ludovicianul.log.Logger;
 import io.ludovicianul.model.QueryResult;
 import io.quarkiverse.langchain4j.ollama.OllamaChatLanguageModel;
+import io.quarkiverse.langchain4j.ollama.OllamaStreamingChatLanguageModel;
 import io.quarkiverse.langchain4j.ollama.Options;
+import java.lang.reflect.Type;
 import java.sql.SQLException;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 public class SqlQueryService {
+  private static final int MAX_CONCURRENT_QUERIES =
+      Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  /** The most parts a result is split into for a map-reduce analysis. */
+  private static final int MAX_PARTS = 32;
+
+  /**
+   * Marks the system prompts as cacheable on Anthropic. They are the same on every call and come
+   * before the question and results, so calls after the first one only pay for the rest.
+   */
+  private static final String ANTHROPIC_PROMPT_CACHING = "prompt-caching-2024-07-31";
+
+  private static final PromptSections SQL_PROMPT =
+      PromptSections.parse(SqlGeneratorAi.GENERATE_SQL_PROMPT);
+
+  private static final Gson GSON = new Gson();
+  private static final Type STRINGS_TYPE = new TypeToken<List<String>>() {}.getType();
+
   private final SqlGeneratorAi sqlGenerator;
   private final SolTokenizer solTokenizer;
+  private final QueryCache cache;
+  private final String cacheModel;
+  private final int maxTokens;
+  private final SolCommand.AnalysisMode analysisMode;
+  private final MapReduceAnalyzer mapReduceAnalyzer;
+  private final boolean streaming;
+  private final boolean prunePrompt;
+
+  public SqlQueryService(
+      SolCommand.AiSystem modelType,
+      String userSuppliedModel,
+      String ollamaUrl,
+      int maxTokens,
+      boolean useCache,
+      SolCommand.AnalysisMode analysisMode,
+      int analysisConcurrency,
+      boolean prunePrompt) {
+    this(
+        createModel(modelType, userSuppliedModel, ollamaUrl, maxTokens),
+        createStreamingModel(modelType, userSuppliedModel, ollamaUrl, maxTokens),
+        modelName(modelType, userSuppliedModel),
+        modelType + "/" + modelName(modelType, userSuppliedModel),
+        maxTokens,
+        useCache,
+        analysisMode,
+        analysisConcurrency,
+        prunePrompt);
+    Logger.debug("Ai system: " + modelType + ", model: " + modelName(modelType, userSuppliedModel));
+  }
 
+  /**
+   * Creates a service asking the given model, which can be a local stand-in.
+   *
+   * @param aiModel the model generating the SQL and analyzing the results
+   * @param streamingModel the same model, streaming its answers, null to print answers once they
+   *     are complete
+   * @param modelName the name of the model, used to count tokens
+   * @param cacheModel the key of the model in the query cache
+   * @param maxTokens the most tokens of results, queries and question sent in a single call
+   * @param useCache whether to reuse the SQL, results and answers of questions asked before
+   * @param analysisMode how results which do not fit in a single call are analyzed
+   * @param analysisConcurrency the most calls analyzing parts of a result running at once
+   * @param prunePrompt whether to send only the instructions relevant to the question when
+   *     generating the SQL
+   */
   public SqlQueryService(
+      ChatLanguageModel aiModel,
+      StreamingChatLanguageModel streamingModel,
+      String modelName,
+      String cacheModel,
+      int maxTokens,
+      boolean useCache,
+      SolCommand.AnalysisMode analysisMode,
+      int analysisConcurrency,
+      boolean prunePrompt) {
+    this.sqlGenerator =
+        streamingModel == null
+            ? AiServices.create(SqlGeneratorAi.class, TokenUsageReporter.report(aiModel))
+            : AiServices.builder(SqlGeneratorAi.class)
+                .chatLanguageModel(TokenUsageReporter.report(aiModel))
+                .streamingChatLanguageModel(TokenUsageReporter.report(streamingModel))
+                .build();
+    this.streaming = streamingModel != null;
+    this.prunePrompt = prunePrompt;
+    this.solTokenizer = SolTokenizer.createTokenizer(modelName);
+    this.maxTokens = maxTokens;
+    this.cacheModel = cacheModel;
+    this.analysisMode = analysisMode;
+    this.mapReduceAnalyzer =
+        new MapReduceAnalyzer(sqlGenerator, solTokenizer, maxTokens, analysisConcurrency);
+    this.cache =
+        useCache
+            ? SolDb.getIndexFingerprint().map(QueryCache::load).orElseGet(QueryCache::disabled)
+            : QueryCache.disabled();
+  }
+
+  private static String modelName(SolCommand.AiSystem modelType, String userSuppliedModel) {
+    return switch (modelType) {
+      case OPENAI -> Optional.ofNullable(userSuppliedModel).orElse("gpt-4o-mini");
+      case ANTHROPIC -> Optional.ofNullable(userSuppliedModel).orElse("claude-3-sonnet");
+      case OLLAMA -> Optional.ofNullable(userSuppliedModel).orElse("llama3.2");
+    };
+  }
+
+  private static ChatLanguageModel createModel(
       SolCommand.AiSystem modelType, String userSuppliedModel, String ollamaUrl, int maxTokens) {
     String openAiKey = System.getenv("OPENAI_API_KEY");
     String anthropicKey = System.getenv("ANTHROPIC_API_KEY");
 
-    String modelName =
-        switch (modelType) {
-          case OPENAI -> Optional.ofNullable(userSuppliedModel).orElse("gpt-4o-mini");
-          case ANTHROPIC -> Optional.ofNullable(userSuppliedModel).orElse("claude-3-sonnet");
-          case OLLAMA -> Optional.ofNullable(userSuppliedModel).orElse("llama3.2");
-        };
+    String modelName = modelName(modelType, userSuppliedModel);
 
-    ChatLanguageModel aiModel =
-        switch (modelType) {
+    return switch (modelType) {
           case OPENAI ->
               OpenAiChatModel.builder()
                   .apiKey(openAiKey)
@@ -52,6 +161,8 @@ public class SqlQueryService {
                   .modelName(modelName)
                   .maxTokens(maxTokens)
                   .temperature(0.0)
+                  .beta(ANTHROPIC_PROMPT_CACHING)
+                  .cacheSystemMessages(true)
                   .build();
           case OLLAMA ->
               OllamaChatLanguageModel.builder()
@@ -66,58 +177,239 @@ public class SqlQueryService {
                           .build())
                   .build();
         };
+  }
 
-    Logger.debug("Ai system: " + modelType + ", model: " + modelName);
+  private static StreamingChatLanguageModel createStreamingModel(
+      SolCommand.AiSystem modelType, String userSuppliedModel, String ollamaUrl, int maxTokens) {
+    String modelName = modelName(modelType, userSuppliedModel);
 
-    this.sqlGenerator = AiServices.create(SqlGeneratorAi.class, aiModel);
-    this.solTokenizer = SolTokenizer.createTokenizer(modelName, maxTokens);
+    return switch (modelType) {
+      case OPENAI ->
+          OpenAiStreamingChatModel.builder()
+              .apiKey(System.getenv("OPENAI_API_KEY"))
+              .modelName(modelName)
+              .maxTokens(maxTokens)
+              .temperature(0.0)
+              .build();
+      case ANTHROPIC ->
+          AnthropicStreamingChatModel.builder()
+              .apiKey(System.getenv("ANTHROPIC_API_KEY"))
+              .modelName(modelName)
+              .maxTokens(maxTokens)
+              .temperature(0.0)
+              .beta(ANTHROPIC_PROMPT_CACHING)
+              .cacheSystemMessages(true)
+              .build();
+      case OLLAMA ->
+          OllamaStreamingChatLanguageModel.builder()
+              .baseUrl(ollamaUrl)
+              .model(modelName)
+              .timeout(Duration.ofSeconds(30))
+              .options(
+                  Options.builder()
+                      .temperature(0.0)
+                      .numCtx(maxTokens)
+                      .numPredict(maxTokens)
+                      .build())
+              .build();
+    };
   }
 
+  /**
+   * The rows of the result were encoded within the token budget, so it is sent as it is. A result
+   * split into several parts is analyzed part by part, then the notes of the parts are combined.
+   */
   public String analyzeWithAi(QueryResult result) {
+    return analyzeWithAi(result, null);
+  }
+
+  /**
+   * Same as {@link #analyzeWithAi(QueryResult)}, handing the answer over as it is written. Cached
+   * answers, and answers of services created without a streaming model, are handed over at once.
+   *
+   * @param result the result to analyze
+   * @param onToken called with every token of the answer, as it arrives
+   * @return the whole answer
+   */
+  public String streamAnalysis(QueryResult result, Consumer<String> onToken) {
+    if (!streaming) {
+      String answer = analyzeWithAi(result);
+      onToken.accept(answer);
+      return answer;
+    }
+    return analyzeWithAi(result, onToken);
+  }
+
+  private String analyzeWithAi(QueryResult result, Consumer<String> onToken) {
     String pipedResult = result.piped();
-    String limitedTokens = solTokenizer.limitTokens(pipedResult);
+    boolean mapReduce = result.parts().size() > 1;
+    String answerModel = mapReduce ? cacheModel + "/map-reduce" : cacheModel;
 
-    return sqlGenerator.beautifyResult(limitedTokens);
+    Optional<String> cachedAnswer = cache.getAnswer(answerModel, pipedResult);
+    if (cachedAnswer.isPresent()) {
+      Logger.debug("Using cached answer");
+      cache.save();
+      if (onToken != null) {
+        onToken.accept(cachedAnswer.get());
+      }
+      return cachedAnswer.get();
+    }
+    String answer;
+    if (onToken == null) {
+      answer =
+          mapReduce
+              ? mapReduceAnalyzer.analyze(result)
+              : sqlGenerator.beautifyResult(pipedResult);
+    } else {
+      answer =
+          mapReduce
+              ? mapReduceAnalyzer.stream(result, onToken)
+              : StreamedAnswer.await(sqlGenerator.streamBeautifyResult(pipedResult), onToken);
+    }
+    cache.putAnswer(answerModel, pipedResult, answer);
+    cache.save();
+    return answer;
+  }
+
+  /**
+   * The whole instructions are the same for every question, so providers caching prompts reuse
+   * them. Pruned, they are smaller but differ between questions.
+   */
+  private String sqlInstructions(String userQuestion) {
+    if (!prunePrompt) {
+      return SQL_PROMPT.full();
+    }
+    String instructions = SQL_PROMPT.select(userQuestion);
+    if (Logger.isDebug()) {
+      Logger.debug(
+          "Sending %d of %d instruction tokens, sections: %s"
+              .formatted(
+                  solTokenizer.countTokens(instructions),
+                  solTokenizer.countTokens(SQL_PROMPT.full()),
+                  String.join(", ", SQL_PROMPT.selectedNames(userQuestion))));
+    }
+    return instructions;
   }
 
   public QueryResult askQuestion(String userQuestion) {
-    String initialSql = sqlGenerator.generateSqlQuery(userQuestion);
-    String cleanSql = solTokenizer.clean(initialSql);
-
-    Logger.debug("Generated SQL query: " + cleanSql + "\n");
-
-    List<String> queries =
-        new Gson().fromJson(cleanSql, new TypeToken<List<String>>() {}.getType());
-    StringBuilder finalResult = new StringBuilder();
-    int resultLength = 0;
-
-    for (String query : queries) {
-      List<Map<String, Object>> queryResult = executeQuery(query);
-
-      resultLength += queryResult.size();
-      String secondResultAsString =
-          queryResult.stream()
-              .map(
-                  item ->
-                      item.entrySet().stream()
-                          .map(entry -> entry.getKey() + ": " + entry.getValue())
-                          .collect(Collectors.joining(",")))
-              .collect(Collectors.joining(";"));
-      finalResult.append(secondResultAsString).append("\n");
+    Optional<String> cachedSql = cache.getSql(cacheModel, userQuestion);
+    String cleanSql;
+    if (cachedSql.isPresent()) {
+      cleanSql = cachedSql.get();
+      Logger.debug("Using cached SQL query: " + cleanSql + "\n");
+    } else {
+      String initialSql =
+          sqlGenerator.generateSqlQuery(sqlInstructions(userQuestion), userQuestion);
+      cleanSql = solTokenizer.clean(initialSql);
+      Logger.debug("Generated SQL query: " + cleanSql + "\n");
+    }
+
+    // the rows share the budget with the queries and the question they are sent with
+    int rowsBudget =
+        maxTokens - solTokenizer.countTokens(cleanSql) - solTokenizer.countTokens(userQuestion);
+    boolean mapReduce = analysisMode == SolCommand.AnalysisMode.MAP_REDUCE;
+    Optional<String> cachedResult = cache.getResult(resultKey(cleanSql, mapReduce), rowsBudget);
+    if (cachedResult.isPresent()) {
+      Logger.debug("Using cached query result");
+      cache.save();
+      return mapReduce
+          ? toQueryResult(cleanSql, GSON.fromJson(cachedResult.get(), STRINGS_TYPE), userQuestion)
+          : new QueryResult(cleanSql, cachedResult.get(), userQuestion);
     }
 
+    List<String> queries = GSON.fromJson(cleanSql, STRINGS_TYPE);
+    ResultEncoder encoder =
+        new ResultEncoder(solTokenizer, rowsBudget, mapReduce ? MAX_PARTS : 1);
+    List<QueryOutput> ran = runQueries(queries, encoder);
+    List<ResultEncoder.EncodedResult> outputs = ran.stream().map(QueryOutput::result).toList();
+    long resultLength = outputs.stream().mapToLong(ResultEncoder.EncodedResult::rows).sum();
+
     if (resultLength == 0) {
       return QueryResult.empty();
     }
+    // queries fixed after failing are the ones cached, so they do not fail again
+    List<String> ranQueries = ran.stream().map(QueryOutput::query).toList();
+    String ranSql = ranQueries.equals(queries) ? cleanSql : GSON.toJson(ranQueries);
+    String resultKey = resultKey(ranSql, mapReduce);
+    QueryResult result;
+    if (mapReduce) {
+      List<String> parts = encoder.split(outputs);
+      result = toQueryResult(ranSql, parts, userQuestion);
+      cache.putResult(resultKey, rowsBudget, GSON.toJson(parts));
+    } else {
+      result = new QueryResult(ranSql, encoder.join(outputs), userQuestion);
+      cache.putResult(resultKey, rowsBudget, result.answers());
+    }
+    Logger.debug(
+        "Encoded %d rows in %d characters and %d parts, within a budget of %d tokens per part"
+            .formatted(
+                resultLength, result.answers().length(), result.parts().size(), rowsBudget));
+
+    cache.putSql(cacheModel, userQuestion, ranSql);
+    cache.save();
+    return result;
+  }
+
+  /** Parts are cached apart from whole results, as a list. */
+  private static String resultKey(String sql, boolean mapReduce) {
+    return mapReduce ? "map-reduce:" + sql : sql;
+  }
+
+  /**
+   * The output of a query, with the query giving it.
+   *
+   * @param query the query run, revised by the AI if the generated one failed
+   * @param result the encoded rows
+   */
+  private record QueryOutput(String query, ResultEncoder.EncodedResult result) {}
 
-    return new QueryResult(cleanSql, finalResult.toString(), userQuestion);
+  private static QueryResult toQueryResult(String sql, List<String> parts, String question) {
+    return new QueryResult(sql, String.join("\n", parts), question, parts);
   }
 
-  private List<Map<String, Object>> executeQuery(String query) {
-    List<Map<String, Object>> queryResult = List.of();
+  /**
+   * Runs the queries concurrently, each on its own read-only session, and returns their outputs in
+   * the order of the queries.
+   */
+  private List<QueryOutput> runQueries(List<String> queries, ResultEncoder encoder) {
+    if (queries.isEmpty()) {
+      return List.of();
+    }
+    int concurrency = Math.min(queries.size(), MAX_CONCURRENT_QUERIES);
+    try (ReadSessionPool pool = new ReadSessionPool(concurrency);
+        ExecutorService executor =
+            Executors.newFixedThreadPool(
+                concurrency, Thread.ofPlatform().name("sol-query-", 0).daemon().factory())) {
+      List<Future<QueryOutput>> outputs =
+          queries.stream()
+              .map(query -> executor.submit(() -> runQuery(query, pool, encoder)))
+              .toList();
+      List<QueryOutput> results = new ArrayList<>(outputs.size());
+      for (Future<QueryOutput> output : outputs) {
+        results.add(output.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return List.of();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Runs the query and encodes its rows within the token budget. A failing query is reviewed by
+   * the AI and run once more, and is kept when the revised query fails too.
+   */
+  private QueryOutput runQuery(String query, ReadSessionPool pool, ResultEncoder encoder)
+      throws InterruptedException {
     long t0 = System.currentTimeMillis();
     try {
-      queryResult = SolDb.executeQuery(query);
+      return new QueryOutput(
+          query, pool.withSession(session -> encodeRows(session, query, encoder)));
     } catch (SQLException e) {
       Logger.debug("Error while executing first query: %s".formatted(e.getMessage()));
 
@@ -129,14 +421,23 @@ public class SqlQueryService {
       String newQueryCleaned = solTokenizer.clean(newQuery);
       Logger.debug("Revised cleaned query: " + newQueryCleaned);
       try {
-        queryResult = SolDb.executeQuery(newQueryCleaned);
+        return new QueryOutput(
+            newQueryCleaned,
+            pool.withSession(session -> encodeRows(session, newQueryCleaned, encoder)));
       } catch (SQLException e2) {
         Logger.debug("Error while executing revised query: " + e2.getMessage());
+        return new QueryOutput(query, ResultEncoder.EncodedResult.empty());
       }
     } finally {
       long t1 = System.currentTimeMillis();
       Logger.debug("Query execution time: " + (t1 - t0) + " ms");
     }
-    return queryResult;
+  }
+
+  private static ResultEncoder.EncodedResult encodeRows(
+      SolDbSession session, String query, ResultEncoder encoder) throws SQLException {
+    try (RowCursor cursor = session.query(query)) {
+      return encoder.encode(cursor);
+    }
   }
 }
@@ -0,0 +1,57 @@
+package io.ludovicianul.service;
+
+import dev.langchain4j.service.TokenStream;
+import io.ludovicianul.log.Logger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Waits for an answer streamed by the model, handing every token over as it arrives, and reports
+ * in debug mode the time until the first token and until the whole answer.
+ */
+final class StreamedAnswer {
+  private StreamedAnswer() {}
+
+  /**
+   * Starts the stream and waits until the answer is complete.
+   *
+   * @param stream the stream of the answer, not started yet
+   * @param onToken called with every token, in order
+   * @return the whole answer
+   */
+  static String await(TokenStream stream, Consumer<String> onToken) {
+    long start = System.nanoTime();
+    long[] firstToken = {0};
+    CompletableFuture<String> answer = new CompletableFuture<>();
+    stream
+        .onNext(
+            token -> {
+              if (firstToken[0] == 0) {
+                firstToken[0] = System.nanoTime();
+              }
+              onToken.accept(token);
+            })
+        .onComplete(response -> answer.complete(response.content().text()))
+        .onError(answer::completeExceptionally)
+        .start();
+    try {
+      String text = answer.get();
+      long end = System.nanoTime();
+      Logger.debug(
+          "Time to first token: %d ms, total time: %d ms"
+              .formatted(
+                  ((firstToken[0] == 0 ? end : firstToken[0]) - start) / 1_000_000,
+                  (end - start) / 1_000_000));
+      return text;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the answer", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
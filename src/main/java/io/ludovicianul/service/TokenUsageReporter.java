@@ -0,0 +1,126 @@
+package io.ludovicianul.service;
+
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.anthropic.AnthropicTokenUsage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import io.ludovicianul.log.Logger;
+import java.util.List;
+
+/**
+ * Reports in debug mode the tokens and the time of every call to the model. Where the provider
+ * tells, the input tokens read from and written to its prompt cache are reported as well, so calls
+ * reusing the cached system prompts show fewer uncached input tokens and a shorter time.
+ */
+final class TokenUsageReporter {
+  private TokenUsageReporter() {}
+
+  static ChatLanguageModel report(ChatLanguageModel model) {
+    return new ChatLanguageModel() {
+      @Override
+      public Response<AiMessage> generate(List<ChatMessage> messages) {
+        long start = System.nanoTime();
+        return logged(model.generate(messages), start);
+      }
+
+      @Override
+      public Response<AiMessage> generate(
+          List<ChatMessage> messages, List<ToolSpecification> toolSpecifications) {
+        long start = System.nanoTime();
+        return logged(model.generate(messages, toolSpecifications), start);
+      }
+
+      @Override
+      public Response<AiMessage> generate(
+          List<ChatMessage> messages, ToolSpecification toolSpecification) {
+        long start = System.nanoTime();
+        return logged(model.generate(messages, toolSpecification), start);
+      }
+    };
+  }
+
+  static StreamingChatLanguageModel report(StreamingChatLanguageModel model) {
+    return new StreamingChatLanguageModel() {
+      @Override
+      public void generate(
+          List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        model.generate(messages, logging(handler));
+      }
+
+      @Override
+      public void generate(
+          List<ChatMessage> messages,
+          List<ToolSpecification> toolSpecifications,
+          StreamingResponseHandler<AiMessage> handler) {
+        model.generate(messages, toolSpecifications, logging(handler));
+      }
+
+      @Override
+      public void generate(
+          List<ChatMessage> messages,
+          ToolSpecification toolSpecification,
+          StreamingResponseHandler<AiMessage> handler) {
+        model.generate(messages, toolSpecification, logging(handler));
+      }
+    };
+  }
+
+  private static StreamingResponseHandler<AiMessage> logging(
+      StreamingResponseHandler<AiMessage> handler) {
+    long start = System.nanoTime();
+    return new StreamingResponseHandler<>() {
+      @Override
+      public void onNext(String token) {
+        handler.onNext(token);
+      }
+
+      @Override
+      public void onComplete(Response<AiMessage> response) {
+        handler.onComplete(logged(response, start));
+      }
+
+      @Override
+      public void onError(Throwable error) {
+        handler.onError(error);
+      }
+    };
+  }
+
+  private static Response<AiMessage> logged(Response<AiMessage> response, long start) {
+    if (Logger.isDebug()) {
+      Logger.debug(
+          "AI call: %s, %d ms".formatted(format(response.tokenUsage()), elapsedMillis(start)));
+    }
+    return response;
+  }
+
+  private static String format(TokenUsage usage) {
+    if (usage == null) {
+      return "token usage not reported";
+    }
+    StringBuilder text =
+        new StringBuilder("%s input tokens".formatted(orUnknown(usage.inputTokenCount())));
+    if (usage instanceof AnthropicTokenUsage anthropicUsage) {
+      text.append(
+          " (%s read from cache, %s written to cache)"
+              .formatted(
+                  orUnknown(anthropicUsage.cacheReadInputTokens()),
+                  orUnknown(anthropicUsage.cacheCreationInputTokens())));
+    }
+    return text.append(", %s output tokens".formatted(orUnknown(usage.outputTokenCount())))
+        .toString();
+  }
+
+  private static String orUnknown(Integer count) {
+    return count == null ? "?" : String.valueOf(count);
+  }
+
+  private static long elapsedMillis(long start) {
+    return (System.nanoTime() - start) / 1_000_000;
+  }
+}
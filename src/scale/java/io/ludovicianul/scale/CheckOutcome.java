@@ -0,0 +1,23 @@
+package io.ludovicianul.scale;
+
+import java.util.List;
+
+/** Ends a check, with a failing exit code when anything failed. */
+final class CheckOutcome {
+  private CheckOutcome() {}
+
+  /**
+   * Prints the failures, or that the check passed, then exits the JVM.
+   *
+   * @param check the name of the check, as printed
+   * @param failures what failed, empty when the check passed
+   */
+  static void exit(String check, List<String> failures) {
+    failures.forEach(failure -> System.err.println("FAILED " + failure));
+    if (failures.isEmpty()) {
+      System.out.printf("All %s checks passed%n", check);
+    }
+    // git commands leave idle pool threads behind, which would keep the JVM up for a minute
+    System.exit(failures.isEmpty() ? 0 : 1);
+  }
+}
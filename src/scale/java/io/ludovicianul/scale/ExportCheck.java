@@ -0,0 +1,332 @@
+package io.ludovicianul.scale;
+
+import io.ludovicianul.db.IndexExporter;
+import io.ludovicianul.db.IndexExporter.Partition;
+import io.ludovicianul.db.IndexExporter.Table;
+import io.ludovicianul.io.ParquetWriter.Column;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Checks the Parquet files written by {@code sol export} against the index they were exported
+ * from. Two generated repositories are indexed, then every table is exported without partitions and
+ * with each kind of partitioning. The files are read back with {@link ParquetReader}, and the check
+ * fails when the type of a column is not the one of the table, or when the rows of a table or of a
+ * partition, their NULLs or their values differ from the index.
+ */
+public final class ExportCheck {
+  private static final String DB_URL = "jdbc:sqlite:.sol/commits.db";
+  private static final String NULL_PARTITION = "__HIVE_DEFAULT_PARTITION__";
+
+  private static final List<List<Partition>> PARTITIONINGS =
+      List.of(
+          List.of(),
+          List.of(Partition.REPO),
+          List.of(Partition.REPO, Partition.YEAR),
+          List.of(Partition.MONTH));
+
+  /**
+   * The rows of a partition and the NULLs of each of its columns.
+   *
+   * @param rows the number of rows
+   * @param nulls the number of NULLs of each column
+   */
+  record Counts(long rows, List<Long> nulls) {}
+
+  private ExportCheck() {}
+
+  public static void main(String[] args) throws Exception {
+    // the first repository has more file changes than a row group holds
+    SyntheticIndex.create(
+        List.of(
+            SyntheticRepository.builder().seed(1).commits(60_000).build(),
+            SyntheticRepository.builder()
+                .seed(2)
+                .commits(2_000)
+                .authors(4)
+                .branches(50, 5, 3)
+                .build()));
+
+    List<String> failures = new ArrayList<>();
+    for (List<Partition> partitions : PARTITIONINGS) {
+      String name = partitions.isEmpty() ? "none" : partitions.toString().toLowerCase();
+      Path output = Path.of("export-" + name.replaceAll("[^a-z]+", "-"));
+      IndexExporter exporter = new IndexExporter(output, partitions);
+      for (Table table : Table.values()) {
+        IndexExporter.Summary summary = exporter.export(table);
+        List<String> tableFailures = check(table, partitions, output, summary);
+        tableFailures.forEach(
+            failure -> failures.add("%s partitioned by %s: %s".formatted(table, name, failure)));
+        System.out.printf(
+            "{\"table\":\"%s\",\"partitions\":\"%s\",\"rows\":%d,\"files\":%d,\"valid\":%b}%n",
+            table.tableName(), name, summary.rows(), summary.files(), tableFailures.isEmpty());
+      }
+    }
+
+    CheckOutcome.exit("export", failures);
+  }
+
+  private static List<String> check(
+      Table table, List<Partition> partitions, Path output, IndexExporter.Summary summary)
+      throws Exception {
+    List<String> failures = new ArrayList<>();
+    List<Column> columns = table.columns();
+    Path tableDir = output.resolve(table.tableName());
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(tableDir)) {
+      files = walk.filter(path -> path.toString().endsWith(".parquet")).sorted().toList();
+    }
+
+    Map<String, Counts> exported = new TreeMap<>();
+    List<String> exportedRows = new ArrayList<>();
+    int rowGroups = 0;
+    for (Path file : files) {
+      ParquetReader.Contents contents = ParquetReader.read(file);
+      rowGroups += contents.rowGroups();
+      String partition =
+          URLDecoder.decode(
+              tableDir.relativize(file.getParent()).toString(), StandardCharsets.UTF_8);
+      checkSchema(columns, contents.columns(), file, failures);
+      checkPartition(partitions, partition, columns, contents.rows(), file, failures);
+      Counts counts = exported.getOrDefault(partition, new Counts(0, zeros(columns.size())));
+      exported.put(partition, add(counts, contents.rows()));
+      contents.rows().forEach(row -> exportedRows.add(Arrays.toString(row)));
+    }
+
+    long rows = exported.values().stream().mapToLong(Counts::rows).sum();
+    if (files.size() != summary.files() || rows != summary.rows()) {
+      failures.add(
+          "%d files and %d rows read, %d and %d reported"
+              .formatted(files.size(), rows, summary.files(), summary.rows()));
+    }
+    if (rowGroups < files.size()) {
+      failures.add("%d row groups in %d files".formatted(rowGroups, files.size()));
+    }
+
+    Map<String, Counts> expected = expectedCounts(table, partitions);
+    if (!expected.equals(exported)) {
+      failures.add("partitions and NULLs are %s, %s in the index".formatted(exported, expected));
+    }
+    List<String> expectedRows = expectedRows(table);
+    exportedRows.sort(null);
+    if (!expectedRows.equals(exportedRows)) {
+      failures.add(firstDifference(expectedRows, exportedRows));
+    }
+    return failures;
+  }
+
+  /** Every column is optional, with the physical and converted types of its type in sol. */
+  private static void checkSchema(
+      List<Column> columns,
+      List<ParquetReader.SchemaColumn> schema,
+      Path file,
+      List<String> failures) {
+    List<ParquetReader.SchemaColumn> expected =
+        columns.stream()
+            .map(
+                column ->
+                    switch (column.type()) {
+                      case STRING ->
+                          schemaColumn(
+                              column,
+                              ParquetReader.TYPE_BYTE_ARRAY,
+                              ParquetReader.CONVERTED_UTF8);
+                      case LONG -> schemaColumn(column, ParquetReader.TYPE_INT64, null);
+                      case BOOLEAN -> schemaColumn(column, ParquetReader.TYPE_BOOLEAN, null);
+                      case TIMESTAMP ->
+                          schemaColumn(
+                              column,
+                              ParquetReader.TYPE_INT64,
+                              ParquetReader.CONVERTED_TIMESTAMP_MILLIS);
+                    })
+            .toList();
+    if (!expected.equals(schema)) {
+      failures.add("%s has the schema %s instead of %s".formatted(file, schema, expected));
+    }
+  }
+
+  private static ParquetReader.SchemaColumn schemaColumn(
+      Column column, int physicalType, Integer convertedType) {
+    return new ParquetReader.SchemaColumn(
+        column.name(), physicalType, convertedType, ParquetReader.REPETITION_OPTIONAL);
+  }
+
+  /**
+   * The directories of a file name its partition keys, in order, and the rows of a repository must
+   * all be in the directory of that repository. Values of the directories are already unescaped.
+   */
+  private static void checkPartition(
+      List<Partition> partitions,
+      String partition,
+      List<Column> columns,
+      List<Object[]> rows,
+      Path file,
+      List<String> failures) {
+    List<String> directories = partition.isEmpty() ? List.of() : List.of(partition.split("/"));
+    List<String> keys =
+        directories.stream().map(dir -> dir.substring(0, dir.indexOf('='))).toList();
+    if (!keys.equals(partitions.stream().map(ExportCheck::partitionColumn).toList())) {
+      failures.add("%s is not partitioned by %s".formatted(file, partitions));
+      return;
+    }
+    int repoColumn = columns.stream().map(Column::name).toList().indexOf("repo_name");
+    int repoKey = partitions.indexOf(Partition.REPO);
+    if (repoKey < 0) {
+      return;
+    }
+    String repo = directories.get(repoKey).substring("repo_name=".length());
+    for (Object[] row : rows) {
+      Object value = row[repoColumn] == null ? NULL_PARTITION : row[repoColumn];
+      if (!value.equals(repo)) {
+        failures.add("%s has a row of %s".formatted(file, value));
+        return;
+      }
+    }
+  }
+
+  private static String partitionColumn(Partition partition) {
+    return switch (partition) {
+      case REPO -> "repo_name";
+      case YEAR -> "year";
+      case MONTH -> "month";
+    };
+  }
+
+  private static Counts add(Counts counts, List<Object[]> rows) {
+    List<Long> nulls = new ArrayList<>(counts.nulls());
+    for (Object[] row : rows) {
+      for (int i = 0; i < row.length; i++) {
+        if (row[i] == null) {
+          nulls.set(i, nulls.get(i) + 1);
+        }
+      }
+    }
+    return new Counts(counts.rows() + rows.size(), nulls);
+  }
+
+  private static List<Long> zeros(int size) {
+    return new ArrayList<>(Collections.nCopies(size, 0L));
+  }
+
+  /**
+   * Counts the rows and NULLs of each partition in the index. Rows are partitioned by their
+   * repository and by the date of their commit, or the date branches were created.
+   */
+  private static Map<String, Counts> expectedCounts(Table table, List<Partition> partitions)
+      throws SQLException {
+    String date =
+        switch (table) {
+          case COMMITS -> "t.date";
+          case BRANCHES -> "t.creation_date";
+          case FILE_CHANGES, COMMIT_PARENTS, TAGS -> "c.date";
+        };
+    String hash = table == Table.TAGS ? "t.tag_commit" : "t.commit_hash";
+    String from =
+        date.equals("c.date")
+            ? "%s t LEFT JOIN commits c ON c.commit_hash = %s AND c.repo_name = t.repo_name"
+                .formatted(table.tableName(), hash)
+            : table.tableName() + " t";
+
+    List<String> keys = new ArrayList<>();
+    for (Partition partition : partitions) {
+      keys.add(
+          switch (partition) {
+            case REPO -> "t.repo_name";
+            case YEAR -> "substr(%s, 1, 4)".formatted(date);
+            case MONTH -> "substr(%s, 1, 7)".formatted(date);
+          });
+    }
+    List<String> select = new ArrayList<>(keys);
+    select.add("COUNT(*)");
+    for (Column column : table.columns()) {
+      select.add("COUNT(*) - COUNT(t.%s)".formatted(column.name()));
+    }
+    String query = "SELECT " + String.join(", ", select) + " FROM " + from;
+    if (!keys.isEmpty()) {
+      query += " GROUP BY " + String.join(", ", keys);
+    }
+
+    Map<String, Counts> counts = new TreeMap<>();
+    try (Connection conn = DriverManager.getConnection(DB_URL);
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery(query)) {
+      while (rs.next()) {
+        List<String> directories = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+          String value = rs.getString(i + 1);
+          directories.add(
+              partitionColumn(partitions.get(i))
+                  + "="
+                  + (value == null ? NULL_PARTITION : value));
+        }
+        List<Long> nulls = new ArrayList<>();
+        for (int i = 0; i < table.columns().size(); i++) {
+          nulls.add(rs.getLong(keys.size() + i + 2));
+        }
+        long rows = rs.getLong(keys.size() + 1);
+        if (rows > 0) {
+          counts.put(String.join("/", directories), new Counts(rows, nulls));
+        }
+      }
+    }
+    return counts;
+  }
+
+  /** The rows of the table as they should be read back from Parquet, sorted. */
+  private static List<String> expectedRows(Table table) throws SQLException {
+    List<Column> columns = table.columns();
+    String query =
+        "SELECT "
+            + String.join(", ", columns.stream().map(Column::name).toList())
+            + " FROM "
+            + table.tableName();
+    List<String> rows = new ArrayList<>();
+    try (Connection conn = DriverManager.getConnection(DB_URL);
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery(query)) {
+      while (rs.next()) {
+        Object[] row = new Object[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+          String value = rs.getString(i + 1);
+          row[i] =
+              value == null
+                  ? null
+                  : switch (columns.get(i).type()) {
+                    case STRING -> value;
+                    case LONG -> Long.parseLong(value);
+                    case BOOLEAN -> Long.parseLong(value) != 0;
+                    case TIMESTAMP -> Instant.parse(value).toEpochMilli();
+                  };
+        }
+        rows.add(Arrays.toString(row));
+      }
+    }
+    rows.sort(null);
+    return rows;
+  }
+
+  private static String firstDifference(List<String> expected, List<String> exported) {
+    for (int i = 0; i < Math.min(expected.size(), exported.size()); i++) {
+      if (!expected.get(i).equals(exported.get(i))) {
+        return "row %d is %s in the index, %s in the files"
+            .formatted(i + 1, expected.get(i), exported.get(i));
+      }
+    }
+    return "%d rows in the index, %d in the files".formatted(expected.size(), exported.size());
+  }
+}
@@ -0,0 +1,350 @@
+package io.ludovicianul.scale;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads Parquet files following the format specification, not the writer of sol, so that an export
+ * can be checked independently of how it was written. Only what flat schemas of optional columns
+ * need is supported: data pages of version 1, uncompressed or GZIP compressed, definition levels in
+ * the RLE / bit-packing hybrid encoding and PLAIN encoded values. Anything else fails the read.
+ */
+final class ParquetReader {
+  private static final byte[] MAGIC = "PAR1".getBytes(StandardCharsets.US_ASCII);
+
+  // Values of the Parquet enums, from parquet.thrift
+  static final int TYPE_BOOLEAN = 0;
+  static final int TYPE_INT32 = 1;
+  static final int TYPE_INT64 = 2;
+  static final int TYPE_BYTE_ARRAY = 6;
+  static final int REPETITION_OPTIONAL = 1;
+  static final int CONVERTED_UTF8 = 0;
+  static final int CONVERTED_TIMESTAMP_MILLIS = 9;
+  private static final int ENCODING_PLAIN = 0;
+  private static final int ENCODING_RLE = 3;
+  private static final int CODEC_UNCOMPRESSED = 0;
+  private static final int CODEC_GZIP = 2;
+  private static final int PAGE_DATA = 0;
+
+  /**
+   * A column of the schema.
+   *
+   * @param name the name
+   * @param physicalType the physical type
+   * @param convertedType the converted type, null when there is none
+   * @param repetition the repetition type
+   */
+  record SchemaColumn(String name, int physicalType, Integer convertedType, int repetition) {}
+
+  /**
+   * The contents of a file.
+   *
+   * @param columns the columns of the schema
+   * @param rows the rows, with Boolean, Integer, Long or String values and nulls
+   * @param rowGroups the number of row groups
+   */
+  record Contents(List<SchemaColumn> columns, List<Object[]> rows, int rowGroups) {}
+
+  private ParquetReader() {}
+
+  /**
+   * Reads a whole file.
+   *
+   * @param file the file
+   * @return its schema and rows
+   * @throws IOException if the file cannot be read or is not valid
+   */
+  static Contents read(Path file) throws IOException {
+    byte[] bytes = Files.readAllBytes(file);
+    int length = bytes.length;
+    if (length < 12
+        || !Arrays.equals(bytes, 0, 4, MAGIC, 0, 4)
+        || !Arrays.equals(bytes, length - 4, length, MAGIC, 0, 4)) {
+      throw new IOException(file + " does not start and end with PAR1");
+    }
+    int footerLength = littleEndian(bytes, length - 8).getInt();
+    Map<Integer, Object> metadata =
+        new CompactReader(bytes, length - 8 - footerLength).readStruct();
+
+    List<Map<Integer, Object>> schema = structs(metadata.get(2));
+    List<SchemaColumn> columns = new ArrayList<>();
+    for (Map<Integer, Object> element : schema.subList(1, schema.size())) {
+      columns.add(
+          new SchemaColumn(
+              string(element.get(4)),
+              (Integer) element.get(1),
+              (Integer) element.get(6),
+              (Integer) element.get(3)));
+    }
+    if (!Integer.valueOf(columns.size()).equals(schema.getFirst().get(5))) {
+      throw new IOException("The schema root does not have one child per column in " + file);
+    }
+
+    List<Object[]> rows = new ArrayList<>();
+    List<Map<Integer, Object>> rowGroups = structs(metadata.get(4));
+    for (Map<Integer, Object> rowGroup : rowGroups) {
+      int rowCount = Math.toIntExact((Long) rowGroup.get(3));
+      List<Map<Integer, Object>> chunks = structs(rowGroup.get(1));
+      if (chunks.size() != columns.size()) {
+        throw new IOException("A row group does not have one chunk per column in " + file);
+      }
+      Object[][] values = new Object[columns.size()][];
+      for (int i = 0; i < columns.size(); i++) {
+        values[i] = readChunk(bytes, asMap(chunks.get(i).get(3)), columns.get(i), rowCount);
+      }
+      for (int row = 0; row < rowCount; row++) {
+        Object[] values1 = new Object[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+          values1[i] = values[i][row];
+        }
+        rows.add(values1);
+      }
+    }
+    if (rows.size() != (Long) metadata.get(3)) {
+      throw new IOException(
+          "%s has %d rows in its row groups, %s in its metadata"
+              .formatted(file, rows.size(), metadata.get(3)));
+    }
+    return new Contents(columns, rows, rowGroups.size());
+  }
+
+  /** Reads the pages of a column chunk until it has a value, or a null, for every row. */
+  private static Object[] readChunk(
+      byte[] bytes, Map<Integer, Object> chunk, SchemaColumn column, int rowCount)
+      throws IOException {
+    if ((Long) chunk.get(5) != rowCount) {
+      throw new IOException("Chunk of " + column.name() + " does not have a value per row");
+    }
+    int codec = (Integer) chunk.get(4);
+    Object[] values = new Object[rowCount];
+    int read = 0;
+    int offset = Math.toIntExact((Long) chunk.get(9));
+    while (read < rowCount) {
+      CompactReader reader = new CompactReader(bytes, offset);
+      Map<Integer, Object> header = reader.readStruct();
+      int compressedSize = (Integer) header.get(3);
+      offset = reader.position + compressedSize;
+      if ((Integer) header.get(1) != PAGE_DATA) {
+        continue;
+      }
+      byte[] page =
+          decompress(
+              codec, Arrays.copyOfRange(bytes, reader.position, offset), (Integer) header.get(2));
+      Map<Integer, Object> dataHeader = asMap(header.get(5));
+      int pageValues = (Integer) dataHeader.get(1);
+      if ((Integer) dataHeader.get(2) != ENCODING_PLAIN
+          || (Integer) dataHeader.get(3) != ENCODING_RLE) {
+        throw new IOException("Unsupported encoding of " + column.name());
+      }
+      decodePage(page, column, values, read, pageValues);
+      read += pageValues;
+    }
+    return values;
+  }
+
+  private static void decodePage(
+      byte[] page, SchemaColumn column, Object[] values, int start, int count) throws IOException {
+    ByteBuffer in = littleEndian(page, 0);
+    int levelsLength = in.getInt();
+    boolean[] defined = definitionLevels(page, in.position(), levelsLength, count);
+    in.position(in.position() + levelsLength);
+
+    int bit = 0;
+    for (int i = 0; i < count; i++) {
+      if (!defined[i]) {
+        continue;
+      }
+      values[start + i] =
+          switch (column.physicalType()) {
+            case TYPE_BOOLEAN -> {
+              boolean value = (page[in.position() + bit / 8] >> (bit % 8) & 1) == 1;
+              bit++;
+              yield value;
+            }
+            case TYPE_INT32 -> in.getInt();
+            case TYPE_INT64 -> in.getLong();
+            case TYPE_BYTE_ARRAY -> {
+              byte[] value = new byte[in.getInt()];
+              in.get(value);
+              yield new String(value, StandardCharsets.UTF_8);
+            }
+            default ->
+                throw new IOException(
+                    "Unsupported type %d of %s".formatted(column.physicalType(), column.name()));
+          };
+    }
+  }
+
+  /**
+   * Decodes definition levels of bit width 1, the maximum level of an optional column, from runs
+   * of a repeated level or groups of 8 bit-packed levels.
+   */
+  private static boolean[] definitionLevels(byte[] page, int start, int length, int count)
+      throws IOException {
+    boolean[] defined = new boolean[count];
+    CompactReader in = new CompactReader(page, start);
+    int level = 0;
+    while (in.position < start + length && level < count) {
+      long header = in.readVarInt();
+      if ((header & 1) == 0) {
+        boolean value = page[in.position++] == 1;
+        for (long run = header >>> 1; run > 0 && level < count; run--) {
+          defined[level++] = value;
+        }
+      } else {
+        for (long group = header >>> 1; group > 0; group--) {
+          int packed = page[in.position++];
+          for (int i = 0; i < 8 && level < count; i++) {
+            defined[level++] = (packed >> i & 1) == 1;
+          }
+        }
+      }
+    }
+    if (level != count) {
+      throw new IOException("%d definition levels for %d values".formatted(level, count));
+    }
+    return defined;
+  }
+
+  private static byte[] decompress(int codec, byte[] data, int uncompressedSize)
+      throws IOException {
+    byte[] page =
+        switch (codec) {
+          case CODEC_UNCOMPRESSED -> data;
+          case CODEC_GZIP -> {
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+              yield in.readAllBytes();
+            }
+          }
+          default -> throw new IOException("Unsupported codec " + codec);
+        };
+    if (page.length != uncompressedSize) {
+      throw new IOException(
+          "Page of %d bytes, %d in its header".formatted(page.length, uncompressedSize));
+    }
+    return page;
+  }
+
+  private static ByteBuffer littleEndian(byte[] bytes, int offset) {
+    return ByteBuffer.wrap(bytes, offset, bytes.length - offset)
+        .slice()
+        .order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<Integer, Object> asMap(Object struct) {
+    return (Map<Integer, Object>) struct;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Map<Integer, Object>> structs(Object list) {
+    return (List<Map<Integer, Object>>) list;
+  }
+
+  private static String string(Object binary) {
+    return new String((byte[]) binary, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reader of the Thrift compact protocol. Structs are read into maps from field id to value, so
+   * fields unknown to the check are skipped like Thrift would.
+   */
+  private static final class CompactReader {
+    private static final int BOOLEAN_TRUE = 1;
+    private static final int BOOLEAN_FALSE = 2;
+    private static final int BYTE = 3;
+    private static final int I16 = 4;
+    private static final int I32 = 5;
+    private static final int I64 = 6;
+    private static final int DOUBLE = 7;
+    private static final int BINARY = 8;
+    private static final int LIST = 9;
+    private static final int SET = 10;
+    private static final int MAP = 11;
+    private static final int STRUCT = 12;
+
+    private final byte[] bytes;
+    private int position;
+
+    CompactReader(byte[] bytes, int position) {
+      this.bytes = bytes;
+      this.position = position;
+    }
+
+    Map<Integer, Object> readStruct() throws IOException {
+      Map<Integer, Object> fields = new HashMap<>();
+      int lastId = 0;
+      while (true) {
+        int header = bytes[position++] & 0xFF;
+        if (header == 0) {
+          return fields;
+        }
+        int type = header & 0x0F;
+        int delta = header >>> 4;
+        int id = delta == 0 ? (int) zigzag(readVarInt()) : lastId + delta;
+        lastId = id;
+        // booleans of fields are held in the type of their header
+        boolean isBoolean = type == BOOLEAN_TRUE || type == BOOLEAN_FALSE;
+        fields.put(id, isBoolean ? type == BOOLEAN_TRUE : read(type));
+      }
+    }
+
+    private Object read(int type) throws IOException {
+      return switch (type) {
+        case BOOLEAN_TRUE, BOOLEAN_FALSE -> bytes[position++] == BOOLEAN_TRUE;
+        case BYTE -> bytes[position++];
+        case I16, I32 -> (int) zigzag(readVarInt());
+        case I64 -> zigzag(readVarInt());
+        case DOUBLE -> {
+          double value = littleEndian(bytes, position).getDouble();
+          position += Double.BYTES;
+          yield value;
+        }
+        case BINARY -> {
+          int length = (int) readVarInt();
+          byte[] value = Arrays.copyOfRange(bytes, position, position + length);
+          position += length;
+          yield value;
+        }
+        case LIST, SET -> {
+          int header = bytes[position++] & 0xFF;
+          int size = header >>> 4 == 15 ? (int) readVarInt() : header >>> 4;
+          List<Object> elements = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            elements.add(read(header & 0x0F));
+          }
+          yield elements;
+        }
+        case STRUCT -> readStruct();
+        case MAP -> throw new IOException("Maps are not used by the Parquet metadata");
+        default -> throw new IOException("Unknown Thrift compact type " + type);
+      };
+    }
+
+    long readVarInt() {
+      long value = 0;
+      for (int shift = 0; ; shift += 7) {
+        int b = bytes[position++] & 0xFF;
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+    }
+
+    private static long zigzag(long value) {
+      return (value >>> 1) ^ -(value & 1);
+    }
+  }
+}
@@ -0,0 +1,260 @@
+package io.ludovicianul.scale;
+
+import com.google.gson.Gson;
+import io.ludovicianul.SolCommand;
+import io.ludovicianul.command.IndexSubcommand;
+import io.ludovicianul.model.IndexStats;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexes generated repositories of customer scale and fails when indexing does not complete, gives
+ * the wrong number of rows, or goes over its time budget. Each scenario is indexed by a JVM of its
+ * own with a fixed maximum heap, which stops at the first {@link OutOfMemoryError}, so memory
+ * regressions fail the check instead of slowing it down.
+ *
+ * <p>Repositories are generated once in the working directory and reused by later runs. Arguments
+ * are the names of the scenarios to run, all of them by default.
+ */
+public final class ScaleCheck {
+  /** Starts the line of the JSON summary printed by the indexing JVM. */
+  private static final String STATS = "{\"repositories\":";
+
+  /**
+   * A scenario to index.
+   *
+   * @param name the name, also the directory of its repositories
+   * @param repositories the repositories, indexed together
+   * @param maxHeapMb the maximum heap of the indexing JVM
+   * @param timeBudgetSeconds the longest indexing may take
+   * @param parallelism the number of repositories indexed at once
+   */
+  record Scenario(
+      String name,
+      List<SyntheticRepository> repositories,
+      int maxHeapMb,
+      int timeBudgetSeconds,
+      int parallelism) {}
+
+  private static final List<Scenario> SCENARIOS =
+      List.of(
+          new Scenario(
+              "smoke", List.of(SyntheticRepository.builder().commits(5_000).build()), 64, 60, 1),
+          new Scenario(
+              "long-history",
+              List.of(
+                  SyntheticRepository.builder().commits(200_000).files(3_000).authors(200).build()),
+              256,
+              300,
+              1),
+          new Scenario(
+              "many-files",
+              List.of(
+                  SyntheticRepository.builder()
+                      .seed(2)
+                      .commits(30_000)
+                      .files(60_000)
+                      .authors(50)
+                      .branches(5, 4, 3)
+                      .build()),
+              256,
+              180,
+              1),
+          new Scenario(
+              "many-repositories",
+              repositories(8, SyntheticRepository.builder().commits(15_000).files(1_500)),
+              256,
+              240,
+              4));
+
+  private ScaleCheck() {}
+
+  private static List<SyntheticRepository> repositories(
+      int count, SyntheticRepository.Builder builder) {
+    List<SyntheticRepository> repositories = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      repositories.add(builder.seed(100 + i).build());
+    }
+    return repositories;
+  }
+
+  public static void main(String[] args) throws Exception {
+    List<String> names = Arrays.asList(args);
+    List<String> failures = new ArrayList<>();
+    for (Scenario scenario : SCENARIOS) {
+      if (names.isEmpty() || names.contains(scenario.name())) {
+        failures.addAll(run(scenario));
+      }
+    }
+    CheckOutcome.exit("scale", failures);
+  }
+
+  private static List<String> run(Scenario scenario) throws Exception {
+    Path workspace = Path.of(scenario.name()).toAbsolutePath();
+    SyntheticRepository.Manifest expected = generate(scenario, workspace);
+    Path index = workspace.resolve(".sol");
+    if (Files.exists(index.resolve("commits.db"))) {
+      Files.delete(index.resolve("commits.db"));
+    }
+
+    long start = System.nanoTime();
+    Process process =
+        new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx" + scenario.maxHeapMb() + "m",
+                "-XX:+ExitOnOutOfMemoryError",
+                "-cp",
+                System.getProperty("java.class.path"),
+                Indexer.class.getName(),
+                String.valueOf(scenario.timeBudgetSeconds()),
+                String.valueOf(scenario.parallelism()))
+            .directory(workspace.toFile())
+            .redirectErrorStream(true)
+            .start();
+    List<String> output = new ArrayList<>();
+    Thread reader =
+        Thread.ofPlatform().start(() -> process.inputReader().lines().forEach(output::add));
+    // twice the budget before giving up, so a slow run still reports how slow it was
+    boolean completed = process.waitFor(scenario.timeBudgetSeconds() * 2L, TimeUnit.SECONDS);
+    if (!completed) {
+      process.destroyForcibly();
+    }
+    reader.join();
+    long seconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start);
+
+    List<String> failures = new ArrayList<>();
+    if (!completed || process.exitValue() != 0) {
+      output.stream().skip(Math.max(0, output.size() - 20)).forEach(System.err::println);
+      failures.add(
+          "%s: indexing %s".formatted(
+              scenario.name(),
+              completed ? "exited with " + process.exitValue() : "did not complete"));
+      return failures;
+    }
+    if (seconds > scenario.timeBudgetSeconds()) {
+      failures.add(
+          "%s: indexing took %d s, over the budget of %d s"
+              .formatted(scenario.name(), seconds, scenario.timeBudgetSeconds()));
+    }
+    Map<String, Long> rows = countRows(index.resolve("commits.db"));
+    Map<String, Long> expectedRows = new LinkedHashMap<>();
+    expectedRows.put("commits", expected.commits());
+    expectedRows.put("file_changes", expected.fileChanges());
+    expectedRows.put("commit_parents", expected.parents());
+    expectedRows.put("branches", (long) expected.branches());
+    expectedRows.put("tags", (long) expected.tags());
+    expectedRows.forEach(
+        (table, count) -> {
+          if (!count.equals(rows.get(table))) {
+            failures.add(
+                "%s: %d rows in %s, expected %d"
+                    .formatted(scenario.name(), rows.get(table), table, count));
+          }
+        });
+
+    long peakHeap =
+        output.stream()
+            .filter(line -> line.startsWith(STATS))
+            .mapToLong(line -> new Gson().fromJson(line, IndexStats.class).peakHeapBytes())
+            .findFirst()
+            .orElse(-1);
+    System.out.printf(
+        "{\"scenario\":\"%s\",\"seconds\":%d,\"timeBudgetSeconds\":%d,\"maxHeapMb\":%d,"
+            + "\"peakHeapMb\":%d,\"rows\":%s}%n",
+        scenario.name(),
+        seconds,
+        scenario.timeBudgetSeconds(),
+        scenario.maxHeapMb(),
+        peakHeap / (1024 * 1024),
+        toJson(rows));
+    return failures;
+  }
+
+  /** Generates the repositories of the scenario, unless a previous run did. */
+  private static SyntheticRepository.Manifest generate(Scenario scenario, Path workspace)
+      throws IOException, InterruptedException {
+    Files.createDirectories(workspace);
+    SyntheticRepository.Manifest total = new SyntheticRepository.Manifest(0, 0, 0, 0, 0);
+    for (int i = 0; i < scenario.repositories().size(); i++) {
+      Path repository = workspace.resolve("repo-" + i);
+      Path manifestFile = workspace.resolve("repo-" + i + ".manifest");
+      SyntheticRepository.Manifest manifest;
+      if (Files.exists(manifestFile)) {
+        long[] values =
+            Arrays.stream(Files.readString(manifestFile).trim().split(","))
+                .mapToLong(Long::parseLong)
+                .toArray();
+        manifest =
+            new SyntheticRepository.Manifest(
+                values[0], values[1], values[2], (int) values[3], (int) values[4]);
+      } else {
+        if (Files.exists(repository)) {
+          throw new IOException(repository + " is left from an interrupted run, delete it");
+        }
+        long start = System.nanoTime();
+        manifest = scenario.repositories().get(i).generate(repository);
+        System.out.printf(
+            "Generated %s with %d commits in %d ms%n",
+            repository,
+            manifest.commits(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        Files.writeString(
+            manifestFile,
+            "%d,%d,%d,%d,%d"
+                .formatted(
+                    manifest.commits(),
+                    manifest.fileChanges(),
+                    manifest.parents(),
+                    manifest.branches(),
+                    manifest.tags()));
+      }
+      total = total.plus(manifest);
+    }
+    return total;
+  }
+
+  private static Map<String, Long> countRows(Path database) throws SQLException {
+    Map<String, Long> rows = new LinkedHashMap<>();
+    try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + database);
+        Statement stmt = conn.createStatement()) {
+      for (String table : List.of("commits", "file_changes", "commit_parents", "branches", "tags")) {
+        try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+          rows.put(table, rs.next() ? rs.getLong(1) : 0);
+        }
+      }
+    }
+    return rows;
+  }
+
+  private static String toJson(Map<String, Long> rows) {
+    List<String> fields = new ArrayList<>();
+    rows.forEach((table, count) -> fields.add("\"%s\":%d".formatted(table, count)));
+    return "{" + String.join(",", fields) + "}";
+  }
+
+  /** Indexes the repositories of the working directory, then prints the summary of the run. */
+  public static final class Indexer {
+    public static void main(String[] args) {
+      new IndexSubcommand(
+              Integer.parseInt(args[0]),
+              false,
+              Integer.parseInt(args[1]),
+              SolCommand.StatsFormat.JSON)
+          .run();
+      // git commands leave idle pool threads behind, which would keep the JVM up for a minute
+      System.exit(0);
+    }
+  }
+}
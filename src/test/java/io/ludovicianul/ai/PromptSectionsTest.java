@@ -0,0 +1,151 @@
+package io.ludovicianul.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Prunes the SQL generation instructions for a fixed set of questions, each with a query answering
+ * it. The model can only write that query when every table and column it uses is still described.
+ */
+class PromptSectionsTest {
+  private static final Pattern COLUMN =
+      Pattern.compile("^\\s*- (\\w+) (?:TEXT|INTEGER)", Pattern.MULTILINE);
+  private static final Pattern TABLE = Pattern.compile("Table: \\*\\*(\\w+)\\*\\*");
+  private static final Pattern WORD = Pattern.compile("\\w+");
+
+  private static final PromptSections SECTIONS =
+      PromptSections.parse(SqlGeneratorAi.GENERATE_SQL_PROMPT);
+  private static final SolTokenizer TOKENIZER = SolTokenizer.createTokenizer("gpt-4o-mini");
+
+  static Stream<Arguments> questions() {
+    return Stream.of(
+        Arguments.of(
+            "Who committed most last month?",
+            "SELECT author, SUM(commits) FROM activity_rollup WHERE period_type = 'month'"
+                + " AND period_start = date('now', 'start of month', '-1 month')"
+                + " GROUP BY author ORDER BY 2 DESC LIMIT 20"),
+        Arguments.of(
+            "What is the average time between commits?",
+            "SELECT AVG(julianday(date) - julianday(prev_date)) FROM (SELECT date,"
+                + " LAG(date) OVER (ORDER BY date) AS prev_date FROM commits)"),
+        Arguments.of(
+            "Which files changed the most?",
+            "SELECT file_path, COUNT(*) FROM file_changes GROUP BY file_path ORDER BY 2 DESC"
+                + " LIMIT 20"),
+        Arguments.of(
+            "How many branches were merged in 2024?",
+            "SELECT COUNT(*) FROM branches WHERE merge_date LIKE '2024%'"),
+        Arguments.of(
+            "What is the code churn per release?",
+            "SELECT t.tag_name, SUM(c.total_additions + c.total_deletions) FROM tags t JOIN"
+                + " commits c ON c.commit_hash = t.tag_commit GROUP BY t.tag_name"),
+        Arguments.of(
+            "Calculate the bus factor for all developers",
+            "SELECT file_path, COUNT(DISTINCT author) FROM file_changes GROUP BY file_path"),
+        Arguments.of(
+            "How many commits are merge commits?",
+            "SELECT SUM(is_merge), COUNT(*) FROM commits"),
+        Arguments.of(
+            "Which authors work on weekends?",
+            "SELECT author, COUNT(*) FROM commits WHERE strftime('%w', date) IN ('0', '6')"
+                + " GROUP BY author"),
+        Arguments.of(
+            "What is the weekly commit trend this year?",
+            "SELECT period_start, SUM(commits) FROM activity_rollup WHERE period_type = 'week'"
+                + " AND period_start >= date('now', 'start of year') GROUP BY period_start"),
+        Arguments.of(
+            "Which test files changed most?",
+            "SELECT file_path, COUNT(*) FROM file_changes WHERE is_test_file = 1"
+                + " GROUP BY file_path ORDER BY 2 DESC LIMIT 20"),
+        Arguments.of(
+            "Does this project use GitHub Actions?",
+            "SELECT COUNT(*) FROM file_changes WHERE LOWER(file_path) LIKE '.github/workflows/%'"),
+        Arguments.of(
+            "What is the most used programming language?",
+            "SELECT SUBSTR(file_path, INSTR(file_path, '.')), COUNT(DISTINCT file_path)"
+                + " FROM file_changes GROUP BY 1 ORDER BY 2 DESC"),
+        Arguments.of(
+            "How many bug fixes were made each month?",
+            "SELECT strftime('%Y-%m', date), COUNT(*) FROM commits"
+                + " WHERE LOWER(message) LIKE '%fix%' GROUP BY 1"),
+        Arguments.of(
+            "Who are the experts on the parser module?",
+            "SELECT author, COUNT(*) FROM file_changes WHERE LOWER(file_path) LIKE '%parser%'"
+                + " GROUP BY author ORDER BY 2 DESC"),
+        Arguments.of(
+            "How long do branches live before being merged?",
+            "SELECT branch_name, julianday(merge_date) - julianday(creation_date) FROM branches"
+                + " WHERE merge_date IS NOT NULL"),
+        Arguments.of(
+            "How many commits have more than one parent?",
+            "SELECT COUNT(*) FROM (SELECT commit_hash FROM commit_parents GROUP BY commit_hash"
+                + " HAVING COUNT(parent_hash) > 1)"),
+        Arguments.of(
+            "What is the time between releases?",
+            "SELECT t.tag_name, c.date FROM tags t JOIN commits c ON c.commit_hash ="
+                + " t.tag_commit ORDER BY c.date"),
+        Arguments.of(
+            "Which developers took the longest to ramp up?",
+            "SELECT author, MIN(date), COUNT(*) FROM commits GROUP BY author"),
+        Arguments.of(
+            "What share of the changed lines is documentation?",
+            "SELECT SUM(CASE WHEN is_documentation_file = 1 THEN additions + deletions END),"
+                + " SUM(additions + deletions) FROM file_changes"),
+        Arguments.of(
+            "In which timezones do people commit?",
+            "SELECT timezone, COUNT(*) FROM commits GROUP BY timezone"),
+        Arguments.of(
+            "Which files change together most often?",
+            "SELECT a.file_path, b.file_path, COUNT(*) FROM file_changes a JOIN file_changes b"
+                + " ON a.commit_hash = b.commit_hash AND a.file_path < b.file_path GROUP BY 1, 2"),
+        Arguments.of(
+            "How many lines of build files changed per month?",
+            "SELECT period_start, SUM(total_additions_build + total_deletions_build)"
+                + " FROM activity_rollup WHERE period_type = 'month' GROUP BY period_start"));
+  }
+
+  @ParameterizedTest
+  @MethodSource("questions")
+  void keepsTablesAndColumnsOfTheQuery(String question, String sql) {
+    Set<String> schema = new LinkedHashSet<>();
+    String full = SECTIONS.full();
+    COLUMN.matcher(full).results().forEach(column -> schema.add(column.group(1)));
+    TABLE.matcher(full).results().forEach(table -> schema.add(table.group(1)));
+    Set<String> sent = words(SECTIONS.select(question));
+
+    List<String> missing =
+        words(sql).stream().filter(schema::contains).filter(name -> !sent.contains(name)).toList();
+
+    assertEquals(List.of(), missing, () -> "sections " + SECTIONS.selectedNames(question));
+  }
+
+  @Test
+  void sendsFewerTokensThanTheWholeInstructions() {
+    List<String> questions = questions().map(arguments -> (String) arguments.get()[0]).toList();
+    long sent = questions.stream().mapToLong(q -> TOKENIZER.countTokens(SECTIONS.select(q))).sum();
+    long full = (long) TOKENIZER.countTokens(SECTIONS.full()) * questions.size();
+
+    assertTrue(sent < full, "%d tokens sent, %d with the whole instructions".formatted(sent, full));
+  }
+
+  private static Set<String> words(String text) {
+    Set<String> words = new LinkedHashSet<>();
+    Matcher word = WORD.matcher(text.toLowerCase(Locale.ROOT));
+    while (word.find()) {
+      words.add(word.group());
+    }
+    return words;
+  }
+}
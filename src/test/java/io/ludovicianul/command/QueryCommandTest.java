@@ -0,0 +1,68 @@
+package io.ludovicianul.command;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.ludovicianul.command.QueryCommand.Engine;
+import io.ludovicianul.command.QueryCommand.ReportType;
+import io.ludovicianul.io.ResultWriter;
+import io.ludovicianul.scale.SyntheticIndex;
+import io.ludovicianul.scale.SyntheticRepository;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Runs every predefined report with both engines on two generated repositories, over the whole
+ * history and over date ranges bounded on one or both sides, including one without any commit.
+ */
+class QueryCommandTest {
+  /** The generated history starts on 2018-01-01 and spans about a year. */
+  private static final List<String[]> RANGES =
+      List.of(
+          new String[] {null, null},
+          new String[] {"2018-02-28", "2018-09-30"},
+          new String[] {"2019-01-01", null},
+          new String[] {null, "2018-06-30"},
+          new String[] {"2030-01-01", null});
+
+  @BeforeAll
+  static void indexRepositories() throws IOException, InterruptedException {
+    SyntheticIndex.create(
+        List.of(
+            SyntheticRepository.builder().seed(1).commits(3_000).build(),
+            SyntheticRepository.builder().seed(2).commits(2_000).authors(4).build()));
+  }
+
+  static Stream<Arguments> reports() {
+    return Arrays.stream(ReportType.values())
+        .flatMap(report -> RANGES.stream().map(range -> Arguments.of(report, range[0], range[1])));
+  }
+
+  @ParameterizedTest
+  @MethodSource("reports")
+  void columnarEngineGivesTheRowsOfSqlite(ReportType report, String from, String to)
+      throws SQLException, IOException {
+    List<String> sqlite = report(report, from, to, Engine.SQLITE);
+
+    assertEquals(sqlite, report(report, from, to, Engine.COLUMNAR));
+    if (from == null && to == null) {
+      assertTrue(sqlite.size() >= 2, "no rows over the whole history");
+    }
+  }
+
+  /** Returns the lines of the report as CSV, the header first. */
+  private static List<String> report(ReportType report, String from, String to, Engine engine)
+      throws SQLException, IOException {
+    StringWriter out = new StringWriter();
+    QueryCommand.writeReport(report, from, to, engine, ResultWriter.Format.CSV, out);
+    return out.toString().lines().toList();
+  }
+}
@@ -0,0 +1,58 @@
+package io.ludovicianul.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class IndexAdvisorTest {
+
+  @BeforeEach
+  void createEmptyIndex() throws IOException {
+    SolDb.initializeDatabase(false);
+    SolDb.createIndexes();
+    Files.deleteIfExists(Path.of(".sol", "query-log.ndjson"));
+    Files.deleteIfExists(Path.of(".sol", "query-log.ndjson.1"));
+  }
+
+  @Test
+  void doesNotDropIndexesWhenOneQueryRanManyTimes() throws SQLException {
+    for (int run = 0; run < 2 * IndexAdvisor.MIN_QUERIES_TO_DROP; run++) {
+      record("SELECT author, COUNT(*) FROM commits GROUP BY author");
+    }
+
+    IndexAdvisor.Advice advice = new IndexAdvisor().advise();
+
+    assertEquals(1, advice.distinctQueries());
+    assertEquals(List.of(), advice.indexesToDrop());
+  }
+
+  @Test
+  void keepsIndexesUsedByIndexing() throws SQLException {
+    for (int query = 0; query < IndexAdvisor.MIN_QUERIES_TO_DROP; query++) {
+      record("SELECT tag_name FROM tags WHERE tag_message = 'release %d'".formatted(query));
+    }
+
+    List<String> indexesToDrop = new IndexAdvisor().advise().indexesToDrop();
+
+    assertTrue(indexesToDrop.contains("idx_is_test_file"), indexesToDrop::toString);
+    assertFalse(indexesToDrop.contains("idx_commits_date_repo"), indexesToDrop::toString);
+    assertFalse(indexesToDrop.contains("idx_is_documentation_file"), indexesToDrop::toString);
+    assertFalse(indexesToDrop.contains("idx_file_changes_commit_file"), indexesToDrop::toString);
+  }
+
+  private static void record(String query) throws SQLException {
+    try (Connection conn = DriverManager.getConnection(SolDb.DB_URL)) {
+      QueryLog.record(conn, query, List.of(), 1);
+    }
+  }
+}
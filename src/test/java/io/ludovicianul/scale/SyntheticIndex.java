@@ -0,0 +1,54 @@
+package io.ludovicianul.scale;
+
+import io.ludovicianul.command.IndexSubcommand;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Generates repositories in the working directory and indexes them there, for the tests and checks
+ * reading back what sol wrote. Repositories and the index are created again on every run, so they
+ * always read an index written by the current code.
+ */
+public final class SyntheticIndex {
+  private static final int TIMEOUT_SECONDS = 600;
+
+  private SyntheticIndex() {}
+
+  /**
+   * Generates the repositories, as {@code repo-0}, {@code repo-1}... of the working directory, and
+   * indexes all of them into {@code .sol/commits.db}.
+   *
+   * @param repositories the repositories to generate
+   * @return the numbers of rows the index should have
+   * @throws IOException if git fails or the directories cannot be replaced
+   * @throws InterruptedException if interrupted while waiting for git
+   */
+  public static SyntheticRepository.Manifest create(List<SyntheticRepository> repositories)
+      throws IOException, InterruptedException {
+    Path workspace = Path.of("").toAbsolutePath();
+    delete(workspace.resolve(".sol"));
+    SyntheticRepository.Manifest total = new SyntheticRepository.Manifest(0, 0, 0, 0, 0);
+    for (int i = 0; i < repositories.size(); i++) {
+      Path repository = workspace.resolve("repo-" + i);
+      delete(repository);
+      total = total.plus(repositories.get(i).generate(repository));
+    }
+    new IndexSubcommand(TIMEOUT_SECONDS, false, repositories.size()).run();
+    return total;
+  }
+
+  private static void delete(Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(path)) {
+      for (Path file : paths.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+}
@@ -0,0 +1,451 @@
+package io.ludovicianul.scale;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates git repositories with a large history, for reproducing indexing issues without the
+ * repositories they were seen on. The same settings always give the same repository, down to the
+ * commit hashes.
+ *
+ * <p>Commits are streamed to {@code git fast-import}, so generating a repository takes seconds
+ * even for hundreds of thousands of commits, and only needs plain {@code git}. The history is a
+ * main branch with feature branches forking from it, most of them merged back, tags on the main
+ * branch, and files of the configured types being added, modified, renamed and deleted. Only the
+ * git database is written; files are not checked out.
+ */
+public final class SyntheticRepository {
+  private static final long START_EPOCH_SECOND = 1_514_764_800L; // 2018-01-01T00:00:00Z
+  private static final String[] TIMEZONES = {"+0000", "+0100", "+0200", "-0500", "+0530"};
+  private static final int MAX_CHANGES_PER_COMMIT = 8;
+
+  /** Types of files, which sol classifies differently. */
+  public enum FileType {
+    SOURCE,
+    TEST,
+    BUILD,
+    DOCUMENTATION,
+    DOT
+  }
+
+  /**
+   * Numbers of rows indexing the repository should give. Branches are the feature branches, as the
+   * main branch is not recorded.
+   */
+  public record Manifest(long commits, long fileChanges, long parents, int branches, int tags) {
+
+    /** Adds up the rows of two repositories indexed together. */
+    public Manifest plus(Manifest other) {
+      return new Manifest(
+          commits + other.commits,
+          fileChanges + other.fileChanges,
+          parents + other.parents,
+          branches + other.branches,
+          tags + other.tags);
+    }
+  }
+
+  private final long seed;
+  private final int commits;
+  private final int authors;
+  private final int files;
+  private final int branchEvery;
+  private final int branchCommits;
+  private final int unmergedEvery;
+  private final int tagEvery;
+  private final Map<FileType, Integer> fileTypeWeights;
+
+  private SyntheticRepository(Builder builder) {
+    this.seed = builder.seed;
+    this.commits = builder.commits;
+    this.authors = builder.authors;
+    this.files = builder.files;
+    this.branchEvery = builder.branchEvery;
+    this.branchCommits = builder.branchCommits;
+    this.unmergedEvery = builder.unmergedEvery;
+    this.tagEvery = builder.tagEvery;
+    this.fileTypeWeights = new EnumMap<>(builder.fileTypeWeights);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Creates the repository.
+   *
+   * @param directory the directory of the repository, which must not exist yet
+   * @return the numbers of rows indexing the repository should give
+   * @throws IOException if git fails
+   * @throws InterruptedException if interrupted while waiting for git
+   */
+  public Manifest generate(Path directory) throws IOException, InterruptedException {
+    if (Files.exists(directory)) {
+      throw new IOException(directory + " already exists");
+    }
+    directory = directory.toAbsolutePath();
+    git(directory.getParent(), "init", "-q", "-b", "main", directory.toString());
+
+    Process fastImport =
+        new ProcessBuilder("git", "fast-import", "--quiet", "--done")
+            .directory(directory.toFile())
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+    Manifest manifest;
+    try (Writer out =
+        new BufferedWriter(
+            new OutputStreamWriter(fastImport.getOutputStream(), StandardCharsets.UTF_8),
+            1 << 16)) {
+      manifest = new History(out).write();
+      out.write("done\n");
+    }
+    if (fastImport.waitFor() != 0) {
+      throw new IOException("git fast-import failed in " + directory);
+    }
+    return manifest;
+  }
+
+  private static void git(Path directory, String... arguments)
+      throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>(List.of("git"));
+    command.addAll(List.of(arguments));
+    Process process =
+        new ProcessBuilder(command)
+            .directory(directory.toFile())
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+    if (process.waitFor() != 0) {
+      throw new IOException("git " + String.join(" ", arguments) + " failed");
+    }
+  }
+
+  /** Writes the history as a {@code git fast-import} stream, keeping track of what it wrote. */
+  private final class History {
+    private final Writer out;
+    private final Random random = new Random(seed);
+    private final List<String> livePaths = new ArrayList<>();
+    private final Map<String, Integer> versions = new HashMap<>();
+    private final Map<FileType, Integer> created = new EnumMap<>(FileType.class);
+    private final int totalWeight;
+
+    private long time = START_EPOCH_SECOND;
+    private int mark;
+    private int mainTip;
+    private int mainCommits;
+    private long written;
+    private long fileChanges;
+    private long parents;
+    private int branches;
+    private int tags;
+
+    History(Writer out) {
+      this.out = out;
+      this.totalWeight = fileTypeWeights.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    Manifest write() throws IOException {
+      Map<String, String> changes = new LinkedHashMap<>();
+      int initialFiles = Math.max(1, files / 10);
+      for (int i = 0; i < initialFiles; i++) {
+        String path = newPath();
+        changes.put(path, "M " + path);
+      }
+      mainTip = commit("refs/heads/main", 0, 0, changes, "Initial import");
+      mainCommits++;
+
+      while (written < commits) {
+        long remaining = commits - written;
+        if (branchEvery > 0 && mainCommits % branchEvery == 0 && remaining >= branchCommits + 2) {
+          writeBranch();
+        }
+        mainTip = commit("refs/heads/main", mainTip, 0, mainChanges(), message());
+        mainCommits++;
+        if (tagEvery > 0 && mainCommits % tagEvery == 0) {
+          tag(mainTip);
+        }
+      }
+      return new Manifest(written, fileChanges, parents, branches, tags);
+    }
+
+    /** A feature branch only modifies files, so leaving it unmerged leaves main consistent. */
+    private void writeBranch() throws IOException {
+      int branch = ++branches;
+      String ref = "refs/heads/feature/" + branch;
+      Map<String, String> branchChanges = new LinkedHashMap<>();
+      int tip = mainTip;
+      for (int i = 0; i < branchCommits; i++) {
+        Map<String, String> changes = new LinkedHashMap<>();
+        int count = changeCount();
+        for (int c = 0; c < count; c++) {
+          String path = pickPath();
+          if (!changes.containsKey(path)) {
+            versions.merge(path, 1, Integer::sum);
+            changes.put(path, "M " + path);
+          }
+        }
+        branchChanges.putAll(changes);
+        tip = commit(ref, tip, 0, changes, message());
+      }
+      if (unmergedEvery > 0 && branch % unmergedEvery == 0) {
+        return;
+      }
+      // the merge brings the files of the branch tip to main, git log shows no changes for it
+      String message = "Merge branch 'feature/" + branch + "'";
+      mainTip = commit("refs/heads/main", mainTip, tip, branchChanges, message);
+      fileChanges -= branchChanges.size();
+      mainCommits++;
+    }
+
+    private Map<String, String> mainChanges() {
+      Map<String, String> changes = new LinkedHashMap<>();
+      Set<String> touched = new HashSet<>();
+      int count = changeCount();
+      for (int c = 0; c < count; c++) {
+        int kind = random.nextInt(100);
+        if (livePaths.size() < files && kind < 25) {
+          String path = newPath();
+          touched.add(path);
+          changes.put(path, "M " + path);
+          continue;
+        }
+        String path = pickPath();
+        if (!touched.add(path)) {
+          continue;
+        }
+        if (kind >= 96 && livePaths.size() > 1) {
+          livePaths.remove(path);
+          versions.remove(path);
+          changes.put(path, "D " + path);
+        } else if (kind >= 92) {
+          String renamed = renamedPath(path);
+          livePaths.set(livePaths.indexOf(path), renamed);
+          versions.put(renamed, versions.remove(path));
+          touched.add(renamed);
+          changes.put(path, "R " + path + " " + renamed);
+        } else {
+          versions.merge(path, 1, Integer::sum);
+          changes.put(path, "M " + path);
+        }
+      }
+      return changes;
+    }
+
+    /**
+     * Writes a commit. Changes are {@code M <path>}, written with the current content of the
+     * file, {@code D <path>} or {@code R <from> <to>}.
+     */
+    private int commit(String ref, int from, int merge, Map<String, String> changes, String message)
+        throws IOException {
+      int author = (int) (authors * Math.pow(random.nextDouble(), 2));
+      time += 300 + random.nextInt(6 * 3600);
+      String timezone = TIMEZONES[author % TIMEZONES.length];
+      String identity =
+          "Author %d <author%d@example.com> %d %s".formatted(author, author, time, timezone);
+
+      mark++;
+      out.write("commit " + ref + "\nmark :" + mark + "\n");
+      out.write("author " + identity + "\ncommitter " + identity + "\n");
+      data(message);
+      if (from > 0) {
+        out.write("from :" + from + "\n");
+        parents++;
+      }
+      if (merge > 0) {
+        out.write("merge :" + merge + "\n");
+        parents++;
+      }
+      for (String change : changes.values()) {
+        if (change.startsWith("M ")) {
+          String path = change.substring(2);
+          out.write("M 100644 inline " + path + "\n");
+          data(content(path, versions.getOrDefault(path, 0)));
+        } else {
+          out.write(change + "\n");
+        }
+      }
+      out.write("\n");
+      written++;
+      fileChanges += changes.size();
+      return mark;
+    }
+
+    private void tag(int commit) throws IOException {
+      tags++;
+      time += 60;
+      out.write("tag v1." + tags + "\nfrom :" + commit + "\n");
+      out.write("tagger Release <release@example.com> " + time + " +0000\n");
+      data("Release 1." + tags);
+    }
+
+    private void data(String data) throws IOException {
+      out.write("data " + data.getBytes(StandardCharsets.UTF_8).length + "\n" + data + "\n");
+    }
+
+    private int changeCount() {
+      return 1 + (int) (MAX_CHANGES_PER_COMMIT * Math.pow(random.nextDouble(), 3));
+    }
+
+    /** Picks a file, some files changing much more often than others. */
+    private String pickPath() {
+      return livePaths.get((int) (livePaths.size() * Math.pow(random.nextDouble(), 2)));
+    }
+
+    private String message() {
+      String message = "Change " + (written + 1);
+      return random.nextInt(4) == 0 ? message + "\n\nCloses #" + random.nextInt(10_000) : message;
+    }
+
+    private String newPath() {
+      int pick = random.nextInt(totalWeight);
+      FileType type = FileType.SOURCE;
+      for (Map.Entry<FileType, Integer> weight : fileTypeWeights.entrySet()) {
+        pick -= weight.getValue();
+        if (pick < 0) {
+          type = weight.getKey();
+          break;
+        }
+      }
+      int n = created.merge(type, 1, Integer::sum);
+      String module = "module" + (n % 16);
+      String path =
+          switch (type) {
+            case SOURCE ->
+                "%s/src/main/java/com/example/p%d/Type%d.java".formatted(module, n % 64, n);
+            case TEST ->
+                "%s/src/test/java/com/example/p%d/Type%dTest.java".formatted(module, n % 64, n);
+            case BUILD ->
+                switch (n % 4) {
+                  case 0 -> "%s/pom.xml".formatted("build" + n);
+                  case 1 -> "%s/package.json".formatted("build" + n);
+                  case 2 -> "%s/Dockerfile".formatted("build" + n);
+                  default -> "%s/build.gradle".formatted("build" + n);
+                };
+            case DOCUMENTATION -> "docs/section%d/page%d.md".formatted(n % 32, n);
+            case DOT -> ".config/tool%d/settings%d.yml".formatted(n % 8, n);
+          };
+      livePaths.add(path);
+      versions.put(path, 0);
+      return path;
+    }
+
+    private static String renamedPath(String path) {
+      int dot = path.lastIndexOf('.');
+      int slash = path.lastIndexOf('/');
+      return dot > slash + 1
+          ? path.substring(0, dot) + "Moved" + path.substring(dot)
+          : path + "Moved";
+    }
+
+    /**
+     * Content of a version of a file. Every line is specific to the file, so git never takes one
+     * file for a rename of another, and each version changes about a quarter of the lines.
+     */
+    private static String content(String path, int version) {
+      int id = path.hashCode() & 0x7fffffff;
+      int lines = 8 + id % 40;
+      StringBuilder content = new StringBuilder(lines * 24);
+      for (int line = 0; line < lines; line++) {
+        content.append(Integer.toHexString(id)).append(' ').append(line);
+        if ((line + version) % 4 == 0) {
+          content.append(" v").append(version);
+        }
+        content.append('\n');
+      }
+      return content.toString();
+    }
+  }
+
+  /** Settings of a repository, all optional. */
+  public static final class Builder {
+    private long seed = 1;
+    private int commits = 1_000;
+    private int authors = 10;
+    private int files = 500;
+    private int branchEvery = 10;
+    private int branchCommits = 3;
+    private int unmergedEvery = 5;
+    private int tagEvery = 100;
+    private final Map<FileType, Integer> fileTypeWeights = new EnumMap<>(FileType.class);
+
+    private Builder() {
+      fileTypeWeights.put(FileType.SOURCE, 60);
+      fileTypeWeights.put(FileType.TEST, 25);
+      fileTypeWeights.put(FileType.BUILD, 5);
+      fileTypeWeights.put(FileType.DOCUMENTATION, 7);
+      fileTypeWeights.put(FileType.DOT, 3);
+    }
+
+    /** Seed of the random choices. Repositories with different seeds have different hashes. */
+    public Builder seed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    /** Number of commits, merges included. */
+    public Builder commits(int commits) {
+      this.commits = commits;
+      return this;
+    }
+
+    public Builder authors(int authors) {
+      this.authors = Math.max(1, authors);
+      return this;
+    }
+
+    /** Number of files the repository grows to. */
+    public Builder files(int files) {
+      this.files = Math.max(1, files);
+      return this;
+    }
+
+    /**
+     * Starts a feature branch every given number of commits on main, 0 for a linear history.
+     *
+     * @param branchEvery commits on main between branches
+     * @param branchCommits commits on each branch
+     * @param unmergedEvery every how many branches one is left unmerged, 0 to merge all of them
+     * @return the builder
+     */
+    public Builder branches(int branchEvery, int branchCommits, int unmergedEvery) {
+      this.branchEvery = branchEvery;
+      this.branchCommits = Math.max(1, branchCommits);
+      this.unmergedEvery = unmergedEvery;
+      return this;
+    }
+
+    /** Tags a commit of main every given number of commits on main, 0 for no tags. */
+    public Builder tagEvery(int tagEvery) {
+      this.tagEvery = tagEvery;
+      return this;
+    }
+
+    /** Relative share of new files of the given type. */
+    public Builder fileTypeWeight(FileType type, int weight) {
+      fileTypeWeights.put(type, Math.max(0, weight));
+      return this;
+    }
+
+    public SyntheticRepository build() {
+      if (fileTypeWeights.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+        throw new IllegalArgumentException("At least one file type needs a weight");
+      }
+      return new SyntheticRepository(this);
+    }
+  }
+}
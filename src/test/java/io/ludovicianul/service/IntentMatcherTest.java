@@ -0,0 +1,98 @@
+package io.ludovicianul.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.ludovicianul.command.QueryCommand.ReportType;
+import io.ludovicianul.model.ReportIntent;
+import java.time.LocalDate;
+import java.util.Optional;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class IntentMatcherTest {
+  /** A Wednesday. */
+  private static final LocalDate TODAY = LocalDate.of(2024, 5, 15);
+
+  private final IntentMatcher matcher = new IntentMatcher(TODAY);
+
+  @ParameterizedTest
+  @CsvSource(
+      delimiter = '|',
+      value = {
+        "How many lines were added per author?|CHURN",
+        "Show the code churn of each developer|CHURN",
+        "How many deletions does each contributor have|CHURN",
+        "How many releases were made?|RELEASES",
+        "Number of tags created|RELEASES",
+        "How long between merges on average?|MERGE_TIME",
+        "How often do merges happen|MERGE_TIME",
+        "How many commits per day?|COMMIT_VELOCITY",
+        "What's the daily commit velocity|COMMIT_VELOCITY",
+        "What percentage of changes touched test files?|TEST_CHANGES",
+        "How much of the changed code is tests|TEST_CHANGES"
+      })
+  void matchesReport(String question, ReportType report) {
+    assertEquals(Optional.of(new ReportIntent(report, null, null)), matcher.match(question));
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "How many tests do we have?",
+        "Is there test code?",
+        "How many commits were added last month?",
+        "How many commits were deleted?",
+        "Who fixed the most bugs?",
+        "Top 5 authors by churn",
+        "Churn between 2023 and 2024, and since 2020",
+        "Which files have the most churn?"
+      })
+  void leavesOtherQuestionsToTheAi(String question) {
+    assertEquals(Optional.empty(), matcher.match(question));
+  }
+
+  @ParameterizedTest
+  @CsvSource(
+      delimiter = '|',
+      value = {
+        "churn in the last 7 days|2024-05-09|2024-05-15",
+        "churn over the past 2 weeks|2024-05-02|2024-05-15",
+        "churn in the last 3 months|2024-02-16|2024-05-15",
+        "churn between 2023-01-10 and 2023-03-31|2023-01-10|2023-03-31",
+        "churn from jan 2023 to march 2023|2023-01-01|2023-03-31",
+        "churn since 2023|2023-01-01|",
+        "churn after march 2024|2024-04-01|",
+        "churn before 2024|       |2023-12-31",
+        "churn until feb 2024|    |2024-02-29",
+        "churn last week|2024-05-06|2024-05-12",
+        "churn last month|2024-04-01|2024-04-30",
+        "churn last year|2023-01-01|2023-12-31",
+        "churn this week|2024-05-13|2024-05-15",
+        "churn this month|2024-05-01|2024-05-15",
+        "churn year to date|2024-01-01|2024-05-15",
+        "churn today|2024-05-15|2024-05-15",
+        "churn yesterday|2024-05-14|2024-05-14",
+        "churn in march|2024-03-01|2024-03-31",
+        "churn in june|2023-06-01|2023-06-30",
+        "churn in 2022|2022-01-01|2022-12-31"
+      })
+  void resolvesDateRange(String question, LocalDate from, LocalDate to) {
+    assertEquals(
+        Optional.of(new ReportIntent(ReportType.CHURN, from, to)), matcher.match(question));
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "churn in the last 0 days",
+        "churn between 2024 and 2023",
+        "churn from march 2024 to january 2024",
+        "churn in the last 99999999999 days",
+        "churn in 2500",
+        "churn in 2024-13-01"
+      })
+  void leavesEmptyOrInvalidRangesToTheAi(String question) {
+    assertEquals(Optional.empty(), matcher.match(question));
+  }
+}
@@ -0,0 +1,201 @@
+package io.ludovicianul.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.langchain4j.service.TokenStream;
+import io.ludovicianul.ai.ResultEncoder;
+import io.ludovicianul.ai.SolTokenizer;
+import io.ludovicianul.ai.SqlGeneratorAi;
+import io.ludovicianul.db.Rows;
+import io.ludovicianul.model.QueryResult;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class MapReduceAnalyzerTest {
+  /** The most parts a result is split into, as in the service. */
+  private static final int MAX_PARTS = 32;
+
+  private static final int PART_BUDGET = 2_000;
+  private static final String QUERIES =
+      "[\"SELECT commit_hash, author, date, message FROM commits\"]";
+  private static final String QUESTION = "What did every author work on?";
+  private static final SolTokenizer TOKENIZER = SolTokenizer.createTokenizer("gpt-4o-mini");
+
+  @Test
+  void analyzesSmallResultAsSinglePart() throws SQLException {
+    List<String> parts = split(20);
+    StandIn analyst = new StandIn();
+
+    String answer = analyze(parts, analyst, 4, PART_BUDGET);
+
+    assertEquals(1, parts.size());
+    assertEquals(2, analyst.calls.get());
+    assertEquals(answer(note(parts.getFirst())), answer);
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 4})
+  void analyzesEveryPartOnceWithinConcurrency(int concurrency) throws SQLException {
+    List<String> parts = split(400);
+    StandIn analyst = new StandIn();
+
+    String answer = analyze(parts, analyst, concurrency, PART_BUDGET);
+
+    assertTrue(parts.size() > 1 && parts.size() < MAX_PARTS, parts.size() + " parts");
+    parts.forEach(part -> assertTrue(TOKENIZER.countTokens(part) <= PART_BUDGET));
+    parts.forEach(part -> assertEquals(1, analyst.analyzed.get(part)));
+    assertEquals(concurrency, analyst.maxInFlight.get());
+    String notes = String.join("\n", parts.stream().map(MapReduceAnalyzerTest::note).toList());
+    assertEquals(List.of(notes), analyst.combined);
+    assertEquals(answer(notes), answer);
+  }
+
+  @Test
+  void capsNumberOfParts() throws SQLException {
+    List<String> parts = split(50_000);
+    StandIn analyst = new StandIn();
+
+    analyze(parts, analyst, 8, PART_BUDGET);
+
+    assertEquals(MAX_PARTS, parts.size());
+    parts.forEach(part -> assertEquals(1, analyst.analyzed.get(part)));
+    assertEquals(8, analyst.maxInFlight.get());
+    assertEquals(MAX_PARTS + 1, analyst.calls.get());
+  }
+
+  @Test
+  void reducesNotesOverBudgetBeforeCombiningThem() throws SQLException {
+    List<String> parts = split(50_000);
+    StandIn analyst = new StandIn();
+
+    String answer = analyze(parts, analyst, 4, 150);
+
+    parts.forEach(part -> assertEquals(1, analyst.analyzed.get(part)));
+    assertTrue(analyst.calls.get() > parts.size() + 1, analyst.calls.get() + " calls");
+    assertEquals(1, analyst.combined.size());
+    assertEquals(answer(analyst.combined.getFirst()), answer);
+  }
+
+  private static List<String> split(int rows) throws SQLException {
+    ResultEncoder encoder = new ResultEncoder(TOKENIZER, PART_BUDGET, MAX_PARTS);
+    return encoder.split(List.of(encoder.encode(new GeneratedRows(rows))));
+  }
+
+  private static String analyze(
+      List<String> parts, StandIn analyst, int concurrency, int notesBudget) {
+    QueryResult result = new QueryResult(QUERIES, String.join("\n", parts), QUESTION, parts);
+    return new MapReduceAnalyzer(analyst, TOKENIZER, notesBudget, concurrency).analyze(result);
+  }
+
+  /** The note of a part names its first row, so notes show in which order they were combined. */
+  private static String note(String part) {
+    return "note of " + part.lines().skip(1).findFirst().orElse("");
+  }
+
+  private static String answer(String notes) {
+    return "answer from %d notes".formatted(notes.lines().count());
+  }
+
+  /** The text between the queries and the question of a prompt. */
+  private static String text(String piped) {
+    return piped.substring(piped.indexOf('|') + 1, piped.lastIndexOf('|'));
+  }
+
+  /**
+   * Stands in for the model. Parts take a while to analyze, so calls allowed to run at once do
+   * overlap.
+   */
+  private static final class StandIn implements SqlGeneratorAi {
+    private final Map<String, Integer> analyzed = new ConcurrentHashMap<>();
+    private final List<String> combined = new ArrayList<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Override
+    public String analyzePart(String part) {
+      calls.incrementAndGet();
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        inFlight.decrementAndGet();
+      }
+      String text = text(part);
+      analyzed.merge(text, 1, Integer::sum);
+      return note(text);
+    }
+
+    @Override
+    public synchronized String combineAnalyses(String notes) {
+      calls.incrementAndGet();
+      combined.add(text(notes));
+      return answer(text(notes));
+    }
+
+    @Override
+    public String generateSqlQuery(String instructions, String question) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String beautifyResult(String result) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TokenStream streamBeautifyResult(String result) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String reviewSqlQuery(String query) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TokenStream streamCombineAnalyses(String notes) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /** Commits with a distinct hash and message each, spread over a few authors. */
+  private static final class GeneratedRows implements Rows {
+    private final int rows;
+    private int row = -1;
+
+    GeneratedRows(int rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    public List<String> columns() {
+      return List.of("commit_hash", "author", "date", "message");
+    }
+
+    @Override
+    public boolean next() {
+      return ++row < rows;
+    }
+
+    @Override
+    public Object get(int column) {
+      return switch (column) {
+        case 0 -> "%040x".formatted(row * 2_654_435_761L);
+        case 1 -> "author-" + row % 7;
+        case 2 -> "2024-%02d-%02dT10:00:00Z".formatted(row % 12 + 1, row % 28 + 1);
+        default -> "Change number " + row + " of the service";
+      };
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package io.ludovicianul.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import io.ludovicianul.db.IndexWriter;
+import io.ludovicianul.db.SolDb;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RepositoryIndexerTest {
+  @TempDir Path repository;
+
+  @Test
+  void recordsBranchMergedLocallyButNotOnTheRemoteOnce() throws Exception {
+    git("init", "-q", "-b", "main");
+    commit("README.md", "first");
+    git("checkout", "-q", "-b", "feature");
+    commit("Feature.java", "feature");
+    git("checkout", "-q", "main");
+    git("merge", "-q", "--no-ff", "-m", "Merge feature", "feature");
+    // origin/feature got a commit which was never merged
+    git("checkout", "-q", "-b", "remote-feature", "feature");
+    commit("Feature.java", "remote feature");
+    git("update-ref", "refs/remotes/origin/feature", "remote-feature");
+    git("checkout", "-q", "main");
+    git("branch", "-q", "-D", "remote-feature");
+
+    index();
+
+    assertEquals(Map.of("feature", 0), branches());
+    assertFalse(SolDb.getIndexedRefs(repository.toString()).isEmpty());
+  }
+
+  @Test
+  void countsDocLinesOfAddedAndModifiedFilesOnly() throws Exception {
+    git("init", "-q", "-b", "main");
+    commit("README.md", "one\ntwo\nthree\n");
+    commit("README.md", "one\ntwo\n");
+    git("rm", "-q", "README.md");
+    git("commit", "-q", "-m", "Remove README.md");
+
+    index();
+
+    assertEquals(List.of(3L, 1L), docTotals());
+  }
+
+  private void index() throws InterruptedException {
+    SolDb.initializeDatabase(false);
+    try (IndexWriter writer = new IndexWriter(4)) {
+      new RepositoryIndexer(
+              repository.toString(),
+              60,
+              false,
+              new FileTypeService(),
+              writer,
+              false,
+              new IndexMetrics())
+          .run();
+    }
+  }
+
+  /** The branches of the repository, with whether each one is still active. */
+  private Map<String, Integer> branches() throws SQLException {
+    Map<String, Integer> branches = new LinkedHashMap<>();
+    try (Connection conn = DriverManager.getConnection("jdbc:sqlite:.sol/commits.db");
+        PreparedStatement stmt =
+            conn.prepareStatement(
+                "SELECT branch_name, is_active FROM branches WHERE repo_name = ?")) {
+      stmt.setString(1, repository.toString());
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          branches.put(rs.getString(1), rs.getInt(2));
+        }
+      }
+    }
+    return branches;
+  }
+
+  /** The lines added and deleted in documentation, over all the days of the rollup. */
+  private List<Long> docTotals() throws SQLException {
+    try (Connection conn = DriverManager.getConnection("jdbc:sqlite:.sol/commits.db");
+        PreparedStatement stmt =
+            conn.prepareStatement(
+                "SELECT SUM(total_additions_doc), SUM(total_deletions_doc) FROM activity_rollup"
+                    + " WHERE period_type = 'day' AND repo_name = ?")) {
+      stmt.setString(1, repository.toString());
+      try (ResultSet rs = stmt.executeQuery()) {
+        rs.next();
+        return List.of(rs.getLong(1), rs.getLong(2));
+      }
+    }
+  }
+
+  private void commit(String file, String content) throws IOException, InterruptedException {
+    Files.writeString(repository.resolve(file), content);
+    git("add", file);
+    git("commit", "-q", "-m", "Change " + file);
+  }
+
+  private void git(String... args) throws IOException, InterruptedException {
+    String[] command = new String[args.length + 5];
+    command[0] = "git";
+    command[1] = "-c";
+    command[2] = "user.name=sol";
+    command[3] = "-c";
+    command[4] = "user.email=sol@example.com";
+    System.arraycopy(args, 0, command, 5, args.length);
+    Process process =
+        new ProcessBuilder(command).directory(repository.toFile()).inheritIO().start();
+    assertEquals(0, process.waitFor(), String.join(" ", args));
+  }
+}
@@ -0,0 +1,276 @@
+package io.ludovicianul.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.ludovicianul.SolCommand;
+import io.ludovicianul.db.SolDb;
+import io.ludovicianul.model.QueryResult;
+import io.quarkus.test.junit.QuarkusTest;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the service with stand-ins for the model, through the AI services Quarkus registers when
+ * the application is built, as {@code sol} does.
+ */
+@QuarkusTest
+class SqlQueryServiceTest {
+  private static final List<String> TOKENS =
+      List.of(
+          "Most ", "commits ", "were ", "made ", "by ", "author-0", ", ", "120 ", "of ", "200.");
+  private static final String STREAMED_ANSWER = String.join("", TOKENS);
+  private static final String COMPLETE_ANSWER = "author-0 made 120 of the 200 commits.";
+  private static final String QUERIES =
+      "[\"SELECT author, COUNT(*) AS commits FROM commits GROUP BY author\"]";
+  private static final String QUESTION = "Who made the most commits?";
+  private static final String COUNT_QUERY = "SELECT COUNT(*) AS commits FROM commits";
+  private static final String COUNT_QUERIES = "[\"" + COUNT_QUERY + "\"]";
+  private static final QueryResult RESULT =
+      new QueryResult(QUERIES, "author,commits\nauthor-0,120\nauthor-1,80", QUESTION);
+  private static final QueryResult PARTS =
+      new QueryResult(
+          QUERIES,
+          "author,commits\nauthor-0,120\nauthor,commits\nauthor-1,80",
+          QUESTION,
+          List.of("author,commits\nauthor-0,120", "author,commits\nauthor-1,80"));
+
+  /** Tells the prompt generating the SQL from the others, but the one reviewing it. */
+  private static final String SQL_PROMPT = "SQL developer";
+
+  /** Tells the prompt reviewing a failing query from the others. */
+  private static final String REVIEW_PROMPT = "review the SQL query";
+
+  /** Tells the prompt analyzing a part from the one answering from the whole result. */
+  private static final String PART_PROMPT = "you are given one of them";
+
+  @BeforeEach
+  void createEmptyIndex() {
+    SolDb.initializeDatabase(false);
+    SolDb.recordIndexRun();
+  }
+
+  @Test
+  void sendsInstructionsAsSystemMessage() {
+    StandIn model = new StandIn();
+
+    QueryResult result = service(model, null, false).askQuestion(QUESTION);
+
+    assertEquals(COUNT_QUERIES, result.queries());
+    assertEquals("commits\n0\n", result.answers());
+    assertTrue(model.sqlInstructions.contains("Table: **commits**"), model.sqlInstructions);
+    assertFalse(model.sqlInstructions.contains("{{instructions}}"), model.sqlInstructions);
+  }
+
+  @Test
+  void cachesQueriesRevisedAfterFailing() throws IOException {
+    Files.deleteIfExists(Path.of(".sol", "query-cache.json"));
+    StandIn model = new StandIn("[\"SELECT COUNT(*) AS commits FROM commit\"]");
+
+    QueryResult revised = service(model, null, true).askQuestion(QUESTION);
+    QueryResult cached = service(model, null, true).askQuestion(QUESTION);
+
+    assertEquals(COUNT_QUERIES, revised.queries());
+    assertEquals(COUNT_QUERIES, cached.queries());
+    assertEquals("commits\n0\n", cached.answers());
+    assertEquals(1, model.generated.get());
+    assertEquals(1, model.reviewed.get());
+  }
+
+  @Test
+  void streamsTokensInOrderBeforeTheAnswerIsComplete() {
+    StreamingStandIn streaming = new StreamingStandIn(null);
+    Tokens tokens = new Tokens();
+
+    String answer = service(new StandIn(), streaming, false).streamAnalysis(RESULT, tokens::add);
+
+    assertEquals(TOKENS, tokens.received);
+    assertEquals(STREAMED_ANSWER, answer);
+    assertTrue(tokens.firstAt > 0 && tokens.firstAt < streaming.completedAt);
+  }
+
+  @Test
+  void rethrowsErrorEndingTheStream() {
+    IllegalStateException error = new IllegalStateException("The connection was reset");
+    SqlQueryService service = service(new StandIn(), new StreamingStandIn(error), false);
+    Tokens tokens = new Tokens();
+
+    IllegalStateException thrown =
+        assertThrows(
+            IllegalStateException.class, () -> service.streamAnalysis(RESULT, tokens::add));
+
+    assertSame(error, thrown);
+    assertEquals(TOKENS.subList(0, StreamingStandIn.TOKENS_BEFORE_ERROR), tokens.received);
+  }
+
+  @Test
+  void streamsAnswerCombiningTheNotesOfAllParts() {
+    StandIn model = new StandIn();
+    StreamingStandIn streaming = new StreamingStandIn(null);
+    Tokens tokens = new Tokens();
+
+    String answer = service(model, streaming, false).streamAnalysis(PARTS, tokens::add);
+
+    assertEquals(TOKENS, tokens.received);
+    assertEquals(STREAMED_ANSWER, answer);
+    assertEquals(PARTS.parts().size(), model.parts.get());
+    assertEquals(1, streaming.calls.get());
+  }
+
+  @Test
+  void handsOverCompleteAnswerWithoutStreamingModel() {
+    StandIn model = new StandIn();
+    Tokens tokens = new Tokens();
+
+    String answer = service(model, null, false).streamAnalysis(RESULT, tokens::add);
+
+    assertEquals(List.of(COMPLETE_ANSWER), tokens.received);
+    assertEquals(COMPLETE_ANSWER, answer);
+    assertEquals(1, model.answers.get());
+  }
+
+  @Test
+  void cachesOnlyAnswersStreamedToTheEnd() {
+    SqlQueryService failing =
+        service(new StandIn(), new StreamingStandIn(new IllegalStateException("Failed")), true);
+    assertThrows(IllegalStateException.class, () -> failing.streamAnalysis(RESULT, token -> {}));
+
+    StandIn model = new StandIn();
+    StreamingStandIn streaming = new StreamingStandIn(null);
+    Tokens streamed = new Tokens();
+    service(model, streaming, true).streamAnalysis(RESULT, streamed::add);
+    assertEquals(TOKENS, streamed.received);
+
+    Tokens cached = new Tokens();
+    String answer = service(model, streaming, true).streamAnalysis(RESULT, cached::add);
+    assertEquals(List.of(STREAMED_ANSWER), cached.received);
+    assertEquals(STREAMED_ANSWER, answer);
+    assertEquals(1, streaming.calls.get());
+    assertEquals(0, model.answers.get());
+  }
+
+  private static SqlQueryService service(
+      ChatLanguageModel model, StreamingChatLanguageModel streaming, boolean useCache) {
+    return new SqlQueryService(
+        model,
+        streaming,
+        "gpt-4o-mini",
+        "stand-in",
+        10_000,
+        useCache,
+        SolCommand.AnalysisMode.MAP_REDUCE,
+        2,
+        false);
+  }
+
+  /** The tokens handed over, and when the first one was. */
+  private static final class Tokens {
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private volatile long firstAt;
+
+    void add(String token) {
+      if (received.isEmpty()) {
+        firstAt = System.nanoTime();
+      }
+      received.add(token);
+    }
+  }
+
+  /**
+   * Answers without streaming: generates the queries, fixes a failing query, writes a note for
+   * every part of a result, and answers from a whole result.
+   */
+  private static final class StandIn implements ChatLanguageModel {
+    private final String queries;
+    private final AtomicInteger generated = new AtomicInteger();
+    private final AtomicInteger reviewed = new AtomicInteger();
+    private final AtomicInteger parts = new AtomicInteger();
+    private final AtomicInteger answers = new AtomicInteger();
+    private volatile String sqlInstructions;
+
+    StandIn() {
+      this(COUNT_QUERIES);
+    }
+
+    StandIn(String queries) {
+      this.queries = queries;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+      String system = ((SystemMessage) messages.getFirst()).text();
+      if (system.contains(REVIEW_PROMPT)) {
+        reviewed.incrementAndGet();
+        return Response.from(AiMessage.from(COUNT_QUERY));
+      }
+      if (system.contains(SQL_PROMPT)) {
+        generated.incrementAndGet();
+        sqlInstructions = system;
+        return Response.from(AiMessage.from(queries));
+      }
+      if (system.contains(PART_PROMPT)) {
+        return Response.from(AiMessage.from("note of part " + parts.incrementAndGet()));
+      }
+      answers.incrementAndGet();
+      return Response.from(AiMessage.from(COMPLETE_ANSWER));
+    }
+  }
+
+  /**
+   * Streams the tokens from another thread, a few milliseconds apart like a remote model, ending
+   * with the given error after a few tokens if there is one.
+   */
+  private static final class StreamingStandIn implements StreamingChatLanguageModel {
+    private static final int TOKENS_BEFORE_ERROR = 3;
+
+    private final RuntimeException error;
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile long completedAt;
+
+    StreamingStandIn(RuntimeException error) {
+      this.error = error;
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+      calls.incrementAndGet();
+      Thread.ofPlatform()
+          .daemon()
+          .start(
+              () -> {
+                List<String> tokens =
+                    error == null ? TOKENS : TOKENS.subList(0, TOKENS_BEFORE_ERROR);
+                for (String token : tokens) {
+                  try {
+                    Thread.sleep(10);
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  }
+                  handler.onNext(token);
+                }
+                if (error != null) {
+                  handler.onError(error);
+                  return;
+                }
+                completedAt = System.nanoTime();
+                handler.onComplete(Response.from(AiMessage.from(STREAMED_ANSWER)));
+              });
+    }
+  }
+}